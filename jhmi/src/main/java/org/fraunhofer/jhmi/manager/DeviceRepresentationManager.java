@@ -1,11 +1,28 @@
 package org.fraunhofer.jhmi.manager;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
 import org.fraunhofer.jhmi.user_interface.DeviceRepresentation;
 import org.fraunhofer.jhmi.user_interface.HomeyDeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.user_interface.IValueChangeListener;
+import org.fraunhofer.jhmi.user_interface.IValueUpdateListener;
+import org.fraunhofer.jhmi.util.AggregateFunction;
+import org.fraunhofer.jhmi.util.AggregationWindow;
+import org.fraunhofer.jhmi.util.CapabilityIndex;
+import org.fraunhofer.jhmi.util.ClientInterface;
 import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.WindowedAggregation;
 
 /**
  * 
@@ -16,18 +33,101 @@ import org.fraunhofer.jhmi.util.ConnectionOptions;
  *	 	for the creation of the DeviceRepresentation followed by "/#" as this will save the newest update
  *		of each subtopic in the DeviceRepresentation.
  *	These updates can be accessed over the getDeviceValue function of the DeviceRepresentation. 
+ *	The manager can be used by multiple threads at the same time.
+ *	Secondary indexes over a capability of all devices can be added with addIndex, they answer cross-device queries
+ *		without iterating all DeviceRepresentations.
+ *	Windowed aggregations over the values of groups of devices can be added with addAggregation.
+ *	With startDiscovery the manager creates HomeyDeviceRepresentations on its own for every device that publishes under the root topic of a Homey.
  * 
  */
 public class DeviceRepresentationManager {
 	
 	/**
-	 * The HashMap that contains the deviceRepresentations that are held by this manager.
+	 * Timer shared by all managers to evict idle discovered DeviceRepresentations.
 	 */
-	HashMap<String, DeviceRepresentation> deviceMap;
+	private static final ScheduledExecutorService DISCOVERY_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-discovery-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * The map that contains the deviceRepresentations that are held by this manager.
+	 */
+	ConcurrentHashMap<String, DeviceRepresentation> deviceMap;
 	/**
 	 * The Message broker that will be used by all the clients of the deviceRepresentations that are held by this manager.
 	 */
 	final String broker;
+	/**
+	 * The DeviceRepresentations that were created by the discovery, by their name.
+	 */
+	final ConcurrentHashMap<String, DiscoveredDevice> discoveredMap = new ConcurrentHashMap<>();
+	/**
+	 * The client that is subscribed to the root topic of the discovery and shared by all discovered DeviceRepresentations,
+	 * 	null if the discovery is not running.
+	 */
+	private ClientInterface discoveryClient;
+	/**
+	 * The periodic eviction of idle discovered DeviceRepresentations.
+	 */
+	private ScheduledFuture<?> discoveryEviction;
+	/**
+	 * Called with every newly discovered DeviceRepresentation, null if nobody is notified.
+	 */
+	private volatile Consumer<DeviceRepresentation> discoveryListener;
+	/**
+	 * The secondary indexes by the capability they index.
+	 */
+	final ConcurrentHashMap<String, CapabilityIndex> indexMap = new ConcurrentHashMap<>();
+	/**
+	 * The windowed aggregations by their name.
+	 */
+	final ConcurrentHashMap<String, WindowedAggregation> aggregationMap = new ConcurrentHashMap<>();
+	/**
+	 * The aggregations over device groups by the capability they aggregate, so a changed value only checks the aggregations of its capability.
+	 */
+	private final ConcurrentHashMap<String, CopyOnWriteArrayList<WindowedAggregation>> aggregationsByCapability = new ConcurrentHashMap<>();
+	/**
+	 * The aggregations over topic patterns, which are checked for every changed value.
+	 */
+	private final CopyOnWriteArrayList<WindowedAggregation> topicAggregations = new CopyOnWriteArrayList<>();
+	/**
+	 * The listeners that are called when a value of any DeviceRepresentation of this manager changes.
+	 */
+	private final CopyOnWriteArrayList<IValueChangeListener> valueChangeListeners = new CopyOnWriteArrayList<>();
+	/**
+	 * Passes the changed values of all DeviceRepresentations to the index of their capability and the value change listeners.
+	 */
+	private final IValueChangeListener valueUpdater = (deviceRepresentation, topic, key, oldValue, newValue) -> {
+		CapabilityIndex index = indexMap.get(key);
+		if(index != null) {
+			index.update(deviceRepresentation.getRepresentedDeviceName(), newValue);
+		}
+		for(IValueChangeListener listener: valueChangeListeners) {
+			listener.valueChanged(deviceRepresentation, topic, key, oldValue, newValue);
+		}
+	};
+	/**
+	 * Passes every saved value of all DeviceRepresentations to the aggregations of their capability,
+	 * 	so a sensor that repeats the same value is still sampled.
+	 */
+	private final IValueUpdateListener aggregationFeeder = (deviceRepresentation, topic, key, value) -> {
+		String name = deviceRepresentation.getRepresentedDeviceName();
+		CopyOnWriteArrayList<WindowedAggregation> aggregations = aggregationsByCapability.get(key);
+		if(aggregations != null) {
+			for(WindowedAggregation aggregation: aggregations) {
+				if(aggregation.accepts(name, topic, key)) {
+					aggregation.add(value);
+				}
+			}
+		}
+		for(WindowedAggregation aggregation: topicAggregations) {
+			if(aggregation.accepts(name, topic, key)) {
+				aggregation.add(value);
+			}
+		}
+	};
 	
 	/**
 	 * create a new DeviceRepresentationManager
@@ -38,7 +138,7 @@ public class DeviceRepresentationManager {
 	 */
 	public DeviceRepresentationManager(String broker) {
 		this.broker = broker;
-		deviceMap = new HashMap<>();
+		deviceMap = new ConcurrentHashMap<>();
 	}
 	
 	/**
@@ -56,7 +156,7 @@ public class DeviceRepresentationManager {
 	 * Add a new DeviceRepresentation to the manager.
 	 * @param representedDeviceName
 	 * The name that will be given to the DeviceRepresentation.
-	 * This name must be unique.
+	 * This name must be unique, an existing DeviceRepresentation with the same name is closed and replaced.
 	 * @param connectionOptions
 	 * The options that define the connection between the client and the broker.
 	 * @param topic
@@ -66,7 +166,7 @@ public class DeviceRepresentationManager {
 	 * Recommended topic is " .../'Name_of_the_device_that_should_be_represented'/#".
 	 */
 	public void addDeviceRepresentation(String representedDeviceName, ConnectionOptions connectionOptions, String topic) {
-		deviceMap.put(representedDeviceName, new DeviceRepresentation(representedDeviceName, connectionOptions, broker, topic));
+		putDeviceRepresentation(representedDeviceName, new DeviceRepresentation(representedDeviceName, connectionOptions, broker, topic));
 	}
 	
 	/**
@@ -74,7 +174,7 @@ public class DeviceRepresentationManager {
 	 * HomeyDeviceRepresentations must be given a unique name.
 	 * @param representedDeviceName
 	 * The name that will be given to the HomeyDeviceRepresentation.
-	 * This name must be unique.
+	 * This name must be unique, an existing DeviceRepresentation with the same name is closed and replaced.
 	 * @param connectionOptions
 	 * The options that define the connection between the client and the broker.
 	 * @param topic
@@ -84,7 +184,39 @@ public class DeviceRepresentationManager {
 	 * Recommended topic is " .../'Name_of_the_device_that_should_be_represented'/#".
 	 */
 	public void addHomeyDeviceRepresentation(String representedDeviceName, ConnectionOptions connectionOptions, String topic) {
-		deviceMap.put(representedDeviceName, new HomeyDeviceRepresentation(representedDeviceName, connectionOptions, broker, topic));
+		putDeviceRepresentation(representedDeviceName, new HomeyDeviceRepresentation(representedDeviceName, connectionOptions, broker, topic));
+	}
+	
+	private void putDeviceRepresentation(String representedDeviceName, DeviceRepresentation deviceRepresentation) {
+		discoveredMap.remove(representedDeviceName);
+		DeviceRepresentation previous = deviceMap.put(representedDeviceName, deviceRepresentation);
+		if(previous != null) {
+			detach(representedDeviceName, previous);
+			previous.closeClient();
+		}
+		attach(representedDeviceName, deviceRepresentation);
+	}
+	
+	/**
+	 * Connects a DeviceRepresentation to the indexes and adds its current values to them.
+	 */
+	private void attach(String representedDeviceName, DeviceRepresentation deviceRepresentation) {
+		deviceRepresentation.addValueChangeListener(valueUpdater);
+		deviceRepresentation.addValueUpdateListener(aggregationFeeder);
+		for(CapabilityIndex index: indexMap.values()) {
+			index.updateIfAbsent(representedDeviceName, deviceRepresentation.getDeviceValue(index.getCapability()));
+		}
+	}
+	
+	/**
+	 * Disconnects a DeviceRepresentation from the indexes and removes its values from them.
+	 */
+	private void detach(String representedDeviceName, DeviceRepresentation deviceRepresentation) {
+		deviceRepresentation.removeValueChangeListener(valueUpdater);
+		deviceRepresentation.removeValueUpdateListener(aggregationFeeder);
+		for(CapabilityIndex index: indexMap.values()) {
+			index.remove(representedDeviceName);
+		}
 	}
 	
 	/**
@@ -93,8 +225,12 @@ public class DeviceRepresentationManager {
 	 * The name of the DeviceRepresentation that will be removed.
 	 */
 	public void removeDeviceRepresentation(String representedDeviceName) {
-		deviceMap.get(representedDeviceName).closeClient();
-		deviceMap.remove(representedDeviceName);
+		discoveredMap.remove(representedDeviceName);
+		DeviceRepresentation deviceRepresentation = deviceMap.remove(representedDeviceName);
+		if(deviceRepresentation != null) {
+			detach(representedDeviceName, deviceRepresentation);
+			deviceRepresentation.closeClient();
+		}
 	}
 
 	/**
@@ -107,6 +243,362 @@ public class DeviceRepresentationManager {
 		}
 	}
 	
+	/**
+	 * Adds a listener that is called every time a value of any DeviceRepresentation of this manager changes,
+	 * 	including DeviceRepresentations that are added or discovered later.
+	 * @param listener
+	 * The listener that should be called.
+	 */
+	public void addValueChangeListener(IValueChangeListener listener) {
+		valueChangeListeners.addIfAbsent(listener);
+	}
+	
+	/**
+	 * Removes a listener that was added with addValueChangeListener.
+	 * @param listener
+	 * The listener that should no longer be called.
+	 */
+	public void removeValueChangeListener(IValueChangeListener listener) {
+		valueChangeListeners.remove(listener);
+	}
+	
+	/**
+	 * Adds a secondary index over the values of a capability of all DeviceRepresentations of this manager.
+	 * The index is filled with the current values and updated with every changed value,
+	 * 	so queries like "all devices where alarm_contact is true" cost the size of their result.
+	 * @param capability
+	 * The capability that should be indexed, the key as used for the getDeviceValue function.
+	 * @return
+	 * The index of the capability. An existing index is returned if the capability is already indexed.
+	 */
+	public CapabilityIndex addIndex(String capability) {
+		CapabilityIndex index = indexMap.computeIfAbsent(capability, CapabilityIndex::new);
+		for(Map.Entry<String, DeviceRepresentation> entry: deviceMap.entrySet()) {
+			index.updateIfAbsent(entry.getKey(), entry.getValue().getDeviceValue(capability));
+		}
+		return index;
+	}
+	
+	/**
+	 * Returns the secondary index of a capability.
+	 * @param capability
+	 * The indexed capability.
+	 * @return
+	 * The index, null if the capability is not indexed.
+	 */
+	public CapabilityIndex getIndex(String capability) {
+		return indexMap.get(capability);
+	}
+	
+	/**
+	 * Removes the secondary index of a capability.
+	 * @param capability
+	 * The indexed capability.
+	 * @return
+	 * "success" if the index was removed, "failure no index for this capability exists" if not.
+	 */
+	public String removeIndex(String capability) {
+		if(indexMap.remove(capability) == null) {
+			return "failure no index for this capability exists";
+		}
+		return ClientInterface.SUCCESS;
+	}
+	
+	/**
+	 * Adds an aggregation over a capability of a group of devices, for example the mean temperature of a room.
+	 * Every received value of the capability is added to the window as a sample, also if it did not change.
+	 * The result is updated at the end of every slide.
+	 * An existing aggregation with the same name is replaced.
+	 * @param name
+	 * The name of the aggregation.
+	 * @param devices
+	 * The names of the devices of the group, null for all devices of this manager.
+	 * @param capability
+	 * The capability whose values are aggregated, the key as used for the getDeviceValue function.
+	 * @param window
+	 * The window over which the values are aggregated.
+	 * @param function
+	 * The function that combines the values.
+	 * @return
+	 * The aggregation, which provides the result and a listener for every new result.
+	 */
+	public WindowedAggregation addAggregation(String name, Collection<String> devices, String capability,
+			AggregationWindow window, AggregateFunction function) {
+		return putAggregation(new WindowedAggregation(name, devices, capability, window, function));
+	}
+	
+	/**
+	 * Adds an aggregation over all values of the DeviceRepresentations of this manager that are received under a topic pattern,
+	 * 	for example the mean power of a floor.
+	 * The function combines all samples received in the window, so SUM adds up every sample and not the latest value of each device.
+	 * An existing aggregation with the same name is replaced.
+	 * @param name
+	 * The name of the aggregation.
+	 * @param topicPattern
+	 * The topics whose values are aggregated. It can contain the wildcards "+" and "#".
+	 * @param window
+	 * The window over which the values are aggregated.
+	 * @param function
+	 * The function that combines the values.
+	 * @return
+	 * The aggregation, which provides the result and a listener for every new result.
+	 */
+	public WindowedAggregation addAggregation(String name, String topicPattern, AggregationWindow window, AggregateFunction function) {
+		return putAggregation(new WindowedAggregation(name, topicPattern, window, function));
+	}
+	
+	/**
+	 * Returns an aggregation.
+	 * @param name
+	 * The name of the aggregation.
+	 * @return
+	 * The aggregation, null if no aggregation with this name exists.
+	 */
+	public WindowedAggregation getAggregation(String name) {
+		return aggregationMap.get(name);
+	}
+	
+	/**
+	 * Returns the result of an aggregation like the value of a capability.
+	 * @param name
+	 * The name of the aggregation.
+	 * @return
+	 * The result of the window that ended last, NaN if no aggregation with this name exists.
+	 */
+	public double getAggregateValue(String name) {
+		WindowedAggregation aggregation = aggregationMap.get(name);
+		return aggregation == null ? Double.NaN : aggregation.getValue();
+	}
+	
+	/**
+	 * Stops and removes an aggregation.
+	 * @param name
+	 * The name of the aggregation.
+	 * @return
+	 * "success" if the aggregation was removed, "failure no aggregation with this name exists" if not.
+	 */
+	public String removeAggregation(String name) {
+		WindowedAggregation aggregation = aggregationMap.remove(name);
+		if(aggregation == null) {
+			return "failure no aggregation with this name exists";
+		}
+		unregisterAggregation(aggregation);
+		return ClientInterface.SUCCESS;
+	}
+	
+	private WindowedAggregation putAggregation(WindowedAggregation aggregation) {
+		WindowedAggregation previous = aggregationMap.put(aggregation.getName(), aggregation);
+		if(previous != null) {
+			unregisterAggregation(previous);
+		}
+		if(aggregation.getCapability() == null) {
+			topicAggregations.add(aggregation);
+		} else {
+			aggregationsByCapability.computeIfAbsent(aggregation.getCapability(), key -> new CopyOnWriteArrayList<>()).add(aggregation);
+		}
+		aggregation.start();
+		return aggregation;
+	}
+	
+	private void unregisterAggregation(WindowedAggregation aggregation) {
+		aggregation.stop();
+		topicAggregations.remove(aggregation);
+		if(aggregation.getCapability() != null) {
+			CopyOnWriteArrayList<WindowedAggregation> aggregations = aggregationsByCapability.get(aggregation.getCapability());
+			if(aggregations != null) {
+				aggregations.remove(aggregation);
+			}
+		}
+	}
+	
+	/**
+	 * Watches the topic tree of a Homey and creates a HomeyDeviceRepresentation the first time a device publishes under it.
+	 * The device is the first level below the root topic, its name in the manager is the name of this level.
+	 * All discovered DeviceRepresentations share one client that is subscribed to "'rootTopic'/#",
+	 * 	so the discovery does not create a client per device.
+	 * DeviceRepresentations that have been added to the manager by name are not replaced by the discovery.
+	 * A discovered device that has not published for the idle time is evicted, it is discovered again with its next message.
+	 * Retained values are only delivered when the discovery starts, so an evicted device only knows the values it published after it was discovered again.
+	 * @param rootTopic
+	 * The root topic of the Homey, for example "homey".
+	 * @param connectionOptions
+	 * The options that define the connection of the shared client to the broker.
+	 * @param idleMillis
+	 * The time in milliseconds without messages after which a discovered device is evicted, 0 to never evict.
+	 * @return
+	 * "success" if the root topic was subscribed, the reason if not.
+	 */
+	public synchronized String startDiscovery(String rootTopic, ConnectionOptions connectionOptions, long idleMillis) {
+		if(discoveryClient != null) {
+			return "failure the discovery is already running";
+		}
+		String prefix = rootTopic.endsWith("/") ? rootTopic : rootTopic + "/";
+		ClientInterface client = ClientInterfaceFactory.createClientInterface(broker, connectionOptions);
+		String result = client.subscribe(prefix + "#", new IMqttReceiver() {
+			
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId) {
+				messageReceived(topic, messageString, messageId, false);
+			}
+			
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId, boolean retained) {
+				discover(client, connectionOptions, prefix, topic, messageString, messageId, retained);
+			}
+		});
+		if(!result.startsWith(ClientInterface.SUCCESS)) {
+			client.closeClient();
+			return result;
+		}
+		discoveryClient = client;
+		if(idleMillis > 0) {
+			long interval = Math.max(idleMillis / 4, 1);
+			discoveryEviction = DISCOVERY_TIMER.scheduleWithFixedDelay(() -> evictIdleDevices(TimeUnit.MILLISECONDS.toNanos(idleMillis)),
+					interval, interval, TimeUnit.MILLISECONDS);
+		}
+		return result;
+	}
+	
+	/**
+	 * Stops the discovery, removes all discovered DeviceRepresentations and closes their shared client.
+	 * @return
+	 * "success" if the discovery was stopped, "failure the discovery is not running" if it was not started.
+	 */
+	public synchronized String stopDiscovery() {
+		if(discoveryClient == null) {
+			return "failure the discovery is not running";
+		}
+		if(discoveryEviction != null) {
+			discoveryEviction.cancel(false);
+			discoveryEviction = null;
+		}
+		ClientInterface client = discoveryClient;
+		discoveryClient = null;
+		String result = client.closeClient();
+		for(String name: new ArrayList<>(discoveredMap.keySet())) {
+			removeDiscoveredDevice(name);
+		}
+		return result;
+	}
+	
+	/**
+	 * Sets the listener that is called with every newly discovered DeviceRepresentation.
+	 * The listener is called on the callback thread of the discovery client after the first value of the device has been saved,
+	 * 	it can add callbacks or register commands but has to return quickly.
+	 * @param listener
+	 * The listener, null to remove the listener.
+	 */
+	public void setDiscoveryListener(Consumer<DeviceRepresentation> listener) {
+		this.discoveryListener = listener;
+	}
+	
+	/**
+	 * Returns the number of discovered DeviceRepresentations that are currently held by this manager.
+	 * @return
+	 * The number of discovered devices that have not been evicted.
+	 */
+	public int getDiscoveredDeviceCount() {
+		return discoveredMap.size();
+	}
+	
+	/**
+	 * Passes a message of the discovery subscription to the DeviceRepresentation of its device,
+	 * 	creating the DeviceRepresentation if the device is new.
+	 */
+	private void discover(ClientInterface client, ConnectionOptions connectionOptions, String prefix, String topic,
+			String messageString, int messageId, boolean retained) {
+		if(!topic.startsWith(prefix)) {
+			return;
+		}
+		int end = topic.indexOf('/', prefix.length());
+		String name = end < 0 ? topic.substring(prefix.length()) : topic.substring(prefix.length(), end);
+		if(name.isEmpty() || name.charAt(0) == '$') {
+			return;
+		}
+		// the device is touched under the lock of its entry, so the eviction either sees the message or removes the device before
+		long now = System.nanoTime();
+		DiscoveredDevice device = discoveredMap.computeIfPresent(name, (key, current) -> {
+			current.lastMessageNanos = now;
+			return current;
+		});
+		boolean discovered = false;
+		if(device == null) {
+			if(deviceMap.containsKey(name)) {
+				return;
+			}
+			device = new DiscoveredDevice(new HomeyDeviceRepresentation(name, connectionOptions, broker, prefix + name, client));
+			DiscoveredDevice previous = discoveredMap.putIfAbsent(name, device);
+			if(previous != null || deviceMap.putIfAbsent(name, device.deviceRepresentation) != null) {
+				discoveredMap.remove(name, device);
+				device.deviceRepresentation.closeClient();
+				if(previous == null) {
+					return;
+				}
+				device = previous;
+			} else {
+				attach(name, device.deviceRepresentation);
+				discovered = true;
+			}
+		}
+		device.deviceRepresentation.deliverMessage(topic, messageString, messageId, retained);
+		Consumer<DeviceRepresentation> listener = discoveryListener;
+		if(discovered && listener != null) {
+			listener.accept(device.deviceRepresentation);
+		}
+	}
+	
+	/**
+	 * Removes the discovered devices that have not published for the idle time.
+	 * The idle time is checked under the lock of the entry, so a device that is touched by a message at the same time is kept.
+	 */
+	private void evictIdleDevices(long idleNanos) {
+		long now = System.nanoTime();
+		for(String name: discoveredMap.keySet()) {
+			DiscoveredDevice[] evicted = new DiscoveredDevice[1];
+			discoveredMap.computeIfPresent(name, (key, device) -> {
+				if(now - device.lastMessageNanos > idleNanos) {
+					evicted[0] = device;
+					return null;
+				}
+				return device;
+			});
+			if(evicted[0] != null) {
+				if(deviceMap.remove(name, evicted[0].deviceRepresentation)) {
+					detach(name, evicted[0].deviceRepresentation);
+				}
+				evicted[0].deviceRepresentation.closeClient();
+			}
+		}
+	}
+	
+	private void removeDiscoveredDevice(String name) {
+		DiscoveredDevice device = discoveredMap.remove(name);
+		if(device != null) {
+			if(deviceMap.remove(name, device.deviceRepresentation)) {
+				detach(name, device.deviceRepresentation);
+			}
+			device.deviceRepresentation.closeClient();
+		}
+	}
+	
+	/**
+	 * A DeviceRepresentation that was created by the discovery.
+	 */
+	private static final class DiscoveredDevice {
+		
+		private final DeviceRepresentation deviceRepresentation;
+		/**
+		 * The time in nanoseconds of the last message of the device.
+		 */
+		private volatile long lastMessageNanos;
+		
+		private DiscoveredDevice(DeviceRepresentation deviceRepresentation) {
+			this.deviceRepresentation = deviceRepresentation;
+			this.lastMessageNanos = System.nanoTime();
+		}
+		
+	}
+	
 	
 
 }
@@ -0,0 +1,413 @@
+package org.fraunhofer.jhmi.manager;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.user_interface.DeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.HomeyDeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+
+/**
+ * Manages connections to several brokers, for example one per Homey of a site.
+ * Messages are routed to a broker by the longest matching topic prefix, commands by the broker of their device.
+ * Subscriptions are made on all brokers with the same receiver, so the messages of all brokers reach one dispatch path.
+ * Every broker is driven by its own pool of threads, so a slow broker does not delay the others, and several messages
+ * 	of one broker can be in flight at the same time, which the inflight window and the priorities of its client rely on.
+ * The manager can be used by multiple threads at the same time.
+ */
+public class FederatedManager {
+
+	private final Logger logger;
+	/**
+	 * The brokers by their name.
+	 */
+	private final ConcurrentHashMap<String, Member> members = new ConcurrentHashMap<>();
+	/**
+	 * The names of the brokers by the topic prefix that is routed to them.
+	 */
+	private final ConcurrentHashMap<String, String> prefixRoutes = new ConcurrentHashMap<>();
+	/**
+	 * The names of the brokers by the name of the DeviceRepresentation that is held for them.
+	 */
+	private final ConcurrentHashMap<String, String> deviceRoutes = new ConcurrentHashMap<>();
+	/**
+	 * The subscriptions that are made on every broker, including brokers that are added later.
+	 */
+	private final CopyOnWriteArrayList<Map.Entry<String, IMqttReceiver>> subscriptions = new CopyOnWriteArrayList<>();
+	/**
+	 * The broker for topics without a matching prefix, null if these messages are rejected.
+	 */
+	private volatile String defaultBroker;
+
+	/**
+	 * Creates a FederatedManager without brokers.
+	 */
+	public FederatedManager() {
+		this.logger = Logger.getLogger(FederatedManager.class.getName());
+	}
+
+	/**
+	 * Adds a broker and connects to it in the background.
+	 * The subscriptions of the manager are made on the new broker as well. The first broker becomes the default broker.
+	 * @param name
+	 * The name under which the broker is used in routes.
+	 * @param broker
+	 * The URI of the broker.
+	 * @param connectionOptions
+	 * The options that define the connection to the broker.
+	 * @return
+	 * "success" if the broker was added, "failure a broker with this name already exists" if not.
+	 */
+	public String addBroker(String name, String broker, ConnectionOptions connectionOptions) {
+		if(members.containsKey(name)) {
+			return "failure a broker with this name already exists";
+		}
+		Member member = new Member(name, broker, connectionOptions);
+		if(members.putIfAbsent(name, member) != null) {
+			// another thread added the name in the meantime, the client of this member is never used
+			member.executor.shutdown();
+			member.client.closeClient();
+			return "failure a broker with this name already exists";
+		}
+		if(defaultBroker == null) {
+			defaultBroker = name;
+		}
+		member.submit(() -> {
+			String result = member.client.connectClient();
+			for(Map.Entry<String, IMqttReceiver> subscription: subscriptions) {
+				String subscribed = member.client.subscribe(subscription.getKey(), subscription.getValue());
+				if(!subscribed.startsWith(ClientInterface.SUCCESS)) {
+					logger.warning("Subscribing " + subscription.getKey() + " on broker " + name + " failed: " + subscribed);
+				}
+			}
+			return result;
+		});
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Removes a broker, closes its client and all DeviceRepresentations that are held for it.
+	 * Routes to the broker are removed as well.
+	 * @param name
+	 * The name of the broker.
+	 * @return
+	 * The result of closing the client, "failure no broker with this name exists" if there is no such broker.
+	 */
+	public String removeBroker(String name) {
+		Member member = members.remove(name);
+		if(member == null) {
+			return "failure no broker with this name exists";
+		}
+		prefixRoutes.values().removeIf(name::equals);
+		deviceRoutes.values().removeIf(name::equals);
+		if(name.equals(defaultBroker)) {
+			defaultBroker = null;
+		}
+		member.deviceManager.removeAllDeviceRepresentations();
+		String result = member.submit(member.client::closeClient).join();
+		member.executor.shutdown();
+		return result;
+	}
+
+	/**
+	 * Routes all messages whose topic starts with the given levels to a broker.
+	 * The longest matching prefix wins.
+	 * @param prefix
+	 * The first levels of the topics, for example "homey-kitchen" or "site/floor1".
+	 * @param brokerName
+	 * The name of the broker.
+	 * @return
+	 * "success" if the route was added, "failure no broker with this name exists" if not.
+	 */
+	public String addPrefixRoute(String prefix, String brokerName) {
+		if(!members.containsKey(brokerName)) {
+			return "failure no broker with this name exists";
+		}
+		prefixRoutes.put(stripSeparator(prefix), brokerName);
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Removes the route of a topic prefix.
+	 * @param prefix
+	 * The prefix of the route.
+	 * @return
+	 * "success" if the route was removed, "failure no route for this prefix exists" if not.
+	 */
+	public String removePrefixRoute(String prefix) {
+		if(prefixRoutes.remove(stripSeparator(prefix)) == null) {
+			return "failure no route for this prefix exists";
+		}
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Specifies the broker for topics without a matching prefix.
+	 * @param brokerName
+	 * The name of the broker, null to reject these messages.
+	 * @return
+	 * "success" if the default broker was set, "failure no broker with this name exists" if not.
+	 */
+	public String setDefaultBroker(String brokerName) {
+		if(brokerName != null && !members.containsKey(brokerName)) {
+			return "failure no broker with this name exists";
+		}
+		defaultBroker = brokerName;
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Returns the broker to which a topic is routed.
+	 * @param topic
+	 * The topic.
+	 * @return
+	 * The name of the broker with the longest matching prefix, the default broker if no prefix matches.
+	 */
+	public String getBrokerForTopic(String topic) {
+		if(!prefixRoutes.isEmpty()) {
+			int end = topic.length();
+			while(end > 0) {
+				String brokerName = prefixRoutes.get(topic.substring(0, end));
+				if(brokerName != null) {
+					return brokerName;
+				}
+				end = topic.lastIndexOf('/', end - 1);
+			}
+		}
+		return defaultBroker;
+	}
+
+	/**
+	 * Sends a message over the broker of its topic without waiting for the broker.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param content
+	 * The content of the message.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @return
+	 * A future that is completed with the result of the sending.
+	 */
+	public CompletableFuture<String> sendMessageAsync(String topic, String content, int qos, boolean retained) {
+		Member member = memberFor(getBrokerForTopic(topic));
+		if(member == null) {
+			return CompletableFuture.completedFuture("failure no broker for this topic exists");
+		}
+		return member.submit(() -> member.client.sendMessage(topic, content, qos, retained));
+	}
+
+	/**
+	 * Sends a message over the broker of its topic on the calling thread.
+	 * Only the client of that broker is used, messages to other brokers are not delayed.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param content
+	 * The content of the message.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @return
+	 * The success or failure of the message transmission.
+	 */
+	public String sendMessage(String topic, String content, int qos, boolean retained) {
+		Member member = memberFor(getBrokerForTopic(topic));
+		if(member == null) {
+			return "failure no broker for this topic exists";
+		}
+		return member.client.sendMessage(topic, content, qos, retained);
+	}
+
+	/**
+	 * Subscribes to a topic on all brokers, including brokers that are added later.
+	 * The receiver gets the messages of all brokers and may be called by the threads of different brokers at the same time.
+	 * @param topic
+	 * The topic that should be subscribed to. It can contain the wildcards "+" and "#".
+	 * @param receiver
+	 * The receiver for the messages of all brokers.
+	 * @return
+	 * "success" if all brokers subscribed, the first failure if not.
+	 */
+	public String subscribe(String topic, IMqttReceiver receiver) {
+		subscriptions.add(new AbstractMap.SimpleImmutableEntry<>(topic, receiver));
+		List<CompletableFuture<String>> results = new ArrayList<>();
+		for(Member member: members.values()) {
+			results.add(member.submit(() -> member.client.subscribe(topic, receiver)));
+		}
+		return combine(results);
+	}
+
+	/**
+	 * Adds a HomeyDeviceRepresentation on the broker of its topic.
+	 * Commands for the device are sent over the same broker.
+	 * @param representedDeviceName
+	 * The name of the device. It must be unique over all brokers.
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @param topic
+	 * The topic under which status updates of the device are sent.
+	 * @return
+	 * "success" if the DeviceRepresentation was added, "failure no broker for this topic exists" if not.
+	 */
+	public String addHomeyDeviceRepresentation(String representedDeviceName, ConnectionOptions connectionOptions, String topic) {
+		String brokerName = getBrokerForTopic(topic);
+		Member member = memberFor(brokerName);
+		if(member == null) {
+			return "failure no broker for this topic exists";
+		}
+		String previous = deviceRoutes.put(representedDeviceName, brokerName);
+		if(previous != null && !previous.equals(brokerName)) {
+			Member previousMember = members.get(previous);
+			if(previousMember != null) {
+				previousMember.deviceManager.removeDeviceRepresentation(representedDeviceName);
+			}
+		}
+		member.deviceManager.addHomeyDeviceRepresentation(representedDeviceName, connectionOptions, topic);
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Returns a DeviceRepresentation of any broker.
+	 * @param representedDeviceName
+	 * The name of the device.
+	 * @return
+	 * The DeviceRepresentation, null if no device with this name exists.
+	 */
+	public DeviceRepresentation getDeviceRepresentation(String representedDeviceName) {
+		Member member = memberFor(deviceRoutes.get(representedDeviceName));
+		return member == null ? null : member.deviceManager.getDeviceRepresentation(representedDeviceName);
+	}
+
+	/**
+	 * Sends a registered command of a HomeyDeviceRepresentation on a thread of its broker.
+	 * @param representedDeviceName
+	 * The name of the device.
+	 * @param commandId
+	 * The id under which the command has been registered.
+	 * @return
+	 * A future that is completed with the result of the sending.
+	 */
+	public CompletableFuture<String> sendCommand(String representedDeviceName, String commandId) {
+		Member member = memberFor(deviceRoutes.get(representedDeviceName));
+		DeviceRepresentation deviceRepresentation = member == null ? null : member.deviceManager.getDeviceRepresentation(representedDeviceName);
+		if(!(deviceRepresentation instanceof HomeyDeviceRepresentation)) {
+			return CompletableFuture.completedFuture("failure no HomeyDeviceRepresentation with this name exists");
+		}
+		return member.submit(() -> ((HomeyDeviceRepresentation) deviceRepresentation).sendCommand(commandId));
+	}
+
+	/**
+	 * Returns the manager of the DeviceRepresentations of a broker.
+	 * @param brokerName
+	 * The name of the broker.
+	 * @return
+	 * The manager, null if no broker with this name exists.
+	 */
+	public DeviceRepresentationManager getDeviceRepresentationManager(String brokerName) {
+		Member member = memberFor(brokerName);
+		return member == null ? null : member.deviceManager;
+	}
+
+	/**
+	 * Returns the client of a broker.
+	 * @param brokerName
+	 * The name of the broker.
+	 * @return
+	 * The client, null if no broker with this name exists.
+	 */
+	public ClientInterface getClient(String brokerName) {
+		Member member = memberFor(brokerName);
+		return member == null ? null : member.client;
+	}
+
+	/**
+	 * Closes the clients of all brokers in parallel and removes all brokers.
+	 * @return
+	 * "success" if all clients were closed, the first failure if not.
+	 */
+	public String close() {
+		List<CompletableFuture<String>> results = new ArrayList<>();
+		for(Member member: members.values()) {
+			member.deviceManager.removeAllDeviceRepresentations();
+			results.add(member.submit(member.client::closeClient));
+		}
+		String result = combine(results);
+		for(Member member: members.values()) {
+			member.executor.shutdown();
+		}
+		members.clear();
+		prefixRoutes.clear();
+		deviceRoutes.clear();
+		defaultBroker = null;
+		return result;
+	}
+
+	private Member memberFor(String brokerName) {
+		return brokerName == null ? null : members.get(brokerName);
+	}
+
+	private static String stripSeparator(String prefix) {
+		return prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+	}
+
+	private static String combine(List<CompletableFuture<String>> results) {
+		String combined = ClientInterface.SUCCESS;
+		for(CompletableFuture<String> result: results) {
+			String value = result.join();
+			if(combined.startsWith(ClientInterface.SUCCESS) && !String.valueOf(value).startsWith(ClientInterface.SUCCESS)) {
+				combined = String.valueOf(value);
+			}
+		}
+		return combined;
+	}
+
+	/**
+	 * A broker with its client, its DeviceRepresentations and the threads that drive them.
+	 */
+	private static final class Member {
+
+		/**
+		 * The number of threads per broker, which is the number of asynchronous sends that can wait for the broker at the same time.
+		 */
+		private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+		private final ClientInterface client;
+		private final DeviceRepresentationManager deviceManager;
+		private final ExecutorService executor;
+
+		private Member(String name, String broker, ConnectionOptions connectionOptions) {
+			this.client = ClientInterfaceFactory.createClientInterface(broker, connectionOptions);
+			this.deviceManager = new DeviceRepresentationManager(broker);
+			this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+				Thread thread = new Thread(runnable, "jhmi-federation-" + name);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		private CompletableFuture<String> submit(Supplier<String> task) {
+			try {
+				return CompletableFuture.supplyAsync(task, executor);
+			} catch (RejectedExecutionException e) {
+				return CompletableFuture.completedFuture("failure the broker has been removed");
+			}
+		}
+
+	}
+
+}
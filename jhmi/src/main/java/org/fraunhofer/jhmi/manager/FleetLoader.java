@@ -0,0 +1,638 @@
+package org.fraunhofer.jhmi.manager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.user_interface.DeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.HomeyDeviceRepresentation;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+
+/**
+ * Builds the sender clients, saved messages, DeviceRepresentations and Homey commands of a fleet from a properties file.
+ * All clients and DeviceRepresentations are created and connected in parallel.
+ * The file can be reloaded at any time, only the parts that changed are created, replaced or closed.
+ * <p>
+ * The file has the following keys:
+ * <pre>
+ * broker=tcp://localhost:1883
+ * startupThreads=16
+ * options.clientType=PAHO_V5
+ * options.qos=1
+ * options.keepAlive=30
+ * options.connectionTimeout=60
+ * options.maxInflight=10
+ * options.cleanSession=true
+ * options.autoReconnect=true
+ * options.username=user
+ * options.password=secret
+ * clients=sender1,sender2
+ * message.'name'.client=sender1
+ * message.'name'.topic=lights/kitchen/set
+ * message.'name'.content=on
+ * device.'name'.type=homey
+ * device.'name'.topic=homey/kitchen-light
+ * device.'name'.command.'id'.command=set
+ * device.'name'.command.'id'.capability=onoff
+ * device.'name'.command.'id'.value=true
+ * </pre>
+ * The type of a device is either "homey" or "generic", by default it is "homey".
+ * Commands are only registered for devices of the type "homey".
+ * A change of the broker or the options recreates the whole fleet including the managers.
+ */
+public class FleetLoader {
+
+	/**
+	 * The default number of threads that create and connect the clients and DeviceRepresentations.
+	 */
+	public static final int DEFAULT_STARTUP_THREADS = 16;
+
+	/**
+	 * Timer shared by all FleetLoaders to check their files for changes.
+	 */
+	private static final ScheduledExecutorService WATCH_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-fleet-watcher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Logger logger;
+	private final Path file;
+	/**
+	 * The configuration that is currently applied, null before the first load.
+	 */
+	private Fleet current;
+	private MqttSenderManager senderManager;
+	private DeviceRepresentationManager deviceManager;
+	/**
+	 * The clientIds of the sender clients by the name they have in the file.
+	 */
+	private final ConcurrentHashMap<String, String> clientIds = new ConcurrentHashMap<>();
+	private FileTime lastModified;
+	private ScheduledFuture<?> watch;
+
+	/**
+	 * Creates a new FleetLoader. Nothing is created before load is called.
+	 * @param file
+	 * The properties file that describes the fleet.
+	 */
+	public FleetLoader(Path file) {
+		this.logger = Logger.getLogger(FleetLoader.class.getName());
+		this.file = file;
+	}
+
+	/**
+	 * Creates the fleet that is described by the file.
+	 * A fleet that has already been loaded is updated like by reload.
+	 * @return
+	 * "success" if the whole fleet was created, the reason if the file could not be read
+	 * 	or the number of failed operations if parts of the fleet could not be created.
+	 */
+	public String load() {
+		return reload();
+	}
+
+	/**
+	 * Reads the file again and applies the differences to the current fleet.
+	 * Clients, messages, DeviceRepresentations and commands that were removed from the file are closed or removed,
+	 * 	new ones are created and changed ones are replaced. Everything that did not change keeps its connection.
+	 * @return
+	 * "success" if all changes were applied, the reason if the file could not be read
+	 * 	or the number of failed operations if some changes could not be applied.
+	 */
+	public synchronized String reload() {
+		Fleet next;
+		ConnectionOptions connectionOptions;
+		try {
+			lastModified = Files.getLastModifiedTime(file);
+			next = read(file);
+			connectionOptions = next.createConnectionOptions();
+		} catch (IOException | IllegalArgumentException e) {
+			return "failure the fleet configuration could not be read: " + e.getMessage();
+		}
+		if(current != null && (!current.broker.equals(next.broker) || !current.options.equals(next.options))) {
+			closeFleet();
+		}
+		Fleet previous = current == null ? new Fleet(next.broker, next.options, next.startupThreads) : current;
+		if(senderManager == null) {
+			senderManager = new MqttSenderManager(next.broker);
+			deviceManager = new DeviceRepresentationManager(next.broker);
+		}
+		Changes changes = new Changes();
+		ExecutorService startup = Executors.newFixedThreadPool(next.startupThreads, runnable -> {
+			Thread thread = new Thread(runnable, "jhmi-fleet-startup");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			applyClients(previous, next, connectionOptions, startup, changes);
+			applyDevices(previous, next, connectionOptions, startup, changes);
+			applyMessages(previous, next, changes);
+		} finally {
+			startup.shutdown();
+		}
+		current = next;
+		logger.info("Fleet " + file + " applied: " + changes.added + " added, " + changes.changed + " changed, "
+				+ changes.removed + " removed");
+		if(changes.failed.get() > 0) {
+			return ClientInterface.SUCCESS + " but " + changes.failed.get() + " operations failed";
+		}
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Checks the file periodically and reloads it when it has been modified.
+	 * @param intervalMillis
+	 * The time in milliseconds between two checks.
+	 */
+	public synchronized void startWatching(long intervalMillis) {
+		stopWatching();
+		watch = WATCH_TIMER.scheduleWithFixedDelay(this::reloadIfModified, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops checking the file for modifications.
+	 */
+	public synchronized void stopWatching() {
+		if(watch != null) {
+			watch.cancel(false);
+			watch = null;
+		}
+	}
+
+	/**
+	 * Stops watching the file and closes all clients and DeviceRepresentations of the fleet.
+	 */
+	public synchronized void close() {
+		stopWatching();
+		closeFleet();
+	}
+
+	/**
+	 * Returns the manager that holds the sender clients and saved messages of the fleet.
+	 * The manager is replaced when the broker or the options change.
+	 * @return
+	 * The sender manager, null before the fleet was loaded.
+	 */
+	public synchronized MqttSenderManager getSenderManager() {
+		return senderManager;
+	}
+
+	/**
+	 * Returns the manager that holds the DeviceRepresentations of the fleet.
+	 * The manager is replaced when the broker or the options change.
+	 * @return
+	 * The device manager, null before the fleet was loaded.
+	 */
+	public synchronized DeviceRepresentationManager getDeviceRepresentationManager() {
+		return deviceManager;
+	}
+
+	/**
+	 * Returns the clientId of a sender client that is used by the MqttSenderManager.
+	 * @param name
+	 * The name of the client in the file.
+	 * @return
+	 * The clientId, null if no client with this name exists.
+	 */
+	public String getClientId(String name) {
+		return clientIds.get(name);
+	}
+
+	private void reloadIfModified() {
+		try {
+			FileTime modified = Files.getLastModifiedTime(file);
+			synchronized (this) {
+				if(modified.equals(lastModified)) {
+					return;
+				}
+			}
+			String result = reload();
+			if(!result.startsWith(ClientInterface.SUCCESS)) {
+				logger.log(Level.WARNING, "Reloading the fleet failed: " + result);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Checking the fleet configuration failed: " + e.getMessage());
+		}
+	}
+
+	private void closeFleet() {
+		if(deviceManager != null) {
+			deviceManager.removeAllDeviceRepresentations();
+		}
+		if(senderManager != null) {
+			for(String clientId: clientIds.values()) {
+				senderManager.closeMqttClient(clientId);
+			}
+		}
+		clientIds.clear();
+		senderManager = null;
+		deviceManager = null;
+		current = null;
+	}
+
+	private void applyClients(Fleet previous, Fleet next, ConnectionOptions connectionOptions, ExecutorService startup, Changes changes) {
+		for(String name: previous.clients) {
+			if(!next.clients.contains(name)) {
+				String clientId = clientIds.remove(name);
+				if(clientId != null) {
+					senderManager.closeMqttClient(clientId);
+				}
+				changes.removed++;
+			}
+		}
+		List<Future<?>> tasks = new ArrayList<>();
+		for(String name: next.clients) {
+			if(!clientIds.containsKey(name)) {
+				changes.added++;
+				tasks.add(startup.submit(() -> {
+					String clientId = senderManager.addMqttClient(connectionOptions);
+					clientIds.put(name, clientId);
+					String result = senderManager.connectClient(clientId);
+					if(!result.startsWith(ClientInterface.SUCCESS)) {
+						changes.fail("Connecting client " + name + " failed: " + result);
+					}
+				}));
+			}
+		}
+		await(tasks, changes);
+	}
+
+	private void applyDevices(Fleet previous, Fleet next, ConnectionOptions connectionOptions, ExecutorService startup, Changes changes) {
+		for(Map.Entry<String, DeviceSpec> entry: previous.devices.entrySet()) {
+			if(!next.devices.containsKey(entry.getKey())) {
+				deviceManager.removeDeviceRepresentation(entry.getKey());
+				changes.removed++;
+			}
+		}
+		List<Future<?>> tasks = new ArrayList<>();
+		for(Map.Entry<String, DeviceSpec> entry: next.devices.entrySet()) {
+			String name = entry.getKey();
+			DeviceSpec spec = entry.getValue();
+			DeviceSpec old = previous.devices.get(name);
+			if(old != null && old.type.equals(spec.type) && old.topic.equals(spec.topic)) {
+				if(!old.commands.equals(spec.commands)) {
+					changes.changed++;
+					registerCommands(name, old.commands, spec.commands);
+				}
+				continue;
+			}
+			if(old == null) {
+				changes.added++;
+			} else {
+				changes.changed++;
+			}
+			tasks.add(startup.submit(() -> {
+				if(DeviceSpec.GENERIC.equals(spec.type)) {
+					deviceManager.addDeviceRepresentation(name, connectionOptions, spec.topic);
+				} else {
+					deviceManager.addHomeyDeviceRepresentation(name, connectionOptions, spec.topic);
+				}
+				registerCommands(name, new TreeMap<>(), spec.commands);
+			}));
+		}
+		await(tasks, changes);
+	}
+
+	private void registerCommands(String deviceName, Map<String, CommandSpec> oldCommands, Map<String, CommandSpec> newCommands) {
+		DeviceRepresentation deviceRepresentation = deviceManager.getDeviceRepresentation(deviceName);
+		if(!(deviceRepresentation instanceof HomeyDeviceRepresentation)) {
+			return;
+		}
+		HomeyDeviceRepresentation homeyDevice = (HomeyDeviceRepresentation) deviceRepresentation;
+		for(String commandId: oldCommands.keySet()) {
+			if(!newCommands.containsKey(commandId)) {
+				homeyDevice.removeCommand(commandId);
+			}
+		}
+		for(Map.Entry<String, CommandSpec> command: newCommands.entrySet()) {
+			CommandSpec spec = command.getValue();
+			if(!spec.equals(oldCommands.get(command.getKey()))) {
+				homeyDevice.registerCommand(command.getKey(), spec.command, spec.capability, spec.value);
+			}
+		}
+	}
+
+	private void applyMessages(Fleet previous, Fleet next, Changes changes) {
+		for(String name: previous.messages.keySet()) {
+			if(!next.messages.containsKey(name)) {
+				senderManager.removeMessage(name);
+				changes.removed++;
+			}
+		}
+		for(Map.Entry<String, MessageSpec> entry: next.messages.entrySet()) {
+			MessageSpec spec = entry.getValue();
+			MessageSpec old = previous.messages.get(entry.getKey());
+			String clientId = clientIds.get(spec.client);
+			if(clientId == null) {
+				// the client of the message was removed from the file, the message must not stay saved for the closed client
+				if(previous.messageClientIds.containsKey(entry.getKey())) {
+					senderManager.removeMessage(entry.getKey());
+				}
+				changes.fail("Message " + entry.getKey() + " uses the unknown client " + spec.client);
+				continue;
+			}
+			if(spec.equals(old) && clientId.equals(previous.messageClientIds.get(entry.getKey()))) {
+				next.messageClientIds.put(entry.getKey(), clientId);
+				continue;
+			}
+			if(old == null) {
+				changes.added++;
+			} else {
+				changes.changed++;
+			}
+			senderManager.saveMessage(entry.getKey(), spec.topic, clientId, spec.content);
+			next.messageClientIds.put(entry.getKey(), clientId);
+		}
+	}
+
+	private void await(List<Future<?>> tasks, Changes changes) {
+		for(Future<?> task: tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				changes.fail("Creating a part of the fleet failed: " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				changes.fail("Interrupted while creating the fleet");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads a fleet from a properties file.
+	 */
+	private static Fleet read(Path file) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		String broker = properties.getProperty("broker");
+		if(broker == null || broker.trim().isEmpty()) {
+			throw new IllegalArgumentException("no broker specified");
+		}
+		TreeMap<String, String> options = new TreeMap<>();
+		for(String key: properties.stringPropertyNames()) {
+			if(key.startsWith("options.")) {
+				options.put(key.substring("options.".length()), properties.getProperty(key).trim());
+			}
+		}
+		Fleet fleet = new Fleet(broker.trim(), options,
+				Math.max(1, Integer.parseInt(properties.getProperty("startupThreads", String.valueOf(DEFAULT_STARTUP_THREADS)).trim())));
+		for(String client: properties.getProperty("clients", "").split(",")) {
+			if(!client.trim().isEmpty()) {
+				fleet.clients.add(client.trim());
+			}
+		}
+		for(String key: properties.stringPropertyNames()) {
+			String value = properties.getProperty(key);
+			if(key.startsWith("message.")) {
+				readMessage(fleet, key.substring("message.".length()), value);
+			} else if(key.startsWith("device.")) {
+				readDevice(fleet, key.substring("device.".length()), value);
+			}
+		}
+		for(Map.Entry<String, MessageSpec> message: fleet.messages.entrySet()) {
+			if(message.getValue().client == null || message.getValue().topic == null) {
+				throw new IllegalArgumentException("message " + message.getKey() + " needs a client and a topic");
+			}
+		}
+		for(Map.Entry<String, DeviceSpec> device: fleet.devices.entrySet()) {
+			if(device.getValue().topic == null) {
+				throw new IllegalArgumentException("device " + device.getKey() + " needs a topic");
+			}
+			for(Map.Entry<String, CommandSpec> command: device.getValue().commands.entrySet()) {
+				CommandSpec spec = command.getValue();
+				if(spec.command == null || spec.command.isEmpty() || spec.capability == null || spec.capability.isEmpty() || spec.value == null) {
+					throw new IllegalArgumentException("command " + command.getKey() + " of device " + device.getKey()
+							+ " needs a command, a capability and a value");
+				}
+			}
+		}
+		return fleet;
+	}
+
+	private static void readMessage(Fleet fleet, String key, String value) {
+		int separator = key.lastIndexOf('.');
+		if(separator <= 0) {
+			throw new IllegalArgumentException("invalid key message." + key);
+		}
+		MessageSpec message = fleet.messages.computeIfAbsent(key.substring(0, separator), name -> new MessageSpec());
+		switch (key.substring(separator + 1)) {
+		case "client":
+			message.client = value.trim();
+			break;
+		case "topic":
+			message.topic = value.trim();
+			break;
+		case "content":
+			message.content = value;
+			break;
+		default:
+			throw new IllegalArgumentException("invalid key message." + key);
+		}
+	}
+
+	private static void readDevice(Fleet fleet, String key, String value) {
+		int commandStart = key.indexOf(".command.");
+		int separator = commandStart >= 0 ? commandStart : key.lastIndexOf('.');
+		if(separator <= 0) {
+			throw new IllegalArgumentException("invalid key device." + key);
+		}
+		DeviceSpec device = fleet.devices.computeIfAbsent(key.substring(0, separator), name -> new DeviceSpec());
+		if(commandStart >= 0) {
+			String command = key.substring(commandStart + ".command.".length());
+			int fieldSeparator = command.lastIndexOf('.');
+			if(fieldSeparator <= 0) {
+				throw new IllegalArgumentException("invalid key device." + key);
+			}
+			CommandSpec spec = device.commands.computeIfAbsent(command.substring(0, fieldSeparator), id -> new CommandSpec());
+			switch (command.substring(fieldSeparator + 1)) {
+			case "command":
+				spec.command = value.trim();
+				break;
+			case "capability":
+				spec.capability = value.trim();
+				break;
+			case "value":
+				spec.value = value.trim();
+				break;
+			default:
+				throw new IllegalArgumentException("invalid key device." + key);
+			}
+			return;
+		}
+		switch (key.substring(separator + 1)) {
+		case "topic":
+			device.topic = value.trim();
+			break;
+		case "type":
+			device.type = value.trim().toLowerCase();
+			if(!DeviceSpec.GENERIC.equals(device.type) && !DeviceSpec.HOMEY.equals(device.type)) {
+				throw new IllegalArgumentException("unknown type " + value + " of device " + key.substring(0, separator));
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("invalid key device." + key);
+		}
+	}
+
+	/**
+	 * The parsed content of a fleet file.
+	 */
+	private static final class Fleet {
+
+		private final String broker;
+		private final TreeMap<String, String> options;
+		private final int startupThreads;
+		private final List<String> clients = new ArrayList<>();
+		private final TreeMap<String, MessageSpec> messages = new TreeMap<>();
+		private final TreeMap<String, DeviceSpec> devices = new TreeMap<>();
+		/**
+		 * The clientIds with which the messages were saved, to save them again when their client was replaced.
+		 */
+		private final ConcurrentHashMap<String, String> messageClientIds = new ConcurrentHashMap<>();
+
+		private Fleet(String broker, TreeMap<String, String> options, int startupThreads) {
+			this.broker = broker;
+			this.options = options;
+			this.startupThreads = startupThreads;
+		}
+
+		private ConnectionOptions createConnectionOptions() {
+			ConnectionOptions connectionOptions = new ConnectionOptions();
+			for(Map.Entry<String, String> option: options.entrySet()) {
+				String value = option.getValue();
+				switch (option.getKey()) {
+				case "clientType":
+					connectionOptions.setClientType(ClientType.valueOf(value.toUpperCase()));
+					break;
+				case "qos":
+					connectionOptions.setQos(Integer.parseInt(value));
+					break;
+				case "keepAlive":
+					connectionOptions.setKeepAlive(Integer.parseInt(value));
+					break;
+				case "connectionTimeout":
+					connectionOptions.setConnectionTimeout(Integer.parseInt(value));
+					break;
+				case "maxInflight":
+					connectionOptions.setMaxInflight(Integer.parseInt(value));
+					break;
+				case "cleanSession":
+					connectionOptions.setCleanSession(Boolean.parseBoolean(value));
+					break;
+				case "autoReconnect":
+					connectionOptions.setAutoReconnect(Boolean.parseBoolean(value));
+					break;
+				case "username":
+					connectionOptions.setUsername(value);
+					break;
+				case "password":
+					connectionOptions.setPassword(value.toCharArray());
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option " + option.getKey());
+				}
+			}
+			return connectionOptions;
+		}
+
+	}
+
+	private static final class MessageSpec {
+
+		private String client;
+		private String topic;
+		private String content = "";
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof MessageSpec)) {
+				return false;
+			}
+			MessageSpec message = (MessageSpec) other;
+			return Objects.equals(client, message.client) && Objects.equals(topic, message.topic) && Objects.equals(content, message.content);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(client, topic, content);
+		}
+
+	}
+
+	private static final class DeviceSpec {
+
+		private static final String HOMEY = "homey";
+		private static final String GENERIC = "generic";
+
+		private String type = HOMEY;
+		private String topic;
+		private final TreeMap<String, CommandSpec> commands = new TreeMap<>();
+
+	}
+
+	private static final class CommandSpec {
+
+		private String command;
+		private String capability;
+		private String value;
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof CommandSpec)) {
+				return false;
+			}
+			CommandSpec spec = (CommandSpec) other;
+			return Objects.equals(command, spec.command) && Objects.equals(capability, spec.capability) && Objects.equals(value, spec.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(command, capability, value);
+		}
+
+	}
+
+	/**
+	 * Counts the changes of a reload.
+	 */
+	private final class Changes {
+
+		private int added;
+		private int changed;
+		private int removed;
+		private final AtomicInteger failed = new AtomicInteger();
+
+		private void fail(String message) {
+			failed.incrementAndGet();
+			logger.log(Level.WARNING, message);
+		}
+
+	}
+
+}
@@ -1,27 +1,44 @@
 package org.fraunhofer.jhmi.manager;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.mqtt_client.ConsumerGroupClientInterface;
+import org.fraunhofer.jhmi.mqtt_client.ShardedClientInterface;
 import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.BackpressureStrategy;
+import org.fraunhofer.jhmi.util.BrokerEndpoints;
 import org.fraunhofer.jhmi.util.ClientInterface;
 import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.Flow;
+import org.fraunhofer.jhmi.util.InboundFilter;
+import org.fraunhofer.jhmi.util.LatencyProbe;
+import org.fraunhofer.jhmi.util.MqttEvent;
+import org.fraunhofer.jhmi.util.MqttEventPublisher;
 /** 
  * 
  * @author Matthias
  *	The ReceiverManager, which can store multiple clients that subscribe to a specified topic with a provided callback.
  *		The Callback that you will need to provide will react whenever a message arrives on a subscribed topic
  *		and execute whatever code you write into the interface.
+ *	The manager can be used by multiple threads at the same time.
  */
 public class MqttReceiverManager {
 	
 	Logger logger;
 	/**
-	 * The HashMap that contains all the clients(subscribers) that are held by this manager.
+	 * The map that contains all the clients(subscribers) that are held by this manager.
 	 */
-	HashMap<String, ClientInterface> subscriberMap;
+	ConcurrentHashMap<String, ClientInterface> subscriberMap;
+	
+	/**
+	 * The publishers of the subscribers that have been created as streams.
+	 */
+	ConcurrentHashMap<String, MqttEventPublisher> publisherMap;
 	
 	/**
 	 * The Message broker that will be used by all the clients of the deviceRepresentations that are held by this manager.
@@ -37,7 +54,8 @@ public class MqttReceiverManager {
 	 */
 	public MqttReceiverManager(String broker) {
 		this.logger = Logger.getLogger(MqttSenderManager.class.getName());
-		this.subscriberMap = new HashMap<>();
+		this.subscriberMap = new ConcurrentHashMap<>();
+		this.publisherMap = new ConcurrentHashMap<>();
 		this.broker = broker;
 	}
 	
@@ -62,6 +80,176 @@ public class MqttReceiverManager {
 		return client.getClientId();
 	}
 	
+	/**
+	 * Creates a new subscriber with a given callback that is only called for messages that pass the given filter.
+	 * @param topic
+	 * The topic that the subscription is for.
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @param filter
+	 * The filter that drops unchanged, too frequent or insignificant messages before they reach the receiver.
+	 * @param receiver
+	 * The implementation of the IMqttReceiver interface that describes what should be done with the received message.
+	 * @return
+	 * The id of the created subscriber.
+	 */
+	public String newSubscriber(String topic, ConnectionOptions connectionOptions, InboundFilter filter, IMqttReceiver receiver) {
+		return newSubscriber(topic, connectionOptions, filter.wrap(receiver));
+	}
+	
+	/**
+	 * Creates a new subscriber whose messages are published as a stream with backpressure.
+	 * Use the getPublisher function to subscribe to the stream.
+	 * Each Subscriber of the stream receives only as many messages as it has requested,
+	 * 	the remaining messages are buffered up to the buffer size and then handled by the strategy.
+	 * @param topic
+	 * The topic that the subscription is for.
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @param bufferSize
+	 * The maximum number of messages that are buffered for each Subscriber of the stream.
+	 * @param strategy
+	 * Defines what happens with a message if the buffer of a Subscriber is full.
+	 * @return
+	 * The id of the created subscriber.
+	 */
+	public String newSubscriber(String topic, ConnectionOptions connectionOptions, int bufferSize, BackpressureStrategy strategy) {
+		MqttEventPublisher publisher = new MqttEventPublisher(bufferSize, strategy);
+		ClientInterface client = ClientInterfaceFactory.createClientInterface(broker, connectionOptions);
+		publisherMap.put(client.getClientId(), publisher);
+		client.subscribe(topic, publisher);
+		
+		subscriberMap.put(client.getClientId(), client);
+		
+		return client.getClientId();
+	}
+	
+	/**
+	 * Returns the stream of a subscriber that has been created with a buffer size and a BackpressureStrategy.
+	 * The stream is completed when the subscriber is removed.
+	 * @param clientId
+	 * The Id of the subscriber.
+	 * This is the value that is returned upon the creation of the subscriber.
+	 * @return
+	 * The publisher of the received messages, null if no such subscriber exists.
+	 */
+	public Flow.Publisher<MqttEvent> getPublisher(String clientId) {
+		return publisherMap.get(clientId);
+	}
+	
+	/**
+	 * Creates a new subscriber that is a member of a consumer group.
+	 * The topic is subscribed as the shared subscription "$share/'group'/'topic'",
+	 * 	so the broker balances the messages between all members of the group, including members in other processes.
+	 * The receiver is called with the topic under which the message was published, without the shared subscription prefix.
+	 * @param topic
+	 * The topic that the subscription is for, with or without the "$share/'group'/" prefix.
+	 * @param group
+	 * The name of the consumer group.
+	 * @param workerCount
+	 * The number of local workers, each with its own connection and callback thread.
+	 * @param connectionOptions
+	 * The options that define the connection between the workers and the broker.
+	 * @param receiver
+	 * The implementation of the IMqttReceiver interface that describes what should be done with the received message.
+	 * It may be called from multiple threads at the same time and must be thread safe.
+	 * @return
+	 * The id of the created subscriber which represents all local workers.
+	 */
+	public String newSubscriber(String topic, String group, int workerCount, ConnectionOptions connectionOptions, IMqttReceiver receiver) {
+		ConsumerGroupClientInterface client = ClientInterfaceFactory.createConsumerGroupClientInterface(broker, connectionOptions, group, workerCount);
+		client.subscribe(topic, receiver);
+		
+		subscriberMap.put(client.getClientId(), client);
+		
+		return client.getClientId();
+	}
+	
+	/**
+	 * Changes the number of local workers of a consumer group subscriber.
+	 * @param clientId
+	 * The Id of the consumer group subscriber.
+	 * This is the value that is returned upon the creation of the subscriber.
+	 * @param workerCount
+	 * The new number of local workers. Must be at least 1.
+	 * @return
+	 * The result of changing the number of workers.
+	 */
+	public String setConsumerGroupWorkers(String clientId, int workerCount) {
+		ClientInterface client = subscriberMap.get(clientId);
+		if(!(client instanceof ConsumerGroupClientInterface)) {
+			return "failure no consumer group subscriber with this id exists";
+		}
+		return ((ConsumerGroupClientInterface) client).setWorkerCount(workerCount);
+	}
+	
+	/**
+	 * Creates a new subscriber that spreads the given topics over multiple connections.
+	 * Each connection (shard) has its own callback thread, so received messages are processed in parallel.
+	 * The topics are assigned to the shards by their hash.
+	 * The receiver may be called from multiple threads at the same time and must be thread safe.
+	 * @param topics
+	 * The topics that should be subscribed to.
+	 * @param shardCount
+	 * The number of connections that should be used.
+	 * @param connectionOptions
+	 * The options that define the connection between the shards and the broker.
+	 * @param receiver
+	 * The implementation of the IMqttReceiver interface that describes what should be done with the received message.
+	 * @return
+	 * The id of the created subscriber which represents all shards.
+	 */
+	public String newShardedSubscriber(Collection<String> topics, int shardCount, ConnectionOptions connectionOptions, IMqttReceiver receiver) {
+		ShardedClientInterface client = ClientInterfaceFactory.createShardedClientInterface(broker, connectionOptions, shardCount);
+		for(String topic: topics) {
+			client.subscribe(topic, receiver);
+		}
+		
+		subscriberMap.put(client.getClientId(), client);
+		
+		return client.getClientId();
+	}
+	
+	/**
+	 * Creates a new subscriber that spreads the given topics over multiple connections.
+	 * Each connection (shard) has its own callback thread, so received messages are processed in parallel.
+	 * The receiver may be called from multiple threads at the same time and must be thread safe.
+	 * @param partitionedTopics
+	 * The topics that should be subscribed to mapped to the index of the shard that should hold the subscription.
+	 * @param shardCount
+	 * The number of connections that should be used.
+	 * @param connectionOptions
+	 * The options that define the connection between the shards and the broker.
+	 * @param receiver
+	 * The implementation of the IMqttReceiver interface that describes what should be done with the received message.
+	 * @return
+	 * The id of the created subscriber which represents all shards.
+	 */
+	public String newShardedSubscriber(Map<String, Integer> partitionedTopics, int shardCount, ConnectionOptions connectionOptions, IMqttReceiver receiver) {
+		ShardedClientInterface client = ClientInterfaceFactory.createShardedClientInterface(broker, connectionOptions, shardCount);
+		for(Map.Entry<String, Integer> entry: partitionedTopics.entrySet()) {
+			client.subscribe(entry.getKey(), receiver, entry.getValue());
+		}
+		
+		subscriberMap.put(client.getClientId(), client);
+		
+		return client.getClientId();
+	}
+	
+	/**
+	 * Returns the latency probe of a specified subscriber.
+	 * The probe is enabled by ConnectionOptions.setLatencyProbeInterval when the subscriber is created.
+	 * @param clientId
+	 * The Id of the subscriber.
+	 * This is the value that is returned upon the creation of a new subscriber.
+	 * @return
+	 * The latency probe, null if no subscriber with this id exists or its connection is not probed.
+	 */
+	public LatencyProbe getLatencyProbe(String clientId) {
+		ClientInterface client = subscriberMap.get(clientId);
+		return client == null ? null : client.getLatencyProbe();
+	}
+	
 	/**
 	 * Disconnects a specified subscriber.
 	 * To reconnect the subscriber use the connectSubscriber function.
@@ -72,7 +260,11 @@ public class MqttReceiverManager {
 	 * The result of the disconnection of the subscriber.
 	 */
 	public String disconnectSubscriber(String clientId) {
-		return subscriberMap.get(clientId).disconnectClient();
+		ClientInterface client = subscriberMap.get(clientId);
+		if(client == null) {
+			return "failure no subscriber with this id exists";
+		}
+		return client.disconnectClient();
 	}
 	
 	/**
@@ -86,7 +278,26 @@ public class MqttReceiverManager {
 	 * The result of connecting the subscriber.
 	 */
 	public String connectSubscriber(String clientId) {
-		return subscriberMap.get(clientId).connectClient();
+		ClientInterface client = subscriberMap.get(clientId);
+		if(client == null) {
+			return "failure no subscriber with this id exists";
+		}
+		return client.connectClient();
+	}
+	
+	/**
+	 * Connects all disconnected subscribers of the manager in parallel and restores their subscriptions,
+	 * 	for example after a failover of subscribers that do not reconnect automatically.
+	 * Subscribers with ConnectionOptions.setServerURIs start with the first available broker.
+	 * @return
+	 * "success" if all subscribers are connected, "success but N subscribers could not be connected" if not.
+	 */
+	public String reconnectSubscribers() {
+		int failed = BrokerEndpoints.connectAll(subscriberMap.values());
+		if(failed > 0) {
+			return ClientInterface.SUCCESS + " but " + failed + " subscribers could not be connected";
+		}
+		return ClientInterface.SUCCESS;
 	}
 	
 	/**
@@ -98,7 +309,14 @@ public class MqttReceiverManager {
 	 * 
 	 */
 	public void removeSubscriber(String clientId) {
-		subscriberMap.get(clientId).closeClient();
+		ClientInterface client = subscriberMap.remove(clientId);
+		if(client != null) {
+			client.closeClient();
+		}
+		MqttEventPublisher publisher = publisherMap.remove(clientId);
+		if(publisher != null) {
+			publisher.close();
+		}
 	}
 	
 	/**
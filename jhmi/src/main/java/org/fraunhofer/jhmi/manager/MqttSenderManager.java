@@ -1,28 +1,69 @@
 package org.fraunhofer.jhmi.manager;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.util.BrokerEndpoints;
 import org.fraunhofer.jhmi.util.ClientInterface;
 import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.LatencyProbe;
+import org.fraunhofer.jhmi.util.MessageEntry;
+import org.fraunhofer.jhmi.util.MessagePriority;
+import org.fraunhofer.jhmi.util.OutboundShaper;
 import org.fraunhofer.jhmi.util.StringTripple;
+import org.fraunhofer.jhmi.util.TimerWheel;
 
+/**
+ * The SenderManager, which can store multiple clients that send messages and saved messages.
+ * 	The manager can be used by multiple threads at the same time.
+ * 	Looking up clients and saved messages on the send path does not lock.
+ */
 public class MqttSenderManager {
 
 	Logger logger;
 
 	/**
-	 * The HashMap that contains the clients that are held by this manager.
+	 * The map that contains the clients that are held by this manager.
 	 */
-	HashMap<String, ClientInterface> clientMap;
+	ConcurrentHashMap<String, ClientInterface> clientMap;
 	/**
-	 * The HashMap that contains the saved Messages.
+	 * The map that contains the saved Messages.
 	 * The key is the name of the message which was specified on the saveMessage function call.
 	 * The StringTripple contains in order the clientId the topic and the content of the saved message.
 	 */
-	HashMap<String, StringTripple> messageMap;
+	ConcurrentHashMap<String, StringTripple> messageMap;
+	/**
+	 * The map that contains the rate limits of the clients that are held by this manager.
+	 * Clients without an entry are not limited.
+	 */
+	ConcurrentHashMap<String, OutboundShaper> shaperMap;
+	/**
+	 * The scheduler for periodically sent saved messages.
+	 * It is created with the first schedule.
+	 */
+	TimerWheel publishScheduler;
+	/**
+	 * Sends the bursts of the scheduled messages, so the scheduler does not wait for the delivery.
+	 */
+	volatile ExecutorService scheduledSendExecutor;
+	/**
+	 * The clients whose burst of scheduled messages is still being sent.
+	 * A client has at most one burst in flight, so the bursts of a slow client do not pile up.
+	 */
+	Set<String> sendingClients = ConcurrentHashMap.newKeySet();
 	/**
 	 * The broker that will be used by all the clients held by this manager.
 	 */
@@ -34,7 +75,9 @@ public class MqttSenderManager {
 	 * The broker that will be used by all the clients held by this manager.
 	 */
 	public MqttSenderManager(String broker) {
-		clientMap = new HashMap<>();
+		clientMap = new ConcurrentHashMap<>();
+		messageMap = new ConcurrentHashMap<>();
+		shaperMap = new ConcurrentHashMap<>();
 		this.logger = Logger.getLogger(MqttSenderManager.class.getName());
 		this.broker = broker;
 	}
@@ -69,11 +112,14 @@ public class MqttSenderManager {
 	 * @return returns the success or failure of the message transmission.
 	 */
 	public String sendMessage(String topic, String clientId, String content) {
-		if(!clientMap.containsKey(clientId)) {
+		ClientInterface client = clientMap.get(clientId);
+		if(client == null) {
 			return "failure no client with this name exists";
 		}
-		ClientInterface client = clientMap.get(clientId);
-		
+		OutboundShaper shaper = shaperMap.get(clientId);
+		if(shaper != null) {
+			return shaper.submit(topic, () -> client.sendMessage(topic, content));
+		}
 		return client.sendMessage(topic, content);
 	}
 	
@@ -97,13 +143,144 @@ public class MqttSenderManager {
 	 * @return returns the success or failure of the message transmission.
 	 */
 	public String sendMessage(String topic, String clientId, String content, int qos, boolean retained) {
-		if(!clientMap.containsKey(clientId)) {
+		ClientInterface client = clientMap.get(clientId);
+		if(client == null) {
 			return "failure no client with this name exists";
 		}
-		ClientInterface client = clientMap.get(clientId);
+		OutboundShaper shaper = shaperMap.get(clientId);
+		if(shaper != null) {
+			return shaper.submit(topic, () -> client.sendMessage(topic, content, qos, retained));
+		}
 		return client.sendMessage(topic, content, qos, retained);
 	}
 	
+	/**
+	 * This function is used to send a message with a priority to a given topic.
+	 * Messages of a higher priority class get the free inflight slots of the client first,
+	 * 	so commands are not delayed by bulk traffic on the same client.
+	 * @param topic
+	 * The topic to which this message should be send.
+	 * @param clientId
+	 * The Id of the client that should be used to send the message.
+	 * @param content
+	 * The content of the message
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @param priority
+	 * The priority class of the message.
+	 * @return returns the success or failure of the message transmission.
+	 */
+	public String sendMessage(String topic, String clientId, String content, int qos, boolean retained, MessagePriority priority) {
+		ClientInterface client = clientMap.get(clientId);
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		OutboundShaper shaper = shaperMap.get(clientId);
+		if(shaper != null) {
+			return shaper.submit(topic, () -> client.sendMessage(topic, content, qos, retained, priority));
+		}
+		return client.sendMessage(topic, content, qos, retained, priority);
+	}
+	
+	/**
+	 * This function is used to send binary content to a given topic.
+	 * The array is handed to the client without copying and must not be changed until the function returns.
+	 * @param topic
+	 * The topic to which this message should be send.
+	 * @param clientId
+	 * The Id of the client that should be used to send the message.
+	 * @param payload
+	 * The bytes that should be sent as content of the message.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * 0 for lowest and 2 for highest.
+	 * 2 guarantees delivery if the broker is available but costs more resources.
+	 * 1 guarantees delivery but can create more network traffic.
+	 * 0 does not guarantee delivery.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
+	 * @return returns the success or failure of the message transmission.
+	 */
+	public String sendMessage(String topic, String clientId, byte[] payload, int qos, boolean retained) {
+		ClientInterface client = clientMap.get(clientId);
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		OutboundShaper shaper = shaperMap.get(clientId);
+		if(shaper != null) {
+			return shaper.submit(topic, () -> client.sendMessage(topic, payload, qos, retained));
+		}
+		return client.sendMessage(topic, payload, qos, retained);
+	}
+	
+	/**
+	 * This function is used to send binary content to a given topic.
+	 * If the buffer wraps a whole array the array is used without copying. The position of the buffer is not changed.
+	 * @param topic
+	 * The topic to which this message should be send.
+	 * @param clientId
+	 * The Id of the client that should be used to send the message.
+	 * @param payload
+	 * The buffer whose remaining bytes should be sent as content of the message.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * 0 for lowest and 2 for highest.
+	 * 2 guarantees delivery if the broker is available but costs more resources.
+	 * 1 guarantees delivery but can create more network traffic.
+	 * 0 does not guarantee delivery.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
+	 * @return returns the success or failure of the message transmission.
+	 */
+	public String sendMessage(String topic, String clientId, ByteBuffer payload, int qos, boolean retained) {
+		ClientInterface client = clientMap.get(clientId);
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		OutboundShaper shaper = shaperMap.get(clientId);
+		if(shaper != null) {
+			return shaper.submit(topic, () -> client.sendMessage(topic, payload, qos, retained));
+		}
+		return client.sendMessage(topic, payload, qos, retained);
+	}
+	
+	/**
+	 * Limits the rate at which a client sends messages through the sendMessage functions of this manager,
+	 * 	including the saved and the scheduled messages.
+	 * Messages that exceed the rate are held back. If a newer message for the same topic is sent
+	 * 	while an older one is still held back, only the newer one will be sent.
+	 * Binary payloads of held back messages are not copied and must not be changed until they are sent.
+	 * @param clientId
+	 * The Id of the client that should be limited.
+	 * @param messagesPerSecond
+	 * The number of messages that may be sent per second on average.
+	 * @param burst
+	 * The number of messages that may be sent at once after a period without messages.
+	 * @return
+	 * The success or failure of the operation.
+	 */
+	public String setRateLimit(String clientId, double messagesPerSecond, int burst) {
+		if(!clientMap.containsKey(clientId)) {
+			return "failure no client with this name exists";
+		}
+		shaperMap.put(clientId, new OutboundShaper(messagesPerSecond, burst));
+		return "success";
+	}
+	
+	/**
+	 * Removes the rate limit of a client.
+	 * Messages that are still held back will be sent.
+	 * @param clientId
+	 * The Id of the client whose rate limit should be removed.
+	 */
+	public void removeRateLimit(String clientId) {
+		shaperMap.remove(clientId);
+	}
+	
 	/**
 	 * Send a previously saved message by the specified name.
 	 * @param messageName
@@ -113,8 +290,20 @@ public class MqttSenderManager {
 	 */
 	public String sendMessage(String messageName) {
 		StringTripple messageValues = messageMap.get(messageName);
+		if(messageValues == null) {
+			return "failure no message with this name exists";
+		}
 		ClientInterface client = clientMap.get( messageValues.getValue1());
-		return client.sendMessage(messageValues.getValue2(), messageValues.getValue3());
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		String topic = messageValues.getValue2();
+		String content = messageValues.getValue3();
+		OutboundShaper shaper = shaperMap.get(messageValues.getValue1());
+		if(shaper != null) {
+			return shaper.submit(topic, () -> client.sendMessage(topic, content));
+		}
+		return client.sendMessage(topic, content);
 	}	
 	
 	/**
@@ -135,8 +324,20 @@ public class MqttSenderManager {
 	 */
 	public String sendMessage(String messageName, int qos, boolean retained) {
 		StringTripple messageValues = messageMap.get(messageName);
+		if(messageValues == null) {
+			return "failure no message with this name exists";
+		}
 		ClientInterface client = clientMap.get( messageValues.getValue1());
-		return client.sendMessage(messageValues.getValue2(), messageValues.getValue3(), qos, retained);
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		String topic = messageValues.getValue2();
+		String content = messageValues.getValue3();
+		OutboundShaper shaper = shaperMap.get(messageValues.getValue1());
+		if(shaper != null) {
+			return shaper.submit(topic, () -> client.sendMessage(topic, content, qos, retained));
+		}
+		return client.sendMessage(topic, content, qos, retained);
 	}	
 	
 	/**
@@ -169,9 +370,6 @@ public class MqttSenderManager {
 		if(!clientMap.containsKey(clientId)) {
 			return "failure no client with the specified name exists";
 		}
-		if(!messageMap.containsKey(messageName)) {
-			return "failure no message with this name exists";
-		}
 		messageMap.put(messageName, new StringTripple(clientId, topic, content));
 		return "success";
 	}
@@ -185,14 +383,123 @@ public class MqttSenderManager {
 	 * 
 	 */
 	public String removeMessage(String messageName) {
-		if(!clientMap.containsKey(messageName)) {
+		if(messageMap.remove(messageName) == null) {
 			return "failure no message with this name exists";
 		}
 		return "success";
 	}
+	
+	/**
+	 * Sends a saved message periodically.
+	 * All scheduled messages that are due at the same time are sent as one burst per client.
+	 * Scheduled sends of a message that has been removed are skipped.
+	 * @param messageName
+	 * The name of the saved message that should be sent.
+	 * @param periodMillis
+	 * The time between two sends in milliseconds. The resolution of the scheduler is 10 milliseconds.
+	 * @param jitterMillis
+	 * The maximum random shift of each send in milliseconds.
+	 * Use a jitter to spread messages with the same period instead of sending them all at the same time.
+	 * @return
+	 * The id of the schedule which is needed to cancel it, -1 if no message with this name exists.
+	 */
+	public synchronized long schedulePeriodicMessage(String messageName, long periodMillis, long jitterMillis) {
+		if(!messageMap.containsKey(messageName)) {
+			return -1;
+		}
+		if(publishScheduler == null) {
+			scheduledSendExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+				Thread thread = new Thread(runnable, "jhmi-scheduled-send");
+				thread.setDaemon(true);
+				return thread;
+			});
+			publishScheduler = new TimerWheel(10, 512, this::sendScheduledMessages);
+		}
+		return publishScheduler.schedule(messageName, periodMillis, jitterMillis);
+	}
+	
+	/**
+	 * Stops sending a saved message periodically.
+	 * @param scheduleId
+	 * The id that was returned by the schedulePeriodicMessage function.
+	 * @return
+	 * The success or failure of the operation.
+	 */
+	public synchronized String cancelPeriodicMessage(long scheduleId) {
+		if(publishScheduler == null || !publishScheduler.cancel(scheduleId)) {
+			return "failure no schedule with this id exists";
+		}
+		return "success";
+	}
+	
+	/**
+	 * Sends the due scheduled messages as one burst per client.
+	 * The due messages of a client whose previous burst is still being sent are skipped, they are sent again in their next period.
+	 * The messages of a client with a rate limit are passed to its OutboundShaper one by one instead of as a burst.
+	 * @param messageNames
+	 * The names of the saved messages that are due.
+	 */
+	private void sendScheduledMessages(List<String> messageNames) {
+		ExecutorService executor = scheduledSendExecutor;
+		if(executor == null) {
+			return;
+		}
+		Map<String, List<MessageEntry>> batches = new HashMap<>();
+		for(String messageName: messageNames) {
+			StringTripple messageValues = messageMap.get(messageName);
+			if(messageValues != null) {
+				batches.computeIfAbsent(messageValues.getValue1(), key -> new ArrayList<>())
+					.add(new MessageEntry(messageValues.getValue2(), messageValues.getValue3()));
+			}
+		}
+		for(Map.Entry<String, List<MessageEntry>> batch: batches.entrySet()) {
+			String clientId = batch.getKey();
+			ClientInterface client = clientMap.get(clientId);
+			if(client == null) {
+				continue;
+			}
+			if(!sendingClients.add(clientId)) {
+				logger.fine(batch.getValue().size() + " scheduled messages of client " + clientId + " were skipped, its previous burst is still being sent");
+				continue;
+			}
+			try {
+				executor.execute(() -> {
+					try {
+						OutboundShaper shaper = shaperMap.get(clientId);
+						String result = shaper != null ? submitAll(shaper, client, batch.getValue()) : client.sendMessages(batch.getValue());
+						if(!result.startsWith(ClientInterface.SUCCESS)) {
+							logger.log(Level.WARNING, "Sending scheduled messages failed: " + result);
+						}
+					} finally {
+						sendingClients.remove(clientId);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				sendingClients.remove(clientId);
+			}
+		}
+	}
 
 	/**
-	 * Closes the specified client
+	 * Passes messages to the shaper of their client.
+	 * @return
+	 * "success" if all messages were sent or held back, the first failure if not.
+	 */
+	private static String submitAll(OutboundShaper shaper, ClientInterface client, List<MessageEntry> messages) {
+		String result = ClientInterface.SUCCESS;
+		for(MessageEntry message: messages) {
+			String topic = message.getKey();
+			String content = message.getValue();
+			String sent = shaper.submit(topic, () -> client.sendMessage(topic, content));
+			if(!sent.startsWith(ClientInterface.SUCCESS) && result.startsWith(ClientInterface.SUCCESS)) {
+				result = sent;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Closes the specified client and removes it from the manager.
 	 * The client can not be used anymore after it is closed.
 	 * @param name
 	 * The name of the client that should be closed.
@@ -200,8 +507,40 @@ public class MqttSenderManager {
 	 * The success or failure of closing the client.
 	 */
 	public String closeMqttClient(String name) {
-		return clientMap.get(name).closeClient();
+		ClientInterface client = clientMap.remove(name);
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		shaperMap.remove(name);
+		return client.closeClient();
+	}
+	
+	/**
+	 * Returns the latency probe of the specified client.
+	 * The probe is enabled by ConnectionOptions.setLatencyProbeInterval when the client is added.
+	 * @param name
+	 * The name of the client.
+	 * @return
+	 * The latency probe, null if no client with this name exists or its connection is not probed.
+	 */
+	public LatencyProbe getLatencyProbe(String name) {
+		ClientInterface client = clientMap.get(name);
+		return client == null ? null : client.getLatencyProbe();
+	}
+	
+	/**
+	 * Returns the number of messages the specified client may currently have inflight.
+	 * With ConnectionOptions.setAdaptiveInflight the value follows the acknowledgement latency of the connection.
+	 * @param name
+	 * The name of the client.
+	 * @return
+	 * The current inflight window, -1 if no client with this name exists.
+	 */
+	public int getInflightWindow(String name) {
+		ClientInterface client = clientMap.get(name);
+		return client == null ? -1 : client.getInflightWindow();
 	}
+	
 	/**
 	 * Disconnects the specified client
 	 * @param name
@@ -210,7 +549,11 @@ public class MqttSenderManager {
 	 * The success or failure of disconnecting the client.
 	 */	
 	public String disconnectClient(String name) {
-		return clientMap.get(name).disconnectClient();
+		ClientInterface client = clientMap.get(name);
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		return client.disconnectClient();
 	}
 	
 	/**
@@ -221,8 +564,55 @@ public class MqttSenderManager {
 	 * The success or failure of connecting the client.
 	 */
 	public String connectClient(String name) {
-		return clientMap.get(name).connectClient();
+		ClientInterface client = clientMap.get(name);
+		if(client == null) {
+			return "failure no client with this name exists";
+		}
+		return client.connectClient();
 	}
 	
+	/**
+	 * Connects all disconnected clients of the manager in parallel,
+	 * 	for example after a failover of clients that do not reconnect automatically.
+	 * Clients with ConnectionOptions.setServerURIs start with the first available broker.
+	 * @return
+	 * "success" if all clients are connected, "success but N clients could not be connected" if not.
+	 */
+	public String reconnectClients() {
+		int failed = BrokerEndpoints.connectAll(clientMap.values());
+		if(failed > 0) {
+			return ClientInterface.SUCCESS + " but " + failed + " clients could not be connected";
+		}
+		return ClientInterface.SUCCESS;
+	}
+	
+	/**
+	 * Stops the periodic messages and closes all clients of the manager.
+	 * Bursts that are being sent are finished first. The manager can be used again afterwards.
+	 * @return
+	 * "success" if all clients were closed, the first failure if not.
+	 */
+	public synchronized String close() {
+		if(publishScheduler != null) {
+			publishScheduler.stop();
+			publishScheduler = null;
+			scheduledSendExecutor.shutdown();
+			try {
+				scheduledSendExecutor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			scheduledSendExecutor = null;
+		}
+		String result = ClientInterface.SUCCESS;
+		for(String name: new ArrayList<>(clientMap.keySet())) {
+			String closed = closeMqttClient(name);
+			if(!closed.startsWith(ClientInterface.SUCCESS) && result.equals(ClientInterface.SUCCESS)) {
+				result = closed;
+			}
+		}
+		messageMap.clear();
+		return result;
+	}
 	
 }
@@ -0,0 +1,268 @@
+package org.fraunhofer.jhmi.manager;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.user_interface.DeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.HomeyDeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.IValueChangeListener;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.RuleCondition;
+
+/**
+ * Executes actions when conditions over the capabilities of devices become true.
+ * The rules are indexed by the capabilities their conditions depend on, so a changed value only evaluates
+ * 	the rules that read it, independent of the total number of rules.
+ * A rule fires when its condition changes from not met to met, it fires again only after the condition was not met in between.
+ * The actions are executed on a separate thread of the engine, so slow sends do not hold up the clients that deliver the values.
+ * The actions run one after the other in the order in which the rules fired.
+ */
+public class RuleEngine {
+
+	private final Logger logger;
+	/**
+	 * Executes the actions of the rules of this engine in the order in which they fired.
+	 */
+	private final ExecutorService actionExecutor;
+	private final DeviceRepresentationManager deviceManager;
+	private final MqttSenderManager senderManager;
+	/**
+	 * The rules by their name.
+	 */
+	private final ConcurrentHashMap<String, Rule> ruleMap = new ConcurrentHashMap<>();
+	/**
+	 * The rules by the device and the capability their conditions depend on.
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, CopyOnWriteArrayList<Rule>>> ruleIndex = new ConcurrentHashMap<>();
+	/**
+	 * Reads the current values of the devices of the manager for the conditions.
+	 */
+	private final BiFunction<String, String, String> values;
+	private final IValueChangeListener listener;
+	private final AtomicLong evaluations = new AtomicLong();
+	private final AtomicLong firings = new AtomicLong();
+
+	/**
+	 * Creates a new RuleEngine that watches all DeviceRepresentations of a manager.
+	 * @param deviceManager
+	 * The manager whose DeviceRepresentations provide the values for the conditions and receive the Homey commands.
+	 * @param senderManager
+	 * The manager whose saved messages can be sent by rules, null if rules only send Homey commands.
+	 */
+	public RuleEngine(DeviceRepresentationManager deviceManager, MqttSenderManager senderManager) {
+		this.logger = Logger.getLogger(RuleEngine.class.getName());
+		this.deviceManager = deviceManager;
+		this.senderManager = senderManager;
+		this.actionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jhmi-rule-action");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.values = (device, capability) -> {
+			DeviceRepresentation deviceRepresentation = deviceManager.getDeviceRepresentation(device);
+			return deviceRepresentation == null ? null : deviceRepresentation.getDeviceValue(capability);
+		};
+		this.listener = (deviceRepresentation, topic, key, oldValue, newValue) -> evaluate(deviceRepresentation.getRepresentedDeviceName(), key);
+		deviceManager.addValueChangeListener(listener);
+	}
+
+	/**
+	 * Adds a rule that sends a registered command of a HomeyDeviceRepresentation.
+	 * An existing rule with the same name is replaced.
+	 * @param name
+	 * The name of the rule.
+	 * @param condition
+	 * The condition that triggers the command.
+	 * @param device
+	 * The name of the HomeyDeviceRepresentation that sends the command.
+	 * @param commandId
+	 * The id under which the command has been registered.
+	 * @return
+	 * "success" if the rule was added.
+	 */
+	public String addCommandRule(String name, RuleCondition condition, String device, String commandId) {
+		return addRule(name, condition, () -> {
+			DeviceRepresentation deviceRepresentation = deviceManager.getDeviceRepresentation(device);
+			if(!(deviceRepresentation instanceof HomeyDeviceRepresentation)) {
+				return "failure no HomeyDeviceRepresentation with this name exists";
+			}
+			return ((HomeyDeviceRepresentation) deviceRepresentation).sendCommand(commandId);
+		});
+	}
+
+	/**
+	 * Adds a rule that sends a saved message of the MqttSenderManager.
+	 * An existing rule with the same name is replaced.
+	 * @param name
+	 * The name of the rule.
+	 * @param condition
+	 * The condition that triggers the message.
+	 * @param messageName
+	 * The name under which the message was saved.
+	 * @return
+	 * "success" if the rule was added, "failure no sender manager exists" if the engine was created without one.
+	 */
+	public String addMessageRule(String name, RuleCondition condition, String messageName) {
+		if(senderManager == null) {
+			return "failure no sender manager exists";
+		}
+		return addRule(name, condition, () -> senderManager.sendMessage(messageName));
+	}
+
+	/**
+	 * Adds a rule with an own action.
+	 * An existing rule with the same name is replaced.
+	 * @param name
+	 * The name of the rule.
+	 * @param condition
+	 * The condition that triggers the action.
+	 * @param action
+	 * The action, which returns "success" or the reason of its failure.
+	 * @return
+	 * "success" if the rule was added.
+	 */
+	public String addRule(String name, RuleCondition condition, Supplier<String> action) {
+		Rule rule = new Rule(name, condition, action);
+		Rule previous = ruleMap.put(name, rule);
+		if(previous != null) {
+			unindex(previous);
+		}
+		for(RuleCondition.Dependency dependency: rule.dependencies) {
+			ruleIndex.computeIfAbsent(dependency.getDevice(), key -> new ConcurrentHashMap<>())
+				.computeIfAbsent(dependency.getCapability(), key -> new CopyOnWriteArrayList<>()).addIfAbsent(rule);
+		}
+		synchronized (rule) {
+			rule.met = condition.evaluate(values);
+		}
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Removes a rule.
+	 * @param name
+	 * The name of the rule.
+	 * @return
+	 * "success" if the rule was removed, "failure no rule with this name exists" if not.
+	 */
+	public String removeRule(String name) {
+		Rule rule = ruleMap.remove(name);
+		if(rule == null) {
+			return "failure no rule with this name exists";
+		}
+		unindex(rule);
+		return ClientInterface.SUCCESS;
+	}
+
+	/**
+	 * Removes all rules and stops watching the DeviceRepresentations.
+	 * Actions of rules that have already fired are still executed.
+	 */
+	public void close() {
+		deviceManager.removeValueChangeListener(listener);
+		ruleMap.clear();
+		ruleIndex.clear();
+		actionExecutor.shutdown();
+	}
+
+	/**
+	 * Returns the number of rule evaluations since the engine was created.
+	 * @return
+	 * The number of evaluated conditions.
+	 */
+	public long getEvaluationCount() {
+		return evaluations.get();
+	}
+
+	/**
+	 * Returns the number of fired rules since the engine was created.
+	 * @return
+	 * The number of executed actions.
+	 */
+	public long getFiringCount() {
+		return firings.get();
+	}
+
+	/**
+	 * Evaluates the rules that depend on a changed capability and fires those whose condition became true.
+	 */
+	private void evaluate(String device, String capability) {
+		ConcurrentHashMap<String, CopyOnWriteArrayList<Rule>> capabilities = ruleIndex.get(device);
+		if(capabilities == null) {
+			return;
+		}
+		CopyOnWriteArrayList<Rule> rules = capabilities.get(capability);
+		if(rules == null) {
+			return;
+		}
+		for(Rule rule: rules) {
+			evaluations.incrementAndGet();
+			boolean fire;
+			synchronized (rule) {
+				boolean met = rule.condition.evaluate(values);
+				fire = met && !rule.met;
+				rule.met = met;
+			}
+			if(fire) {
+				firings.incrementAndGet();
+				try {
+					actionExecutor.execute(() -> execute(rule));
+				} catch (RejectedExecutionException e) {
+					logger.log(Level.FINE, "The engine is closed, rule " + rule.name + " is not executed");
+				}
+			}
+		}
+	}
+
+	private void execute(Rule rule) {
+		try {
+			String result = rule.action.get();
+			if(result == null || !result.startsWith(ClientInterface.SUCCESS)) {
+				logger.log(Level.WARNING, "The action of rule " + rule.name + " failed: " + result);
+			}
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "The action of rule " + rule.name + " failed", e);
+		}
+	}
+
+	private void unindex(Rule rule) {
+		for(RuleCondition.Dependency dependency: rule.dependencies) {
+			ConcurrentHashMap<String, CopyOnWriteArrayList<Rule>> capabilities = ruleIndex.get(dependency.getDevice());
+			if(capabilities != null) {
+				CopyOnWriteArrayList<Rule> rules = capabilities.get(dependency.getCapability());
+				if(rules != null) {
+					rules.remove(rule);
+				}
+			}
+		}
+	}
+
+	private static final class Rule {
+
+		private final String name;
+		private final RuleCondition condition;
+		private final Supplier<String> action;
+		private final List<RuleCondition.Dependency> dependencies;
+		/**
+		 * True if the condition was met at its last evaluation.
+		 */
+		private boolean met;
+
+		private Rule(String name, RuleCondition condition, Supplier<String> action) {
+			this.name = name;
+			this.condition = condition;
+			this.action = action;
+			this.dependencies = condition.getDependencies();
+		}
+
+	}
+
+}
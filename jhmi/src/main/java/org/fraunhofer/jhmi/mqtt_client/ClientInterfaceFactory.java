@@ -1,11 +1,20 @@
 package org.fraunhofer.jhmi.mqtt_client;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
 import org.fraunhofer.jhmi.mqtt_clients.paho.PahoMqttClientFactory;
+import org.fraunhofer.jhmi.mqtt_clients.paho_v5.PahoV5MqttClientFactory;
 import org.fraunhofer.jhmi.util.ClientInterface;
 import org.fraunhofer.jhmi.util.ConnectionOptions;
 
 public class ClientInterfaceFactory {
 	
+	/**
+	 * The clients of this process by their stable client id, so two clients never use the same id and the same journal.
+	 */
+	private static final ConcurrentHashMap<String, Object> STABLE_CLIENT_IDS = new ConcurrentHashMap<>();
+	
 	private ClientInterfaceFactory() {
 		
 	}
@@ -20,14 +29,136 @@ public class ClientInterfaceFactory {
 	 * The options that will define the connection between the client and the broker.
 	 */
 	public static ClientInterface createClientInterface(String broker, ConnectionOptions connectionOptions) {
+		return createClientInterface(broker, connectionOptions, connectionOptions.getClientId());
+	}
+	
+	/**
+	 * Creates a client with the given client id instead of the one of the connectionOptions.
+	 * If another client of this process already uses the id, "-2", "-3" and so on is appended to it.
+	 * @param broker
+	 * The broker to which the new client will connect.
+	 * @param connectionOptions
+	 * The options that will define the connection between the client and the broker.
+	 * @param clientId
+	 * The id with which the client identifies itself to the broker, null to generate one.
+	 * @return
+	 * The created client.
+	 */
+	public static ClientInterface createClientInterface(String broker, ConnectionOptions connectionOptions, String clientId) {
+		if(clientId == null) {
+			return createClient(broker, connectionOptions, null);
+		}
+		Object claim = new Object();
+		String uniqueId = claimClientId(clientId, claim);
+		ClientInterface client = null;
+		try {
+			client = createClient(broker, connectionOptions, uniqueId);
+		} finally {
+			if(client == null || !uniqueId.equals(client.getClientId())) {
+				STABLE_CLIENT_IDS.remove(uniqueId, claim);
+			} else {
+				STABLE_CLIENT_IDS.replace(uniqueId, claim, client);
+			}
+		}
+		return client;
+	}
+	
+	/**
+	 * Gives the stable id of a closed client free for new clients.
+	 * @param clientId
+	 * The id of the client.
+	 * @param client
+	 * The client, the id is only given free if it is still held by this client.
+	 */
+	public static void releaseClientId(String clientId, ClientInterface client) {
+		if(clientId != null) {
+			STABLE_CLIENT_IDS.remove(clientId, client);
+		}
+	}
+	
+	private static ClientInterface createClient(String broker, ConnectionOptions connectionOptions, String clientId) {
 		switch (connectionOptions.getClientType()) {
 		case PAHO:
-			return PahoMqttClientFactory.createMqttClient(broker, connectionOptions);
+			return PahoMqttClientFactory.createMqttClient(broker, connectionOptions, clientId);
+		case PAHO_V5:
+			return PahoV5MqttClientFactory.createMqttClient(broker, connectionOptions, clientId);
 		case DEFAULT:
-			return PahoMqttClientFactory.createMqttClient(broker, connectionOptions);
+			return PahoMqttClientFactory.createMqttClient(broker, connectionOptions, clientId);
 		default:
 			return PahoMqttClientFactory.createDefaultMqttClient(broker);
 		}
 	}
 	
+	/**
+	 * Reserves the given id or, if it is used by another client, the id followed by the lowest free number from 2 on.
+	 */
+	private static String claimClientId(String clientId, Object claim) {
+		if(STABLE_CLIENT_IDS.putIfAbsent(clientId, claim) == null) {
+			return clientId;
+		}
+		for(int i = 2; ; i++) {
+			String suffixed = clientId + "-" + i;
+			if(STABLE_CLIENT_IDS.putIfAbsent(suffixed, claim) == null) {
+				Logger.getLogger(ClientInterfaceFactory.class.getName()).warning("The client id " + clientId
+						+ " is already used by another client, the new client uses " + suffixed);
+				return suffixed;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a client that spreads its subscriptions over the given number of connections.
+	 * Each shard is created like a regular client with the given connectionOptions.
+	 * A stable client id of the connectionOptions is followed by the number of the shard.
+	 * @param broker
+	 * The broker to which the shards will connect.
+	 * @param connectionOptions
+	 * The options that will define the connection between the shards and the broker.
+	 * @param shardCount
+	 * The number of connections that should be used. Must be at least 1.
+	 * @return
+	 * The ShardedClientInterface that holds the created shards.
+	 */
+	public static ShardedClientInterface createShardedClientInterface(String broker, ConnectionOptions connectionOptions, int shardCount) {
+		if(shardCount < 1) {
+			throw new IllegalArgumentException("shardCount must be at least 1");
+		}
+		ClientInterface[] shards = new ClientInterface[shardCount];
+		for(int i = 0; i < shardCount; i++) {
+			shards[i] = createClientInterface(broker, connectionOptions, connectionId(connectionOptions, i));
+		}
+		return new ShardedClientInterface(shards);
+	}
+	
+	/**
+	 * Creates a member of a consumer group that subscribes to topics as shared subscriptions.
+	 * Each local worker is created like a regular client with the given connectionOptions.
+	 * @param broker
+	 * The broker to which the workers will connect.
+	 * @param connectionOptions
+	 * The options that will define the connection between the workers and the broker.
+	 * @param group
+	 * The name of the consumer group.
+	 * @param workerCount
+	 * The number of local workers. Must be at least 1.
+	 * @return
+	 * The ConsumerGroupClientInterface that holds the created workers.
+	 */
+	public static ConsumerGroupClientInterface createConsumerGroupClientInterface(String broker, ConnectionOptions connectionOptions, String group, int workerCount) {
+		return new ConsumerGroupClientInterface(group, broker, connectionOptions, workerCount);
+	}
+	
+	/**
+	 * Returns the client id of one of several connections that are created from the same connectionOptions.
+	 * @param connectionOptions
+	 * The options of the connections.
+	 * @param connection
+	 * The number of the connection.
+	 * @return
+	 * The stable client id followed by the number of the connection, null if the connectionOptions have no stable client id.
+	 */
+	static String connectionId(ConnectionOptions connectionOptions, int connection) {
+		return connectionOptions.getClientId() == null ? null : connectionOptions.getClientId() + "-" + connection;
+	}
+	
 }
@@ -0,0 +1,345 @@
+package org.fraunhofer.jhmi.mqtt_client;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.LatencyProbe;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.MessageEntry;
+import org.fraunhofer.jhmi.util.MessagePriority;
+import org.fraunhofer.jhmi.util.SharedSubscription;
+
+/**
+ * A ClientInterface that is a member of a consumer group.
+ * All topics are subscribed as shared subscriptions "$share/'group'/'topic'",
+ * 	so the broker balances the messages between all members of the group, including the members in other processes.
+ * The consumer group holds a number of local workers, each with its own connection and callback thread.
+ * The number of local workers can be changed at runtime.
+ */
+public class ConsumerGroupClientInterface implements ClientInterface {
+
+	/**
+	 * The name of the consumer group.
+	 */
+	private final String group;
+	/**
+	 * The broker to which the workers connect.
+	 */
+	private final String broker;
+	/**
+	 * The options used for the connections of the workers.
+	 */
+	private final ConnectionOptions connectionOptions;
+	/**
+	 * The local workers of the group. The array is replaced on every change, so the send path reads it without the lock
+	 * 	while a subscribe or a change of the worker count connects and subscribes the workers.
+	 */
+	private volatile ClientInterface[] workers;
+	/**
+	 * The subscribed topics without the shared subscription prefix, with the receivers of each topic
+	 * 	and the receivers that pass their messages on without the prefix. New workers subscribe to all of them.
+	 */
+	private final Map<String, Map<IMqttReceiver, IMqttReceiver>> subscriptions;
+	/**
+	 * The logical clientId that represents all workers.
+	 */
+	private final String clientId;
+
+	/**
+	 * Creates a new consumer group.
+	 * Use the ClientInterfaceFactory to create a ConsumerGroupClientInterface.
+	 * @param group
+	 * The name of the consumer group.
+	 * @param broker
+	 * The broker to which the workers connect.
+	 * @param connectionOptions
+	 * The options used for the connections of the workers.
+	 * @param workerCount
+	 * The initial number of local workers. Must be at least 1.
+	 */
+	ConsumerGroupClientInterface(String group, String broker, ConnectionOptions connectionOptions, int workerCount) {
+		this.group = group;
+		this.broker = broker;
+		this.connectionOptions = connectionOptions;
+		this.workers = new ClientInterface[0];
+		this.subscriptions = new LinkedHashMap<>();
+		setWorkerCount(workerCount);
+		this.clientId = "group_" + group + "_" + workers[0].getClientId();
+	}
+
+	/**
+	 * The workers are initialized by the ClientInterfaceFactory upon creation, so this does nothing.
+	 * @param broker
+	 * The broker to which the workers are connected.
+	 */
+	@Override
+	public void init(String broker) {
+		// workers are initialized on creation
+	}
+
+	/**
+	 * Changes the number of local workers.
+	 * New workers subscribe to all topics of the group, removed workers are closed.
+	 * The broker balances the messages between the remaining members of the group.
+	 * @param workerCount
+	 * The new number of local workers. Must be at least 1.
+	 * @return
+	 * "success" if all new workers were subscribed and all removed workers were closed, the first failure message if not.
+	 */
+	public synchronized String setWorkerCount(int workerCount) {
+		if(workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be at least 1");
+		}
+		String result = SUCCESS;
+		ClientInterface[] current = workers;
+		ClientInterface[] resized = Arrays.copyOf(current, workerCount);
+		for(int i = current.length; i < workerCount; i++) {
+			ClientInterface worker = ClientInterfaceFactory.createClientInterface(broker, connectionOptions,
+					ClientInterfaceFactory.connectionId(connectionOptions, i));
+			for(Map.Entry<String, Map<IMqttReceiver, IMqttReceiver>> subscription: subscriptions.entrySet()) {
+				String sharedTopic = SharedSubscription.toSharedTopic(group, subscription.getKey());
+				for(IMqttReceiver plainReceiver: subscription.getValue().values()) {
+					result = combine(result, worker.subscribe(sharedTopic, plainReceiver));
+				}
+			}
+			resized[i] = worker;
+		}
+		// the removed workers are closed after the send path stopped using them
+		workers = resized;
+		for(int i = current.length - 1; i >= workerCount; i--) {
+			result = combine(result, current[i].closeClient());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of local workers.
+	 * @return
+	 * The number of local workers.
+	 */
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	/**
+	 * Returns the name of the consumer group.
+	 * @return
+	 * The name of the consumer group.
+	 */
+	public String getGroup() {
+		return group;
+	}
+
+	/**
+	 * Sends the given content over one of the workers.
+	 */
+	@Override
+	public String sendMessage(String topic, String content) {
+		return workerFor(topic).sendMessage(topic, content);
+	}
+
+	/**
+	 * Sends the given content over one of the workers.
+	 */
+	@Override
+	public String sendMessage(String topic, String content, int qos, boolean retained) {
+		return workerFor(topic).sendMessage(topic, content, qos, retained);
+	}
+
+	/**
+	 * Sends the given bytes over one of the workers.
+	 */
+	@Override
+	public String sendMessage(String topic, byte[] payload, int qos, boolean retained) {
+		return workerFor(topic).sendMessage(topic, payload, qos, retained);
+	}
+
+	/**
+	 * Sends the given content with the given priority over one of the workers.
+	 */
+	@Override
+	public String sendMessage(String topic, String content, int qos, boolean retained, MessagePriority priority) {
+		return workerFor(topic).sendMessage(topic, content, qos, retained, priority);
+	}
+
+	/**
+	 * Sends the given bytes over one of the workers.
+	 */
+	@Override
+	public String sendMessage(String topic, ByteBuffer payload, int qos, boolean retained) {
+		return workerFor(topic).sendMessage(topic, payload, qos, retained);
+	}
+
+	/**
+	 * Sends the messages as one burst over one of the workers.
+	 */
+	@Override
+	public String sendMessages(List<MessageEntry> messages) {
+		if(messages.isEmpty()) {
+			return SUCCESS;
+		}
+		return workerFor(messages.get(0).getKey()).sendMessages(messages);
+	}
+
+	/**
+	 * Subscribes all workers to the shared subscription of the given topic.
+	 * The receiver is called with the topic under which the message was published, without the shared subscription prefix.
+	 * @param topic
+	 * The topic which should be subscribed to, with or without the "$share/'group'/" prefix.
+	 * @param receiver
+	 * The implementation of the IMqttReceiver interface which will be called by the callbacks of the workers.
+	 * It may be called from multiple threads at the same time and must be thread safe.
+	 * @return
+	 * "success" if all workers were subscribed, the first failure message if not.
+	 */
+	@Override
+	public synchronized String subscribe(String topic, IMqttReceiver receiver) {
+		String plainTopic = SharedSubscription.stripSharePrefix(topic);
+		Map<IMqttReceiver, IMqttReceiver> receivers = subscriptions.computeIfAbsent(plainTopic, key -> new LinkedHashMap<>());
+		if(receivers.containsKey(receiver)) {
+			return SUCCESS;
+		}
+		IMqttReceiver plainReceiver = new IMqttReceiver() {
+
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId) {
+				receiver.messageReceived(SharedSubscription.stripSharePrefix(topic), messageString, messageId);
+			}
+
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId, boolean retained) {
+				receiver.messageReceived(SharedSubscription.stripSharePrefix(topic), messageString, messageId, retained);
+			}
+		};
+		receivers.put(receiver, plainReceiver);
+		String result = SUCCESS;
+		for(ClientInterface worker: workers) {
+			result = combine(result, worker.subscribe(SharedSubscription.toSharedTopic(group, plainTopic), plainReceiver));
+		}
+		return result;
+	}
+
+	/**
+	 * Removes a receiver of the given topic from all workers.
+	 * The workers remove the shared subscription from the broker once the last receiver of the topic is removed.
+	 * @param topic
+	 * The topic which should be unsubscribed, with or without the "$share/'group'/" prefix.
+	 * @param receiver
+	 * The receiver that was passed to subscribe.
+	 * @return
+	 * "success" if all workers were unsubscribed, the first failure message if not.
+	 */
+	@Override
+	public synchronized String unsubscribe(String topic, IMqttReceiver receiver) {
+		String plainTopic = SharedSubscription.stripSharePrefix(topic);
+		Map<IMqttReceiver, IMqttReceiver> receivers = subscriptions.get(plainTopic);
+		IMqttReceiver plainReceiver = receivers != null ? receivers.remove(receiver) : null;
+		if(plainReceiver == null) {
+			return SUCCESS;
+		}
+		if(receivers.isEmpty()) {
+			subscriptions.remove(plainTopic);
+		}
+		String result = SUCCESS;
+		for(ClientInterface worker: workers) {
+			result = combine(result, worker.unsubscribe(SharedSubscription.toSharedTopic(group, plainTopic), plainReceiver));
+		}
+		return result;
+	}
+
+	/**
+	 * Closes all workers.
+	 */
+	@Override
+	public synchronized String closeClient() {
+		String result = SUCCESS;
+		for(ClientInterface worker: workers) {
+			result = combine(result, worker.closeClient());
+		}
+		return result;
+	}
+
+	/**
+	 * Disconnects all workers.
+	 */
+	@Override
+	public synchronized String disconnectClient() {
+		String result = SUCCESS;
+		for(ClientInterface worker: workers) {
+			result = combine(result, worker.disconnectClient());
+		}
+		return result;
+	}
+
+	/**
+	 * Connects all workers.
+	 */
+	@Override
+	public synchronized String connectClient() {
+		String result = SUCCESS;
+		for(ClientInterface worker: workers) {
+			result = combine(result, worker.connectClient());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the logical clientId that represents all workers.
+	 */
+	@Override
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Returns true if all workers are connected.
+	 */
+	@Override
+	public boolean getConnectionStatus() {
+		for(ClientInterface worker: workers) {
+			if(!worker.getConnectionStatus()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the latency probe of the first worker.
+	 * Each worker has its own probe if probing is enabled, the first one is representative for the broker.
+	 */
+	@Override
+	public LatencyProbe getLatencyProbe() {
+		return workers[0].getLatencyProbe();
+	}
+	
+	/**
+	 * Returns the number of messages that may currently be inflight over all workers.
+	 */
+	@Override
+	public int getInflightWindow() {
+		int window = 0;
+		for(ClientInterface worker: workers) {
+			window += worker.getInflightWindow();
+		}
+		return window;
+	}
+
+	private ClientInterface workerFor(String topic) {
+		ClientInterface[] current = workers;
+		return current[Math.floorMod(topic.hashCode(), current.length)];
+	}
+
+	private static String combine(String result, String workerResult) {
+		if(result.startsWith(SUCCESS) && !String.valueOf(workerResult).startsWith(SUCCESS)) {
+			return String.valueOf(workerResult);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,272 @@
+package org.fraunhofer.jhmi.mqtt_client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.LatencyProbe;
+import org.fraunhofer.jhmi.util.MessageEntry;
+import org.fraunhofer.jhmi.util.MessagePriority;
+
+/**
+ * A ClientInterface that spreads its subscriptions over several connections (shards).
+ * Every shard is a separate client with its own connection to the broker and therefore its own callback thread,
+ * 	so messages of different shards are processed in parallel.
+ * Topics are assigned to a shard by their hash unless a shard is explicitly specified.
+ * To the outside the shards are represented by a single clientId.
+ */
+public class ShardedClientInterface implements ClientInterface {
+
+	/**
+	 * The clients that hold the connections of the individual shards.
+	 */
+	private final ClientInterface[] shards;
+	/**
+	 * The logical clientId that represents all shards.
+	 */
+	private final String clientId;
+
+	/**
+	 * Creates a new ShardedClientInterface from the given clients.
+	 * Use the ClientInterfaceFactory to create a ShardedClientInterface.
+	 * @param shards
+	 * The already initialized clients that should be used as shards.
+	 */
+	ShardedClientInterface(ClientInterface[] shards) {
+		this.shards = shards;
+		this.clientId = "sharded_" + shards[0].getClientId();
+	}
+
+	/**
+	 * The shards are initialized by the ClientInterfaceFactory upon creation, so this does nothing.
+	 * @param broker
+	 * The broker to which the shards are connected.
+	 */
+	@Override
+	public void init(String broker) {
+		// shards are initialized on creation
+	}
+
+	/**
+	 * Returns the index of the shard that is responsible for the given topic.
+	 * @param topic
+	 * The topic for which the shard should be determined.
+	 * @return
+	 * The index of the shard.
+	 */
+	public int shardFor(String topic) {
+		return Math.floorMod(topic.hashCode(), shards.length);
+	}
+
+	/**
+	 * Returns the number of shards.
+	 * @return
+	 * The number of shards.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Sends the given content over the shard that is responsible for the topic.
+	 */
+	@Override
+	public String sendMessage(String topic, String content) {
+		return shards[shardFor(topic)].sendMessage(topic, content);
+	}
+
+	/**
+	 * Sends the given content over the shard that is responsible for the topic.
+	 */
+	@Override
+	public String sendMessage(String topic, String content, int qos, boolean retained) {
+		return shards[shardFor(topic)].sendMessage(topic, content, qos, retained);
+	}
+
+	/**
+	 * Sends the given bytes over the shard that is responsible for the topic.
+	 */
+	@Override
+	public String sendMessage(String topic, byte[] payload, int qos, boolean retained) {
+		return shards[shardFor(topic)].sendMessage(topic, payload, qos, retained);
+	}
+
+	/**
+	 * Sends the given content with the given priority over the shard that is responsible for the topic.
+	 */
+	@Override
+	public String sendMessage(String topic, String content, int qos, boolean retained, MessagePriority priority) {
+		return shards[shardFor(topic)].sendMessage(topic, content, qos, retained, priority);
+	}
+
+	/**
+	 * Sends the given bytes over the shard that is responsible for the topic.
+	 */
+	@Override
+	public String sendMessage(String topic, ByteBuffer payload, int qos, boolean retained) {
+		return shards[shardFor(topic)].sendMessage(topic, payload, qos, retained);
+	}
+
+	/**
+	 * Sends the messages as one burst per shard, each message over the shard that is responsible for its topic.
+	 */
+	@Override
+	public String sendMessages(List<MessageEntry> messages) {
+		List<List<MessageEntry>> batches = new ArrayList<>(shards.length);
+		for(int i = 0; i < shards.length; i++) {
+			batches.add(new ArrayList<>());
+		}
+		for(MessageEntry entry: messages) {
+			batches.get(shardFor(entry.getKey())).add(entry);
+		}
+		String result = SUCCESS;
+		for(int i = 0; i < shards.length; i++) {
+			if(!batches.get(i).isEmpty()) {
+				result = combine(result, shards[i].sendMessages(batches.get(i)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Subscribes to the given topic on the shard that is determined by the hash of the topic.
+	 * @param topic
+	 * The topic which should be subscribed to
+	 * @param receiver
+	 * The implementation of the IMqttReceiver interface which will be called by the callback of the shard.
+	 * @return
+	 * "success" if the subscription was successful, the exception message if not.
+	 */
+	@Override
+	public String subscribe(String topic, IMqttReceiver receiver) {
+		return shards[shardFor(topic)].subscribe(topic, receiver);
+	}
+
+	/**
+	 * Subscribes to the given topic on an explicitly specified shard.
+	 * @param topic
+	 * The topic which should be subscribed to
+	 * @param receiver
+	 * The implementation of the IMqttReceiver interface which will be called by the callback of the shard.
+	 * @param shard
+	 * The index of the shard that should hold the subscription.
+	 * Values outside of the number of shards are wrapped around.
+	 * @return
+	 * "success" if the subscription was successful, the exception message if not.
+	 */
+	public String subscribe(String topic, IMqttReceiver receiver, int shard) {
+		return shards[Math.floorMod(shard, shards.length)].subscribe(topic, receiver);
+	}
+
+	/**
+	 * Removes a receiver from all shards, because it may have been subscribed on an explicitly specified shard.
+	 * @param topic
+	 * The topic as it was passed to subscribe.
+	 * @param receiver
+	 * The receiver that was passed to subscribe.
+	 * @return
+	 * "success" if the receiver was removed, the first failure message if not.
+	 */
+	@Override
+	public String unsubscribe(String topic, IMqttReceiver receiver) {
+		String result = SUCCESS;
+		for(ClientInterface shard: shards) {
+			result = combine(result, shard.unsubscribe(topic, receiver));
+		}
+		return result;
+	}
+
+	/**
+	 * Closes all shards.
+	 * @return
+	 * "success" if all shards were closed, the first failure message if not.
+	 */
+	@Override
+	public String closeClient() {
+		String result = SUCCESS;
+		for(ClientInterface shard: shards) {
+			result = combine(result, shard.closeClient());
+		}
+		return result;
+	}
+
+	/**
+	 * Disconnects all shards.
+	 * @return
+	 * "success" if all shards were disconnected, the first failure message if not.
+	 */
+	@Override
+	public String disconnectClient() {
+		String result = SUCCESS;
+		for(ClientInterface shard: shards) {
+			result = combine(result, shard.disconnectClient());
+		}
+		return result;
+	}
+
+	/**
+	 * Connects all shards.
+	 * @return
+	 * "success" if all shards were connected, the first failure message if not.
+	 */
+	@Override
+	public String connectClient() {
+		String result = SUCCESS;
+		for(ClientInterface shard: shards) {
+			result = combine(result, shard.connectClient());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the logical clientId that represents all shards.
+	 */
+	@Override
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Returns true if all shards are connected.
+	 */
+	@Override
+	public boolean getConnectionStatus() {
+		for(ClientInterface shard: shards) {
+			if(!shard.getConnectionStatus()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the latency probe of the first shard.
+	 * Each shard has its own probe if probing is enabled, the first one is representative for the broker.
+	 */
+	@Override
+	public LatencyProbe getLatencyProbe() {
+		return shards[0].getLatencyProbe();
+	}
+	
+	/**
+	 * Returns the number of messages that may currently be inflight over all shards.
+	 */
+	@Override
+	public int getInflightWindow() {
+		int window = 0;
+		for(ClientInterface shard: shards) {
+			window += shard.getInflightWindow();
+		}
+		return window;
+	}
+
+	private static String combine(String result, String shardResult) {
+		if(result.startsWith(SUCCESS) && !String.valueOf(shardResult).startsWith(SUCCESS)) {
+			return String.valueOf(shardResult);
+		}
+		return result;
+	}
+
+}
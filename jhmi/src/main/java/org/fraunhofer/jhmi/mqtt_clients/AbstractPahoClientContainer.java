@@ -0,0 +1,1061 @@
+package org.fraunhofer.jhmi.mqtt_clients;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.AdaptiveInflightWindow;
+import org.fraunhofer.jhmi.util.BrokerEndpoints;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.LatencyProbe;
+import org.fraunhofer.jhmi.util.MessageEntry;
+import org.fraunhofer.jhmi.util.MessagePriority;
+import org.fraunhofer.jhmi.util.MessageTracer;
+import org.fraunhofer.jhmi.util.OutboundJournal;
+import org.fraunhofer.jhmi.util.Payloads;
+import org.fraunhofer.jhmi.util.PriorityGate;
+import org.fraunhofer.jhmi.util.TopicDispatcher;
+import org.fraunhofer.jhmi.util.TrafficRecorder;
+
+/**
+ * The part of the ClientInterface implementations for the Eclipse Paho clients that does not depend on the MQTT version:
+ * 	the dispatching of the incoming messages, the priority gate and the adaptive inflight window, bursts, the failover
+ * 	between broker endpoints, the journal of the outgoing messages and the latency probe.
+ * The subclasses adapt the API of their Paho client to the protected abstract methods and pass the events of its callback
+ * 	to onMessageArrived, onConnectionLost and onConnectComplete.
+ */
+public abstract class AbstractPahoClientContainer implements ClientInterface {
+
+	/**
+	 * The reason codes of the Paho clients that are handled here. They are the same for MQTT version 3 and 5.
+	 */
+	protected static final int REASON_CODE_CLIENT_TIMEOUT = 32000;
+	protected static final int REASON_CODE_CLIENT_CONNECTED = 32100;
+	protected static final int REASON_CODE_CLIENT_ALREADY_DISCONNECTED = 32101;
+	protected static final int REASON_CODE_CLIENT_DISCONNECTING = 32102;
+	protected static final int REASON_CODE_SERVER_CONNECT_ERROR = 32103;
+	protected static final int REASON_CODE_CLIENT_NOT_CONNECTED = 32104;
+	protected static final int REASON_CODE_CONNECTION_LOST = 32109;
+	protected static final int REASON_CODE_CLIENT_CLOSED = 32111;
+	protected static final int REASON_CODE_MAX_INFLIGHT = 32202;
+
+	protected final Logger logger = Logger.getLogger(getClass().getName());
+
+	private String clientId;
+
+	/**
+	 * Default qos that should be used for the message unless otherwise specified.
+	 */
+	private int qos;
+
+	/**
+	 * Routes the incoming messages to the receivers of all matching subscriptions.
+	 */
+	private final TopicDispatcher dispatcher = new TopicDispatcher();
+
+	/**
+	 * The probe that measures the latency of the connection, null if the connection is not probed.
+	 */
+	private volatile LatencyProbe latencyProbe;
+
+	/**
+	 * Hands out the inflight slots of the connection to the outgoing messages by their priority.
+	 */
+	private final PriorityGate inflightGate = new PriorityGate(10);
+
+	/**
+	 * Adapts the capacity of the inflight gate to the acknowledgement latency, null if the capacity is fixed.
+	 */
+	private volatile AdaptiveInflightWindow adaptiveWindow;
+
+	/**
+	 * The broker URIs the client fails over between, null if the client only uses its broker.
+	 */
+	private volatile BrokerEndpoints brokerEndpoints;
+
+	/**
+	 * The broker URIs in the order of the current connection attempt.
+	 */
+	private volatile String[] attemptedURIs;
+
+	/**
+	 * Serializes the connects of the client, so concurrent senders of a disconnected client do not connect it several times.
+	 */
+	private final Object connectLock = new Object();
+
+	/**
+	 * Wakes up the senders that wait for the client to be connected again.
+	 */
+	private final Object connectedSignal = new Object();
+
+	/**
+	 * The journal of the outgoing QoS 1 and 2 messages, null if the messages are not journaled.
+	 */
+	private volatile OutboundJournal journal;
+
+	/**
+	 * True while the messages of the journal wait to be sent after the next connect.
+	 */
+	private final AtomicBoolean replayPending = new AtomicBoolean();
+
+	/**
+	 * Init function to initialize the client with the broker.
+	 * @param broker
+	 * The broker to which the client will connect.
+	 */
+	@Override
+	public void init(String broker) {
+		init(broker, null);
+	}
+
+	/**
+	 * Init function to initialize the client with the broker and a stable client id.
+	 * @param broker
+	 * The broker to which the client will connect.
+	 * @param clientId
+	 * The id with which the client identifies itself to the broker, null to generate one.
+	 */
+	public abstract void init(String broker, String clientId);
+
+	/**
+	 * Returns if the Paho client is connected.
+	 */
+	protected abstract boolean isClientConnected();
+
+	/**
+	 * Connects the Paho client with its connection options.
+	 */
+	protected abstract void connectToBroker() throws PahoException;
+
+	/**
+	 * Disconnects the Paho client.
+	 */
+	protected abstract void disconnectFromBroker() throws PahoException;
+
+	/**
+	 * Closes the Paho client and releases its resources.
+	 */
+	protected abstract void closeConnection() throws PahoException;
+
+	/**
+	 * Publishes a message and waits until it is delivered with its quality of service.
+	 */
+	protected abstract void publishMessage(String topic, byte[] payload, int qos, boolean retained) throws PahoException;
+
+	/**
+	 * Publishes a message without waiting for its delivery.
+	 * @return
+	 * The token to wait for the delivery.
+	 */
+	protected abstract DeliveryToken publishAsync(String topic, byte[] payload, int qos) throws PahoException;
+
+	/**
+	 * Subscribes the Paho client to a topic at the broker.
+	 */
+	protected abstract void subscribeAtBroker(String topic, int qos) throws PahoException;
+
+	/**
+	 * Unsubscribes the Paho client from a topic at the broker.
+	 */
+	protected abstract void unsubscribeAtBroker(String topic) throws PahoException;
+
+	/**
+	 * Returns the URI of the broker the Paho client is connected or was last connected to.
+	 */
+	protected abstract String getCurrentServerURI();
+
+	/**
+	 * Passes the broker URIs in the order in which they should be tried to the connection options.
+	 * @return
+	 * false if the client has no connection options yet.
+	 */
+	protected abstract boolean setServerURIs(String[] serverURIs);
+
+	/**
+	 * Returns if the Paho client reconnects automatically after the connection is lost.
+	 */
+	protected abstract boolean isAutomaticReconnect();
+
+	/**
+	 * Returns the connection timeout of the connection options in seconds, 0 if it is not limited.
+	 */
+	protected abstract int getConnectionTimeout();
+
+	/**
+	 * Sets the id with which the client identified itself to the broker. Called by init.
+	 * @param clientId
+	 * The client id of the Paho client.
+	 */
+	protected void setClientId(String clientId) {
+		this.clientId = clientId;
+	}
+
+	/**
+	 * Sends the given content as a message to the given topic.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param content
+	 * The content that will be sent to the specified topic.
+	 * @return
+	 * "success" if the message was successfully sent, the exception message if not.
+	 */
+	@Override
+	public String sendMessage(String topic, String content) {
+		return sendMessage(topic, content, this.qos, false);
+	}
+
+	/**
+	 * Sends the given content as a message to the given topic.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param content
+	 * The content that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * 0 for lowest and 2 for highest.
+	 * 2 guarantees delivery if the broker is available but costs more resources.
+	 * 1 guarantees delivery but can create more network traffic.
+	 * 0 does not guarantee delivery.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
+	 * @return
+	 * "success" if the message was successfully sent, the exception message if not.
+	 */
+	@Override
+	public String sendMessage(String topic, String content, int qos, boolean retained) {
+		return sendMessage(topic, content.getBytes(StandardCharsets.UTF_8), qos, retained);
+	}
+
+	/**
+	 * Sends the given bytes as a message to the given topic.
+	 * The array is used as payload of the message without copying.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param payload
+	 * The bytes that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @return
+	 * "success" if the message was successfully sent, the exception message if not.
+	 */
+	@Override
+	public String sendMessage(String topic, byte[] payload, int qos, boolean retained) {
+		return sendMessage(topic, payload, qos, retained, MessagePriority.NORMAL);
+	}
+
+	/**
+	 * Sends the given content as a message with the given priority to the given topic.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param content
+	 * The content that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @param priority
+	 * The priority class of the message. Messages of higher classes get the free inflight slots first.
+	 * @return
+	 * "success" if the message was successfully sent, the exception message if not.
+	 */
+	@Override
+	public String sendMessage(String topic, String content, int qos, boolean retained, MessagePriority priority) {
+		return sendMessage(topic, content.getBytes(StandardCharsets.UTF_8), qos, retained, priority);
+	}
+
+	/**
+	 * Sends the given bytes as a message with the given priority to the given topic.
+	 * The message waits for an inflight slot of its priority class before it is published.
+	 * The array is used as payload of the message without copying.
+	 * A journaled message that failed because of the connection stays in the journal and is sent again after the next connect.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param payload
+	 * The bytes that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @param priority
+	 * The priority class of the message. Messages of higher classes get the free inflight slots first.
+	 * @return
+	 * "success" if the message was successfully sent, the exception message if not.
+	 */
+	public String sendMessage(String topic, byte[] payload, int qos, boolean retained, MessagePriority priority) {
+		int messageQos = 0 <= qos && qos < 3 ? qos : this.qos;
+		OutboundJournal outboundJournal = journal;
+		long sequence = -1;
+		if(outboundJournal != null && messageQos > 0) {
+			try {
+				sequence = outboundJournal.append(topic, payload, messageQos, retained);
+			} catch (IOException e) {
+				return "failure the message could not be journaled: " + e.getMessage();
+			}
+			if(!outboundJournal.awaitDurable(sequence)) {
+				outboundJournal.acknowledge(sequence);
+				return "failure interrupted while journaling the message";
+			}
+		}
+		ensureConnected();
+		try {
+			inflightGate.acquire(priority);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if(sequence >= 0) {
+				// the message was not published, the sender knows its outcome from the result
+				outboundJournal.acknowledge(sequence);
+			}
+			return "failure interrupted while waiting for an inflight slot";
+		}
+		long start = System.nanoTime();
+		boolean deferred = false;
+		try {
+			publish(topic, payload, messageQos, retained);
+			if(messageQos > 0) {
+				recordAcknowledged(System.nanoTime() - start);
+			}
+			logger.fine("Message published");
+		} catch (PahoException e) {
+			recordError();
+			if(sequence >= 0 && isRetryable(e)) {
+				outboundJournal.defer(sequence, topic, payload, messageQos, retained);
+				deferred = true;
+				scheduleReplay();
+			}
+			return e.getMessage();
+		} finally {
+			inflightGate.release();
+			if(sequence >= 0 && !deferred) {
+				outboundJournal.acknowledge(sequence);
+			}
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Publishes a message. If the connection is lost while a QoS 1 or 2 message is pending and the client has broker endpoints,
+	 * 	the message is published again once the client is connected to the next endpoint.
+	 * The message can therefore arrive twice, but it is not lost by the failover.
+	 */
+	private void publish(String topic, byte[] payload, int qos, boolean retained) throws PahoException {
+		try {
+			publishMessage(topic, payload, qos, retained);
+		} catch (PahoException e) {
+			if(qos == 0 || brokerEndpoints == null || !isConnectionFailure(e) || !awaitConnected()) {
+				throw e;
+			}
+			publishMessage(topic, payload, qos, retained);
+		}
+	}
+
+	/**
+	 * Sends the remaining bytes of the given buffer as a message to the given topic.
+	 * If the buffer wraps a whole array the array is used without copying.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param payload
+	 * The buffer that contains the bytes that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @return
+	 * "success" if the message was successfully sent, the exception message if not.
+	 */
+	@Override
+	public String sendMessage(String topic, ByteBuffer payload, int qos, boolean retained) {
+		return sendMessage(topic, Payloads.toByteArray(payload), qos, retained);
+	}
+
+	/**
+	 * Sends multiple messages as one burst with low priority.
+	 * The messages are published without waiting for the delivery of the previous ones.
+	 * If no inflight slot is free for the burst the oldest message is awaited before continuing,
+	 * 	so messages with a higher priority can overtake the burst.
+	 * @param messages
+	 * The messages that should be sent, the key of each entry is the topic and the value the content.
+	 * @return
+	 * "success" if all messages were sent, the exception message if not.
+	 */
+	@Override
+	public String sendMessages(List<MessageEntry> messages) {
+		OutboundJournal outboundJournal = this.qos > 0 ? journal : null;
+		long[] sequences = new long[outboundJournal == null ? 0 : messages.size()];
+		int journaled = 0;
+		if(outboundJournal != null) {
+			try {
+				for(MessageEntry entry: messages) {
+					sequences[journaled] = outboundJournal.append(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8), this.qos, false);
+					journaled++;
+				}
+			} catch (IOException e) {
+				acknowledgeAll(outboundJournal, sequences, journaled);
+				return "failure the messages could not be journaled: " + e.getMessage();
+			}
+			if(journaled > 0 && !outboundJournal.awaitDurable(sequences[journaled - 1])) {
+				acknowledgeAll(outboundJournal, sequences, journaled);
+				return "failure interrupted while journaling the messages";
+			}
+		}
+		ensureConnected();
+		ArrayDeque<InflightMessage> tokens = new ArrayDeque<>();
+		// the messages are confirmed in the order of publishing, so the confirmed ones are always the first of the burst
+		int confirmed = 0;
+		try {
+			for(MessageEntry entry: messages) {
+				byte[] payload = entry.getValue().getBytes(StandardCharsets.UTF_8);
+				while(!inflightGate.tryAcquire(MessagePriority.LOW)) {
+					if(tokens.isEmpty()) {
+						inflightGate.acquire(MessagePriority.LOW);
+						break;
+					}
+					awaitAndRelease(tokens.poll());
+					confirmed++;
+				}
+				while(true) {
+					try {
+						long start = System.nanoTime();
+						tokens.add(new InflightMessage(publishAsync(entry.getKey(), payload, this.qos), this.qos, start));
+						break;
+					} catch (PahoException e) {
+						recordError();
+						if(e.getReasonCode() != REASON_CODE_MAX_INFLIGHT || tokens.isEmpty()) {
+							inflightGate.release();
+							throw e;
+						}
+						awaitAndRelease(tokens.poll());
+						confirmed++;
+					}
+				}
+			}
+			while(!tokens.isEmpty()) {
+				awaitAndRelease(tokens.poll());
+				confirmed++;
+			}
+			logger.fine("Messages published");
+		} catch (PahoException e) {
+			if(journaled > 0 && isRetryable(e)) {
+				deferAll(outboundJournal, messages, sequences, confirmed, journaled);
+				journaled = confirmed;
+				scheduleReplay();
+			}
+			return e.getMessage();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "failure interrupted while waiting for an inflight slot";
+		} finally {
+			for(int i = 0; i < tokens.size(); i++) {
+				inflightGate.release();
+			}
+			acknowledgeAll(outboundJournal, sequences, journaled);
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Keeps the messages of a burst that were not confirmed in the journal, so they are sent again after the next connect.
+	 */
+	private void deferAll(OutboundJournal outboundJournal, List<MessageEntry> messages, long[] sequences, int from, int to) {
+		for(int i = from; i < to; i++) {
+			MessageEntry entry = messages.get(i);
+			outboundJournal.defer(sequences[i], entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8), this.qos, false);
+		}
+	}
+
+	/**
+	 * Removes the messages of a burst from the journal once the sender knows their outcome.
+	 */
+	private static void acknowledgeAll(OutboundJournal outboundJournal, long[] sequences, int count) {
+		for(int i = 0; i < count; i++) {
+			outboundJournal.acknowledge(sequences[i]);
+		}
+	}
+
+	/**
+	 * Waits for the delivery of a message of a burst and gives its inflight slot back.
+	 * The latency of the message is only known if the sender had to wait for its acknowledgement.
+	 */
+	private void awaitAndRelease(InflightMessage inflight) throws PahoException {
+		try {
+			boolean complete = inflight.token.isComplete();
+			inflight.token.waitForCompletion();
+			if(inflight.qos > 0) {
+				if(complete) {
+					recordAcknowledged(-1);
+				} else {
+					recordAcknowledged(System.nanoTime() - inflight.startNanos);
+				}
+			}
+		} catch (PahoException e) {
+			recordError();
+			throw e;
+		} finally {
+			inflightGate.release();
+		}
+	}
+
+	/**
+	 * Passes the acknowledgement of a message to the adaptive window.
+	 * @param latencyNanos
+	 * The acknowledgement latency, a negative value if it is unknown.
+	 */
+	private void recordAcknowledged(long latencyNanos) {
+		AdaptiveInflightWindow window = adaptiveWindow;
+		if(window != null) {
+			if(latencyNanos < 0) {
+				window.onAcknowledged();
+			} else {
+				window.onAcknowledged(latencyNanos);
+			}
+		}
+	}
+
+	private void recordError() {
+		AdaptiveInflightWindow window = adaptiveWindow;
+		if(window != null) {
+			window.onError();
+		}
+	}
+
+	/**
+	 * Subscribes the client to the given topic with the given receiver called by the callback of the client.
+	 * Each subscription keeps its own receiver, a message is passed to the receivers of all subscriptions that match its topic.
+	 * @param topic
+	 * The topic which should be subscribed to.
+	 * @param receiver
+	 * The callback that defines how the message should be processed.
+	 * @return
+	 * "success" if the subscription was successful, the exception message if not.
+	 */
+	@Override
+	public String subscribe(String topic, IMqttReceiver receiver) {
+		ensureConnected();
+		try {
+			dispatcher.add(topic, receiver);
+			subscribeAtBroker(topic, qos);
+		} catch(PahoException e) {
+			return e.getMessage();
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Removes a receiver of the given topic. The client unsubscribes at the broker once no receiver of the topic is left,
+	 * 	so the broker stops delivering its messages.
+	 * @param topic
+	 * The topic as it was passed to subscribe.
+	 * @param receiver
+	 * The receiver that was passed to subscribe.
+	 * @return
+	 * "success" if the receiver was removed, the exception message if unsubscribing at the broker failed.
+	 */
+	@Override
+	public String unsubscribe(String topic, IMqttReceiver receiver) {
+		if(!dispatcher.remove(topic, receiver)) {
+			return SUCCESS;
+		}
+		try {
+			unsubscribeAtBroker(topic);
+		} catch (PahoException e) {
+			return e.getMessage();
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Closes the client and makes it unusable.
+	 * @return
+	 * "success" if the client was successfully closed, the exception message if not.
+	 */
+	@Override
+	public String closeClient() {
+		stopLatencyProbe();
+		if(journal != null) {
+			journal.close();
+		}
+		ClientInterfaceFactory.releaseClientId(clientId, this);
+		try {
+			if(isClientConnected()) {
+				disconnectFromBroker();
+			}
+			closeConnection();
+		} catch (PahoException e) {
+			if(e.getReasonCode() == REASON_CODE_CLIENT_CLOSED) {
+				return SUCCESS + " but client was already closed";
+			}
+			return e.getMessage();
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Returns the clientId used to identify the client to the broker.
+	 */
+	@Override
+	public String getClientId() {
+		return this.clientId;
+	}
+
+	/**
+	 * Disconnects the client from the broker.
+	 * @return
+	 * "success" if the client was successfully disconnected, the exception message if not.
+	 */
+	@Override
+	public String disconnectClient() {
+		try {
+			disconnectFromBroker();
+			logger.info("Disconnected client");
+		} catch (PahoException e) {
+			if(e.getReasonCode() == REASON_CODE_CLIENT_ALREADY_DISCONNECTED) {
+				return SUCCESS + " but the client was already disconnected";
+			}
+			return e.getMessage();
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Connects the client to the broker
+	 * @return
+	 * "success" if the client was successfully connected, the exception message if not.
+	 */
+	@Override
+	public String connectClient() {
+		synchronized (connectLock) {
+			orderServerURIs();
+			try {
+				connectToBroker();
+			} catch (PahoException e) {
+				if(e.getReasonCode() == REASON_CODE_CLIENT_CONNECTED) {
+					return SUCCESS + " but the client was alrady connected";
+				}
+				BrokerEndpoints endpoints = brokerEndpoints;
+				String[] attempted = attemptedURIs;
+				if(endpoints != null && attempted != null && (e.getReasonCode() == REASON_CODE_SERVER_CONNECT_ERROR
+						|| e.getReasonCode() == REASON_CODE_CLIENT_TIMEOUT)) {
+					endpoints.recordAttempt(attempted, null);
+				}
+				return e.getMessage();
+			}
+			return SUCCESS;
+		}
+	}
+
+	/**
+	 * Connects the client if it is not connected.
+	 * Concurrent senders wait for the connect of the first one instead of each starting their own.
+	 */
+	private void ensureConnected() {
+		if(!isClientConnected()) {
+			synchronized (connectLock) {
+				if(!isClientConnected()) {
+					connectClient();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes the broker URIs ordered by their health to the connection options.
+	 * This is done before connectClient connects and when the connection is lost, so the automatic reconnect of Paho
+	 * 	starts with the endpoint that was available when the connection was lost. Paho keeps this order for the retries of one reconnect.
+	 */
+	private void orderServerURIs() {
+		BrokerEndpoints endpoints = brokerEndpoints;
+		if(endpoints != null) {
+			String[] ordered = endpoints.getOrderedURIs();
+			if(setServerURIs(ordered)) {
+				attemptedURIs = ordered;
+			}
+		}
+	}
+
+	/**
+	 * Passes a message that arrived to the receivers of all matching subscriptions. Called by the callback of the Paho client.
+	 * @param topic
+	 * The topic under which the message was published.
+	 * @param payload
+	 * The content of the message.
+	 * @param messageId
+	 * The id of the message.
+	 * @param retained
+	 * If the message was delivered from the retained messages of the broker.
+	 */
+	protected void onMessageArrived(String topic, byte[] payload, int messageId, boolean retained) {
+		dispatcher.dispatch(topic, payload, messageId, retained);
+	}
+
+	/**
+	 * Records the failure of the endpoint and orders the endpoints for the automatic reconnect.
+	 * Called by the callback of the Paho client when the connection is lost.
+	 */
+	protected void onConnectionLost() {
+		BrokerEndpoints endpoints = brokerEndpoints;
+		if(endpoints != null) {
+			endpoints.recordFailure(getCurrentServerURI());
+			orderServerURIs();
+		}
+	}
+
+	/**
+	 * Records the connected endpoint and restores the subscriptions of the client,
+	 * 	because a reconnect may have been to another broker or without the previous session.
+	 * Called by the callback of the Paho client when a connect or reconnect is complete.
+	 * @param reconnect
+	 * If the connect was an automatic reconnect.
+	 * @param serverURI
+	 * The URI of the broker the client is connected to.
+	 */
+	protected void onConnectComplete(boolean reconnect, String serverURI) {
+		BrokerEndpoints endpoints = brokerEndpoints;
+		String[] attempted = attemptedURIs;
+		if(endpoints != null && attempted != null) {
+			endpoints.recordAttempt(attempted, serverURI);
+		}
+		if(reconnect || !dispatcher.getTopicFilters().isEmpty()) {
+			BrokerEndpoints.getFailoverExecutor().execute(this::restoreSubscriptions);
+		}
+		if(replayPending.compareAndSet(true, false)) {
+			BrokerEndpoints.getFailoverExecutor().execute(this::replayJournal);
+		}
+		synchronized (connectedSignal) {
+			connectedSignal.notifyAll();
+		}
+	}
+
+	private void restoreSubscriptions() {
+		for(String topic: dispatcher.getTopicFilters()) {
+			try {
+				subscribeAtBroker(topic, qos);
+			} catch (PahoException e) {
+				logger.log(Level.WARNING, "Restoring the subscription to " + topic + " failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns if a publish failed because of the connection, so the message can be sent again once the client is connected.
+	 */
+	private static boolean isRetryable(PahoException e) {
+		return isConnectionFailure(e)
+				|| e.getReasonCode() == REASON_CODE_CLIENT_DISCONNECTING
+				|| e.getReasonCode() == REASON_CODE_CLIENT_TIMEOUT;
+	}
+
+	/**
+	 * Sends the deferred messages of the journal after the next connect, or right away if the client is connected again already.
+	 */
+	private void scheduleReplay() {
+		replayPending.set(true);
+		if(isClientConnected() && replayPending.compareAndSet(true, false)) {
+			BrokerEndpoints.getFailoverExecutor().execute(this::replayJournal);
+		}
+	}
+
+	private static boolean isConnectionFailure(PahoException e) {
+		return e.getReasonCode() == REASON_CODE_CONNECTION_LOST
+				|| e.getReasonCode() == REASON_CODE_CLIENT_NOT_CONNECTED;
+	}
+
+	/**
+	 * Waits until the client is connected again, at most for the connection timeout.
+	 * Without automatic reconnect the client is connected by the calling thread.
+	 * @return
+	 * true if the client is connected.
+	 */
+	private boolean awaitConnected() {
+		if(!isAutomaticReconnect()) {
+			connectClient();
+			return isClientConnected();
+		}
+		long timeout = TimeUnit.SECONDS.toNanos(getConnectionTimeout() > 0 ? getConnectionTimeout() : 30);
+		long deadline = System.nanoTime() + timeout;
+		synchronized (connectedSignal) {
+			while(!isClientConnected()) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0) {
+					return false;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(connectedSignal, remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the connection status of the client
+	 * @return
+	 * true if client is connected and false if it is not.
+	 */
+	@Override
+	public boolean getConnectionStatus() {
+		return isClientConnected();
+	}
+
+	/**
+	 * Set the default qos
+	 * @param qos
+	 */
+	public void setMessageQos(int qos) {
+		this.qos = qos;
+	}
+
+	/**
+	 * Sets the broker URIs the client connects to in the order of their health.
+	 * @param brokerEndpoints
+	 * The endpoints, null to only use the broker of the client.
+	 */
+	public void setBrokerEndpoints(BrokerEndpoints brokerEndpoints) {
+		this.brokerEndpoints = brokerEndpoints;
+	}
+
+	/**
+	 * Opens the journal of the outgoing QoS 1 and 2 messages in a subdirectory named after the client id.
+	 * A message stays in the journal until the sender knows its outcome, so the messages that were pending when the process ended
+	 * 	are recovered and sent again after the client connected. The journal is closed with the client.
+	 * @param directory
+	 * The directory that contains the journals of the clients.
+	 * @return
+	 * "success" if the journal was opened, the exception message if not.
+	 */
+	public String openJournal(String directory) {
+		try {
+			OutboundJournal outboundJournal = new OutboundJournal(new File(directory, clientId));
+			journal = outboundJournal;
+			replayPending.set(!outboundJournal.getRecoveredMessages().isEmpty());
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "The journal of client " + clientId + " could not be opened: " + e.getMessage());
+			return e.getMessage();
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Returns the journal of the outgoing messages.
+	 * @return
+	 * The journal, null if the messages are not journaled.
+	 */
+	public OutboundJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Sends the messages of the journal that are not acknowledged yet: the messages recovered from the previous run
+	 * 	and the messages of this run whose publish failed because of the connection.
+	 * This is done automatically after a connect. Messages that fail because of the connection again stay in the journal
+	 * 	for the next connect or start, messages that the broker can never accept are dropped.
+	 * @return
+	 * "success" if all messages were sent, "success but N messages could not be sent" if not.
+	 */
+	public String replayJournal() {
+		OutboundJournal outboundJournal = journal;
+		if(outboundJournal == null) {
+			return "failure the client has no journal";
+		}
+		int failed = 0;
+		for(OutboundJournal.Entry entry: outboundJournal.getPendingMessages()) {
+			if(!outboundJournal.isPending(entry.getSequence())) {
+				continue;
+			}
+			try {
+				publish(entry.getTopic(), entry.getPayload(), entry.getQos(), entry.isRetained());
+				outboundJournal.acknowledge(entry.getSequence());
+			} catch (PahoException e) {
+				failed++;
+				if(isRetryable(e)) {
+					replayPending.set(true);
+				} else {
+					logger.log(Level.WARNING, "The journaled message " + entry.getSequence() + " to " + entry.getTopic() + " is dropped", e);
+					outboundJournal.acknowledge(entry.getSequence());
+				}
+			}
+		}
+		if(failed > 0) {
+			logger.warning(failed + " journaled messages of client " + clientId + " could not be sent");
+			return SUCCESS + " but " + failed + " messages could not be sent";
+		}
+		return SUCCESS;
+	}
+
+	/**
+	 * Returns the broker URIs the client fails over between.
+	 * @return
+	 * The endpoints with their health, null if the client only uses its broker.
+	 */
+	public BrokerEndpoints getBrokerEndpoints() {
+		return brokerEndpoints;
+	}
+
+	/**
+	 * Sets the number of inflight slots that are handed out to the outgoing messages by their priority.
+	 * A part of the slots is reserved for messages of higher priority classes.
+	 * This disables the adaptive inflight window.
+	 * @param inflightWindow
+	 * The number of messages that may be inflight at the same time. Must be at least 1.
+	 */
+	public void setInflightWindow(int inflightWindow) {
+		adaptiveWindow = null;
+		inflightGate.setCapacity(inflightWindow);
+	}
+
+	/**
+	 * Lets the number of inflight slots follow the acknowledgement latency of the connection.
+	 * The window starts in the middle of the bounds, grows while the acknowledgements are fast
+	 * 	and shrinks when the latency rises or publishing fails.
+	 * @param minimum
+	 * The lowest number of messages that may be inflight at the same time. Must be at least 1.
+	 * @param maximum
+	 * The highest number of messages that may be inflight at the same time. Must be at least minimum.
+	 */
+	public void setAdaptiveInflightWindow(int minimum, int maximum) {
+		adaptiveWindow = new AdaptiveInflightWindow(Math.max(minimum, maximum / 2), minimum, maximum, inflightGate::setCapacity);
+	}
+
+	/**
+	 * Returns the controller of the adaptive inflight window.
+	 * @return
+	 * The adaptive window, null if the number of inflight slots is fixed.
+	 */
+	public AdaptiveInflightWindow getAdaptiveInflightWindow() {
+		return adaptiveWindow;
+	}
+
+	/**
+	 * Returns the number of messages that may currently be inflight.
+	 * @return
+	 * The current number of inflight slots.
+	 */
+	@Override
+	public int getInflightWindow() {
+		return inflightGate.getCapacity();
+	}
+
+	/**
+	 * Sets the tracer that measures how long the receivers of this client take to process the messages.
+	 * @param tracer
+	 * The tracer, null to stop tracing.
+	 */
+	public void setMessageTracer(MessageTracer tracer) {
+		dispatcher.setMessageTracer(tracer);
+	}
+
+	/**
+	 * Sets the recorder that records the messages received by this client.
+	 * @param recorder
+	 * The recorder, null to stop recording.
+	 */
+	public void setTrafficRecorder(TrafficRecorder recorder) {
+		dispatcher.setTrafficRecorder(recorder);
+	}
+
+	/**
+	 * Starts a probe that continuously measures the latency of the connection through the broker.
+	 * A probe that is already running is replaced.
+	 * @param intervalMillis
+	 * The time in milliseconds between two probe messages.
+	 * @param degradedMillis
+	 * The latency in milliseconds above which the connection is DEGRADED.
+	 * @param downMillis
+	 * The time in milliseconds after which the connection is DOWN if no probe has returned.
+	 */
+	public synchronized void startLatencyProbe(long intervalMillis, long degradedMillis, long downMillis) {
+		stopLatencyProbe();
+		LatencyProbe probe = new LatencyProbe(this, intervalMillis, degradedMillis, downMillis);
+		probe.start();
+		this.latencyProbe = probe;
+	}
+
+	/**
+	 * Stops the latency probe of the connection.
+	 */
+	public synchronized void stopLatencyProbe() {
+		if(latencyProbe != null) {
+			latencyProbe.stop();
+			latencyProbe = null;
+		}
+	}
+
+	/**
+	 * Returns the probe that measures the latency of the connection.
+	 * @return
+	 * The latency probe, null if the connection is not probed.
+	 */
+	@Override
+	public LatencyProbe getLatencyProbe() {
+		return latencyProbe;
+	}
+
+	/**
+	 * The delivery of a message that was published without waiting, adapted from the token of the Paho client.
+	 */
+	protected interface DeliveryToken {
+
+		boolean isComplete();
+
+		void waitForCompletion() throws PahoException;
+
+	}
+
+	/**
+	 * An exception of the Paho client with its reason code and its message.
+	 */
+	protected static final class PahoException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int reasonCode;
+
+		/**
+		 * Wraps an exception of the Paho client.
+		 * @param reasonCode
+		 * The reason code of the exception.
+		 * @param cause
+		 * The exception of the Paho client, its message is the message of this exception.
+		 */
+		public PahoException(int reasonCode, Exception cause) {
+			super(cause.getMessage(), cause);
+			this.reasonCode = reasonCode;
+		}
+
+		public int getReasonCode() {
+			return reasonCode;
+		}
+
+	}
+
+	/**
+	 * A message of a burst that waits for its acknowledgement.
+	 */
+	private static final class InflightMessage {
+
+		private final DeliveryToken token;
+		private final int qos;
+		private final long startNanos;
+
+		private InflightMessage(DeliveryToken token, int qos, long startNanos) {
+			this.token = token;
+			this.qos = qos;
+			this.startNanos = startNanos;
+		}
+
+	}
+
+}
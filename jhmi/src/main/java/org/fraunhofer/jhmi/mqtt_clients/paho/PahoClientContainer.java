@@ -1,250 +1,186 @@
 package org.fraunhofer.jhmi.mqtt_clients.paho;
 
-import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
-import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
-import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.mqtt_clients.AbstractPahoClientContainer;
 
+/**
+ * ClientInterface implementation for the Eclipse Paho MQTT version 3 client.
+ */
+public class PahoClientContainer extends AbstractPahoClientContainer {
 
-public class PahoClientContainer implements ClientInterface {
-	
 	private MqttClient client;
 	private MqttConnectOptions options;
-	private String clientId;	
-	
-	/**
-	 * Default qos that should be used for the message unless otherwise specified.
-	 */
-	private int qos;
-
-	Logger logger;
 
 	/**
-	 * Init function to initialize the client with the broker.
+	 * Init function to initialize the client with the broker and a stable client id.
 	 * @param broker
 	 * The broker to which the client will connect.
+	 * @param clientId
+	 * The id with which the client identifies itself to the broker, null to generate one.
 	 */
 	@Override
-	public void init(String broker) {
-		this.logger = Logger.getLogger(PahoClientContainer.class.getName());
+	public void init(String broker, String clientId) {
 		try {
-			String id = MqttClient.generateClientId();
+			String id = clientId != null ? clientId : MqttClient.generateClientId();
 			MqttDefaultFilePersistence persistance = new MqttDefaultFilePersistence("/tmp");
 			client = new MqttClient(broker, id, persistance);
-			this.clientId = id;
+			client.setCallback(new MqttCallbackExtended() {
+
+				@Override
+				public void messageArrived(String topic, MqttMessage message) throws Exception {
+					onMessageArrived(topic, message.getPayload(), message.getId(), message.isRetained());
+				}
+
+				@Override
+				public void deliveryComplete(IMqttDeliveryToken token) {
+					//
+				}
+
+				@Override
+				public void connectionLost(Throwable cause) {
+					onConnectionLost();
+				}
+
+				@Override
+				public void connectComplete(boolean reconnect, String serverURI) {
+					onConnectComplete(reconnect, serverURI);
+				}
+			});
 		} catch (MqttException e) {
 			logger.log(Level.SEVERE, e.getMessage());
 		}
-		this.clientId = client.getClientId();
+		setClientId(client.getClientId());
 	}
 
-
-
 	/**
-	 * Sends the given content as a message to the given topic.
-	 * @param topic
-	 * The topic to which the message should be sent.
-	 * @param content
-	 * The content that will be sent to the specified topic.
-	 * @return
-	 * "success" if the client was successfully created, the exception message if not.
+	 * Set the connection options of the client
+	 * @param options
 	 */
+	public void setMqttConnectionOptions (MqttConnectOptions options) {
+		this.options = options;
+	}
+
 	@Override
-	public String sendMessage(String topic, String content) {
-		MqttMessage message = new MqttMessage(content.getBytes(StandardCharsets.UTF_8));
-		message.setQos(this.qos);
-		if(!client.isConnected()) {
-			connectClient();
-		}
+	protected boolean isClientConnected() {
+		return client.isConnected();
+	}
+
+	@Override
+	protected void connectToBroker() throws PahoException {
 		try {
-			client.publish(topic, message);
-			logger.fine("Message published");
+			client.connect(options);
 		} catch (MqttException e) {
-			return e.getMessage();
+			throw new PahoException(e.getReasonCode(), e);
 		}
-		return SUCCESS;
 	}
-	
-	/**
-	 * Sends the given content as a message to the given topic.
-	 * @param topic
-	 * The topic to which the message should be sent.
-	 * @param content
-	 * The content that will be sent to the specified topic.
-	 * @param qos
-	 * The quality of service for the message that should be used.
-	 * 0 for lowest and 2 for highest.
-	 * 2 guarantees delivery if the broker is available but costs more resources.
-	 * 1 guarantees delivery but can create more network traffic.
-	 * 0 does not guarantee delivery.
-	 * @param retained
-	 * If retained is true the sent message will be retained by the topic.
-	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
-	 * @return
-	 * "success" if the client was successfully created, the exception message if not.
-	 */
+
 	@Override
-	public String sendMessage(String topic, String content, int qos, boolean retained) {
-		MqttMessage message = new MqttMessage(content.getBytes(StandardCharsets.UTF_8));
-		if(0 <= qos && qos < 3) {
-			message.setQos(qos);			
-		} else {
-			message.setQos(this.qos);
-		}
-		message.setRetained(retained);
-		if(!client.isConnected()) {
-			connectClient();
-		}
+	protected void disconnectFromBroker() throws PahoException {
 		try {
-			client.publish(topic, message);
-			logger.fine("Message published");
+			client.disconnect();
 		} catch (MqttException e) {
-			return e.getMessage();
+			throw new PahoException(e.getReasonCode(), e);
 		}
-		return SUCCESS;
 	}
-	
-	/**
-	 * Subscribes the client to the given topic with the given receiver called by the callback of the client.
-	 * @param topic
-	 * The topic to which the message should be sent.
-	 * @param receiver
-	 * The callback that defines how the message should be processed.
-	 * @return
-	 * "success" if the client was successfully created, the exception message if not.
-	 */
+
 	@Override
-	public String subscribe(String topic, IMqttReceiver receiver) {
-		if(!client.isConnected()) {
-			connectClient();
-		}
+	protected void closeConnection() throws PahoException {
 		try {
-            client.subscribe(topic, qos);
-            client.setCallback( new MqttCallback() {
-				
-				@Override
-				public void messageArrived(String topic, MqttMessage message) throws Exception {
-					String messageString = new String(message.getPayload(), StandardCharsets.UTF_8);
-					receiver.messageReceived(topic, messageString, message.getId());	
-				}
-				
-				@Override
-				public void deliveryComplete(IMqttDeliveryToken token) {
-					//
-				}
-				
-				@Override
-				public void connectionLost(Throwable cause) {
-					//
-				}
-			});
-		}catch(MqttException e) {
-            return e.getMessage();
+			client.close();
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
 		}
-		
-		return SUCCESS;
 	}
 
-	/**
-	 * Closes the client and makes it unusable.
-	 * @return
-	 * "success" if the client was successfully created, the exception message if not.
-	 */
 	@Override
-	public String closeClient() {
+	protected void publishMessage(String topic, byte[] payload, int qos, boolean retained) throws PahoException {
+		MqttMessage message = new MqttMessage(payload);
+		message.setQos(qos);
+		message.setRetained(retained);
 		try {
-			if(this.client.isConnected()) {
-				this.client.disconnect();				
-			}
-			this.client.close();
+			client.publish(topic, message);
 		} catch (MqttException e) {
-			if(e.getReasonCode() == MqttException.REASON_CODE_CLIENT_CLOSED) {
-				return SUCCESS + " but client was already closed";
-			}
-            return e.getMessage();
+			throw new PahoException(e.getReasonCode(), e);
 		}
-		return SUCCESS;
 	}
 
-	/**
-	 * Returns the clientId used to identify the client to the broker.
-	 */
 	@Override
-	public String getClientId() {
-		return this.clientId;
+	protected DeliveryToken publishAsync(String topic, byte[] payload, int qos) throws PahoException {
+		MqttMessage message = new MqttMessage(payload);
+		message.setQos(qos);
+		MqttDeliveryToken token;
+		try {
+			token = client.getTopic(topic).publish(message);
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+		return new DeliveryToken() {
+
+			@Override
+			public boolean isComplete() {
+				return token.isComplete();
+			}
+
+			@Override
+			public void waitForCompletion() throws PahoException {
+				try {
+					token.waitForCompletion();
+				} catch (MqttException e) {
+					throw new PahoException(e.getReasonCode(), e);
+				}
+			}
+		};
 	}
 
-	/**
-	 * Disconnects the client from the broker.
-	 * @return
-	 * "success" if the client was successfully created, the exception message if not.
-	 */
 	@Override
-	public String disconnectClient() {
+	protected void subscribeAtBroker(String topic, int qos) throws PahoException {
 		try {
-			this.client.disconnect();
-			logger.info("Disconnected client");
+			client.subscribe(topic, qos);
 		} catch (MqttException e) {
-			if(e.getReasonCode() == MqttException.REASON_CODE_CLIENT_ALREADY_DISCONNECTED) {
-				return SUCCESS + " but the client was already disconnected";
-			}
-            return e.getMessage();
+			throw new PahoException(e.getReasonCode(), e);
 		}
-		return SUCCESS;
 	}
 
-	/**
-	 * Connects the client to the broker
-	 * @return
-	 * "success" if the client was successfully created, the exception message if not.
-	 */
 	@Override
-	public String connectClient() {
-		
+	protected void unsubscribeAtBroker(String topic) throws PahoException {
 		try {
-			client.connect(options);
+			client.unsubscribe(topic);
 		} catch (MqttException e) {
-			if(e.getReasonCode() == MqttException.REASON_CODE_CLIENT_CONNECTED) {
-				return SUCCESS + " but the client was alrady connected";
-			}
-			return e.getMessage();
+			throw new PahoException(e.getReasonCode(), e);
 		}
-		return SUCCESS;
 	}
 
-	/**
-	 * Returns the connection status of the client
-	 * @return
-	 * true if client is connected and false if it is not.
-	 */
 	@Override
-	public boolean getConnectionStatus() {
-		return client.isConnected();
+	protected String getCurrentServerURI() {
+		return client.getCurrentServerURI();
 	}
-	
-	/**
-	 * Set the connection options of the client
-	 * @param options
-	 */
-	public void setMqttConnectionOptions (MqttConnectOptions options) {
-		this.options = options;
+
+	@Override
+	protected boolean setServerURIs(String[] serverURIs) {
+		if(options == null) {
+			return false;
+		}
+		options.setServerURIs(serverURIs);
+		return true;
 	}
-	
-	/**
-	 * Set the default qos
-	 * @param qos
-	 */
-	public void setMessageQos(int qos) {
-		this.qos = qos;
+
+	@Override
+	protected boolean isAutomaticReconnect() {
+		return options.isAutomaticReconnect();
+	}
+
+	@Override
+	protected int getConnectionTimeout() {
+		return options.getConnectionTimeout();
 	}
 
 }
@@ -20,7 +20,23 @@ public class PahoMqttClientFactory {
 	 * The client created according to the provided clientType.
 	 */
 	public static PahoClientContainer createMqttClient(String broker, ConnectionOptions connectionOptions) {
-		PahoClientContainer client = createMqttClient(broker);
+		return createMqttClient(broker, connectionOptions, connectionOptions.getClientId());
+	}
+	
+	/**
+	 * Creates a client with the given client id instead of the one of the connectionOptions.
+	 * @param broker
+	 * The address for the broker to which the client should connect.
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @param clientId
+	 * The id with which the client identifies itself to the broker, null to generate one.
+	 * @return
+	 * The created client.
+	 */
+	public static PahoClientContainer createMqttClient(String broker, ConnectionOptions connectionOptions, String clientId) {
+		PahoClientContainer client = new PahoClientContainer();
+		client.init(broker, clientId);
 		MqttConnectOptions options = new MqttConnectOptions();
 		
 		setAuthentification(options, connectionOptions.getPassword(), connectionOptions.getUsername());
@@ -33,6 +49,22 @@ public class PahoMqttClientFactory {
 		
 		client.setMqttConnectionOptions(options);
 		client.setMessageQos(connectionOptions.getQos());
+		if(connectionOptions.getAdaptiveInflight()) {
+			client.setAdaptiveInflightWindow(Math.min(connectionOptions.getMinInflight(), connectionOptions.getMaxInflight()),
+					connectionOptions.getMaxInflight());
+		} else {
+			client.setInflightWindow(connectionOptions.getMaxInflight());
+		}
+		client.setMessageTracer(connectionOptions.getMessageTracer());
+		client.setTrafficRecorder(connectionOptions.getTrafficRecorder());
+		client.setBrokerEndpoints(connectionOptions.getBrokerEndpoints());
+		if(connectionOptions.getJournalDirectory() != null && clientId != null) {
+			client.openJournal(connectionOptions.getJournalDirectory());
+		}
+		if(connectionOptions.getLatencyProbeInterval() > 0) {
+			client.startLatencyProbe(connectionOptions.getLatencyProbeInterval(), connectionOptions.getLatencyProbeDegradedThreshold(),
+					Math.max(connectionOptions.getLatencyProbeDegradedThreshold(), connectionOptions.getLatencyProbeDownThreshold()));
+		}
 		return client;
 	}
 	
@@ -65,7 +97,7 @@ public class PahoMqttClientFactory {
 	
 	
 	private static void setAuthentification (MqttConnectOptions options, char[] password, String username) {
-		if(password.length > 0 && !username.isEmpty()) {
+		if(password != null && username != null && password.length > 0 && !username.isEmpty()) {
 			options.setPassword(password);
 			options.setUserName(username);			
 		}
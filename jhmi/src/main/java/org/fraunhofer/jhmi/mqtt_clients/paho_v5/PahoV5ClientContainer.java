@@ -0,0 +1,214 @@
+package org.fraunhofer.jhmi.mqtt_clients.paho_v5;
+
+import java.security.SecureRandom;
+import java.util.logging.Level;
+
+import org.eclipse.paho.mqttv5.client.IMqttToken;
+import org.eclipse.paho.mqttv5.client.MqttCallback;
+import org.eclipse.paho.mqttv5.client.MqttClient;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.eclipse.paho.mqttv5.client.MqttDisconnectResponse;
+import org.eclipse.paho.mqttv5.client.MqttToken;
+import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
+import org.eclipse.paho.mqttv5.common.MqttException;
+import org.eclipse.paho.mqttv5.common.MqttMessage;
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+import org.fraunhofer.jhmi.mqtt_clients.AbstractPahoClientContainer;
+
+/**
+ * ClientInterface implementation for the Eclipse Paho MQTT version 5 client.
+ * Topic aliases are assigned automatically by the Paho client for topics that are published repeatedly,
+ * 	as long as the broker allows topic aliases in its CONNACK.
+ * Shared subscriptions can be used by subscribing to "$share/'group'/'topic'",
+ * 	the receiver is called with the topic under which the message was published.
+ */
+public class PahoV5ClientContainer extends AbstractPahoClientContainer {
+
+	private static final SecureRandom CLIENT_ID_RANDOM = new SecureRandom();
+
+	private MqttClient client;
+	private MqttConnectionOptions options;
+
+	/**
+	 * Init function to initialize the client with the broker and a stable client id.
+	 * @param broker
+	 * The broker to which the client will connect.
+	 * @param clientId
+	 * The id with which the client identifies itself to the broker, null to generate one.
+	 */
+	@Override
+	public void init(String broker, String clientId) {
+		try {
+			String id = clientId != null ? clientId : generateClientId();
+			MqttDefaultFilePersistence persistance = new MqttDefaultFilePersistence("/tmp");
+			client = new MqttClient(broker, id, persistance);
+			client.setCallback(new MqttCallback() {
+
+				@Override
+				public void messageArrived(String topic, MqttMessage message) throws Exception {
+					onMessageArrived(topic, message.getPayload(), message.getId(), message.isRetained());
+				}
+
+				@Override
+				public void deliveryComplete(IMqttToken token) {
+					//
+				}
+
+				@Override
+				public void disconnected(MqttDisconnectResponse disconnectResponse) {
+					onConnectionLost();
+				}
+
+				@Override
+				public void mqttErrorOccurred(MqttException exception) {
+					logger.log(Level.WARNING, exception.getMessage());
+				}
+
+				@Override
+				public void connectComplete(boolean reconnect, String serverURI) {
+					onConnectComplete(reconnect, serverURI);
+				}
+
+				@Override
+				public void authPacketArrived(int reasonCode, MqttProperties properties) {
+					//
+				}
+			});
+		} catch (MqttException e) {
+			logger.log(Level.SEVERE, e.getMessage());
+		}
+		setClientId(client.getClientId());
+	}
+
+	/**
+	 * Generates a client id like the generateClientId of the Paho v3 client, which the v5 client does not offer.
+	 * The id ends with 64 random bits instead of the time, so clients of different processes that start at the same time do not collide.
+	 * With 20 characters it stays below the 23 characters every broker has to accept.
+	 */
+	private static String generateClientId() {
+		return String.format("paho%016x", CLIENT_ID_RANDOM.nextLong());
+	}
+
+	/**
+	 * Set the connection options of the client
+	 * @param options
+	 */
+	public void setMqttConnectionOptions(MqttConnectionOptions options) {
+		this.options = options;
+	}
+
+	@Override
+	protected boolean isClientConnected() {
+		return client.isConnected();
+	}
+
+	@Override
+	protected void connectToBroker() throws PahoException {
+		try {
+			client.connect(options);
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+	}
+
+	@Override
+	protected void disconnectFromBroker() throws PahoException {
+		try {
+			client.disconnect();
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+	}
+
+	@Override
+	protected void closeConnection() throws PahoException {
+		try {
+			client.close();
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+	}
+
+	@Override
+	protected void publishMessage(String topic, byte[] payload, int qos, boolean retained) throws PahoException {
+		MqttMessage message = new MqttMessage(payload);
+		message.setQos(qos);
+		message.setRetained(retained);
+		try {
+			client.publish(topic, message);
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+	}
+
+	@Override
+	protected DeliveryToken publishAsync(String topic, byte[] payload, int qos) throws PahoException {
+		MqttMessage message = new MqttMessage(payload);
+		message.setQos(qos);
+		MqttToken token;
+		try {
+			token = client.getTopic(topic).publish(message);
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+		return new DeliveryToken() {
+
+			@Override
+			public boolean isComplete() {
+				return token.isComplete();
+			}
+
+			@Override
+			public void waitForCompletion() throws PahoException {
+				try {
+					token.waitForCompletion();
+				} catch (MqttException e) {
+					throw new PahoException(e.getReasonCode(), e);
+				}
+			}
+		};
+	}
+
+	@Override
+	protected void subscribeAtBroker(String topic, int qos) throws PahoException {
+		try {
+			client.subscribe(topic, qos);
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+	}
+
+	@Override
+	protected void unsubscribeAtBroker(String topic) throws PahoException {
+		try {
+			client.unsubscribe(topic);
+		} catch (MqttException e) {
+			throw new PahoException(e.getReasonCode(), e);
+		}
+	}
+
+	@Override
+	protected String getCurrentServerURI() {
+		return client.getCurrentServerURI();
+	}
+
+	@Override
+	protected boolean setServerURIs(String[] serverURIs) {
+		if(options == null) {
+			return false;
+		}
+		options.setServerURIs(serverURIs);
+		return true;
+	}
+
+	@Override
+	protected boolean isAutomaticReconnect() {
+		return options.isAutomaticReconnect();
+	}
+
+	@Override
+	protected int getConnectionTimeout() {
+		return options.getConnectionTimeout();
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.fraunhofer.jhmi.mqtt_clients.paho_v5;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.eclipse.paho.mqttv5.common.MqttMessage;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+
+public class PahoV5MqttClientFactory {
+
+	private PahoV5MqttClientFactory() {
+
+	}
+
+	/**
+	 * Factory for creating MQTT version 5 clients.
+	 * @param broker
+	 * The address for the broker to which the client should connect.
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @return
+	 * The created client.
+	 */
+	public static PahoV5ClientContainer createMqttClient(String broker, ConnectionOptions connectionOptions) {
+		return createMqttClient(broker, connectionOptions, connectionOptions.getClientId());
+	}
+
+	/**
+	 * Creates a client with the given client id instead of the one of the connectionOptions.
+	 * @param broker
+	 * The address for the broker to which the client should connect.
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @param clientId
+	 * The id with which the client identifies itself to the broker, null to generate one.
+	 * @return
+	 * The created client.
+	 */
+	public static PahoV5ClientContainer createMqttClient(String broker, ConnectionOptions connectionOptions, String clientId) {
+		PahoV5ClientContainer client = new PahoV5ClientContainer();
+		client.init(broker, clientId);
+		MqttConnectionOptions options = new MqttConnectionOptions();
+
+		setAuthentification(options, connectionOptions.getPassword(), connectionOptions.getUsername());
+		options.setAutomaticReconnect(connectionOptions.getAutoReconnect());
+		options.setCleanStart(connectionOptions.getCleanSession());
+		options.setConnectionTimeout(connectionOptions.getConnectionTimeout());
+		options.setKeepAliveInterval(connectionOptions.getKeepAlive());
+		options.setSessionExpiryInterval(connectionOptions.getSessionExpiryInterval());
+		options.setReceiveMaximum(connectionOptions.getReceiveMaximum());
+		options.setTopicAliasMaximum(connectionOptions.getTopicAliasMaximum());
+		setLastWill(options, connectionOptions.getLastWillMessage(), connectionOptions.getLastWillTopic());
+
+		client.setMqttConnectionOptions(options);
+		client.setMessageQos(connectionOptions.getQos());
+		if(connectionOptions.getAdaptiveInflight()) {
+			client.setAdaptiveInflightWindow(Math.min(connectionOptions.getMinInflight(), connectionOptions.getMaxInflight()),
+					connectionOptions.getMaxInflight());
+		} else {
+			client.setInflightWindow(connectionOptions.getMaxInflight());
+		}
+		client.setMessageTracer(connectionOptions.getMessageTracer());
+		client.setTrafficRecorder(connectionOptions.getTrafficRecorder());
+		client.setBrokerEndpoints(connectionOptions.getBrokerEndpoints());
+		if(connectionOptions.getJournalDirectory() != null && clientId != null) {
+			client.openJournal(connectionOptions.getJournalDirectory());
+		}
+		if(connectionOptions.getLatencyProbeInterval() > 0) {
+			client.startLatencyProbe(connectionOptions.getLatencyProbeInterval(), connectionOptions.getLatencyProbeDegradedThreshold(),
+					Math.max(connectionOptions.getLatencyProbeDegradedThreshold(), connectionOptions.getLatencyProbeDownThreshold()));
+		}
+		return client;
+	}
+
+	private static void setAuthentification(MqttConnectionOptions options, char[] password, String username) {
+		if(password != null && username != null && password.length > 0 && !username.isEmpty()) {
+			ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+			options.setPassword(Arrays.copyOf(encoded.array(), encoded.limit()));
+			options.setUserName(username);
+		}
+	}
+
+	private static void setLastWill(MqttConnectionOptions options, String lastWillMessage, String lastWillTopic) {
+		if(lastWillMessage != null && lastWillTopic != null) {
+			MqttMessage will = new MqttMessage(lastWillMessage.getBytes(StandardCharsets.UTF_8));
+			will.setQos(2);
+			will.setRetained(true);
+			options.setWill(lastWillTopic, will);
+		}
+	}
+}
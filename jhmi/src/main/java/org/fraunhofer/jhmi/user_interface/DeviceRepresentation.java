@@ -1,17 +1,51 @@
 package org.fraunhofer.jhmi.user_interface;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.util.BackpressureStrategy;
 import org.fraunhofer.jhmi.util.ClientInterface;
 import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.Flow;
+import org.fraunhofer.jhmi.util.InboundFilter;
 import org.fraunhofer.jhmi.util.MessageEntry;
+import org.fraunhofer.jhmi.util.MessageTracer;
+import org.fraunhofer.jhmi.util.MqttEvent;
+import org.fraunhofer.jhmi.util.MqttEventPublisher;
+import org.fraunhofer.jhmi.util.Topic;
+import org.fraunhofer.jhmi.util.TopicFilter;
+import org.fraunhofer.jhmi.util.TracedReceiver;
 
 
 public class DeviceRepresentation {
 
+	/**
+	 * The default time in milliseconds without retained messages after which the bootstrap is considered complete.
+	 */
+	public static final long DEFAULT_BOOTSTRAP_QUIET_PERIOD = 500;
+	
+	/**
+	 * Timer shared by all DeviceRepresentations to detect the end of the bootstrap.
+	 */
+	private static final ScheduledExecutorService BOOTSTRAP_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-bootstrap-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	protected Logger logger;
 	/**
 	 * The name of the device that this DeviceRepresentaion should represent.
@@ -28,6 +62,11 @@ public class DeviceRepresentation {
 	 * To access the saved values call the getDeviceValue functions.
 	 */
 	protected final String deviceTopic;
+	/**
+	 * The number of levels of the topic of the device, which is the index of the first level below it.
+	 * It is set before the subscription, so subclasses can use it for the first messages of the device.
+	 */
+	protected final int deviceTopicLevelCount;
 	/**
 	 * The ConnectionOptions for all the clients used by the DeviceRepresentation.
 	 */
@@ -37,19 +76,68 @@ public class DeviceRepresentation {
 	 * It listens to the deviceTopic topic.
 	 */
 	protected ClientInterface client;
+	/**
+	 * True if the client is shared with other DeviceRepresentations and is neither subscribed nor closed by this one.
+	 */
+	protected final boolean sharedClient;
 	/**
 	 * The map that holds the saved message.
 	 * The saved messages can be sent with the sendMessage function.
 	 */
-	protected HashMap<String, Map.Entry<String, String>> messageMap;
+	protected ConcurrentHashMap<String, Map.Entry<String, String>> messageMap;
 	/**
 	 * The map that holds the values of the deviceTopic and all it's sub topics.
 	 */
-	protected HashMap<String, String> deviceValuesMap;
+	protected ConcurrentHashMap<String, String> deviceValuesMap;
+	/**
+	 * The callbacks of this DeviceRepresentation by the topic they are listening to.
+	 * All callbacks share the client of the DeviceRepresentation.
+	 */
+	protected ConcurrentHashMap<String, Callback> callbackMap;
+	/**
+	 * The receivers of the own subscriptions of the client by the topic of the callbacks outside of the deviceTopic.
+	 */
+	private final ConcurrentHashMap<String, IMqttReceiver> callbackSubscriptions = new ConcurrentHashMap<>();
+	/**
+	 * The filters for received values by the key under which the values are saved.
+	 */
+	protected ConcurrentHashMap<String, InboundFilter> inboundFilters = new ConcurrentHashMap<>();
+	/**
+	 * The filter for received values whose key has no own filter, null if these values are not filtered.
+	 */
+	protected volatile InboundFilter defaultInboundFilter;
+	/**
+	 * The tracer of the ConnectionOptions that measures the callbacks of this DeviceRepresentation, null if they are not traced.
+	 */
+	private final MessageTracer messageTracer;
+	/**
+	 * The listeners that are called when a saved value changes.
+	 */
+	private final CopyOnWriteArrayList<IValueChangeListener> valueChangeListeners = new CopyOnWriteArrayList<>();
+	/**
+	 * The listeners that are called for every saved value, also if it did not change.
+	 */
+	private final CopyOnWriteArrayList<IValueUpdateListener> valueUpdateListeners = new CopyOnWriteArrayList<>();
+	/**
+	 * Completed when the retained values have been delivered after the subscription of the deviceTopic.
+	 */
+	private final CompletableFuture<Void> readyFuture = new CompletableFuture<>();
 	/**
-	 * The map that holds all the clients used by this DeviceRepresentation to add further callbacks to this DeviceRepresentation.
+	 * The keys of the deviceValuesMap that complete the bootstrap once they all have a value.
 	 */
-	protected HashMap<String, ClientInterface> clientMap;
+	private volatile Collection<String> expectedValues = Collections.emptyList();
+	/**
+	 * The time in milliseconds without retained messages after which the bootstrap is considered complete.
+	 */
+	private volatile long bootstrapQuietPeriod = DEFAULT_BOOTSTRAP_QUIET_PERIOD;
+	/**
+	 * The time in nanoseconds of the last retained message or of the subscription.
+	 */
+	private volatile long lastRetainedNanos;
+	/**
+	 * The periodic check for the end of the bootstrap.
+	 */
+	private volatile ScheduledFuture<?> bootstrapCheck;
 
 	
 	/**
@@ -64,54 +152,392 @@ public class DeviceRepresentation {
 	 * The topic to which status updates of the device are sent.
 	 */
 	public DeviceRepresentation(String representedDeviceName, ConnectionOptions connectionOptions, String broker, String topic) {
+		this(representedDeviceName, connectionOptions, broker, topic, null);
+	}
+	
+	/**
+	 * Creates a new DeviceRepresentation that can share the client of its owner.
+	 * A shared client is neither subscribed nor closed by the DeviceRepresentation,
+	 * 	the owner of the client passes the messages of the device to deliverMessage.
+	 * @param representedDeviceName
+	 * The name of the represented device.
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @param broker
+	 * The broker over which status updates of the device a sent.
+	 * @param topic
+	 * The topic to which status updates of the device are sent.
+	 * @param sharedClient
+	 * The client that is used to send messages and subscribe callbacks, null to create an own client.
+	 */
+	public DeviceRepresentation(String representedDeviceName, ConnectionOptions connectionOptions, String broker, String topic, ClientInterface sharedClient) {
 		this.connectionOptions = connectionOptions;
 		this.deviceTopic = topic + "/#";
+		this.deviceTopicLevelCount = Topic.of(topic).getLevelCount();
 		this.broker = broker;
-		this.clientMap = new HashMap<>();
+		this.callbackMap = new ConcurrentHashMap<>();
+		this.messageTracer = connectionOptions == null ? null : connectionOptions.getMessageTracer();
 		logger = Logger.getLogger(DeviceRepresentation.class.getName());
-		messageMap = new HashMap<>();
-		deviceValuesMap = new HashMap<>();
+		messageMap = new ConcurrentHashMap<>();
+		deviceValuesMap = new ConcurrentHashMap<>();
 		this.representedDeviceName = representedDeviceName;
 		
-		client = ClientInterfaceFactory.createClientInterface(broker, connectionOptions);
-		IMqttReceiver receiver = new IMqttReceiver() {
-			
-			@Override
-			public void messageReceived(String topic, String messageString, int messageId) {
-				deviceValuesMap.put(topic, messageString);			
-			}
-		};
-		client.subscribe(deviceTopic, receiver);
+		this.sharedClient = sharedClient != null;
+		if(sharedClient != null) {
+			client = sharedClient;
+		} else {
+			client = ClientInterfaceFactory.createClientInterface(broker, connectionOptions);
+			client.subscribe(deviceTopic, new TracedReceiver() {
+				
+				@Override
+				public void messageReceived(String topic, String messageString, int messageId) {
+					deliverMessage(topic, messageString, messageId, false);
+				}
+				
+				@Override
+				public boolean isTraced() {
+					return messageTracer != null;
+				}
+				
+				@Override
+				public void messageReceived(String topic, String messageString, int messageId, boolean retained) {
+					deliverMessage(topic, messageString, messageId, retained);
+				}
+				
+				@Override
+				public void messageReceived(String topic, String messageString, int messageId, boolean retained, long arrivalNanos, long decodedNanos) {
+					deliverMessage(topic, messageString, messageId, retained, arrivalNanos, decodedNanos);
+				}
+			});
+		}
+		startBootstrap();
 		
 	}
+	
+	/**
+	 * Processes a message of the device: the value is saved and passed to the callbacks within the deviceTopic.
+	 * This is called by the subscription of the DeviceRepresentation, or by the owner of a shared client.
+	 * @param topic
+	 * The topic under which the message was received. It has to be within the deviceTopic.
+	 * @param messageString
+	 * The content of the message.
+	 * @param messageId
+	 * The id of the message.
+	 * @param retained
+	 * True if the message was retained by the broker.
+	 */
+	public void deliverMessage(String topic, String messageString, int messageId, boolean retained) {
+		long now = messageTracer != null ? System.nanoTime() : 0;
+		deliverMessage(topic, messageString, messageId, retained, now, now);
+	}
+	
+	/**
+	 * Processes a message of the device like deliverMessage(topic, messageString, messageId, retained),
+	 * 	with the times the client measured, so the MessageTracer reports the whole latency of the callbacks and listeners.
+	 * @param topic
+	 * The topic under which the message was received. It has to be within the deviceTopic.
+	 * @param messageString
+	 * The content of the message.
+	 * @param messageId
+	 * The id of the message.
+	 * @param retained
+	 * True if the message was retained by the broker.
+	 * @param arrivalNanos
+	 * The time at which the client handed the message over.
+	 * @param decodedNanos
+	 * The time at which the content of the message was decoded.
+	 */
+	public void deliverMessage(String topic, String messageString, int messageId, boolean retained, long arrivalNanos, long decodedNanos) {
+		if(updateDeviceValue(topic, messageString, arrivalNanos, decodedNanos)) {
+			for(Callback callback: callbackMap.values()) {
+				if(callback.insideDeviceTopic && callback.enabled && callback.filter.matches(topic)) {
+					invokeCallback(callback, topic, messageString, messageId, retained, arrivalNanos, decodedNanos);
+				}
+			}
+		}
+		if(retained) {
+			lastRetainedNanos = System.nanoTime();
+		}
+		if(!readyFuture.isDone()) {
+			checkExpectedValues();
+		}
+	}
+	
+	/**
+	 * Returns the key under which a received value is saved in the deviceValuesMap.
+	 * Subclasses can override this to change the key under which the value is saved.
+	 * @param topic
+	 * The topic under which the value was received.
+	 * @return
+	 * The key for the value, null if the value should not be saved.
+	 */
+	protected String getValueKey(String topic) {
+		return topic;
+	}
+	
+	/**
+	 * Saves a received value in the deviceValuesMap if it passes the inbound filter of its key.
+	 * Values that are filtered are neither saved nor passed to the callbacks within the deviceTopic.
+	 * The value update listeners are called for every saved value,
+	 * 	the value change listeners only if the saved value differs from the previous one.
+	 * @param topic
+	 * The topic under which the value was received.
+	 * @param messageString
+	 * The received value.
+	 * @return
+	 * false if the value was dropped by an inbound filter, true otherwise.
+	 */
+	protected boolean updateDeviceValue(String topic, String messageString) {
+		long now = messageTracer != null ? System.nanoTime() : 0;
+		return updateDeviceValue(topic, messageString, now, now);
+	}
+	
+	/**
+	 * Saves a received value like updateDeviceValue(topic, messageString) and reports the listeners to the MessageTracer.
+	 */
+	private boolean updateDeviceValue(String topic, String messageString, long arrivalNanos, long decodedNanos) {
+		String key = getValueKey(topic);
+		if(key == null) {
+			return true;
+		}
+		InboundFilter filter = inboundFilters.get(key);
+		if(filter == null) {
+			filter = defaultInboundFilter;
+		}
+		if(filter != null && !filter.accept(key, messageString)) {
+			return false;
+		}
+		String oldValue = deviceValuesMap.put(key, messageString);
+		for(IValueUpdateListener listener: valueUpdateListeners) {
+			long dispatchNanos = messageTracer != null ? System.nanoTime() : 0;
+			listener.valueUpdated(this, topic, key, messageString);
+			if(messageTracer != null) {
+				messageTracer.record(topic, listener, arrivalNanos, decodedNanos, dispatchNanos, System.nanoTime());
+			}
+		}
+		if(!valueChangeListeners.isEmpty() && !messageString.equals(oldValue)) {
+			for(IValueChangeListener listener: valueChangeListeners) {
+				long dispatchNanos = messageTracer != null ? System.nanoTime() : 0;
+				listener.valueChanged(this, topic, key, oldValue, messageString);
+				if(messageTracer != null) {
+					messageTracer.record(topic, listener, arrivalNanos, decodedNanos, dispatchNanos, System.nanoTime());
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds a listener that is called every time a saved value of the device changes.
+	 * Values that are received again unchanged do not call the listener.
+	 * @param listener
+	 * The listener that should be called.
+	 */
+	public void addValueChangeListener(IValueChangeListener listener) {
+		valueChangeListeners.addIfAbsent(listener);
+	}
+	
+	/**
+	 * Removes a listener that was added with addValueChangeListener.
+	 * @param listener
+	 * The listener that should no longer be called.
+	 */
+	public void removeValueChangeListener(IValueChangeListener listener) {
+		valueChangeListeners.remove(listener);
+	}
+	
+	/**
+	 * Adds a listener that is called for every received value that is saved, including values that are received again unchanged,
+	 * 	for example to aggregate every sample of a sensor.
+	 * @param listener
+	 * The listener that should be called.
+	 */
+	public void addValueUpdateListener(IValueUpdateListener listener) {
+		valueUpdateListeners.addIfAbsent(listener);
+	}
+	
+	/**
+	 * Removes a listener that was added with addValueUpdateListener.
+	 * @param listener
+	 * The listener that should no longer be called.
+	 */
+	public void removeValueUpdateListener(IValueUpdateListener listener) {
+		valueUpdateListeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the name of the represented device.
+	 * @return
+	 * The name that was given to the DeviceRepresentation.
+	 */
+	public String getRepresentedDeviceName() {
+		return representedDeviceName;
+	}
+	
+	/**
+	 * Returns the topic filter of the values of the device.
+	 * @return
+	 * The topic of the device followed by "/#".
+	 */
+	public String getDeviceTopic() {
+		return deviceTopic;
+	}
+	
+	/**
+	 * Sets the filter for the values of the specified key.
+	 * Values that do not pass the filter are neither saved nor passed to the callbacks within the deviceTopic.
+	 * @param key
+	 * The key as used for the getDeviceValue function.
+	 * @param filter
+	 * The filter for the values of this key, null to remove the filter.
+	 */
+	public void setInboundFilter(String key, InboundFilter filter) {
+		if(filter == null) {
+			inboundFilters.remove(key);
+		} else {
+			inboundFilters.put(key, filter);
+		}
+	}
+	
+	/**
+	 * Sets the filter for all values whose key has no own filter.
+	 * @param filter
+	 * The filter for the values, null to remove the filter.
+	 */
+	public void setInboundFilter(InboundFilter filter) {
+		defaultInboundFilter = filter;
+	}
+	
+	/**
+	 * Returns a future that is completed once the broker has delivered the retained values of the device.
+	 * The bootstrap is complete when no retained message has been received for the bootstrap quiet period
+	 * 	or when all values specified by setExpectedValues have been received, whichever happens first.
+	 * @return
+	 * The future that completes at the end of the bootstrap.
+	 */
+	public CompletableFuture<Void> ready() {
+		return readyFuture;
+	}
+	
+	/**
+	 * Specifies the values that are known to exist for the device.
+	 * The bootstrap completes as soon as all of them have been received.
+	 * @param keys
+	 * The keys as used for the getDeviceValue function.
+	 */
+	public void setExpectedValues(Collection<String> keys) {
+		expectedValues = new ArrayList<>(keys);
+		checkExpectedValues();
+	}
+	
+	/**
+	 * Specifies the time without retained messages after which the bootstrap is considered complete.
+	 * @param millis
+	 * The quiet period in milliseconds. By default this is 500.
+	 */
+	public void setBootstrapQuietPeriod(long millis) {
+		bootstrapQuietPeriod = millis;
+	}
+	
+	private void startBootstrap() {
+		lastRetainedNanos = System.nanoTime();
+		long interval = Math.max(DEFAULT_BOOTSTRAP_QUIET_PERIOD / 10, 1);
+		bootstrapCheck = BOOTSTRAP_TIMER.scheduleWithFixedDelay(() -> {
+			if(System.nanoTime() - lastRetainedNanos >= TimeUnit.MILLISECONDS.toNanos(bootstrapQuietPeriod)) {
+				completeBootstrap();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	private void checkExpectedValues() {
+		Collection<String> expected = expectedValues;
+		if(expected.isEmpty()) {
+			return;
+		}
+		for(String key: expected) {
+			if(getDeviceValue(key) == null) {
+				return;
+			}
+		}
+		completeBootstrap();
+	}
+	
+	private void completeBootstrap() {
+		if(readyFuture.complete(null) && bootstrapCheck != null) {
+			bootstrapCheck.cancel(false);
+		}
+	}
 
 	/**
 	 * Set the callback that should be executed if a message has been received under the subscribed topic.
+	 * Callbacks for topics below the deviceTopic are served by the existing subscription of the DeviceRepresentation.
+	 * For other topics the client of the DeviceRepresentation subscribes once, no further clients are created.
+	 * A callback that was set before for the same topic is replaced.
 	 * @param topic
-	 * The topic that should be listened to.
+	 * The topic that should be listened to. It can contain the wildcards "+" and "#".
 	 * @param receiver
 	 * An implementation of the IMqttReceiver object which will be called when a message has been received.
+	 * @return
+	 * Success or failure of subscribing to the topic.
 	 */
 	public String addCallback(String topic, IMqttReceiver receiver ) {
-		
-		ClientInterface newClient = ClientInterfaceFactory.createClientInterface(broker, connectionOptions);
-		clientMap.put(topic, newClient);
-		
-		return client.subscribe(topic, receiver);
-	
+		Callback callback = new Callback(TopicFilter.of(topic), receiver, isInsideDeviceTopic(topic));
+		callbackMap.put(topic, callback);
+		if(callback.insideDeviceTopic) {
+			return ClientInterface.SUCCESS;
+		}
+		IMqttReceiver subscription = new TracedReceiver() {
+			
+			@Override
+			public void messageReceived(String messageTopic, String messageString, int messageId) {
+				messageReceived(messageTopic, messageString, messageId, false);
+			}
+			
+			@Override
+			public boolean isTraced() {
+				return messageTracer != null;
+			}
+			
+			@Override
+			public void messageReceived(String messageTopic, String messageString, int messageId, boolean retained) {
+				long now = messageTracer != null ? System.nanoTime() : 0;
+				messageReceived(messageTopic, messageString, messageId, retained, now, now);
+			}
+			
+			@Override
+			public void messageReceived(String messageTopic, String messageString, int messageId, boolean retained, long arrivalNanos, long decodedNanos) {
+				Callback current = callbackMap.get(topic);
+				if(current != null && current.enabled) {
+					invokeCallback(current, messageTopic, messageString, messageId, retained, arrivalNanos, decodedNanos);
+				}
+			}
+		};
+		if(callbackSubscriptions.putIfAbsent(topic, subscription) != null) {
+			return ClientInterface.SUCCESS;
+		}
+		String result = client.subscribe(topic, subscription);
+		if(!result.startsWith(ClientInterface.SUCCESS)) {
+			callbackSubscriptions.remove(topic, subscription);
+		}
+		return result;
 	}
 	
 	/**
 	 * Disables the callback for the specified topic.
+	 * Messages are no longer passed to the callback, the subscription stays active.
 	 * The callback can be enabled again by the enableCallback function.
 	 * @param topic
 	 * The topic who the callback that should be disabled is listening to
 	 * @return
-	 * Success or failure of disabling the client.
+	 * Success or failure of disabling the callback.
 	 */
 	public String disableCallback(String topic) {
-		return clientMap.get(topic).disconnectClient();
-		
+		Callback callback = callbackMap.get(topic);
+		if(callback == null) {
+			return "failure no callback for this topic exists";
+		}
+		callback.enabled = false;
+		return ClientInterface.SUCCESS;
 	}
 	
 	/**
@@ -119,21 +545,82 @@ public class DeviceRepresentation {
 	 * @param topic
 	 * The topic who the callback that should be enabled was listening to.
 	 * @return
-	 * Success or failure of enabling the client.
+	 * Success or failure of enabling the callback.
 	 */
 	public String enableCallback(String topic) {
-		return clientMap.get(topic).connectClient();
+		Callback callback = callbackMap.get(topic);
+		if(callback == null) {
+			return "failure no callback for this topic exists";
+		}
+		callback.enabled = true;
+		return ClientInterface.SUCCESS;
 	}
 	
 	/**
 	 * Permanently removes the callback.
+	 * The client unsubscribes from topics outside of the deviceTopic, so the broker stops sending their messages.
 	 * @param topic
 	 * The topic who the callback that should be removed is listening to
 	 * @return
-	 * Success or failure of removing the client.
+	 * Success or failure of removing the callback.
 	 */
 	public String removeCallback(String topic) {
-		return clientMap.get(topic).closeClient();
+		Callback callback = callbackMap.remove(topic);
+		if(callback == null) {
+			return "failure no callback for this topic exists";
+		}
+		if(callback.receiver instanceof MqttEventPublisher) {
+			((MqttEventPublisher) callback.receiver).close();
+		}
+		IMqttReceiver subscription = callback.insideDeviceTopic ? null : callbackSubscriptions.remove(topic);
+		if(subscription != null) {
+			return client.unsubscribe(topic, subscription);
+		}
+		return ClientInterface.SUCCESS;
+	}
+	
+	/**
+	 * Adds a stream with backpressure for the specified topic.
+	 * The stream is a callback of this DeviceRepresentation, so it can be disabled, enabled and removed like other callbacks.
+	 * Removing the callback completes the stream.
+	 * @param topic
+	 * The topic that should be listened to. It can contain the wildcards "+" and "#".
+	 * @param bufferSize
+	 * The maximum number of messages that are buffered for each Subscriber of the stream.
+	 * @param strategy
+	 * Defines what happens with a message if the buffer of a Subscriber is full.
+	 * @return
+	 * The publisher of the received messages.
+	 */
+	public Flow.Publisher<MqttEvent> addPublisher(String topic, int bufferSize, BackpressureStrategy strategy) {
+		MqttEventPublisher publisher = new MqttEventPublisher(bufferSize, strategy);
+		String result = addCallback(topic, publisher);
+		if(!result.startsWith(ClientInterface.SUCCESS)) {
+			logger.warning("Subscribing the stream for " + topic + " failed: " + result);
+		}
+		return publisher;
+	}
+	
+	/**
+	 * Calls a callback and reports it to the MessageTracer, so slow callbacks are reported with the class of the callback
+	 * 	instead of only the receiver of the client. The arrival and decode times are the ones of the client.
+	 * A failing callback is logged, so it does not keep the other callbacks and the bookkeeping of the message from running.
+	 */
+	private void invokeCallback(Callback callback, String topic, String messageString, int messageId, boolean retained, long arrivalNanos, long decodedNanos) {
+		long dispatchNanos = System.nanoTime();
+		try {
+			callback.receiver.messageReceived(topic, messageString, messageId, retained);
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Callback " + callback.receiver.getClass().getName() + " failed on " + topic, e);
+		}
+		if(messageTracer != null) {
+			messageTracer.record(topic, callback.receiver, arrivalNanos, decodedNanos, dispatchNanos, System.nanoTime());
+		}
+	}
+	
+	private boolean isInsideDeviceTopic(String topic) {
+		String deviceTopicPrefix = deviceTopic.substring(0, deviceTopic.length() - 1);
+		return topic.startsWith(deviceTopicPrefix) || topic.equals(deviceTopic.substring(0, deviceTopic.length() - 2));
 	}
 	
 	/**
@@ -182,6 +669,52 @@ public class DeviceRepresentation {
 		return client.sendMessage(messageMap.get(name).getKey(), messageMap.get(name).getValue(), qos, retained);
 	}
 	
+	/**
+	 * Send binary content to a topic.
+	 * The array is handed to the client without copying and must not be changed until the function returns.
+	 * @param topic
+	 * The topic for which the message is intended. this is not restricted by the topic given for the constructor.
+	 * @param payload
+	 * The bytes that should be sent as content of the message.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * 0 for lowest and 2 for highest.
+	 * 2 guarantees delivery if the broker is available but costs more resources.
+	 * 1 guarantees delivery but can create more network traffic.
+	 * 0 does not guarantee delivery.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
+	 * @return
+	 * The result of the sending of the message.
+	 */
+	public String sendMessage(String topic, byte[] payload, int qos, boolean retained) {
+		return client.sendMessage(topic, payload, qos, retained);
+	}
+	
+	/**
+	 * Send binary content to a topic.
+	 * If the buffer wraps a whole array the array is used without copying. The position of the buffer is not changed.
+	 * @param topic
+	 * The topic for which the message is intended. this is not restricted by the topic given for the constructor.
+	 * @param payload
+	 * The buffer whose remaining bytes should be sent as content of the message.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * 0 for lowest and 2 for highest.
+	 * 2 guarantees delivery if the broker is available but costs more resources.
+	 * 1 guarantees delivery but can create more network traffic.
+	 * 0 does not guarantee delivery.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
+	 * @return
+	 * The result of the sending of the message.
+	 */
+	public String sendMessage(String topic, ByteBuffer payload, int qos, boolean retained) {
+		return client.sendMessage(topic, payload, qos, retained);
+	}
+	
 	/**
 	 * Get the newest message that was provided under a given topic.
 	 * @param key
@@ -195,12 +728,52 @@ public class DeviceRepresentation {
 	
 	/**
 	 * Close the client of the HomeyDeviceRepresentation.
+	 * A shared client stays open, only the callbacks of this DeviceRepresentation are removed from it.
 	 * @return
 	 * The result of closing the client.
 	 */
 	public String closeClient() {
+		bootstrapCheck.cancel(false);
+		for(Callback callback: callbackMap.values()) {
+			if(callback.receiver instanceof MqttEventPublisher) {
+				((MqttEventPublisher) callback.receiver).close();
+			}
+		}
+		if(sharedClient) {
+			callbackMap.clear();
+			String result = ClientInterface.SUCCESS;
+			for(Map.Entry<String, IMqttReceiver> subscription: callbackSubscriptions.entrySet()) {
+				String unsubscribed = client.unsubscribe(subscription.getKey(), subscription.getValue());
+				if(result.equals(ClientInterface.SUCCESS)) {
+					result = unsubscribed;
+				}
+			}
+			callbackSubscriptions.clear();
+			return result;
+		}
 		return client.closeClient();
 		
 	}
+	
+	/**
+	 * A callback that has been added to the DeviceRepresentation.
+	 */
+	protected static final class Callback {
+		
+		private final TopicFilter filter;
+		private final IMqttReceiver receiver;
+		/**
+		 * True if the callback is served by the subscription of the deviceTopic.
+		 */
+		private final boolean insideDeviceTopic;
+		private volatile boolean enabled = true;
+		
+		private Callback(TopicFilter filter, IMqttReceiver receiver, boolean insideDeviceTopic) {
+			this.filter = filter;
+			this.receiver = receiver;
+			this.insideDeviceTopic = insideDeviceTopic;
+		}
+		
+	}
 
 }
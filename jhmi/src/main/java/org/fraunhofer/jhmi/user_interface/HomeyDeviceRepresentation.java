@@ -1,8 +1,12 @@
 package org.fraunhofer.jhmi.user_interface;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.fraunhofer.jhmi.util.ClientInterface;
 import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.MessagePriority;
+import org.fraunhofer.jhmi.util.OutboundShaper;
+import org.fraunhofer.jhmi.util.Topic;
 
 public class HomeyDeviceRepresentation extends DeviceRepresentation {
 
@@ -14,7 +18,18 @@ public class HomeyDeviceRepresentation extends DeviceRepresentation {
 	/**
 	 * Map of saved commands which can be sent through the send command function.
 	 */
-	protected HashMap<String, String> commands;
+	protected ConcurrentHashMap<String, String> commands;
+	
+	/**
+	 * Map of the capabilities that the saved commands are intended for.
+	 * Used to coalesce commands for the same capability if a rate limit is set.
+	 */
+	protected ConcurrentHashMap<String, String> commandCapabilities;
+	
+	/**
+	 * The rate limit for commands of this device, null if commands are not limited.
+	 */
+	protected volatile OutboundShaper commandShaper;
 	
 	/**
 	 * Create a new HomeyDeviceRepresentation object that represents a device connected to a Homey.
@@ -28,24 +43,44 @@ public class HomeyDeviceRepresentation extends DeviceRepresentation {
 	 * The topic under which status updates of the device are sent
 	 */
 	public HomeyDeviceRepresentation(String representedDeviceName, ConnectionOptions connectionOptions, String broker, String topic) {
-		super(representedDeviceName, connectionOptions, broker, topic);		
-		commands = new HashMap<>();
-		homeyCommandPath = topic.toLowerCase().split("/")[1] + "/$command"; 
-		
-		IMqttReceiver receiver = new IMqttReceiver() {
-			
-			@Override
-			public void messageReceived(String topic, String messageString, int messageId) {
-				String capability = topic.toLowerCase().replace(deviceTopic, "");
-				if(capability.subSequence(0, 1).equals("/")) {
-					capability = topic.split("/")[1];					
-				} else {
-					capability = topic.split("/")[0];
-				}
-				deviceValuesMap.put(capability, messageString);			
-			}
-		};
-		client.subscribe(topic + "/#", receiver);
+		this(representedDeviceName, connectionOptions, broker, topic, null);
+	}
+	
+	/**
+	 * Create a new HomeyDeviceRepresentation object that can share the client of its owner.
+	 * A shared client is neither subscribed nor closed by the HomeyDeviceRepresentation,
+	 * 	the owner of the client passes the status updates of the device to deliverMessage.
+	 * @param representedDeviceName
+	 * the name that has been given to the device in Homey
+	 * @param connectionOptions
+	 * The options that define the connection between the client and the broker.
+	 * @param broker
+	 * The broker for that the Homey is connected to and on which status updates of the device are sent
+	 * @param topic
+	 * The topic under which status updates of the device are sent
+	 * @param sharedClient
+	 * The client that is used to send commands, null to create an own client.
+	 */
+	public HomeyDeviceRepresentation(String representedDeviceName, ConnectionOptions connectionOptions, String broker, String topic, ClientInterface sharedClient) {
+		super(representedDeviceName, connectionOptions, broker, topic, sharedClient);		
+		commands = new ConcurrentHashMap<>();
+		commandCapabilities = new ConcurrentHashMap<>();
+		homeyCommandPath = Topic.levelOf(topic.toLowerCase(), 1) + "/$command";
+	}
+	
+	/**
+	 * Returns the capability to which a received value belongs, which is the key under which the value is saved.
+	 * The capability is the first level of the topic below the topic of the device,
+	 * 	values that are published directly to the topic of the device are ignored.
+	 * The level is taken from the topic without interning it, so received topics do not fill the intern cache.
+	 * @param topic
+	 * The topic under which the value was received.
+	 * @return
+	 * The capability, null if the topic has no level below the topic of the device.
+	 */
+	@Override
+	protected String getValueKey(String topic) {
+		return Topic.levelOf(topic, deviceTopicLevelCount);
 	}
 
 	
@@ -72,16 +107,61 @@ public class HomeyDeviceRepresentation extends DeviceRepresentation {
 				 +"}";
 		 
 		 commands.put(commandId, content);
+		 commandCapabilities.put(commandId, capability);
+	}
+	
+	/**
+	 * Removes a registered command.
+	 * @param commandId
+	 * The id under which the command has been registered.
+	 * @return
+	 * "success" if the command was removed, "failure no command with this id exists" if not.
+	 */
+	public String removeCommand(String commandId) {
+		if(commands.remove(commandId) == null) {
+			return "failure no command with this id exists";
+		}
+		commandCapabilities.remove(commandId);
+		return "success";
+	}
+	
+	/**
+	 * Limits the rate at which commands are sent to the Homey for this device.
+	 * Commands that exceed the rate are held back. If a newer command for the same capability is sent
+	 * 	while an older one is still held back, only the newer one will be sent.
+	 * @param commandsPerSecond
+	 * The number of commands that may be sent per second on average.
+	 * @param burst
+	 * The number of commands that may be sent at once after a period without commands.
+	 */
+	public void setCommandRateLimit(double commandsPerSecond, int burst) {
+		commandShaper = new OutboundShaper(commandsPerSecond, burst);
+	}
+	
+	/**
+	 * Removes the rate limit for commands of this device.
+	 * Commands that are still held back will be sent.
+	 */
+	public void removeCommandRateLimit() {
+		commandShaper = null;
 	}
 	
 	/**
 	 * Execute a registered command.
+	 * Commands are sent with high priority, so they overtake telemetry that is sent over the same client.
 	 * @param commandId
 	 * The id under which the command has been registered.
 	 * @return the result of the sending of the command
 	 */
 	public String sendCommand(String commandId) {		
-		return client.sendMessage(homeyCommandPath, commands.get(commandId));
+		String content = commands.get(commandId);
+		OutboundShaper shaper = commandShaper;
+		int qos = connectionOptions.getQos();
+		if(shaper == null) {
+			return client.sendMessage(homeyCommandPath, content, qos, false, MessagePriority.HIGH);
+		}
+		return shaper.submit(homeyCommandPath + "/" + commandCapabilities.get(commandId),
+				() -> client.sendMessage(homeyCommandPath, content, qos, false, MessagePriority.HIGH));
 	}
 	
 	/**
@@ -12,5 +12,21 @@ public interface IMqttReceiver {
 	 * The id of the received message.
 	 */
 	public void messageReceived( String topic, String messageString, int messageId);
+	
+	/**
+	 * This function is called by the callback with the relevant information for the message.
+	 * By default it ignores the retained flag and calls messageReceived(topic, messageString, messageId).
+	 * @param topic 
+	 * The topic under which the message was received.
+	 * @param messageString 
+	 * The received message in byte array format.
+	 * @param messageId
+	 * The id of the received message.
+	 * @param retained
+	 * true if the message was retained by the broker and is delivered because of a new subscription.
+	 */
+	default void messageReceived( String topic, String messageString, int messageId, boolean retained) {
+		messageReceived(topic, messageString, messageId);
+	}
 
 }
@@ -0,0 +1,21 @@
+package org.fraunhofer.jhmi.user_interface;
+
+public interface IValueChangeListener {
+
+	/**
+	 * This function is called by a DeviceRepresentation when a saved value of the device has changed.
+	 * It is called on the callback thread of the client and has to return quickly.
+	 * @param deviceRepresentation
+	 * The DeviceRepresentation whose value has changed.
+	 * @param topic
+	 * The topic under which the new value was received.
+	 * @param key
+	 * The key under which the value is saved, the capability for HomeyDeviceRepresentations.
+	 * @param oldValue
+	 * The previous value, null if the key had no value before.
+	 * @param newValue
+	 * The new value.
+	 */
+	public void valueChanged(DeviceRepresentation deviceRepresentation, String topic, String key, String oldValue, String newValue);
+
+}
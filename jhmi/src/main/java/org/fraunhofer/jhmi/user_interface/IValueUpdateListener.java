@@ -0,0 +1,19 @@
+package org.fraunhofer.jhmi.user_interface;
+
+public interface IValueUpdateListener {
+
+	/**
+	 * This function is called by a DeviceRepresentation for every received value that was saved, also if it did not change.
+	 * It is called on the callback thread of the client and has to return quickly.
+	 * @param deviceRepresentation
+	 * The DeviceRepresentation that received the value.
+	 * @param topic
+	 * The topic under which the value was received.
+	 * @param key
+	 * The key under which the value is saved, the capability for HomeyDeviceRepresentations.
+	 * @param value
+	 * The received value.
+	 */
+	public void valueUpdated(DeviceRepresentation deviceRepresentation, String topic, String key, String value);
+
+}
@@ -0,0 +1,162 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Adapts the number of inflight messages of a connection to the measured acknowledgement latency (AIMD).
+ * The window grows by one slot per window of acknowledgements as long as the latency stays close to the lowest
+ * 	latency that has been observed. If the latency rises above twice that baseline the broker or the network is
+ * 	queuing the messages and the window shrinks to three quarters, on errors it shrinks to half.
+ * The window shrinks at most once per window of acknowledgements, so a single congestion is not punished repeatedly.
+ */
+public class AdaptiveInflightWindow {
+
+	/**
+	 * The factor above the baseline latency at which an acknowledgement counts as congested.
+	 */
+	private static final int LATENCY_TOLERANCE = 2;
+	private static final double CONGESTION_DECREASE = 0.75;
+	private static final double ERROR_DECREASE = 0.5;
+
+	private final int minimum;
+	private final int maximum;
+	private final IntConsumer listener;
+	private double window;
+	private int appliedWindow;
+	/**
+	 * The lowest observed acknowledgement latency in nanoseconds. It slowly rises towards the current latency,
+	 * 	so a permanently changed route does not leave the window at its minimum.
+	 */
+	private long baselineNanos = Long.MAX_VALUE;
+	/**
+	 * The number of acknowledgements since the window last shrank.
+	 */
+	private int acknowledgementsSinceDecrease;
+	private long acknowledgements;
+	private long errors;
+
+	/**
+	 * Creates a new AdaptiveInflightWindow.
+	 * @param initial
+	 * The initial number of inflight messages.
+	 * @param minimum
+	 * The lower bound of the window. Must be at least 1.
+	 * @param maximum
+	 * The upper bound of the window. Must be at least minimum.
+	 * @param listener
+	 * Called with the new window every time the integer value of the window changes.
+	 */
+	public AdaptiveInflightWindow(int initial, int minimum, int maximum, IntConsumer listener) {
+		if(minimum < 1 || maximum < minimum) {
+			throw new IllegalArgumentException("minimum must be at least 1 and maximum at least minimum");
+		}
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.listener = listener;
+		this.window = Math.max(minimum, Math.min(maximum, initial));
+		this.appliedWindow = (int) window;
+		this.acknowledgementsSinceDecrease = appliedWindow;
+		listener.accept(appliedWindow);
+	}
+
+	/**
+	 * Records the acknowledgement of a message.
+	 * @param latencyNanos
+	 * The time in nanoseconds between publishing the message and its acknowledgement (PUBACK or PUBCOMP).
+	 */
+	public synchronized void onAcknowledged(long latencyNanos) {
+		acknowledgements++;
+		acknowledgementsSinceDecrease++;
+		if(latencyNanos < baselineNanos) {
+			baselineNanos = latencyNanos;
+		} else {
+			baselineNanos += (latencyNanos - baselineNanos) >> 8;
+		}
+		if(latencyNanos > baselineNanos * LATENCY_TOLERANCE) {
+			decrease(CONGESTION_DECREASE);
+		} else {
+			window = Math.min(maximum, window + 1 / window);
+		}
+		apply();
+	}
+
+	/**
+	 * Records the acknowledgement of a message whose latency is unknown because it arrived before the sender waited for it.
+	 * Such an acknowledgement did not hold up the sender and counts as uncongested.
+	 */
+	public synchronized void onAcknowledged() {
+		acknowledgements++;
+		acknowledgementsSinceDecrease++;
+		window = Math.min(maximum, window + 1 / window);
+		apply();
+	}
+
+	/**
+	 * Records a failed publish.
+	 */
+	public synchronized void onError() {
+		errors++;
+		decrease(ERROR_DECREASE);
+		apply();
+	}
+
+	/**
+	 * Returns the current window.
+	 * @return
+	 * The number of messages that may currently be inflight.
+	 */
+	public synchronized int getWindow() {
+		return appliedWindow;
+	}
+
+	/**
+	 * Returns the baseline of the acknowledgement latency.
+	 * @return
+	 * The baseline latency in nanoseconds, -1 if no acknowledgement has been recorded yet.
+	 */
+	public synchronized long getBaselineLatency() {
+		return baselineNanos == Long.MAX_VALUE ? -1 : baselineNanos;
+	}
+
+	/**
+	 * Returns the number of recorded acknowledgements.
+	 * @return
+	 * The number of acknowledgements.
+	 */
+	public synchronized long getAcknowledgementCount() {
+		return acknowledgements;
+	}
+
+	/**
+	 * Returns the number of recorded errors.
+	 * @return
+	 * The number of failed publishes.
+	 */
+	public synchronized long getErrorCount() {
+		return errors;
+	}
+
+	private void decrease(double factor) {
+		if(acknowledgementsSinceDecrease < appliedWindow) {
+			return;
+		}
+		acknowledgementsSinceDecrease = 0;
+		window = Math.max(minimum, window * factor);
+	}
+
+	private void apply() {
+		int current = (int) window;
+		if(current != appliedWindow) {
+			appliedWindow = current;
+			listener.accept(current);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "window=" + appliedWindow + " [" + minimum + ", " + maximum + "]"
+				+ " baseline=" + getBaselineLatency() / 1000 + "us"
+				+ " acknowledgements=" + acknowledgements + " errors=" + errors;
+	}
+
+}
@@ -0,0 +1,32 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * The function with which a WindowedAggregation combines the numeric values of a window.
+ */
+public enum AggregateFunction {
+	/**
+	 * The sum of all values received in the window, 0 for an empty window.
+	 * A device that reports twice in the window is counted twice, the sum is not the total of the latest value of each device.
+	 */
+	SUM,
+
+	/**
+	 * The mean of all values, NaN for an empty window.
+	 */
+	AVG,
+
+	/**
+	 * The smallest value, NaN for an empty window.
+	 */
+	MIN,
+
+	/**
+	 * The largest value, NaN for an empty window.
+	 */
+	MAX,
+
+	/**
+	 * The number of values, 0 for an empty window.
+	 */
+	COUNT,
+}
@@ -0,0 +1,74 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * The time window of a WindowedAggregation.
+ * A tumbling window covers consecutive, non overlapping periods. A sliding window covers the last period
+ * 	and moves forward in steps of the slide, so consecutive windows overlap.
+ */
+public final class AggregationWindow {
+
+	private final long sizeMillis;
+	private final long slideMillis;
+
+	private AggregationWindow(long sizeMillis, long slideMillis) {
+		if(slideMillis < 1 || sizeMillis < slideMillis) {
+			throw new IllegalArgumentException("the slide must be at least 1 and the size at least the slide");
+		}
+		if(sizeMillis % slideMillis != 0) {
+			throw new IllegalArgumentException("the size must be a multiple of the slide");
+		}
+		this.sizeMillis = sizeMillis;
+		this.slideMillis = slideMillis;
+	}
+
+	/**
+	 * Returns a tumbling window.
+	 * @param sizeMillis
+	 * The length of each window in milliseconds.
+	 * @return
+	 * The window.
+	 */
+	public static AggregationWindow tumbling(long sizeMillis) {
+		return new AggregationWindow(sizeMillis, sizeMillis);
+	}
+
+	/**
+	 * Returns a sliding window.
+	 * @param sizeMillis
+	 * The length of the window in milliseconds. Must be a multiple of the slide.
+	 * @param slideMillis
+	 * The time in milliseconds by which the window moves forward, which is also the interval of the results.
+	 * @return
+	 * The window.
+	 */
+	public static AggregationWindow sliding(long sizeMillis, long slideMillis) {
+		return new AggregationWindow(sizeMillis, slideMillis);
+	}
+
+	public long getSizeMillis() {
+		return sizeMillis;
+	}
+
+	public long getSlideMillis() {
+		return slideMillis;
+	}
+
+	/**
+	 * Returns the number of slides that make up the window, 1 for a tumbling window.
+	 * @return
+	 * The number of panes of the window.
+	 */
+	public int getPaneCount() {
+		return (int) (sizeMillis / slideMillis);
+	}
+
+	public boolean isTumbling() {
+		return sizeMillis == slideMillis;
+	}
+
+	@Override
+	public String toString() {
+		return isTumbling() ? "tumbling " + sizeMillis + "ms" : "sliding " + sizeMillis + "ms every " + slideMillis + "ms";
+	}
+
+}
@@ -0,0 +1,24 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * Defines what a MqttEventPublisher does with a message if the buffer of a Subscriber is full.
+ */
+public enum BackpressureStrategy {
+	/**
+	 * Replaces the buffered message of the same topic, so the Subscriber only receives the latest value of each topic.
+	 * If no message of the same topic is buffered the oldest buffered message is dropped.
+	 */
+	LATEST_PER_TOPIC,
+
+	/**
+	 * Drops the new message.
+	 */
+	DROP,
+
+	/**
+	 * Blocks the callback thread of the client until the Subscriber has made room.
+	 * While the thread is blocked the client does not acknowledge messages with qos 1 and 2,
+	 * 	so the broker stops sending once its inflight window is full.
+	 */
+	BLOCK,
+}
@@ -0,0 +1,257 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An ordered list of broker URIs with the health of each endpoint.
+ * The clients that are created from the same ConnectionOptions share one instance, so the first client that loses
+ * 	an endpoint moves it to the back of the list for all others and they fail over without waiting for its connection timeout.
+ * A failed endpoint is skipped for a backoff that doubles with every consecutive failure and is used again afterwards,
+ * 	so the clients return to the primary broker once it is back.
+ */
+public class BrokerEndpoints {
+
+	/**
+	 * Restores the subscriptions and reconnects the clients after a failover, so the callback threads of the clients are not blocked
+	 * 	and the clients of a manager fail over in parallel.
+	 */
+	private static final ExecutorService FAILOVER_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-failover");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String[] uris;
+	private final AtomicIntegerArray consecutiveFailures;
+	/**
+	 * The System.nanoTime until which each endpoint is skipped, 0 if it is healthy.
+	 */
+	private final AtomicLongArray downUntilNanos;
+	private final long baseBackoffNanos;
+	private final long maxBackoffNanos;
+
+	/**
+	 * Creates the endpoints with a backoff between 1 second and 1 minute.
+	 * @param uris
+	 * The broker URIs in the order of preference, the first one is the primary broker.
+	 */
+	public BrokerEndpoints(List<String> uris) {
+		this(uris, 1000, 60000);
+	}
+
+	/**
+	 * Creates the endpoints.
+	 * @param uris
+	 * The broker URIs in the order of preference, the first one is the primary broker.
+	 * @param baseBackoffMillis
+	 * The time in milliseconds an endpoint is skipped after its first failure.
+	 * @param maxBackoffMillis
+	 * The longest time in milliseconds an endpoint is skipped.
+	 */
+	public BrokerEndpoints(List<String> uris, long baseBackoffMillis, long maxBackoffMillis) {
+		if(uris == null || uris.isEmpty()) {
+			throw new IllegalArgumentException("at least one broker URI is needed");
+		}
+		if(baseBackoffMillis < 0 || maxBackoffMillis < baseBackoffMillis) {
+			throw new IllegalArgumentException("the backoff must be at least 0 and the maximum at least the base");
+		}
+		this.uris = uris.toArray(new String[0]);
+		this.consecutiveFailures = new AtomicIntegerArray(this.uris.length);
+		this.downUntilNanos = new AtomicLongArray(this.uris.length);
+		this.baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(baseBackoffMillis);
+		this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+	}
+
+	/**
+	 * Returns the URIs in the order in which they should be tried.
+	 * Available endpoints come first in their configured order, followed by the skipped ones, the one that is available first in front.
+	 * @return
+	 * A new array with all URIs.
+	 */
+	public String[] getOrderedURIs() {
+		long now = System.nanoTime();
+		Integer[] order = new Integer[uris.length];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong((Integer i) -> Math.max(0, downUntilNanos.get(i) - now)).thenComparingInt(i -> i));
+		String[] ordered = new String[uris.length];
+		for(int i = 0; i < order.length; i++) {
+			ordered[i] = uris[order[i]];
+		}
+		return ordered;
+	}
+
+	/**
+	 * Records that a connection to an endpoint failed or was lost.
+	 * Failures while the endpoint is skipped are part of the same outage and do not extend the backoff,
+	 * 	so many clients that lose the same endpoint at once count as one failure.
+	 * @param uri
+	 * The URI of the endpoint, URIs that are not part of the list are ignored.
+	 */
+	public void recordFailure(String uri) {
+		int index = indexOf(uri);
+		if(index < 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		long downUntil = downUntilNanos.get(index);
+		if(downUntil - now > 0 || !downUntilNanos.compareAndSet(index, downUntil, now + 1)) {
+			return;
+		}
+		int failures = consecutiveFailures.incrementAndGet(index);
+		downUntilNanos.set(index, now + Math.max(1, backoff(failures)));
+	}
+
+	/**
+	 * Records that a client connected to an endpoint.
+	 * @param uri
+	 * The URI of the endpoint.
+	 */
+	public void recordSuccess(String uri) {
+		int index = indexOf(uri);
+		if(index < 0) {
+			return;
+		}
+		consecutiveFailures.set(index, 0);
+		downUntilNanos.set(index, 0);
+	}
+
+	/**
+	 * Records the outcome of a connection attempt over a list of URIs.
+	 * The URIs that were tried before the connected one have failed.
+	 * @param attemptedURIs
+	 * The URIs in the order in which they were tried.
+	 * @param connectedURI
+	 * The URI to which the client connected, null if the attempt failed on all URIs.
+	 */
+	public void recordAttempt(String[] attemptedURIs, String connectedURI) {
+		for(String uri: attemptedURIs) {
+			if(uri.equals(connectedURI)) {
+				recordSuccess(uri);
+				return;
+			}
+			recordFailure(uri);
+		}
+	}
+
+	/**
+	 * Returns the health of an endpoint.
+	 * @param uri
+	 * The URI of the endpoint.
+	 * @return
+	 * HEALTHY if the last connection succeeded, DOWN while the endpoint is skipped after a failure,
+	 * 	DEGRADED if it failed but may be tried again. null if the URI is not part of the list.
+	 */
+	public HealthState getHealth(String uri) {
+		int index = indexOf(uri);
+		if(index < 0) {
+			return null;
+		}
+		if(consecutiveFailures.get(index) == 0) {
+			return HealthState.HEALTHY;
+		}
+		return downUntilNanos.get(index) - System.nanoTime() > 0 ? HealthState.DOWN : HealthState.DEGRADED;
+	}
+
+	/**
+	 * Returns the number of failures of an endpoint since its last successful connection.
+	 * @param uri
+	 * The URI of the endpoint.
+	 * @return
+	 * The number of consecutive failures, -1 if the URI is not part of the list.
+	 */
+	public int getConsecutiveFailures(String uri) {
+		int index = indexOf(uri);
+		return index < 0 ? -1 : consecutiveFailures.get(index);
+	}
+
+	/**
+	 * Returns the URIs in their configured order.
+	 * @return
+	 * An unmodifiable list of the URIs.
+	 */
+	public List<String> getURIs() {
+		return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(uris)));
+	}
+
+	/**
+	 * Connects all disconnected clients in parallel, so the time of a failover does not grow with the number of clients.
+	 * @param clients
+	 * The clients, connected clients are skipped.
+	 * @return
+	 * The number of clients that could not be connected.
+	 */
+	public static int connectAll(Collection<ClientInterface> clients) {
+		List<CompletableFuture<Boolean>> results = new ArrayList<>();
+		for(ClientInterface client: clients) {
+			if(!client.getConnectionStatus()) {
+				results.add(CompletableFuture.supplyAsync(() -> client.connectClient().startsWith(ClientInterface.SUCCESS), FAILOVER_EXECUTOR));
+			}
+		}
+		int failed = 0;
+		for(CompletableFuture<Boolean> result: results) {
+			if(!result.join()) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Returns the executor that runs the work of a failover off the callback threads of the clients.
+	 * @return
+	 * The shared failover executor.
+	 */
+	public static ExecutorService getFailoverExecutor() {
+		return FAILOVER_EXECUTOR;
+	}
+
+	/**
+	 * Returns the backoff after the given number of consecutive failures, the base doubled for every failure after the first
+	 * 	and limited to the maximum without overflowing.
+	 */
+	private long backoff(int failures) {
+		int shift = failures - 1;
+		if(shift >= Long.SIZE - 1 || baseBackoffNanos > (maxBackoffNanos >> shift)) {
+			return maxBackoffNanos;
+		}
+		return baseBackoffNanos << shift;
+	}
+
+	private int indexOf(String uri) {
+		if(uri == null) {
+			return -1;
+		}
+		for(int i = 0; i < uris.length; i++) {
+			if(uris[i].equals(uri)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for(int i = 0; i < uris.length; i++) {
+			if(i > 0) {
+				builder.append(", ");
+			}
+			builder.append(uris[i]).append(' ').append(getHealth(uris[i]));
+		}
+		return builder.append(']').toString();
+	}
+
+}
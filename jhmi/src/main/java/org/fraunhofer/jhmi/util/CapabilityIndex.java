@@ -0,0 +1,186 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A secondary index over the values of one capability of many devices.
+ * The index maps every value to the devices that currently have it, and every numeric value into a sorted map,
+ * 	so a query costs the size of its result instead of the number of devices.
+ * The index is updated incrementally with each changed value. Queries do not lock and may run while the index is updated.
+ */
+public class CapabilityIndex {
+
+	private final String capability;
+	/**
+	 * The devices by their current value.
+	 */
+	private final ConcurrentHashMap<String, Set<String>> devicesByValue = new ConcurrentHashMap<>();
+	/**
+	 * The devices by their current numeric value, devices whose value is not a number are not contained.
+	 */
+	private final ConcurrentSkipListMap<Double, Set<String>> devicesByNumber = new ConcurrentSkipListMap<>();
+	/**
+	 * The current value of every indexed device.
+	 */
+	private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an empty CapabilityIndex.
+	 * @param capability
+	 * The capability whose values are indexed.
+	 */
+	public CapabilityIndex(String capability) {
+		this.capability = capability;
+	}
+
+	public String getCapability() {
+		return capability;
+	}
+
+	/**
+	 * Sets the current value of a device.
+	 * @param device
+	 * The name of the device.
+	 * @param value
+	 * The new value of the capability, null to remove the device from the index.
+	 */
+	public synchronized void update(String device, String value) {
+		String oldValue = value == null ? values.remove(device) : values.put(device, value);
+		if(value != null && value.equals(oldValue)) {
+			return;
+		}
+		if(oldValue != null) {
+			removeFrom(devicesByValue, oldValue, device);
+			double oldNumber = Payloads.parseNumber(oldValue);
+			if(!Double.isNaN(oldNumber)) {
+				removeFrom(devicesByNumber, oldNumber, device);
+			}
+		}
+		if(value != null) {
+			devicesByValue.computeIfAbsent(value, key -> ConcurrentHashMap.newKeySet()).add(device);
+			double number = Payloads.parseNumber(value);
+			if(!Double.isNaN(number)) {
+				devicesByNumber.computeIfAbsent(number, key -> ConcurrentHashMap.newKeySet()).add(device);
+			}
+		}
+	}
+
+	/**
+	 * Sets the value of a device only if the device is not indexed yet.
+	 * Used to fill the index with existing values without overwriting newer updates.
+	 * @param device
+	 * The name of the device.
+	 * @param value
+	 * The current value of the capability, null if the device has none.
+	 */
+	public synchronized void updateIfAbsent(String device, String value) {
+		if(value != null && !values.containsKey(device)) {
+			update(device, value);
+		}
+	}
+
+	/**
+	 * Removes a device from the index.
+	 * @param device
+	 * The name of the device.
+	 */
+	public void remove(String device) {
+		update(device, null);
+	}
+
+	/**
+	 * Returns the devices whose capability currently has the given value.
+	 * @param value
+	 * The value of the capability, for example "true".
+	 * @return
+	 * The names of the devices at the time of the call, empty if no device has this value.
+	 */
+	public Set<String> getDevices(String value) {
+		Set<String> devices = devicesByValue.get(value);
+		return devices == null ? Collections.emptySet() : new HashSet<>(devices);
+	}
+
+	/**
+	 * Returns the devices whose capability currently has a numeric value within the given range.
+	 * @param from
+	 * The lower bound of the range.
+	 * @param fromInclusive
+	 * True if devices with a value equal to the lower bound are included.
+	 * @param to
+	 * The upper bound of the range.
+	 * @param toInclusive
+	 * True if devices with a value equal to the upper bound are included.
+	 * @return
+	 * The names of the devices ordered by their value.
+	 */
+	public List<String> getDevicesInRange(double from, boolean fromInclusive, double to, boolean toInclusive) {
+		List<String> result = new ArrayList<>();
+		if(from > to) {
+			return result;
+		}
+		for(Set<String> devices: devicesByNumber.subMap(from, fromInclusive, to, toInclusive).values()) {
+			result.addAll(devices);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the devices whose capability currently has a numeric value greater than or equal to the given one.
+	 * @param from
+	 * The lower bound, inclusive.
+	 * @return
+	 * The names of the devices ordered by their value.
+	 */
+	public List<String> getDevicesAtLeast(double from) {
+		return getDevicesInRange(from, true, Double.POSITIVE_INFINITY, true);
+	}
+
+	/**
+	 * Returns the devices whose capability currently has a numeric value less than or equal to the given one.
+	 * @param to
+	 * The upper bound, inclusive.
+	 * @return
+	 * The names of the devices ordered by their value.
+	 */
+	public List<String> getDevicesAtMost(double to) {
+		return getDevicesInRange(Double.NEGATIVE_INFINITY, true, to, true);
+	}
+
+	/**
+	 * Returns the current value of a device.
+	 * @param device
+	 * The name of the device.
+	 * @return
+	 * The indexed value, null if the device has no value for the capability.
+	 */
+	public String getValue(String device) {
+		return values.get(device);
+	}
+
+	/**
+	 * Returns the number of indexed devices.
+	 * @return
+	 * The number of devices that have a value for the capability.
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	private static <K> void removeFrom(Map<K, Set<String>> index, K key, String device) {
+		Set<String> devices = index.get(key);
+		if(devices != null) {
+			devices.remove(device);
+			if(devices.isEmpty()) {
+				index.remove(key, devices);
+			}
+		}
+	}
+
+}
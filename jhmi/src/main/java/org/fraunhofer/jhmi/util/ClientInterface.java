@@ -1,5 +1,8 @@
 package org.fraunhofer.jhmi.util;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
 
 public interface ClientInterface {
@@ -50,6 +53,79 @@ public interface ClientInterface {
 	 * "success" if the client was successfully created, the exception message if not.
 	 */
 	public String sendMessage(String topic, String content, int qos, boolean retained);
+	
+	/**
+	 * Sends the given content as a message with the given priority to the given topic.
+	 * Messages of a higher priority class get the free inflight slots of the connection first
+	 * 	and have a part of the slots reserved for them, without starving the lower classes.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param content
+	 * The content that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * @param priority
+	 * The priority class of the message.
+	 * @return
+	 * "success" if the message was successfully sent, the exception message if not.
+	 */
+	public String sendMessage(String topic, String content, int qos, boolean retained, MessagePriority priority);
+	
+	/**
+	 * Sends the given bytes as a message to the given topic.
+	 * The array is handed to the client without copying and must not be changed until the function returns.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param payload
+	 * The bytes that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * 0 for lowest and 2 for highest.
+	 * 2 guarantees delivery if the broker is available but costs more resources.
+	 * 1 guarantees delivery but can create more network traffic.
+	 * 0 does not guarantee delivery.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
+	 * @return
+	 * "success" if the client was successfully created, the exception message if not.
+	 */
+	public String sendMessage(String topic, byte[] payload, int qos, boolean retained);
+	
+	/**
+	 * Sends the remaining bytes of the given buffer as a message to the given topic.
+	 * If the buffer wraps a whole array the array is used without copying. The position of the buffer is not changed.
+	 * @param topic
+	 * The topic to which the message should be sent.
+	 * @param payload
+	 * The buffer that contains the bytes that will be sent to the specified topic.
+	 * @param qos
+	 * The quality of service for the message that should be used.
+	 * 0 for lowest and 2 for highest.
+	 * 2 guarantees delivery if the broker is available but costs more resources.
+	 * 1 guarantees delivery but can create more network traffic.
+	 * 0 does not guarantee delivery.
+	 * @param retained
+	 * If retained is true the sent message will be retained by the topic.
+	 * All new Subscribers will get this message even if they weren't subscribed at the time of delivery.
+	 * @return
+	 * "success" if the client was successfully created, the exception message if not.
+	 */
+	public String sendMessage(String topic, ByteBuffer payload, int qos, boolean retained);
+	
+	/**
+	 * Sends multiple messages as one burst.
+	 * All messages are handed to the connection before waiting for their delivery,
+	 * 	so the messages are pipelined instead of waiting for each acknowledgement in turn.
+	 * The default qos of the client is used.
+	 * @param messages
+	 * The messages that should be sent, the key of each entry is the topic and the value the content.
+	 * @return
+	 * "success" if all messages were sent, the exception message if not.
+	 */
+	public String sendMessages(List<MessageEntry> messages);
 	/**
 	 *
 	 * Subscribes the client to the given topic with the given receiver called by the callback of the client.
@@ -63,6 +139,18 @@ public interface ClientInterface {
 	 */
 	public String subscribe(String topic, IMqttReceiver receiver);
 
+	/**
+	 * Removes a receiver that was subscribed with the subscribe function.
+	 * The client unsubscribes from the topic at the broker once no receiver of the topic is left.
+	 * @param topic
+	 * The topic as it was passed to subscribe.
+	 * @param receiver
+	 * The receiver that was passed to subscribe.
+	 * @return
+	 * "success" if the receiver was removed, the exception message if unsubscribing at the broker failed.
+	 */
+	public String unsubscribe(String topic, IMqttReceiver receiver);
+
 	/**
 	 * Closes the client and makes it unusable.
 	 * @return
@@ -93,5 +181,21 @@ public interface ClientInterface {
 	 * returns the connection status of the client
 	 */
 	public boolean getConnectionStatus();
+	
+	/**
+	 * Returns the probe that measures the latency of the connection through the broker.
+	 * The probe is enabled by ConnectionOptions.setLatencyProbeInterval.
+	 * @return
+	 * The latency probe, null if the connection is not probed.
+	 */
+	public LatencyProbe getLatencyProbe();
+	
+	/**
+	 * Returns the number of messages that may currently be inflight.
+	 * With ConnectionOptions.setAdaptiveInflight the value follows the acknowledgement latency of the connection.
+	 * @return
+	 * The current inflight window.
+	 */
+	public int getInflightWindow();
 
 }
@@ -6,6 +6,12 @@ public enum ClientType {
 	 */
 	PAHO, 
 	
+	/**
+	 * The Eclipse Paho client for MQTT version 5.
+	 * Supports topic aliases, shared subscriptions, flow control (receive maximum) and session expiry.
+	 */
+	PAHO_V5,
+	
 	/**
 	 * The default client that should be used if no type is specified.
 	 */
@@ -1,5 +1,8 @@
 package org.fraunhofer.jhmi.util;
 
+import java.util.Collections;
+import java.util.List;
+
 public class ConnectionOptions {
 
 	/**
@@ -30,6 +33,17 @@ public class ConnectionOptions {
 	 * By default this value is set to 10.
 	 */
 	private int maxInflight = 10;
+	/**
+	 * Determines if the number of inflight messages follows the acknowledgement latency of the connection,
+	 * 	between minInflight and maxInflight.
+	 * By default this is set to false, which keeps the number at maxInflight.
+	 */
+	private boolean adaptiveInflight = false;
+	/**
+	 * Determines the lowest number of inflight messages if adaptiveInflight is enabled.
+	 * By default this value is set to 1.
+	 */
+	private int minInflight = 1;
 	/**
 	 * The quality of service for the message that should be used.
 	 * 0 for lowest and 2 for highest.
@@ -38,6 +52,65 @@ public class ConnectionOptions {
 	 * 0 does not guarantee delivery.
 	 */
 	private int qos = 2;
+	/**
+	 * Determines the time in seconds that the broker keeps the session of the client after it disconnects.
+	 * Only used by MQTT version 5 clients.
+	 * By default this value is 0, which ends the session when the connection is closed.
+	 */
+	private long sessionExpiryInterval = 0;
+	/**
+	 * Determines the maximum number of QoS 1 and 2 messages that the broker may send to the client without them being acknowledged.
+	 * This is the flow control of MQTT version 5 and is only used by MQTT version 5 clients.
+	 * By default this value is set to 65535.
+	 */
+	private int receiveMaximum = 65535;
+	/**
+	 * Determines the maximum number of topic aliases that the broker may use when sending messages to the client.
+	 * Only used by MQTT version 5 clients.
+	 * Topic aliases for messages sent by the client are used automatically if the broker allows them.
+	 * By default this value is set to 10.
+	 */
+	private int topicAliasMaximum = 10;
+	/**
+	 * Determines the time in milliseconds between two messages of the latency probe of the connection.
+	 * By default this value is 0, which disables the probe.
+	 */
+	private long latencyProbeInterval = 0;
+	/**
+	 * Determines the latency in milliseconds above which the latency probe reports the connection as degraded.
+	 * By default this value is set to 500.
+	 */
+	private long latencyProbeDegradedThreshold = 500;
+	/**
+	 * Determines the time in milliseconds without a returned probe message after which the latency probe reports the connection as down.
+	 * By default this value is set to 5000.
+	 */
+	private long latencyProbeDownThreshold = 5000;
+	/**
+	 * The tracer that measures how long the receivers take to process received messages and reports slow callbacks.
+	 * By default this is null, which disables tracing.
+	 */
+	private MessageTracer messageTracer;
+	/**
+	 * The recorder that records the messages received by the clients.
+	 * By default this is null, which disables recording.
+	 */
+	private TrafficRecorder trafficRecorder;
+	/**
+	 * The ordered broker URIs with their health, shared by all clients created with these options.
+	 * By default this is null, which connects the clients only to the broker of their manager.
+	 */
+	private BrokerEndpoints brokerEndpoints;
+	/**
+	 * The id with which the client identifies itself to the broker.
+	 * By default this is null, which generates a new id for every client.
+	 */
+	private String clientId;
+	/**
+	 * The directory in which the clients keep the journals of their outgoing QoS 1 and 2 messages, one subdirectory per client id.
+	 * By default this is null, which disables the journal.
+	 */
+	private String journalDirectory;
 	private char[] password;
 	private String username;
 	private String lastWillTopic;
@@ -216,6 +289,47 @@ public class ConnectionOptions {
 		return maxInflight;
 	}
 
+	/**
+	 * Specifies if the number of inflight messages should follow the acknowledgement latency of the connection.
+	 * The number grows while messages are acknowledged quickly and shrinks when the latency rises or publishing fails,
+	 * 	always staying between minInflight and maxInflight.
+	 * @param adaptiveInflight
+	 * true to adapt the number of inflight messages, by default this is set to false.
+	 */
+	public void setAdaptiveInflight(boolean adaptiveInflight) {
+		this.adaptiveInflight = adaptiveInflight;
+	}
+
+	/**
+	 * Get the specified value for adaptiveInflight.
+	 * @return
+	 * true if the number of inflight messages follows the acknowledgement latency.
+	 */
+	public boolean getAdaptiveInflight() {
+		return adaptiveInflight;
+	}
+
+	/**
+	 * Specifies a new value for minInflight.
+	 * @param minInflight
+	 * Determines the lowest number of inflight messages if adaptiveInflight is enabled.
+	 * Must be at least 1, by default this value is set to 1.
+	 */
+	public void setMinInflight(int minInflight) {
+		if(0 < minInflight) {
+			this.minInflight = minInflight;
+		}
+	}
+
+	/**
+	 * Get the specified value for minInflight.
+	 * @return
+	 * The lowest number of inflight messages if adaptiveInflight is enabled.
+	 */
+	public int getMinInflight() {
+		return minInflight;
+	}
+
 	/**
 	 * Specifies a new password.
 	 * @param newPassword
@@ -320,6 +434,265 @@ public class ConnectionOptions {
 			this.qos = qos;
 		}
 	}
+
+	/**
+	 * Get the specified sessionExpiryInterval.
+	 * Determines the time in seconds that the broker keeps the session of the client after it disconnects.
+	 * Only used by MQTT version 5 clients.
+	 * @return
+	 * The specified sessionExpiryInterval.
+	 */
+	public long getSessionExpiryInterval() {
+		return sessionExpiryInterval;
+	}
+
+	/**
+	 * Specifies a new value for sessionExpiryInterval.
+	 * @param sessionExpiryInterval
+	 * Determines the time in seconds that the broker keeps the session of the client after it disconnects.
+	 * Only used by MQTT version 5 clients.
+	 * By default this value is 0, which ends the session when the connection is closed.
+	 */
+	public void setSessionExpiryInterval(long sessionExpiryInterval) {
+		if(0 <= sessionExpiryInterval && sessionExpiryInterval <= 0xFFFFFFFFL) {
+			this.sessionExpiryInterval = sessionExpiryInterval;
+		}
+	}
+
+	/**
+	 * Get the specified receiveMaximum.
+	 * Determines the maximum number of QoS 1 and 2 messages that the broker may send to the client without them being acknowledged.
+	 * Only used by MQTT version 5 clients.
+	 * @return
+	 * The specified receiveMaximum.
+	 */
+	public int getReceiveMaximum() {
+		return receiveMaximum;
+	}
+
+	/**
+	 * Specifies a new value for receiveMaximum.
+	 * @param receiveMaximum
+	 * Determines the maximum number of QoS 1 and 2 messages that the broker may send to the client without them being acknowledged.
+	 * Only used by MQTT version 5 clients.
+	 * Must be between 1 and 65535, by default this value is set to 65535.
+	 */
+	public void setReceiveMaximum(int receiveMaximum) {
+		if(0 < receiveMaximum && receiveMaximum <= 65535) {
+			this.receiveMaximum = receiveMaximum;
+		}
+	}
+
+	/**
+	 * Get the specified topicAliasMaximum.
+	 * Determines the maximum number of topic aliases that the broker may use when sending messages to the client.
+	 * Only used by MQTT version 5 clients.
+	 * @return
+	 * The specified topicAliasMaximum.
+	 */
+	public int getTopicAliasMaximum() {
+		return topicAliasMaximum;
+	}
+
+	/**
+	 * Specifies a new value for topicAliasMaximum.
+	 * @param topicAliasMaximum
+	 * Determines the maximum number of topic aliases that the broker may use when sending messages to the client.
+	 * Only used by MQTT version 5 clients.
+	 * Must be between 0 and 65535, by default this value is set to 10.
+	 */
+	public void setTopicAliasMaximum(int topicAliasMaximum) {
+		if(0 <= topicAliasMaximum && topicAliasMaximum <= 65535) {
+			this.topicAliasMaximum = topicAliasMaximum;
+		}
+	}
+
+	/**
+	 * Get the specified latencyProbeInterval.
+	 * Determines the time in milliseconds between two messages of the latency probe of the connection.
+	 * @return
+	 * The specified latencyProbeInterval, 0 if the probe is disabled.
+	 */
+	public long getLatencyProbeInterval() {
+		return latencyProbeInterval;
+	}
+
+	/**
+	 * Specifies a new value for latencyProbeInterval.
+	 * @param latencyProbeInterval
+	 * Determines the time in milliseconds between two messages of the latency probe of the connection.
+	 * The probe publishes one small qos 0 message per interval, so an interval of a few seconds costs next to nothing.
+	 * By default this value is 0, which disables the probe.
+	 */
+	public void setLatencyProbeInterval(long latencyProbeInterval) {
+		if(0 <= latencyProbeInterval) {
+			this.latencyProbeInterval = latencyProbeInterval;
+		}
+	}
+
+	/**
+	 * Get the specified latencyProbeDegradedThreshold.
+	 * Determines the latency in milliseconds above which the latency probe reports the connection as degraded.
+	 * @return
+	 * The specified latencyProbeDegradedThreshold.
+	 */
+	public long getLatencyProbeDegradedThreshold() {
+		return latencyProbeDegradedThreshold;
+	}
+
+	/**
+	 * Specifies a new value for latencyProbeDegradedThreshold.
+	 * @param latencyProbeDegradedThreshold
+	 * Determines the latency in milliseconds above which the latency probe reports the connection as degraded.
+	 * Must be at least 1, by default this value is set to 500.
+	 */
+	public void setLatencyProbeDegradedThreshold(long latencyProbeDegradedThreshold) {
+		if(0 < latencyProbeDegradedThreshold) {
+			this.latencyProbeDegradedThreshold = latencyProbeDegradedThreshold;
+		}
+	}
+
+	/**
+	 * Get the specified latencyProbeDownThreshold.
+	 * Determines the time in milliseconds without a returned probe message after which the latency probe reports the connection as down.
+	 * @return
+	 * The specified latencyProbeDownThreshold.
+	 */
+	public long getLatencyProbeDownThreshold() {
+		return latencyProbeDownThreshold;
+	}
+
+	/**
+	 * Specifies a new value for latencyProbeDownThreshold.
+	 * @param latencyProbeDownThreshold
+	 * Determines the time in milliseconds without a returned probe message after which the latency probe reports the connection as down.
+	 * Must be at least 1, by default this value is set to 5000.
+	 */
+	public void setLatencyProbeDownThreshold(long latencyProbeDownThreshold) {
+		if(0 < latencyProbeDownThreshold) {
+			this.latencyProbeDownThreshold = latencyProbeDownThreshold;
+		}
+	}
+
+	/**
+	 * Get the specified messageTracer.
+	 * @return
+	 * The tracer for received messages, null if tracing is disabled.
+	 */
+	public MessageTracer getMessageTracer() {
+		return messageTracer;
+	}
+
+	/**
+	 * Specifies the tracer for received messages.
+	 * @param messageTracer
+	 * The tracer that measures how long the receivers take to process received messages and reports slow callbacks.
+	 * The same tracer can be used for many clients. By default this is null, which disables tracing.
+	 */
+	public void setMessageTracer(MessageTracer messageTracer) {
+		this.messageTracer = messageTracer;
+	}
+
+	/**
+	 * Get the specified trafficRecorder.
+	 * @return
+	 * The recorder of the received messages, null if recording is disabled.
+	 */
+	public TrafficRecorder getTrafficRecorder() {
+		return trafficRecorder;
+	}
+
+	/**
+	 * Specifies the recorder for received messages.
+	 * @param trafficRecorder
+	 * The recorder that writes all messages received by the clients to a file for a later replay.
+	 * The same recorder can be used for all clients of a manager. By default this is null, which disables recording.
+	 */
+	public void setTrafficRecorder(TrafficRecorder trafficRecorder) {
+		this.trafficRecorder = trafficRecorder;
+	}
+
+	/**
+	 * Get the specified serverURIs.
+	 * @return
+	 * The broker URIs in the order of preference, an empty list if the clients only use the broker of their manager.
+	 */
+	public List<String> getServerURIs() {
+		return brokerEndpoints == null ? Collections.<String>emptyList() : brokerEndpoints.getURIs();
+	}
+
+	/**
+	 * Specifies an ordered list of broker URIs, for example a primary broker followed by its standbys.
+	 * The list replaces the broker of the manager. A client connects to the first available endpoint
+	 * 	and fails over to the next one when its connection is lost, restoring its subscriptions on the new broker.
+	 * The health of the endpoints is shared by all clients created with these options.
+	 * @param serverURIs
+	 * The broker URIs, null or an empty list to use the broker of the manager.
+	 */
+	public void setServerURIs(List<String> serverURIs) {
+		this.brokerEndpoints = serverURIs == null || serverURIs.isEmpty() ? null : new BrokerEndpoints(serverURIs);
+	}
+
+	/**
+	 * Get the endpoints of the specified serverURIs.
+	 * @return
+	 * The broker URIs with their health, null if no serverURIs are specified.
+	 */
+	public BrokerEndpoints getBrokerEndpoints() {
+		return brokerEndpoints;
+	}
+
+	/**
+	 * Specifies the broker URIs with their health, for example to share them with clients created from other ConnectionOptions.
+	 * @param brokerEndpoints
+	 * The endpoints, null to use the broker of the manager.
+	 */
+	public void setBrokerEndpoints(BrokerEndpoints brokerEndpoints) {
+		this.brokerEndpoints = brokerEndpoints;
+	}
+
+	/**
+	 * Get the specified clientId.
+	 * @return
+	 * The id with which the client identifies itself to the broker, null if a new id is generated for every client.
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Specifies a stable id with which the client identifies itself to the broker.
+	 * A stable id lets a restarted client resume its session and its journal.
+	 * Only one client may use an id at a time, clients with several connections append the number of the connection to it.
+	 * If a client of this process already uses the id, for example because the options are shared by several clients,
+	 * 	the new client appends "-2", "-3" and so on to it.
+	 * @param clientId
+	 * The id of the client, null to generate a new id for every client.
+	 */
+	public void setClientId(String clientId) {
+		this.clientId = clientId;
+	}
+
+	/**
+	 * Get the specified journalDirectory.
+	 * @return
+	 * The directory of the journals of the outgoing messages, null if the journal is disabled.
+	 */
+	public String getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	/**
+	 * Specifies the directory in which the clients keep a journal of their outgoing QoS 1 and 2 messages.
+	 * A message is written to the journal before it is published and stays there until the broker acknowledged it,
+	 * 	so messages that were not acknowledged when the process ended are sent again when the client is created again.
+	 * The journal needs a stable clientId, clients without one are created without journal.
+	 * @param journalDirectory
+	 * The directory of the journals, null to disable the journal.
+	 */
+	public void setJournalDirectory(String journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
 	
 	
 	
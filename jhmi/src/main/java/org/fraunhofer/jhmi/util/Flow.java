@@ -0,0 +1,84 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * The interfaces of reactive streams with backpressure.
+ * They have the same methods and contracts as java.util.concurrent.Flow, which is not available before Java 9.
+ * A Subscriber receives at most as many items as it has requested through its Subscription.
+ */
+public final class Flow {
+
+	private Flow() {
+
+	}
+
+	/**
+	 * A producer of items that are received by Subscribers.
+	 * @param <T>
+	 * The type of the published items.
+	 */
+	public interface Publisher<T> {
+
+		/**
+		 * Adds the given Subscriber. Its onSubscribe function is called with a new Subscription.
+		 * @param subscriber
+		 * The Subscriber that should receive the items.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+
+	}
+
+	/**
+	 * A receiver of items. The functions of a Subscriber are never called concurrently for the same Subscription.
+	 * @param <T>
+	 * The type of the received items.
+	 */
+	public interface Subscriber<T> {
+
+		/**
+		 * Called before any other function with the Subscription over which items are requested.
+		 * @param subscription
+		 * The new Subscription.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Called with the next item. Only called if the item has been requested.
+		 * @param item
+		 * The item.
+		 */
+		void onNext(T item);
+
+		/**
+		 * Called if the Subscription failed. No further functions are called afterwards.
+		 * @param throwable
+		 * The cause of the failure.
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * Called if no further items will be published. No further functions are called afterwards.
+		 */
+		void onComplete();
+
+	}
+
+	/**
+	 * The link between a Publisher and a Subscriber.
+	 */
+	public interface Subscription {
+
+		/**
+		 * Requests further items.
+		 * @param n
+		 * The number of additional items that the Subscriber can receive. Must be greater than 0.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops the delivery of items. Items may still arrive for a short time.
+		 */
+		void cancel();
+
+	}
+
+}
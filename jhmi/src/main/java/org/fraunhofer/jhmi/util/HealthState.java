@@ -0,0 +1,21 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * The health of a connection as measured by a LatencyProbe.
+ */
+public enum HealthState {
+	/**
+	 * Probe messages return within the degraded threshold.
+	 */
+	HEALTHY,
+
+	/**
+	 * Probe messages return, but slower than the degraded threshold.
+	 */
+	DEGRADED,
+
+	/**
+	 * The client is not connected or no probe message has returned within the down threshold.
+	 */
+	DOWN,
+}
@@ -0,0 +1,188 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+
+/**
+ * Suppresses received messages that carry no new information.
+ * The filter keeps the last accepted message of each topic and drops a message if
+ * 	it is identical to the last one (dropUnchanged),
+ * 	it arrives before the minimum interval has passed since the last one (minInterval) or
+ * 	its numeric value differs by less than the deadband from the last one (deadband).
+ * All conditions are disabled by default, a message has to pass all enabled conditions.
+ */
+public class InboundFilter {
+
+	/**
+	 * Determines if a message whose content equals the last accepted content of the topic is dropped.
+	 * By default this is set to false.
+	 */
+	private volatile boolean dropUnchanged = false;
+	/**
+	 * The minimum time in nanoseconds between two accepted messages of a topic.
+	 * By default this value is 0, which disables the condition.
+	 */
+	private volatile long minIntervalNanos = 0;
+	/**
+	 * The minimum difference between the numeric values of two accepted messages of a topic.
+	 * Messages whose content is not a number are not affected.
+	 * By default this value is 0, which disables the condition.
+	 */
+	private volatile double deadband = 0;
+	/**
+	 * The last accepted message of each topic.
+	 */
+	private final ConcurrentHashMap<String, TopicState> states = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an InboundFilter with all conditions disabled.
+	 */
+	public InboundFilter() {
+
+	}
+
+	/**
+	 * Specifies if messages whose content has not changed are dropped.
+	 * @param dropUnchanged
+	 * Determines if a message whose content equals the last accepted content of the topic is dropped.
+	 * By default this is set to false.
+	 */
+	public void setDropUnchanged(boolean dropUnchanged) {
+		this.dropUnchanged = dropUnchanged;
+	}
+
+	/**
+	 * Get the specified value for dropUnchanged.
+	 * @return
+	 * The specified value for dropUnchanged.
+	 */
+	public boolean getDropUnchanged() {
+		return dropUnchanged;
+	}
+
+	/**
+	 * Specifies the minimum time between two accepted messages of a topic.
+	 * @param millis
+	 * The minimum interval in milliseconds. 0 disables the condition, which is the default.
+	 */
+	public void setMinInterval(long millis) {
+		if(millis < 0) {
+			throw new IllegalArgumentException("the minimum interval must not be negative");
+		}
+		this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Get the specified minimum interval.
+	 * @return
+	 * The minimum time in milliseconds between two accepted messages of a topic.
+	 */
+	public long getMinInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(minIntervalNanos);
+	}
+
+	/**
+	 * Specifies the deadband for numeric values.
+	 * @param deadband
+	 * The minimum difference between the numeric values of two accepted messages of a topic.
+	 * 0 disables the condition, which is the default.
+	 */
+	public void setDeadband(double deadband) {
+		if(deadband < 0) {
+			throw new IllegalArgumentException("the deadband must not be negative");
+		}
+		this.deadband = deadband;
+	}
+
+	/**
+	 * Get the specified deadband.
+	 * @return
+	 * The minimum difference between the numeric values of two accepted messages of a topic.
+	 */
+	public double getDeadband() {
+		return deadband;
+	}
+
+	/**
+	 * Checks if a message passes the filter and remembers it as the last accepted message of its topic if it does.
+	 * @param topic
+	 * The topic under which the message was received.
+	 * @param content
+	 * The content of the message.
+	 * @return
+	 * true if the message should be processed, false if it should be dropped.
+	 */
+	public boolean accept(String topic, String content) {
+		boolean checkUnchanged = dropUnchanged;
+		long minInterval = minIntervalNanos;
+		double band = deadband;
+		if(!checkUnchanged && minInterval == 0 && band == 0) {
+			return true;
+		}
+		long now = System.nanoTime();
+		double value = band > 0 ? Payloads.parseNumber(content) : Double.NaN;
+		TopicState state = states.get(topic);
+		if(state == null) {
+			state = states.computeIfAbsent(topic, key -> new TopicState());
+		}
+		synchronized (state) {
+			if(state.content != null) {
+				if(checkUnchanged && state.content.equals(content)) {
+					return false;
+				}
+				if(minInterval > 0 && now - state.acceptedNanos < minInterval) {
+					return false;
+				}
+				if(band > 0 && !Double.isNaN(value) && !Double.isNaN(state.value) && Math.abs(value - state.value) < band) {
+					return false;
+				}
+			}
+			state.content = content;
+			state.acceptedNanos = now;
+			state.value = value;
+		}
+		return true;
+	}
+
+	/**
+	 * Forgets the last accepted messages, so the next message of every topic is accepted.
+	 */
+	public void reset() {
+		states.clear();
+	}
+
+	/**
+	 * Wraps a receiver, so it is only called for messages that pass this filter.
+	 * @param receiver
+	 * The receiver that should be called for the accepted messages.
+	 * @return
+	 * The filtering receiver that can be used for a subscription.
+	 */
+	public IMqttReceiver wrap(IMqttReceiver receiver) {
+		return new IMqttReceiver() {
+
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId) {
+				messageReceived(topic, messageString, messageId, false);
+			}
+
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId, boolean retained) {
+				if(accept(topic, messageString)) {
+					receiver.messageReceived(topic, messageString, messageId, retained);
+				}
+			}
+		};
+	}
+
+	private static final class TopicState {
+
+		private String content;
+		private long acceptedNanos;
+		private double value = Double.NaN;
+
+	}
+
+}
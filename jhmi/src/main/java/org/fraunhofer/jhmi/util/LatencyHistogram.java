@@ -0,0 +1,147 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with logarithmic buckets.
+ * Each power of two is split into 16 buckets, so a reported percentile is at most about 6% above the recorded value.
+ * Recording a duration does not allocate and does not lock.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 16;
+	/**
+	 * Durations below this value have a bucket of their own.
+	 */
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	/**
+	 * Creates a new empty LatencyHistogram.
+	 */
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(LINEAR_LIMIT + (63 - 5) * SUB_BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Records a duration.
+	 * @param nanos
+	 * The duration in nanoseconds. Negative durations are recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Returns the number of recorded durations.
+	 * @return
+	 * The number of recorded durations.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the longest recorded duration.
+	 * @return
+	 * The longest duration in nanoseconds, 0 if nothing has been recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded durations.
+	 * @return
+	 * The mean duration in nanoseconds, 0 if nothing has been recorded.
+	 */
+	public long getMean() {
+		long recorded = count.get();
+		return recorded == 0 ? 0 : sum.get() / recorded;
+	}
+
+	/**
+	 * Returns the duration below which the given share of the recorded durations lies.
+	 * @param percentile
+	 * The percentile between 0 and 100, for example 99 for the 99th percentile.
+	 * @return
+	 * The upper bound of the bucket that holds the percentile in nanoseconds, 0 if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long recorded = count.get();
+		if(recorded == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(recorded * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for(int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if(seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Removes all recorded durations.
+	 */
+	public void reset() {
+		for(int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount()
+				+ " mean=" + toMillis(getMean()) + "ms"
+				+ " p50=" + toMillis(getPercentile(50)) + "ms"
+				+ " p99=" + toMillis(getPercentile(99)) + "ms"
+				+ " max=" + toMillis(getMax()) + "ms";
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	private static int indexOf(long value) {
+		if(value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - 4;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR_LIMIT + (exponent - 5) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBoundOf(int index) {
+		if(index < LINEAR_LIMIT) {
+			return index;
+		}
+		int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + 5;
+		int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+		int shift = exponent - 4;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+
+}
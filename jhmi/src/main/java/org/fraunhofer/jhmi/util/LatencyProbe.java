@@ -0,0 +1,248 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+
+/**
+ * Continuously measures the round trip time of a connection through the broker.
+ * The probe publishes a timestamp with qos 0 to a topic that only its own client subscribes to
+ * 	and records the time until the message comes back in a LatencyHistogram.
+ * The measured latencies drive the HealthState of the connection.
+ * The probe does not connect the client, while the client is disconnected the state is DOWN.
+ */
+public class LatencyProbe {
+
+	/**
+	 * The prefix of the topics of the probes. The client id is appended to it.
+	 */
+	public static final String TOPIC_PREFIX = "jhmi/probe/";
+
+	/**
+	 * Timer shared by all LatencyProbes that only hands the due probes to the PROBE_EXECUTOR,
+	 * 	so a client whose send blocks does not delay the probes of the other clients.
+	 */
+	private static final ScheduledExecutorService PROBE_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-latency-probe");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * Threads that publish the probe messages. A probe sends on one thread at a time.
+	 */
+	private static final ExecutorService PROBE_EXECUTOR = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-latency-probe-send");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Logger logger;
+	private final ClientInterface client;
+	private final String topic;
+	private final long intervalMillis;
+	private final long degradedNanos;
+	private final long downNanos;
+	private final LatencyHistogram histogram;
+	private final IMqttReceiver receiver;
+	private volatile HealthState healthState = HealthState.DOWN;
+	private volatile Consumer<HealthState> healthListener;
+	/**
+	 * The latency of the last returned probe in nanoseconds, -1 if no probe has returned yet.
+	 */
+	private volatile long lastLatencyNanos = -1;
+	/**
+	 * The time at which the oldest unanswered probe was sent, 0 if all probes have returned.
+	 */
+	private volatile long unansweredSince;
+	private volatile boolean subscribed;
+	/**
+	 * True while a probe message of this probe is being sent, further probes are skipped until the send returns.
+	 */
+	private final AtomicBoolean probing = new AtomicBoolean();
+	private ScheduledFuture<?> task;
+
+	/**
+	 * Creates a new LatencyProbe. The probe has to be started with the start function.
+	 * @param client
+	 * The client whose connection should be measured.
+	 * @param intervalMillis
+	 * The time in milliseconds between two probe messages.
+	 * @param degradedMillis
+	 * The latency in milliseconds above which the connection is DEGRADED.
+	 * @param downMillis
+	 * The time in milliseconds after which the connection is DOWN if no probe has returned.
+	 */
+	public LatencyProbe(ClientInterface client, long intervalMillis, long degradedMillis, long downMillis) {
+		if(intervalMillis < 1 || degradedMillis < 1 || downMillis < degradedMillis) {
+			throw new IllegalArgumentException("intervalMillis and degradedMillis must be at least 1 and downMillis at least degradedMillis");
+		}
+		this.logger = Logger.getLogger(LatencyProbe.class.getName());
+		this.client = client;
+		this.topic = TOPIC_PREFIX + client.getClientId();
+		this.intervalMillis = intervalMillis;
+		this.degradedNanos = TimeUnit.MILLISECONDS.toNanos(degradedMillis);
+		this.downNanos = TimeUnit.MILLISECONDS.toNanos(downMillis);
+		this.histogram = new LatencyHistogram();
+		this.receiver = new IMqttReceiver() {
+
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId) {
+				probeReturned(messageString);
+			}
+		};
+	}
+
+	/**
+	 * Starts publishing probe messages.
+	 */
+	public synchronized void start() {
+		if(task == null) {
+			task = PROBE_TIMER.scheduleWithFixedDelay(this::scheduleProbe, 0, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops publishing probe messages. The state stays as it was last measured.
+	 */
+	public synchronized void stop() {
+		if(task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * Returns the current health of the connection.
+	 * @return
+	 * The health of the connection.
+	 */
+	public HealthState getHealthState() {
+		return healthState;
+	}
+
+	/**
+	 * Sets a listener that is called every time the health of the connection changes.
+	 * @param listener
+	 * The listener that receives the new state, null to remove the listener.
+	 */
+	public void setHealthListener(Consumer<HealthState> listener) {
+		this.healthListener = listener;
+	}
+
+	/**
+	 * Returns the histogram of all measured latencies.
+	 * @return
+	 * The histogram of the latencies in nanoseconds.
+	 */
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * Returns the latency of the last returned probe.
+	 * @return
+	 * The latency in nanoseconds, -1 if no probe has returned yet.
+	 */
+	public long getLastLatency() {
+		return lastLatencyNanos;
+	}
+
+	/**
+	 * Returns the topic to which the probe messages are published.
+	 * @return
+	 * The topic of the probe.
+	 */
+	public String getTopic() {
+		return topic;
+	}
+
+	private void scheduleProbe() {
+		if(!probing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			PROBE_EXECUTOR.execute(() -> {
+				try {
+					probe();
+				} finally {
+					probing.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			probing.set(false);
+		}
+	}
+
+	private void probe() {
+		try {
+			long now = System.nanoTime();
+			if(!client.getConnectionStatus()) {
+				subscribed = false;
+				setHealthState(HealthState.DOWN);
+				return;
+			}
+			if(!subscribed || (unansweredSince != 0 && now - unansweredSince > downNanos)) {
+				// subscribes again after a reconnect that did not restore the subscription
+				subscribed = client.subscribe(topic, receiver).startsWith(ClientInterface.SUCCESS);
+			}
+			if(unansweredSince == 0) {
+				unansweredSince = now;
+			}
+			client.sendMessage(topic, Long.toString(now), 0, false);
+			evaluate(now);
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Sending the latency probe failed", e);
+		}
+	}
+
+	private void probeReturned(String messageString) {
+		long now = System.nanoTime();
+		long sent;
+		try {
+			sent = Long.parseLong(messageString);
+		} catch (NumberFormatException e) {
+			return;
+		}
+		long latency = now - sent;
+		histogram.record(latency);
+		lastLatencyNanos = latency;
+		unansweredSince = 0;
+		evaluate(now);
+	}
+
+	private void evaluate(long now) {
+		long pending = unansweredSince == 0 ? 0 : now - unansweredSince;
+		long latency = lastLatencyNanos;
+		if(pending > downNanos) {
+			setHealthState(HealthState.DOWN);
+		} else if(latency < 0) {
+			// no probe has returned yet, the state stays as it is
+		} else if(latency > degradedNanos || pending > degradedNanos) {
+			setHealthState(HealthState.DEGRADED);
+		} else {
+			setHealthState(HealthState.HEALTHY);
+		}
+	}
+
+	private void setHealthState(HealthState state) {
+		if(healthState == state) {
+			return;
+		}
+		healthState = state;
+		logger.info("Connection of " + client.getClientId() + " is " + state);
+		Consumer<HealthState> listener = healthListener;
+		if(listener != null) {
+			listener.accept(state);
+		}
+	}
+
+}
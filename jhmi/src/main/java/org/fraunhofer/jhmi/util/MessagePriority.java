@@ -0,0 +1,22 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * The priority class of an outgoing message.
+ * Messages of a higher class are put on the wire first and have inflight slots reserved for them.
+ */
+public enum MessagePriority {
+	/**
+	 * For commands that a user is waiting for, for example switching a light.
+	 */
+	HIGH,
+
+	/**
+	 * For regular messages. This is the priority of messages that are sent without a priority.
+	 */
+	NORMAL,
+
+	/**
+	 * For bulk traffic like telemetry bursts. This is the priority of messages that are sent with sendMessages.
+	 */
+	LOW,
+}
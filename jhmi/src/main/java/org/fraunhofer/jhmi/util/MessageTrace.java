@@ -0,0 +1,97 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timestamps of the processing of a received message by one receiver.
+ * All timestamps are values of System.nanoTime().
+ */
+public final class MessageTrace {
+
+	private final String topic;
+	private final String receiverClass;
+	private final long arrivalNanos;
+	private final long decodedNanos;
+	private final long dispatchNanos;
+	private final long endNanos;
+
+	/**
+	 * Creates a new MessageTrace.
+	 * @param topic
+	 * The topic of the message.
+	 * @param receiverClass
+	 * The name of the class of the receiver that processed the message.
+	 * @param arrivalNanos
+	 * The time at which the client handed the message over.
+	 * @param decodedNanos
+	 * The time at which the content of the message was decoded.
+	 * @param dispatchNanos
+	 * The time at which the receiver was called.
+	 * @param endNanos
+	 * The time at which the receiver returned.
+	 */
+	public MessageTrace(String topic, String receiverClass, long arrivalNanos, long decodedNanos, long dispatchNanos, long endNanos) {
+		this.topic = topic;
+		this.receiverClass = receiverClass;
+		this.arrivalNanos = arrivalNanos;
+		this.decodedNanos = decodedNanos;
+		this.dispatchNanos = dispatchNanos;
+		this.endNanos = endNanos;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public String getReceiverClass() {
+		return receiverClass;
+	}
+
+	public long getArrivalNanos() {
+		return arrivalNanos;
+	}
+
+	public long getDecodedNanos() {
+		return decodedNanos;
+	}
+
+	public long getDispatchNanos() {
+		return dispatchNanos;
+	}
+
+	public long getEndNanos() {
+		return endNanos;
+	}
+
+	/**
+	 * Returns the time the receiver needed to process the message.
+	 * @return
+	 * The duration of the callback in nanoseconds.
+	 */
+	public long getCallbackNanos() {
+		return endNanos - dispatchNanos;
+	}
+
+	/**
+	 * Returns the time from the arrival of the message until the receiver returned.
+	 * This includes the time the message waited for earlier receivers of the same message.
+	 * @return
+	 * The total duration in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return endNanos - arrivalNanos;
+	}
+
+	@Override
+	public String toString() {
+		return receiverClass + " on " + topic
+				+ ": decode " + toMicros(decodedNanos - arrivalNanos) + "us"
+				+ ", wait " + toMicros(dispatchNanos - decodedNanos) + "us"
+				+ ", callback " + toMicros(endNanos - dispatchNanos) + "us";
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+}
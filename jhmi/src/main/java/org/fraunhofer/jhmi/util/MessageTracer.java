@@ -0,0 +1,114 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Measures how long receivers take to process received messages and reports slow callbacks.
+ * A tracer is enabled by passing it to ConnectionOptions.setMessageTracer, one tracer can be shared by many clients.
+ * Without a tracer the clients do not take any timestamps.
+ * A MessageTrace is only created for slow callbacks or if a trace listener is set.
+ */
+public class MessageTracer {
+
+	private final Logger logger;
+	private final LatencyHistogram callbackHistogram;
+	/**
+	 * The duration in nanoseconds above which a callback is reported as slow, 0 if slow callbacks are not reported.
+	 */
+	private volatile long slowThresholdNanos;
+	private volatile Consumer<MessageTrace> slowCallbackListener;
+	private volatile Consumer<MessageTrace> traceListener;
+
+	/**
+	 * Creates a new MessageTracer.
+	 * @param slowThresholdMillis
+	 * The duration in milliseconds above which a callback is logged as slow, 0 to not report slow callbacks.
+	 */
+	public MessageTracer(long slowThresholdMillis) {
+		this.logger = Logger.getLogger(MessageTracer.class.getName());
+		this.callbackHistogram = new LatencyHistogram();
+		setSlowThreshold(slowThresholdMillis);
+	}
+
+	/**
+	 * Specifies the duration above which a callback is reported as slow.
+	 * @param millis
+	 * The duration in milliseconds, 0 to not report slow callbacks.
+	 */
+	public void setSlowThreshold(long millis) {
+		if(millis < 0) {
+			throw new IllegalArgumentException("the threshold must not be negative");
+		}
+		this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Sets a listener that is called for every slow callback in addition to the log message.
+	 * The listener is called on the thread of the slow callback.
+	 * @param listener
+	 * The listener, null to remove the listener.
+	 */
+	public void setSlowCallbackListener(Consumer<MessageTrace> listener) {
+		this.slowCallbackListener = listener;
+	}
+
+	/**
+	 * Sets a listener that is called with the trace of every processed message.
+	 * The listener is called on the callback thread of the client and has to return quickly.
+	 * @param listener
+	 * The listener, null to stop tracing every message.
+	 */
+	public void setTraceListener(Consumer<MessageTrace> listener) {
+		this.traceListener = listener;
+	}
+
+	/**
+	 * Returns the histogram of the durations of all callbacks.
+	 * @return
+	 * The histogram of the callback durations in nanoseconds.
+	 */
+	public LatencyHistogram getCallbackHistogram() {
+		return callbackHistogram;
+	}
+
+	/**
+	 * Records the processing of a message by a receiver.
+	 * @param topic
+	 * The topic of the message.
+	 * @param receiver
+	 * The receiver that processed the message.
+	 * @param arrivalNanos
+	 * The time at which the client handed the message over.
+	 * @param decodedNanos
+	 * The time at which the content of the message was decoded.
+	 * @param dispatchNanos
+	 * The time at which the receiver was called.
+	 * @param endNanos
+	 * The time at which the receiver returned.
+	 */
+	public void record(String topic, Object receiver, long arrivalNanos, long decodedNanos, long dispatchNanos, long endNanos) {
+		long duration = endNanos - dispatchNanos;
+		callbackHistogram.record(duration);
+		long threshold = slowThresholdNanos;
+		boolean slow = threshold > 0 && duration > threshold;
+		Consumer<MessageTrace> listener = traceListener;
+		if(!slow && listener == null) {
+			return;
+		}
+		MessageTrace trace = new MessageTrace(topic, receiver.getClass().getName(), arrivalNanos, decodedNanos, dispatchNanos, endNanos);
+		if(slow) {
+			logger.warning("Slow callback " + trace.getReceiverClass() + " on " + topic + " took "
+					+ TimeUnit.NANOSECONDS.toMillis(duration) + "ms, the client could not process other messages meanwhile");
+			Consumer<MessageTrace> slowListener = slowCallbackListener;
+			if(slowListener != null) {
+				slowListener.accept(trace);
+			}
+		}
+		if(listener != null) {
+			listener.accept(trace);
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * A received message as it is published to the Subscribers of a MqttEventPublisher.
+ */
+public final class MqttEvent {
+
+	private final String topic;
+	private final String content;
+	private final int messageId;
+	private final boolean retained;
+	private final long receivedNanos;
+
+	/**
+	 * Creates a new MqttEvent.
+	 * @param topic
+	 * The topic under which the message was published.
+	 * @param content
+	 * The content of the message.
+	 * @param messageId
+	 * The id of the message.
+	 * @param retained
+	 * If the message was delivered from the retained messages of the broker.
+	 * @param receivedNanos
+	 * The value of System.nanoTime() when the message was received.
+	 */
+	public MqttEvent(String topic, String content, int messageId, boolean retained, long receivedNanos) {
+		this.topic = topic;
+		this.content = content;
+		this.messageId = messageId;
+		this.retained = retained;
+		this.receivedNanos = receivedNanos;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public int getMessageId() {
+		return messageId;
+	}
+
+	public boolean isRetained() {
+		return retained;
+	}
+
+	/**
+	 * Returns the time at which the message was received.
+	 * @return
+	 * The value of System.nanoTime() when the message was received.
+	 */
+	public long getReceivedNanos() {
+		return receivedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return topic + ": " + content;
+	}
+
+}
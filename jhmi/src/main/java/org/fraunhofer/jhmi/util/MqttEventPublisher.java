@@ -0,0 +1,290 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+
+/**
+ * Publishes received messages as MqttEvents to Subscribers that request them at their own pace.
+ * The publisher is used as receiver of a subscription. Each Subscriber has its own buffer of a fixed size,
+ * 	if it is full the BackpressureStrategy of the publisher decides what happens with further messages.
+ * The Subscribers are called on a shared pool of delivery threads, never on the callback thread of the client.
+ */
+public class MqttEventPublisher implements Flow.Publisher<MqttEvent>, IMqttReceiver {
+
+	/**
+	 * Threads shared by all MqttEventPublishers to deliver the events to the Subscribers.
+	 */
+	private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-event-publisher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Logger logger;
+	private final int bufferSize;
+	private final BackpressureStrategy strategy;
+	private final CopyOnWriteArrayList<BufferedSubscription> subscriptions;
+	private final LongAdder droppedCount;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new MqttEventPublisher.
+	 * @param bufferSize
+	 * The maximum number of events that are buffered for each Subscriber. Must be at least 1.
+	 * @param strategy
+	 * Defines what happens with a message if the buffer of a Subscriber is full.
+	 */
+	public MqttEventPublisher(int bufferSize, BackpressureStrategy strategy) {
+		if(bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be at least 1");
+		}
+		this.logger = Logger.getLogger(MqttEventPublisher.class.getName());
+		this.bufferSize = bufferSize;
+		this.strategy = strategy;
+		this.subscriptions = new CopyOnWriteArrayList<>();
+		this.droppedCount = new LongAdder();
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super MqttEvent> subscriber) {
+		if(subscriber == null) {
+			throw new NullPointerException("subscriber must not be null");
+		}
+		BufferedSubscription subscription = new BufferedSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscriptions.add(subscription);
+		if(closed) {
+			subscription.complete();
+		}
+	}
+
+	@Override
+	public void messageReceived(String topic, String messageString, int messageId) {
+		messageReceived(topic, messageString, messageId, false);
+	}
+
+	@Override
+	public void messageReceived(String topic, String messageString, int messageId, boolean retained) {
+		if(closed || subscriptions.isEmpty()) {
+			return;
+		}
+		MqttEvent event = new MqttEvent(topic, messageString, messageId, retained, System.nanoTime());
+		for(BufferedSubscription subscription: subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	/**
+	 * Completes all Subscribers after their buffered events have been delivered.
+	 * Messages that are received afterwards are ignored and new Subscribers are completed immediately.
+	 */
+	public void close() {
+		closed = true;
+		for(BufferedSubscription subscription: subscriptions) {
+			subscription.complete();
+		}
+	}
+
+	/**
+	 * Returns the number of current Subscribers.
+	 * @return
+	 * The number of Subscribers that have neither cancelled nor been completed.
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Returns the number of events that have been dropped because the buffer of a Subscriber was full.
+	 * @return
+	 * The number of dropped events, summed up over all Subscribers.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * The Subscription of a single Subscriber with its buffer.
+	 * All fields are guarded by the monitor of the subscription.
+	 */
+	private final class BufferedSubscription implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super MqttEvent> subscriber;
+		/**
+		 * Ring buffer of the events that have not been delivered yet.
+		 */
+		private final MqttEvent[] buffer;
+		private int head;
+		private int count;
+		/**
+		 * The number of events that have been requested but not delivered yet.
+		 */
+		private long requested;
+		/**
+		 * True once the Subscriber has cancelled or has been completed.
+		 */
+		private boolean cancelled;
+		private boolean completed;
+		private Throwable failure;
+		/**
+		 * True while the delivery of events is scheduled or running.
+		 */
+		private boolean scheduled;
+
+		private BufferedSubscription(Flow.Subscriber<? super MqttEvent> subscriber) {
+			this.subscriber = subscriber;
+			this.buffer = new MqttEvent[bufferSize];
+		}
+
+		@Override
+		public synchronized void request(long n) {
+			if(cancelled) {
+				return;
+			}
+			if(n <= 0) {
+				failure = new IllegalArgumentException("the number of requested events must be greater than 0");
+			} else {
+				requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+			}
+			signal();
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				Arrays.fill(buffer, null);
+				count = 0;
+				notifyAll();
+			}
+			subscriptions.remove(this);
+		}
+
+		private synchronized void complete() {
+			completed = true;
+			notifyAll();
+			signal();
+		}
+
+		private synchronized void offer(MqttEvent event) {
+			if(cancelled || completed) {
+				return;
+			}
+			if(count == buffer.length) {
+				switch(strategy) {
+				case BLOCK:
+					while(count == buffer.length && !cancelled && !completed) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							droppedCount.increment();
+							return;
+						}
+					}
+					if(cancelled || completed) {
+						return;
+					}
+					break;
+				case LATEST_PER_TOPIC:
+					droppedCount.increment();
+					if(replace(event)) {
+						return;
+					}
+					buffer[head] = null;
+					head = (head + 1) % buffer.length;
+					count--;
+					break;
+				default:
+					droppedCount.increment();
+					return;
+				}
+			}
+			buffer[(head + count) % buffer.length] = event;
+			count++;
+			signal();
+		}
+
+		/**
+		 * Replaces the buffered event with the same topic.
+		 * Only used if the buffer is full, so the scan is bounded by the buffer size.
+		 */
+		private boolean replace(MqttEvent event) {
+			for(int i = 0; i < count; i++) {
+				int index = (head + i) % buffer.length;
+				if(buffer[index].getTopic().equals(event.getTopic())) {
+					buffer[index] = event;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void signal() {
+			if(!scheduled) {
+				scheduled = true;
+				DELIVERY.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			while(true) {
+				MqttEvent event = null;
+				Throwable error = null;
+				boolean complete = false;
+				synchronized (this) {
+					if(cancelled) {
+						scheduled = false;
+						return;
+					}
+					if(failure != null) {
+						error = failure;
+						cancelled = true;
+					} else if(count > 0 && requested > 0) {
+						event = buffer[head];
+						buffer[head] = null;
+						head = (head + 1) % buffer.length;
+						count--;
+						if(requested != Long.MAX_VALUE) {
+							requested--;
+						}
+						notifyAll();
+					} else if(count == 0 && completed) {
+						complete = true;
+						cancelled = true;
+					} else {
+						scheduled = false;
+						return;
+					}
+				}
+				try {
+					if(error != null) {
+						subscriptions.remove(this);
+						subscriber.onError(error);
+						return;
+					}
+					if(complete) {
+						subscriptions.remove(this);
+						subscriber.onComplete();
+						return;
+					}
+					subscriber.onNext(event);
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Subscriber " + subscriber.getClass().getName() + " failed, cancelling its subscription", e);
+					cancel();
+					return;
+				}
+			}
+		}
+
+	}
+
+}
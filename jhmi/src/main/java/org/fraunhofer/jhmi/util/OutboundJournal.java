@@ -0,0 +1,555 @@
+package org.fraunhofer.jhmi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log for the outgoing QoS 1 and 2 messages of a client, so messages that were not acknowledged by the broker
+ * 	survive a crash of the process and can be sent again after the restart.
+ * The log is a sequence of memory-mapped segment files. A message is appended before it is published and an acknowledgement
+ * 	is appended when the sender knows its outcome. A message whose publish failed because of the connection is deferred instead,
+ * 	it stays pending and is sent again after the next connect or start, so messages are delivered at least once.
+ * Segments whose messages are all acknowledged are deleted, a segment is only deleted after all older segments.
+ * Writing to the mapped segment only copies the record, the expensive flush to the disk is done by a single thread for all
+ * 	messages that were appended in the meantime (group commit), so concurrent senders share one flush.
+ * A journal directory must only be used by one client at a time, which is why journaled clients need a stable client id.
+ * The journal holds a lock on a file in its directory while it is open, so a second journal on the same directory fails to open,
+ * 	also in another process.
+ */
+public class OutboundJournal {
+
+	private static final byte PUBLISH = 1;
+	private static final byte ACKNOWLEDGE = 2;
+	/**
+	 * The length and the checksum of the body in front of every record.
+	 */
+	private static final int HEADER_SIZE = 8;
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String LOCK_FILE = "journal.lock";
+
+	private final Logger logger;
+	private final File directory;
+	private final int segmentSize;
+	/**
+	 * The channel of the lock file, which holds the lock of the directory until the journal is closed.
+	 */
+	private final FileChannel lockChannel;
+	/**
+	 * The segments that still contain unacknowledged messages, oldest first. The last one is written to.
+	 */
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	/**
+	 * The segments of the unacknowledged messages by their sequence number.
+	 */
+	private final ConcurrentHashMap<Long, Segment> pending = new ConcurrentHashMap<>();
+	private final List<Entry> recovered;
+	/**
+	 * The messages of this run whose publish failed, which stay pending to be sent again after the next connect. Guarded by the journal.
+	 */
+	private final LinkedHashMap<Long, Entry> deferred = new LinkedHashMap<>();
+	private final CRC32 crc = new CRC32();
+	private final Object flushLock = new Object();
+	private final Thread flusher;
+	private Segment current;
+	private long nextSequence;
+	private long nextSegmentIndex;
+	/**
+	 * The highest sequence number that a sender waits to be flushed, guarded by flushLock.
+	 */
+	private long requestedSequence = -1;
+	/**
+	 * The highest sequence number that is flushed to the disk, guarded by flushLock.
+	 */
+	private long flushedSequence = -1;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the journal in a directory with segments of 64 MiB and recovers the unacknowledged messages of the previous run.
+	 * @param directory
+	 * The directory of the journal, it is created if it does not exist.
+	 * @throws IOException
+	 * If the directory or the segments can not be read or written, or if another journal uses the directory.
+	 */
+	public OutboundJournal(File directory) throws IOException {
+		this(directory, 64 * 1024 * 1024);
+	}
+
+	/**
+	 * Opens the journal in a directory and recovers the unacknowledged messages of the previous run.
+	 * @param directory
+	 * The directory of the journal, it is created if it does not exist.
+	 * @param segmentSize
+	 * The size of a segment file in bytes, which is also the limit for the size of a single message.
+	 * @throws IOException
+	 * If the directory or the segments can not be read or written, or if another journal uses the directory.
+	 */
+	public OutboundJournal(File directory, int segmentSize) throws IOException {
+		if(segmentSize < 1024) {
+			throw new IllegalArgumentException("the segment size must be at least 1024 bytes");
+		}
+		this.logger = Logger.getLogger(OutboundJournal.class.getName());
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("the journal directory " + directory + " can not be created");
+		}
+		this.lockChannel = lockDirectory(directory);
+		try {
+			this.recovered = Collections.unmodifiableList(recover());
+			this.current = openSegment();
+		} catch (IOException | RuntimeException e) {
+			lockChannel.close();
+			throw e;
+		}
+		this.flusher = new Thread(this::flushLoop, "jhmi-journal-flush");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Appends a message that is about to be published.
+	 * The message is not yet durable, use awaitDurable to wait for the flush.
+	 * @param topic
+	 * The topic of the message.
+	 * @param payload
+	 * The payload of the message.
+	 * @param qos
+	 * The quality of service of the message.
+	 * @param retained
+	 * If the message is retained.
+	 * @return
+	 * The sequence number of the message, which is passed to acknowledge once the broker confirmed the message.
+	 * @throws IOException
+	 * If a new segment can not be created or the journal is closed.
+	 */
+	public synchronized long append(String topic, byte[] payload, int qos, boolean retained) throws IOException {
+		if(closed) {
+			throw new IOException("the journal is closed");
+		}
+		byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+		int bodySize = 1 + 8 + 1 + 1 + 4 + topicBytes.length + 4 + payload.length;
+		ensureCapacity(bodySize);
+		long sequence = nextSequence++;
+		ByteBuffer buffer = current.buffer;
+		int start = buffer.position();
+		buffer.position(start + HEADER_SIZE);
+		buffer.put(PUBLISH).putLong(sequence).put((byte) qos).put((byte) (retained ? 1 : 0));
+		buffer.putInt(topicBytes.length).put(topicBytes).putInt(payload.length).put(payload);
+		writeHeader(buffer, start, bodySize);
+		current.unacknowledged++;
+		pending.put(sequence, current);
+		return sequence;
+	}
+
+	/**
+	 * Waits until a message and all messages appended before it are flushed to the disk.
+	 * @param sequence
+	 * The sequence number of the message.
+	 * @return
+	 * true if the message is durable, false if the thread was interrupted or the journal was closed.
+	 */
+	public boolean awaitDurable(long sequence) {
+		synchronized (flushLock) {
+			if(sequence > requestedSequence) {
+				requestedSequence = sequence;
+				flushLock.notifyAll();
+			}
+			while(flushedSequence < sequence) {
+				if(closed) {
+					return false;
+				}
+				try {
+					flushLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records that the broker confirmed a message, so it is not sent again after a restart.
+	 * Acknowledging a message twice has no effect.
+	 * @param sequence
+	 * The sequence number of the message.
+	 */
+	public synchronized void acknowledge(long sequence) {
+		deferred.remove(sequence);
+		Segment segment = pending.remove(sequence);
+		if(segment == null || closed) {
+			return;
+		}
+		try {
+			ensureCapacity(9);
+			ByteBuffer buffer = current.buffer;
+			int start = buffer.position();
+			buffer.position(start + HEADER_SIZE);
+			buffer.put(ACKNOWLEDGE).putLong(sequence);
+			writeHeader(buffer, start, 9);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "The acknowledgement of message " + sequence + " could not be journaled, it will be sent again after a restart", e);
+		}
+		segment.unacknowledged--;
+		deleteAcknowledgedSegments();
+	}
+
+	/**
+	 * Returns the messages that were not acknowledged when the journal was closed or the process ended.
+	 * They stay in the journal until they are acknowledged.
+	 * @return
+	 * The unacknowledged messages of the previous run in the order in which they were appended.
+	 */
+	public List<Entry> getRecoveredMessages() {
+		return recovered;
+	}
+
+	/**
+	 * Keeps a message of this run whose publish failed, so it is returned by getPendingMessages and can be sent again.
+	 * The message is already in the journal, this only keeps its content in memory until it is acknowledged.
+	 * @param sequence
+	 * The sequence number of the message.
+	 * @param topic
+	 * The topic of the message.
+	 * @param payload
+	 * The payload of the message.
+	 * @param qos
+	 * The quality of service of the message.
+	 * @param retained
+	 * If the message is retained.
+	 */
+	public synchronized void defer(long sequence, String topic, byte[] payload, int qos, boolean retained) {
+		if(pending.containsKey(sequence)) {
+			deferred.put(sequence, new Entry(sequence, topic, payload, qos, retained));
+		}
+	}
+
+	/**
+	 * Returns the messages that should be sent again: the recovered messages of the previous run
+	 * 	and the deferred messages of this run that are not acknowledged yet.
+	 * @return
+	 * The messages in the order in which they were appended.
+	 */
+	public synchronized List<Entry> getPendingMessages() {
+		List<Entry> messages = new ArrayList<>();
+		for(Entry entry: recovered) {
+			if(pending.containsKey(entry.sequence)) {
+				messages.add(entry);
+			}
+		}
+		messages.addAll(deferred.values());
+		messages.sort((first, second) -> Long.compare(first.sequence, second.sequence));
+		return messages;
+	}
+
+	/**
+	 * Returns if a message is not acknowledged yet.
+	 * @param sequence
+	 * The sequence number of the message.
+	 * @return
+	 * true if the message waits for its acknowledgement.
+	 */
+	public boolean isPending(long sequence) {
+		return pending.containsKey(sequence);
+	}
+
+	/**
+	 * Returns the number of messages that are not acknowledged.
+	 * @return
+	 * The number of unacknowledged messages, including the recovered ones.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Flushes the journal and closes its segments. Unacknowledged messages are recovered when the directory is opened again.
+	 */
+	public void close() {
+		synchronized (this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			for(Segment segment: segments) {
+				segment.buffer.force();
+			}
+		}
+		synchronized (flushLock) {
+			flushedSequence = Math.max(flushedSequence, nextSequence - 1);
+			flushLock.notifyAll();
+		}
+		try {
+			lockChannel.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "The lock of the journal " + directory + " could not be released", e);
+		}
+	}
+
+	/**
+	 * Locks the lock file of the directory.
+	 * @return
+	 * The channel that holds the lock, closing it releases the lock.
+	 */
+	private static FileChannel lockDirectory(File directory) throws IOException {
+		FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		if(lock == null) {
+			channel.close();
+			throw new IOException("the journal directory " + directory + " is used by another client");
+		}
+		return channel;
+	}
+
+	/**
+	 * Starts a new segment if the current one has no room for a record with a body of the given size.
+	 * The full segment is flushed before the first record is written to the new one.
+	 */
+	private void ensureCapacity(int bodySize) throws IOException {
+		int recordSize = HEADER_SIZE + bodySize;
+		if(recordSize > segmentSize - 4) {
+			throw new IOException("the message is larger than a journal segment");
+		}
+		if(current.buffer.remaining() - 4 < recordSize) {
+			current.buffer.force();
+			current = openSegment();
+			deleteAcknowledgedSegments();
+		}
+	}
+
+	/**
+	 * Writes the length and the checksum of a record. The length is written last, so a record is only valid when it is complete.
+	 */
+	private void writeHeader(ByteBuffer buffer, int start, int bodySize) {
+		crc.reset();
+		ByteBuffer body = buffer.duplicate();
+		body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodySize);
+		crc.update(body);
+		buffer.putInt(start + 4, (int) crc.getValue());
+		buffer.putInt(start, bodySize);
+	}
+
+	/**
+	 * Deletes the oldest segments as long as all their messages are acknowledged.
+	 * Segments are only deleted in order, so the acknowledgements of older messages are never lost before the messages.
+	 */
+	private void deleteAcknowledgedSegments() {
+		while(!segments.isEmpty() && segments.peekFirst() != current && segments.peekFirst().unacknowledged == 0) {
+			Segment segment = segments.pollFirst();
+			if(!segment.file.delete()) {
+				logger.warning("The journal segment " + segment.file + " could not be deleted");
+			}
+		}
+	}
+
+	private Segment openSegment() throws IOException {
+		File file = new File(directory, SEGMENT_PREFIX + String.format("%016d", nextSegmentIndex++) + SEGMENT_SUFFIX);
+		Segment segment = new Segment(file, segmentSize);
+		segments.addLast(segment);
+		return segment;
+	}
+
+	/**
+	 * Reads the segments of the previous run and collects the messages without acknowledgement.
+	 * Reading a segment stops at the first incomplete record, which is where the previous run ended.
+	 */
+	private List<Entry> recover() throws IOException {
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		if(files == null) {
+			throw new IOException("the journal directory " + directory + " can not be read");
+		}
+		Arrays.sort(files);
+		Map<Long, Entry> messages = new LinkedHashMap<>();
+		Map<Long, Segment> locations = new LinkedHashMap<>();
+		for(File file: files) {
+			long index = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+			nextSegmentIndex = Math.max(nextSegmentIndex, index + 1);
+			Segment segment = new Segment(file, (int) Math.min(Integer.MAX_VALUE, file.length()));
+			segments.addLast(segment);
+			read(segment, messages, locations);
+		}
+		for(Map.Entry<Long, Segment> location: locations.entrySet()) {
+			location.getValue().unacknowledged++;
+			pending.put(location.getKey(), location.getValue());
+		}
+		current = null;
+		deleteAcknowledgedSegments();
+		if(!messages.isEmpty()) {
+			logger.info("Recovered " + messages.size() + " unacknowledged messages from " + directory);
+		}
+		return new ArrayList<>(messages.values());
+	}
+
+	private void read(Segment segment, Map<Long, Entry> messages, Map<Long, Segment> locations) {
+		ByteBuffer buffer = segment.buffer;
+		try {
+			while(buffer.remaining() >= HEADER_SIZE) {
+				int start = buffer.position();
+				int bodySize = buffer.getInt();
+				int checksum = buffer.getInt();
+				if(bodySize <= 0 || bodySize > buffer.remaining()) {
+					return;
+				}
+				ByteBuffer body = buffer.duplicate();
+				body.limit(start + HEADER_SIZE + bodySize);
+				crc.reset();
+				crc.update(body.duplicate());
+				if((int) crc.getValue() != checksum) {
+					logger.warning("The journal segment " + segment.file + " ends with an incomplete record");
+					return;
+				}
+				byte type = body.get();
+				long sequence = body.getLong();
+				nextSequence = Math.max(nextSequence, sequence + 1);
+				if(type == PUBLISH) {
+					int qos = body.get();
+					boolean retained = body.get() != 0;
+					byte[] topic = new byte[body.getInt()];
+					body.get(topic);
+					byte[] payload = new byte[body.getInt()];
+					body.get(payload);
+					messages.put(sequence, new Entry(sequence, new String(topic, StandardCharsets.UTF_8), payload, qos, retained));
+					locations.put(sequence, segment);
+				} else if(type == ACKNOWLEDGE) {
+					messages.remove(sequence);
+					locations.remove(sequence);
+				}
+				buffer.position(start + HEADER_SIZE + bodySize);
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			logger.warning("The journal segment " + segment.file + " ends with an incomplete record");
+		}
+	}
+
+	/**
+	 * Flushes the current segment whenever a sender waits for a message that is not flushed yet.
+	 * Everything appended until the flush starts is covered by it, so the cost of a flush is shared by all waiting senders.
+	 */
+	private void flushLoop() {
+		while(true) {
+			synchronized (flushLock) {
+				while(!closed && requestedSequence <= flushedSequence) {
+					try {
+						flushLock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if(closed) {
+					return;
+				}
+			}
+			long sequence;
+			MappedByteBuffer buffer;
+			synchronized (this) {
+				if(closed) {
+					return;
+				}
+				sequence = nextSequence - 1;
+				buffer = current.buffer;
+			}
+			buffer.force();
+			synchronized (flushLock) {
+				flushedSequence = Math.max(flushedSequence, sequence);
+				flushLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * A message of the journal.
+	 */
+	public static final class Entry {
+
+		private final long sequence;
+		private final String topic;
+		private final byte[] payload;
+		private final int qos;
+		private final boolean retained;
+
+		private Entry(long sequence, String topic, byte[] payload, int qos, boolean retained) {
+			this.sequence = sequence;
+			this.topic = topic;
+			this.payload = payload;
+			this.qos = qos;
+			this.retained = retained;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public String getTopic() {
+			return topic;
+		}
+
+		public byte[] getPayload() {
+			return payload;
+		}
+
+		public int getQos() {
+			return qos;
+		}
+
+		public boolean isRetained() {
+			return retained;
+		}
+
+	}
+
+	/**
+	 * A memory-mapped segment file. The mapping stays valid after its channel is closed.
+	 */
+	private static final class Segment {
+
+		private final File file;
+		private final MappedByteBuffer buffer;
+		/**
+		 * The number of messages in the segment without acknowledgement, guarded by the journal.
+		 */
+		private int unacknowledged;
+
+		private Segment(File file, int size) throws IOException {
+			this.file = file;
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+				this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,171 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits the rate of outgoing messages with a token bucket.
+ * Messages that exceed the rate are held back. If a newer message with the same key is submitted
+ * 	while an older one is still held back, only the newer one will be sent (last write wins).
+ * Held back messages are sent in the order in which their key was first held back. While held back messages are sent,
+ * 	new messages are held back as well, so a message is never sent before an older message with the same key.
+ */
+public class OutboundShaper {
+
+	/**
+	 * The result that is returned if a message was held back by the rate limit.
+	 */
+	public static final String QUEUED = ClientInterface.SUCCESS + " but the message was queued by the rate limit";
+
+	/**
+	 * Timer shared by all OutboundShapers that only waits until the held back messages are due.
+	 */
+	private static final ScheduledExecutorService DRAIN_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-outbound-shaper");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Sends the due messages, so a shaper whose send blocks, for example on a slow QoS 2 client, does not hold back the other shapers.
+	 * A shaper drains on one thread at a time, which keeps its messages in order.
+	 */
+	private static final ExecutorService DRAIN_EXECUTOR = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-outbound-shaper-send");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Logger logger;
+	/**
+	 * The number of tokens that are added per second.
+	 */
+	private final double ratePerSecond;
+	/**
+	 * The maximum number of tokens, which is the number of messages that can be sent at once.
+	 */
+	private final double burst;
+	/**
+	 * The currently available tokens.
+	 */
+	private double tokens;
+	/**
+	 * The time in nanoseconds at which the tokens were last refilled.
+	 */
+	private long lastRefill;
+	/**
+	 * The held back messages by their key.
+	 */
+	private final LinkedHashMap<String, Supplier<String>> pending;
+	/**
+	 * True from the scheduling of sending the held back messages until they are sent.
+	 */
+	private boolean drainScheduled;
+
+	/**
+	 * Creates a new OutboundShaper.
+	 * @param ratePerSecond
+	 * The number of messages that may be sent per second on average. Must be greater than 0.
+	 * @param burst
+	 * The number of messages that may be sent at once after a period without messages. Must be at least 1.
+	 */
+	public OutboundShaper(double ratePerSecond, int burst) {
+		if(ratePerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("ratePerSecond must be greater than 0 and burst at least 1");
+		}
+		this.logger = Logger.getLogger(OutboundShaper.class.getName());
+		this.ratePerSecond = ratePerSecond;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+		this.pending = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Sends a message or holds it back if the rate limit is exceeded.
+	 * @param key
+	 * The key of the message. A held back message with the same key is replaced by this one.
+	 * @param send
+	 * The function that sends the message and returns the result of sending.
+	 * @return
+	 * The result of sending if the message was sent immediately, QUEUED if it was held back.
+	 */
+	public String submit(String key, Supplier<String> send) {
+		synchronized (this) {
+			refill();
+			// while a drain is running the pending messages are empty but the drained ones are not sent yet,
+			// queueing behind the drain keeps a newer message of the same key from overtaking an older one
+			if(drainScheduled || !pending.isEmpty() || tokens < 1) {
+				pending.put(key, send);
+				scheduleDrain();
+				return QUEUED;
+			}
+			tokens--;
+		}
+		return send.get();
+	}
+
+	/**
+	 * Returns the number of held back messages.
+	 * @return
+	 * The number of held back messages.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerSecond / 1e9);
+		lastRefill = now;
+	}
+
+	private void scheduleDrain() {
+		if(drainScheduled) {
+			return;
+		}
+		drainScheduled = true;
+		long delay = (long) Math.ceil(Math.max(0, 1 - tokens) * 1e9 / ratePerSecond);
+		DRAIN_TIMER.schedule(() -> DRAIN_EXECUTOR.execute(this::drain), delay, TimeUnit.NANOSECONDS);
+	}
+
+	private void drain() {
+		List<Supplier<String>> due = new ArrayList<>();
+		synchronized (this) {
+			refill();
+			Iterator<Map.Entry<String, Supplier<String>>> iterator = pending.entrySet().iterator();
+			while(tokens >= 1 && iterator.hasNext()) {
+				due.add(iterator.next().getValue());
+				iterator.remove();
+				tokens--;
+			}
+		}
+		for(Supplier<String> send: due) {
+			try {
+				String result = send.get();
+				if(result == null || !result.startsWith(ClientInterface.SUCCESS)) {
+					logger.log(Level.WARNING, "Sending a queued message failed: " + result);
+				}
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Sending a queued message failed", e);
+			}
+		}
+		synchronized (this) {
+			drainScheduled = false;
+			if(!pending.isEmpty()) {
+				scheduleDrain();
+			}
+		}
+	}
+
+}
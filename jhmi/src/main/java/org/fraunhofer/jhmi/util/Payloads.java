@@ -0,0 +1,56 @@
+package org.fraunhofer.jhmi.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helper for converting message payloads.
+ */
+public class Payloads {
+
+	private Payloads() {
+
+	}
+
+	/**
+	 * Returns the remaining bytes of the buffer as an array.
+	 * If the buffer wraps a whole array, that array is returned without copying.
+	 * The position of the buffer is not changed.
+	 * @param payload
+	 * The buffer that contains the payload.
+	 * @return
+	 * The payload as byte array.
+	 */
+	public static byte[] toByteArray(ByteBuffer payload) {
+		if(payload.hasArray() && payload.arrayOffset() == 0 && payload.position() == 0
+				&& payload.remaining() == payload.array().length) {
+			return payload.array();
+		}
+		byte[] bytes = new byte[payload.remaining()];
+		payload.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Returns the numeric value of a message content.
+	 * Contents that do not start like a number are rejected without parsing.
+	 * @param content
+	 * The content of a message.
+	 * @return
+	 * The value of the content, NaN if the content is not a number.
+	 */
+	public static double parseNumber(String content) {
+		if(content == null || content.isEmpty()) {
+			return Double.NaN;
+		}
+		char first = content.charAt(0);
+		if(!(first >= '0' && first <= '9') && first != '-' && first != '+' && first != '.') {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(content);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * Hands out the inflight slots of a connection to outgoing messages by their priority.
+ * Each priority class waits in its own queue. A free slot goes to the highest class that is waiting,
+ * 	and a part of the slots is reserved for the higher classes, so a burst of low priority messages
+ * 	can never occupy all slots.
+ * A waiting message that has been passed over by higher classes too often gets the next free slot, so no class starves.
+ */
+public class PriorityGate {
+
+	/**
+	 * The number of times a waiting message may be passed over by higher classes before it gets the next free slot.
+	 */
+	private static final int MAX_BYPASS = 8;
+
+	private final ArrayDeque<Ticket>[] queues;
+	/**
+	 * The number of slots.
+	 */
+	private int capacity;
+	/**
+	 * The number of slots that are in use.
+	 */
+	private int inUse;
+
+	/**
+	 * Creates a new PriorityGate.
+	 * @param capacity
+	 * The number of inflight slots. Must be at least 1.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PriorityGate(int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.capacity = capacity;
+		this.queues = new ArrayDeque[MessagePriority.values().length];
+		for(int i = 0; i < queues.length; i++) {
+			queues[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * Changes the number of slots. Slots that are in use beyond a reduced capacity are not revoked.
+	 * @param capacity
+	 * The new number of inflight slots. Must be at least 1.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.capacity = capacity;
+		grant();
+	}
+
+	/**
+	 * Returns the number of slots.
+	 * @return
+	 * The number of inflight slots.
+	 */
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of slots that are in use.
+	 * @return
+	 * The number of slots in use.
+	 */
+	public synchronized int getInUse() {
+		return inUse;
+	}
+
+	/**
+	 * Takes a slot if one is available for the priority and no message of the same or a higher class is waiting.
+	 * @param priority
+	 * The priority of the message.
+	 * @return
+	 * true if a slot was taken, which has to be given back with release.
+	 */
+	public synchronized boolean tryAcquire(MessagePriority priority) {
+		if(isWaitingAtOrAbove(priority.ordinal()) || inUse >= limit(priority.ordinal())) {
+			return false;
+		}
+		take(priority.ordinal());
+		return true;
+	}
+
+	/**
+	 * Takes a slot, waiting until one is granted to the priority.
+	 * @param priority
+	 * The priority of the message.
+	 * @throws InterruptedException
+	 * If the thread was interrupted while waiting, no slot is taken in this case.
+	 */
+	public synchronized void acquire(MessagePriority priority) throws InterruptedException {
+		if(tryAcquire(priority)) {
+			return;
+		}
+		Ticket ticket = new Ticket(priority.ordinal());
+		queues[ticket.priority].add(ticket);
+		try {
+			while(!ticket.granted) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			if(ticket.granted) {
+				release();
+			} else {
+				queues[ticket.priority].remove(ticket);
+				grant();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a slot that was taken with acquire or tryAcquire.
+	 */
+	public synchronized void release() {
+		if(inUse > 0) {
+			inUse--;
+		}
+		grant();
+	}
+
+	/**
+	 * Returns the number of slots a class may fill, the slots above it are reserved for the higher classes.
+	 */
+	private int limit(int priority) {
+		int reservedPerClass = capacity > 2 ? Math.max(1, capacity / 5) : 0;
+		return Math.max(1, capacity - priority * reservedPerClass);
+	}
+
+	private boolean isWaitingAtOrAbove(int priority) {
+		for(int i = 0; i <= priority; i++) {
+			if(!queues[i].isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void take(int priority) {
+		inUse++;
+		for(int i = priority + 1; i < queues.length; i++) {
+			Ticket head = queues[i].peek();
+			if(head != null) {
+				head.bypassed++;
+			}
+		}
+	}
+
+	private void grant() {
+		boolean granted = false;
+		while(inUse < capacity) {
+			Ticket next = null;
+			for(int i = queues.length - 1; i > 0 && next == null; i--) {
+				Ticket head = queues[i].peek();
+				if(head != null && head.bypassed >= MAX_BYPASS) {
+					next = head;
+				}
+			}
+			for(int i = 0; i < queues.length && next == null; i++) {
+				Ticket head = queues[i].peek();
+				if(head != null && inUse < limit(i)) {
+					next = head;
+				}
+			}
+			if(next == null) {
+				break;
+			}
+			queues[next.priority].poll();
+			next.granted = true;
+			take(next.priority);
+			granted = true;
+		}
+		if(granted) {
+			notifyAll();
+		}
+	}
+
+	private static final class Ticket {
+
+		private final int priority;
+		private int bypassed;
+		private boolean granted;
+
+		private Ticket(int priority) {
+			this.priority = priority;
+		}
+
+	}
+
+}
@@ -0,0 +1,311 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * A condition over the capabilities of devices, for example "the temperature of the kitchen is above 25".
+ * Conditions are built once from the factory functions and combined with and, or and not.
+ * Constants are parsed when the condition is built, so evaluating a condition only reads and compares the current values.
+ * Every condition knows the capabilities it depends on, so a rule engine only has to evaluate it when one of them changes.
+ */
+public abstract class RuleCondition {
+
+	/**
+	 * A capability of a device that a condition depends on.
+	 */
+	public static final class Dependency {
+
+		private final String device;
+		private final String capability;
+
+		private Dependency(String device, String capability) {
+			this.device = device;
+			this.capability = capability;
+		}
+
+		public String getDevice() {
+			return device;
+		}
+
+		public String getCapability() {
+			return capability;
+		}
+
+	}
+
+	private RuleCondition() {
+
+	}
+
+	/**
+	 * Evaluates the condition with the current values of the devices.
+	 * @param values
+	 * Returns the current value of a capability of a device, the arguments are the device and the capability.
+	 * 	Returns null if the device has no value for the capability.
+	 * @return
+	 * true if the condition is met.
+	 */
+	public abstract boolean evaluate(BiFunction<String, String, String> values);
+
+	/**
+	 * Returns the capabilities that the condition depends on.
+	 * @return
+	 * The capabilities of devices whose values are read by evaluate.
+	 */
+	public List<Dependency> getDependencies() {
+		List<Dependency> dependencies = new ArrayList<>();
+		collectDependencies(dependencies);
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	abstract void collectDependencies(List<Dependency> dependencies);
+
+	/**
+	 * The capability of the device has exactly the given value.
+	 * @param device
+	 * The name of the device.
+	 * @param capability
+	 * The capability, the key as used for the getDeviceValue function.
+	 * @param value
+	 * The value, for example "true".
+	 * @return
+	 * The condition.
+	 */
+	public static RuleCondition equalTo(String device, String capability, String value) {
+		return new ValueCondition(device, capability, value, false);
+	}
+
+	/**
+	 * The capability of the device has a value other than the given one, or no value.
+	 * @param device
+	 * The name of the device.
+	 * @param capability
+	 * The capability, the key as used for the getDeviceValue function.
+	 * @param value
+	 * The value, for example "true".
+	 * @return
+	 * The condition.
+	 */
+	public static RuleCondition notEqualTo(String device, String capability, String value) {
+		return new ValueCondition(device, capability, value, true);
+	}
+
+	/**
+	 * The capability of the device has a numeric value greater than the given one.
+	 * @param device
+	 * The name of the device.
+	 * @param capability
+	 * The capability, the key as used for the getDeviceValue function.
+	 * @param threshold
+	 * The value that has to be exceeded.
+	 * @return
+	 * The condition.
+	 */
+	public static RuleCondition greaterThan(String device, String capability, double threshold) {
+		return new RangeCondition(device, capability, threshold, false, Double.POSITIVE_INFINITY, true);
+	}
+
+	/**
+	 * The capability of the device has a numeric value less than the given one.
+	 * @param device
+	 * The name of the device.
+	 * @param capability
+	 * The capability, the key as used for the getDeviceValue function.
+	 * @param threshold
+	 * The value that has to be undercut.
+	 * @return
+	 * The condition.
+	 */
+	public static RuleCondition lessThan(String device, String capability, double threshold) {
+		return new RangeCondition(device, capability, Double.NEGATIVE_INFINITY, true, threshold, false);
+	}
+
+	/**
+	 * The capability of the device has a numeric value within the given range, including the bounds.
+	 * @param device
+	 * The name of the device.
+	 * @param capability
+	 * The capability, the key as used for the getDeviceValue function.
+	 * @param from
+	 * The lower bound.
+	 * @param to
+	 * The upper bound.
+	 * @return
+	 * The condition.
+	 */
+	public static RuleCondition between(String device, String capability, double from, double to) {
+		return new RangeCondition(device, capability, from, true, to, true);
+	}
+
+	/**
+	 * All conditions are met.
+	 * @param conditions
+	 * The conditions.
+	 * @return
+	 * The combined condition.
+	 */
+	public static RuleCondition and(RuleCondition... conditions) {
+		return new JunctionCondition(conditions, true);
+	}
+
+	/**
+	 * At least one of the conditions is met.
+	 * @param conditions
+	 * The conditions.
+	 * @return
+	 * The combined condition.
+	 */
+	public static RuleCondition or(RuleCondition... conditions) {
+		return new JunctionCondition(conditions, false);
+	}
+
+	/**
+	 * The condition is not met.
+	 * @param condition
+	 * The condition.
+	 * @return
+	 * The negated condition.
+	 */
+	public static RuleCondition not(RuleCondition condition) {
+		return new NotCondition(condition);
+	}
+
+	private static final class ValueCondition extends RuleCondition {
+
+		private final Dependency dependency;
+		private final String value;
+		private final boolean negated;
+
+		private ValueCondition(String device, String capability, String value, boolean negated) {
+			this.dependency = new Dependency(device, capability);
+			this.value = value;
+			this.negated = negated;
+		}
+
+		@Override
+		public boolean evaluate(BiFunction<String, String, String> values) {
+			return value.equals(values.apply(dependency.device, dependency.capability)) != negated;
+		}
+
+		@Override
+		void collectDependencies(List<Dependency> dependencies) {
+			dependencies.add(dependency);
+		}
+
+		@Override
+		public String toString() {
+			return dependency.device + "." + dependency.capability + (negated ? " != " : " == ") + value;
+		}
+
+	}
+
+	private static final class RangeCondition extends RuleCondition {
+
+		private final Dependency dependency;
+		private final double from;
+		private final boolean fromInclusive;
+		private final double to;
+		private final boolean toInclusive;
+
+		private RangeCondition(String device, String capability, double from, boolean fromInclusive, double to, boolean toInclusive) {
+			this.dependency = new Dependency(device, capability);
+			this.from = from;
+			this.fromInclusive = fromInclusive;
+			this.to = to;
+			this.toInclusive = toInclusive;
+		}
+
+		@Override
+		public boolean evaluate(BiFunction<String, String, String> values) {
+			double number = Payloads.parseNumber(values.apply(dependency.device, dependency.capability));
+			if(Double.isNaN(number)) {
+				return false;
+			}
+			return (fromInclusive ? number >= from : number > from) && (toInclusive ? number <= to : number < to);
+		}
+
+		@Override
+		void collectDependencies(List<Dependency> dependencies) {
+			dependencies.add(dependency);
+		}
+
+		@Override
+		public String toString() {
+			return dependency.device + "." + dependency.capability + " in " + (fromInclusive ? "[" : "(") + from + ", " + to + (toInclusive ? "]" : ")");
+		}
+
+	}
+
+	private static final class JunctionCondition extends RuleCondition {
+
+		private final RuleCondition[] conditions;
+		private final boolean all;
+
+		private JunctionCondition(RuleCondition[] conditions, boolean all) {
+			if(conditions.length == 0) {
+				throw new IllegalArgumentException("at least one condition is needed");
+			}
+			this.conditions = conditions.clone();
+			this.all = all;
+		}
+
+		@Override
+		public boolean evaluate(BiFunction<String, String, String> values) {
+			for(RuleCondition condition: conditions) {
+				if(condition.evaluate(values) != all) {
+					return !all;
+				}
+			}
+			return all;
+		}
+
+		@Override
+		void collectDependencies(List<Dependency> dependencies) {
+			for(RuleCondition condition: conditions) {
+				condition.collectDependencies(dependencies);
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("(");
+			for(int i = 0; i < conditions.length; i++) {
+				if(i > 0) {
+					builder.append(all ? " && " : " || ");
+				}
+				builder.append(conditions[i]);
+			}
+			return builder.append(')').toString();
+		}
+
+	}
+
+	private static final class NotCondition extends RuleCondition {
+
+		private final RuleCondition condition;
+
+		private NotCondition(RuleCondition condition) {
+			this.condition = condition;
+		}
+
+		@Override
+		public boolean evaluate(BiFunction<String, String, String> values) {
+			return !condition.evaluate(values);
+		}
+
+		@Override
+		void collectDependencies(List<Dependency> dependencies) {
+			condition.collectDependencies(dependencies);
+		}
+
+		@Override
+		public String toString() {
+			return "!" + condition;
+		}
+
+	}
+
+}
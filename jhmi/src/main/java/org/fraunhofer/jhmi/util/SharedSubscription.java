@@ -0,0 +1,81 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * Helper for the naming of shared subscriptions.
+ * A shared subscription has the form "$share/'group'/'topic'".
+ * The broker distributes the messages of the topic between all subscribers of the same group.
+ */
+public class SharedSubscription {
+
+	/**
+	 * Prefix that marks a shared subscription.
+	 */
+	public static final String SHARE_PREFIX = "$share/";
+
+	private SharedSubscription() {
+
+	}
+
+	/**
+	 * Creates the name of the shared subscription for the given group and topic.
+	 * @param group
+	 * The name of the consumer group. It must not be empty and must not contain "/", "+" or "#".
+	 * @param topic
+	 * The topic that should be subscribed to by the group.
+	 * @return
+	 * The shared subscription "$share/'group'/'topic'".
+	 */
+	public static String toSharedTopic(String group, String topic) {
+		if(group == null || group.isEmpty() || group.indexOf('/') >= 0 || group.indexOf('+') >= 0 || group.indexOf('#') >= 0) {
+			throw new IllegalArgumentException("invalid consumer group name: " + group);
+		}
+		return SHARE_PREFIX + group + "/" + stripSharePrefix(topic);
+	}
+
+	/**
+	 * Returns if the given topic is a shared subscription.
+	 * @param topic
+	 * The topic that should be checked.
+	 * @return
+	 * true if the topic starts with "$share/".
+	 */
+	public static boolean isShared(String topic) {
+		return topic.startsWith(SHARE_PREFIX);
+	}
+
+	/**
+	 * Removes the "$share/'group'/" prefix from the given topic.
+	 * @param topic
+	 * The topic with or without the prefix of a shared subscription.
+	 * @return
+	 * The topic without the prefix.
+	 */
+	public static String stripSharePrefix(String topic) {
+		if(!isShared(topic)) {
+			return topic;
+		}
+		int groupEnd = topic.indexOf('/', SHARE_PREFIX.length());
+		if(groupEnd < 0) {
+			return topic;
+		}
+		return topic.substring(groupEnd + 1);
+	}
+
+	/**
+	 * Returns the group of the given shared subscription.
+	 * @param topic
+	 * The shared subscription.
+	 * @return
+	 * The name of the group or null if the topic is no shared subscription.
+	 */
+	public static String getGroup(String topic) {
+		if(!isShared(topic)) {
+			return null;
+		}
+		int groupEnd = topic.indexOf('/', SHARE_PREFIX.length());
+		if(groupEnd < 0) {
+			return null;
+		}
+		return topic.substring(SHARE_PREFIX.length(), groupEnd);
+	}
+}
@@ -0,0 +1,261 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel for a large number of periodic schedules.
+ * Each schedule fires a key in a fixed period with an optional random jitter.
+ * All keys that are due in the same tick are handed to the handler together.
+ * The schedules are stored in primitive arrays, so a schedule only costs a few bytes.
+ */
+public class TimerWheel {
+
+	private final Logger logger;
+	/**
+	 * The duration of a tick in nanoseconds.
+	 */
+	private final long tickNanos;
+	/**
+	 * The number of slots of the wheel minus one. The number of slots is a power of two.
+	 */
+	private final int mask;
+	/**
+	 * The first schedule of each slot, -1 if the slot is empty.
+	 */
+	private final int[] slotHeads;
+	/**
+	 * The next schedule in the same slot, -1 for the last schedule of a slot.
+	 * For unused schedules this links the free list.
+	 */
+	private int[] next;
+	/**
+	 * The number of full rotations of the wheel until the schedule is due.
+	 */
+	private int[] remainingRounds;
+	/**
+	 * The period of the schedule in ticks.
+	 */
+	private int[] periodTicks;
+	/**
+	 * The maximum jitter of the schedule in ticks.
+	 */
+	private int[] jitterTicks;
+	/**
+	 * The index of the key of the schedule, -1 if the schedule has been cancelled.
+	 */
+	private int[] keyIndex;
+	/**
+	 * Incremented every time a schedule is reused, so the ids of cancelled schedules stay invalid.
+	 */
+	private int[] generation;
+	/**
+	 * The number of used entries of the schedule arrays.
+	 */
+	private int size;
+	/**
+	 * The first unused schedule, -1 if there is none.
+	 */
+	private int freeHead = -1;
+	/**
+	 * The keys of the schedules. Each distinct key is only stored once.
+	 */
+	private final List<String> keys;
+	private final HashMap<String, Integer> keyIds;
+	/**
+	 * The number of ticks since the wheel was started.
+	 */
+	private long currentTick;
+	/**
+	 * Receives the keys that are due in a tick.
+	 */
+	private final Consumer<List<String>> handler;
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Creates a new TimerWheel.
+	 * The wheel starts ticking with the first schedule.
+	 * @param tickMillis
+	 * The duration of a tick in milliseconds. This is the resolution of the schedules.
+	 * @param wheelSize
+	 * The number of slots of the wheel. It will be rounded up to a power of two.
+	 * @param handler
+	 * Receives the keys that are due in a tick. It is called on the thread of the wheel and should return quickly.
+	 */
+	public TimerWheel(long tickMillis, int wheelSize, Consumer<List<String>> handler) {
+		if(tickMillis < 1 || wheelSize < 1) {
+			throw new IllegalArgumentException("tickMillis and wheelSize must be at least 1");
+		}
+		this.logger = Logger.getLogger(TimerWheel.class.getName());
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int slots = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		this.mask = slots - 1;
+		this.slotHeads = new int[slots];
+		Arrays.fill(slotHeads, -1);
+		this.next = new int[16];
+		this.remainingRounds = new int[16];
+		this.periodTicks = new int[16];
+		this.jitterTicks = new int[16];
+		this.keyIndex = new int[16];
+		this.generation = new int[16];
+		this.keys = new ArrayList<>();
+		this.keyIds = new HashMap<>();
+		this.handler = handler;
+	}
+
+	/**
+	 * Adds a periodic schedule.
+	 * Each occurrence is shifted by a random value between -jitter and +jitter, so schedules with the same period spread out.
+	 * @param key
+	 * The key that is handed to the handler when the schedule is due.
+	 * @param periodMillis
+	 * The period of the schedule in milliseconds.
+	 * @param jitterMillis
+	 * The maximum random shift of each occurrence in milliseconds.
+	 * @return
+	 * The id of the schedule which is needed to cancel it.
+	 */
+	public synchronized long schedule(String key, long periodMillis, long jitterMillis) {
+		long tickMillis = TimeUnit.NANOSECONDS.toMillis(tickNanos);
+		int period = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 2, periodMillis / tickMillis));
+		int jitter = (int) Math.max(0, Math.min(period, jitterMillis / tickMillis));
+		Integer id = keyIds.get(key);
+		if(id == null) {
+			id = keys.size();
+			keys.add(key);
+			keyIds.put(key, id);
+		}
+		int index = allocate();
+		periodTicks[index] = period;
+		jitterTicks[index] = jitter;
+		keyIndex[index] = id;
+		insert(index, nextDelay(index));
+		start();
+		return ((long) generation[index] << 32) | index;
+	}
+
+	/**
+	 * Cancels a schedule.
+	 * @param scheduleId
+	 * The id that was returned when the schedule was added.
+	 * @return
+	 * true if the schedule was cancelled, false if no schedule with this id exists.
+	 */
+	public synchronized boolean cancel(long scheduleId) {
+		int index = (int) scheduleId;
+		int scheduleGeneration = (int) (scheduleId >>> 32);
+		if(index < 0 || index >= size || generation[index] != scheduleGeneration || keyIndex[index] < 0) {
+			return false;
+		}
+		// removed from its slot on the next pass over it
+		keyIndex[index] = -1;
+		return true;
+	}
+
+	/**
+	 * Stops the wheel. No further schedules will be due.
+	 */
+	public synchronized void stop() {
+		if(timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+	}
+
+	private void start() {
+		if(timer != null) {
+			return;
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jhmi-timer-wheel");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Advances the wheel by one tick and hands the due keys to the handler.
+	 * Called by the thread of the wheel, package-private so tests can drive the wheel without waiting.
+	 */
+	void tick() {
+		List<String> due = new ArrayList<>();
+		synchronized (this) {
+			currentTick++;
+			int slot = (int) (currentTick & mask);
+			int index = slotHeads[slot];
+			slotHeads[slot] = -1;
+			while(index >= 0) {
+				int nextIndex = next[index];
+				if(keyIndex[index] < 0) {
+					free(index);
+				} else if(remainingRounds[index] > 0) {
+					remainingRounds[index]--;
+					next[index] = slotHeads[slot];
+					slotHeads[slot] = index;
+				} else {
+					due.add(keys.get(keyIndex[index]));
+					insert(index, nextDelay(index));
+				}
+				index = nextIndex;
+			}
+		}
+		if(!due.isEmpty()) {
+			try {
+				handler.accept(due);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Handling the due schedules failed", e);
+			}
+		}
+	}
+
+	private int nextDelay(int index) {
+		int jitter = jitterTicks[index];
+		int delay = periodTicks[index];
+		if(jitter > 0) {
+			delay += ThreadLocalRandom.current().nextInt(2 * jitter + 1) - jitter;
+		}
+		return Math.max(1, delay);
+	}
+
+	private void insert(int index, int delay) {
+		int slot = (int) ((currentTick + delay) & mask);
+		remainingRounds[index] = (delay - 1) / (mask + 1);
+		next[index] = slotHeads[slot];
+		slotHeads[slot] = index;
+	}
+
+	private int allocate() {
+		if(freeHead >= 0) {
+			int index = freeHead;
+			freeHead = next[index];
+			return index;
+		}
+		if(size == next.length) {
+			int capacity = size * 2;
+			next = Arrays.copyOf(next, capacity);
+			remainingRounds = Arrays.copyOf(remainingRounds, capacity);
+			periodTicks = Arrays.copyOf(periodTicks, capacity);
+			jitterTicks = Arrays.copyOf(jitterTicks, capacity);
+			keyIndex = Arrays.copyOf(keyIndex, capacity);
+			generation = Arrays.copyOf(generation, capacity);
+		}
+		return size++;
+	}
+
+	private void free(int index) {
+		generation[index]++;
+		next[index] = freeHead;
+		freeHead = index;
+	}
+
+}
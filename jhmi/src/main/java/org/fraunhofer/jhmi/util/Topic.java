@@ -0,0 +1,173 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A topic that has been split into its levels once.
+ * Topics are immutable and cache their hash, so they can be used as keys for lookups.
+ * Frequently used topics can be interned with the intern function to share one instance.
+ */
+public final class Topic {
+
+	/**
+	 * The maximum number of interned topics. Topics beyond this are parsed but not interned.
+	 */
+	private static final int MAX_INTERNED = 65536;
+
+	private static final ConcurrentHashMap<String, Topic> INTERNED = new ConcurrentHashMap<>();
+
+	private final String name;
+	private final String[] levels;
+	private final int hash;
+
+	private Topic(String name) {
+		this.name = name;
+		this.levels = split(name);
+		this.hash = name.hashCode();
+	}
+
+	/**
+	 * Parses the given topic.
+	 * @param name
+	 * The topic, for example "homey/lamp/onoff".
+	 * @return
+	 * The parsed topic.
+	 */
+	public static Topic of(String name) {
+		Topic interned = INTERNED.get(name);
+		return interned != null ? interned : new Topic(name);
+	}
+
+	/**
+	 * Returns the shared instance of the given topic.
+	 * The topic is only parsed the first time it is interned.
+	 * @param name
+	 * The topic, for example "homey/lamp/onoff".
+	 * @return
+	 * The shared instance of the topic.
+	 */
+	public static Topic intern(String name) {
+		Topic interned = INTERNED.get(name);
+		if(interned != null) {
+			return interned;
+		}
+		if(INTERNED.size() >= MAX_INTERNED) {
+			return new Topic(name);
+		}
+		return INTERNED.computeIfAbsent(name, Topic::new);
+	}
+
+	/**
+	 * Returns a level of a topic without parsing or interning it, for topics that are only looked at once.
+	 * @param name
+	 * The topic, for example "homey/lamp/onoff".
+	 * @param index
+	 * The index of the level, starting with 0.
+	 * @return
+	 * The level, null if the topic has less levels.
+	 */
+	public static String levelOf(String name, int index) {
+		int start = 0;
+		for(int i = 0; i < index; i++) {
+			start = name.indexOf('/', start) + 1;
+			if(start == 0) {
+				return null;
+			}
+		}
+		int end = name.indexOf('/', start);
+		return end < 0 ? name.substring(start) : name.substring(start, end);
+	}
+
+	/**
+	 * Returns the topic as String.
+	 * @return
+	 * The topic as String.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of levels of the topic.
+	 * @return
+	 * The number of levels.
+	 */
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * Returns a level of the topic.
+	 * @param index
+	 * The index of the level, starting with 0.
+	 * @return
+	 * The level, null if the topic has less levels.
+	 */
+	public String getLevel(int index) {
+		return index < levels.length ? levels[index] : null;
+	}
+
+	/**
+	 * Returns if the levels of this topic start with the levels of the given topic.
+	 * @param prefix
+	 * The topic that should be checked as prefix.
+	 * @return
+	 * true if all levels of the prefix are the first levels of this topic.
+	 */
+	public boolean startsWith(Topic prefix) {
+		if(prefix.levels.length > levels.length) {
+			return false;
+		}
+		for(int i = 0; i < prefix.levels.length; i++) {
+			if(!levels[i].equals(prefix.levels[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(this == other) {
+			return true;
+		}
+		if(!(other instanceof Topic)) {
+			return false;
+		}
+		Topic topic = (Topic) other;
+		return hash == topic.hash && name.equals(topic.name);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	String[] levels() {
+		return levels;
+	}
+
+	static String[] split(String name) {
+		int count = 1;
+		for(int i = 0; i < name.length(); i++) {
+			if(name.charAt(i) == '/') {
+				count++;
+			}
+		}
+		String[] levels = new String[count];
+		int start = 0;
+		for(int i = 0; i < count - 1; i++) {
+			int end = name.indexOf('/', start);
+			levels[i] = name.substring(start, end);
+			start = end + 1;
+		}
+		levels[count - 1] = name.substring(start);
+		return levels;
+	}
+
+}
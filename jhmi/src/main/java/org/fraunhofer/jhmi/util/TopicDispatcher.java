@@ -0,0 +1,189 @@
+package org.fraunhofer.jhmi.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+
+/**
+ * Routes the incoming messages of a client to the receivers of all subscriptions whose filter matches the topic.
+ * A client has a single callback, so all subscriptions of the client share one dispatcher.
+ */
+public class TopicDispatcher {
+
+	private final Logger logger;
+	private final CopyOnWriteArrayList<Route> routes;
+	/**
+	 * The tracer that measures the processing of the messages, null if messages are not traced.
+	 */
+	private volatile MessageTracer tracer;
+	/**
+	 * The recorder of the received messages, null if messages are not recorded.
+	 */
+	private volatile TrafficRecorder recorder;
+
+	/**
+	 * Creates a new TopicDispatcher without subscriptions.
+	 */
+	public TopicDispatcher() {
+		this.logger = Logger.getLogger(TopicDispatcher.class.getName());
+		this.routes = new CopyOnWriteArrayList<>();
+	}
+
+	/**
+	 * Adds a receiver for the given topic filter.
+	 * Adding the same receiver for the same filter again has no effect.
+	 * @param topicFilter
+	 * The topic filter of the subscription, shared subscriptions are matched without their prefix.
+	 * @param receiver
+	 * The receiver that is called for every message that matches the filter.
+	 */
+	public void add(String topicFilter, IMqttReceiver receiver) {
+		TopicFilter filter = TopicFilter.of(topicFilter);
+		for(Route route: routes) {
+			if(route.filter.equals(filter) && route.receiver == receiver) {
+				return;
+			}
+		}
+		routes.add(new Route(filter, receiver));
+	}
+
+	/**
+	 * Returns the topic filters that have at least one receiver, for example to subscribe to them again after a reconnect.
+	 * @return
+	 * The topic filters as they were added, including the shared subscription prefix.
+	 */
+	public Set<String> getTopicFilters() {
+		Set<String> filters = new LinkedHashSet<>();
+		for(Route route: routes) {
+			filters.add(route.filter.getFilter());
+		}
+		return filters;
+	}
+
+	/**
+	 * Removes a receiver of the given topic filter.
+	 * @param topicFilter
+	 * The topic filter of the subscription.
+	 * @param receiver
+	 * The receiver that was added for the filter.
+	 * @return
+	 * true if no receiver of the filter is left, so the subscription can be removed.
+	 */
+	public boolean remove(String topicFilter, IMqttReceiver receiver) {
+		routes.removeIf(route -> route.receiver == receiver && route.filter.getFilter().equals(topicFilter));
+		for(Route route: routes) {
+			if(route.filter.getFilter().equals(topicFilter)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all receivers of the given topic filter.
+	 * @param topicFilter
+	 * The topic filter of the subscription.
+	 */
+	public void remove(String topicFilter) {
+		routes.removeIf(route -> route.filter.getFilter().equals(topicFilter));
+	}
+
+	/**
+	 * Sets the tracer that measures the processing of the messages.
+	 * @param tracer
+	 * The tracer, null to stop tracing.
+	 */
+	public void setMessageTracer(MessageTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	/**
+	 * Sets the recorder that records the raw messages before they are decoded and dispatched.
+	 * @param recorder
+	 * The recorder, null to stop recording.
+	 */
+	public void setTrafficRecorder(TrafficRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Decodes the content of the message and calls all receivers whose filter matches the topic of the message.
+	 * An exception of one receiver does not prevent the other receivers from being called.
+	 * A TracedReceiver that traces itself is not recorded to the MessageTracer again, it gets the arrival and decode times instead.
+	 * Messages of a LatencyProbe are only passed to the receiver of the probe, they are not recorded, traced
+	 * 	or passed to receivers of wildcard filters like "#".
+	 * @param topic
+	 * The topic under which the message was published.
+	 * @param payload
+	 * The content of the message as UTF-8 encoded bytes.
+	 * @param messageId
+	 * The id of the message.
+	 * @param retained
+	 * If the message was delivered from the retained messages of the broker.
+	 */
+	public void dispatch(String topic, byte[] payload, int messageId, boolean retained) {
+		if(topic.startsWith(LatencyProbe.TOPIC_PREFIX)) {
+			dispatchProbe(topic, payload, messageId);
+			return;
+		}
+		TrafficRecorder currentRecorder = recorder;
+		if(currentRecorder != null) {
+			currentRecorder.record(topic, payload, messageId, retained);
+		}
+		MessageTracer currentTracer = tracer;
+		long arrivalNanos = currentTracer != null ? System.nanoTime() : 0;
+		String messageString = new String(payload, StandardCharsets.UTF_8);
+		long decodedNanos = currentTracer != null ? System.nanoTime() : 0;
+		for(Route route: routes) {
+			if(route.filter.matches(topic)) {
+				long dispatchNanos = currentTracer != null ? System.nanoTime() : 0;
+				boolean tracesItself = currentTracer != null && route.receiver instanceof TracedReceiver && ((TracedReceiver) route.receiver).isTraced();
+				try {
+					if(tracesItself) {
+						((TracedReceiver) route.receiver).messageReceived(topic, messageString, messageId, retained, arrivalNanos, decodedNanos);
+					} else {
+						route.receiver.messageReceived(topic, messageString, messageId, retained);
+					}
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Receiver for " + route.filter + " failed on " + topic, e);
+				}
+				if(currentTracer != null && !tracesItself) {
+					currentTracer.record(topic, route.receiver, arrivalNanos, decodedNanos, dispatchNanos, System.nanoTime());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes a probe message to the receivers that subscribed to exactly its topic, which is the probe of the client.
+	 */
+	private void dispatchProbe(String topic, byte[] payload, int messageId) {
+		for(Route route: routes) {
+			if(route.filter.getFilter().equals(topic)) {
+				try {
+					route.receiver.messageReceived(topic, new String(payload, StandardCharsets.UTF_8), messageId, false);
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Receiver of the latency probe failed on " + topic, e);
+				}
+			}
+		}
+	}
+
+	private static final class Route {
+
+		private final TopicFilter filter;
+		private final IMqttReceiver receiver;
+
+		private Route(TopicFilter filter, IMqttReceiver receiver) {
+			this.filter = filter;
+			this.receiver = receiver;
+		}
+
+	}
+
+}
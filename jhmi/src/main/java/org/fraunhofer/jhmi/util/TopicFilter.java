@@ -0,0 +1,163 @@
+package org.fraunhofer.jhmi.util;
+
+/**
+ * A topic filter that can contain the wildcards "+" for a single level and "#" for all remaining levels.
+ * The filter is parsed once, matching a topic does not allocate.
+ * Shared subscriptions "$share/'group'/'filter'" are matched by their filter without the prefix.
+ */
+public final class TopicFilter {
+
+	private static final byte LITERAL = 0;
+	private static final byte SINGLE_LEVEL = 1;
+	private static final byte MULTI_LEVEL = 2;
+
+	private final String filter;
+	private final String[] levels;
+	private final byte[] kinds;
+	private final int hash;
+
+	private TopicFilter(String filter) {
+		this.filter = filter;
+		this.levels = Topic.split(SharedSubscription.stripSharePrefix(filter));
+		this.kinds = new byte[levels.length];
+		for(int i = 0; i < levels.length; i++) {
+			String level = levels[i];
+			if(level.equals("#")) {
+				if(i != levels.length - 1) {
+					throw new IllegalArgumentException("'#' must be the last level of the topic filter: " + filter);
+				}
+				kinds[i] = MULTI_LEVEL;
+			} else if(level.equals("+")) {
+				kinds[i] = SINGLE_LEVEL;
+			} else if(level.indexOf('#') >= 0 || level.indexOf('+') >= 0) {
+				throw new IllegalArgumentException("wildcards must occupy a whole level of the topic filter: " + filter);
+			}
+		}
+		this.hash = filter.hashCode();
+	}
+
+	/**
+	 * Parses the given topic filter.
+	 * @param filter
+	 * The topic filter, for example "homey/+/onoff" or "homey/lamp/#".
+	 * @return
+	 * The parsed topic filter.
+	 * @throws IllegalArgumentException
+	 * If a wildcard does not occupy a whole level or "#" is not the last level.
+	 */
+	public static TopicFilter of(String filter) {
+		return new TopicFilter(filter);
+	}
+
+	/**
+	 * Returns the topic filter as String, including the shared subscription prefix if there is one.
+	 * @return
+	 * The topic filter as String.
+	 */
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Returns if the filter contains wildcards.
+	 * @return
+	 * true if the filter contains "+" or "#".
+	 */
+	public boolean hasWildcards() {
+		for(byte kind: kinds) {
+			if(kind != LITERAL) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the given topic matches this filter.
+	 * @param topic
+	 * The topic that should be checked.
+	 * @return
+	 * true if the topic matches.
+	 */
+	public boolean matches(Topic topic) {
+		String[] topicLevels = topic.levels();
+		if(startsWithWildcard() && topicLevels[0].startsWith("$")) {
+			return false;
+		}
+		for(int i = 0; i < levels.length; i++) {
+			if(kinds[i] == MULTI_LEVEL) {
+				return true;
+			}
+			if(i >= topicLevels.length) {
+				return false;
+			}
+			if(kinds[i] == LITERAL && !levels[i].equals(topicLevels[i])) {
+				return false;
+			}
+		}
+		return levels.length == topicLevels.length;
+	}
+
+	/**
+	 * Checks if the given topic matches this filter without parsing the topic.
+	 * @param topic
+	 * The topic that should be checked.
+	 * @return
+	 * true if the topic matches.
+	 */
+	public boolean matches(String topic) {
+		int length = topic.length();
+		if(startsWithWildcard() && length > 0 && topic.charAt(0) == '$') {
+			return false;
+		}
+		// position of the current level in the topic, length + 1 once all levels have been consumed
+		int position = 0;
+		for(int i = 0; i < levels.length; i++) {
+			if(kinds[i] == MULTI_LEVEL) {
+				return true;
+			}
+			if(position > length) {
+				return false;
+			}
+			int end = topic.indexOf('/', position);
+			if(end < 0) {
+				end = length;
+			}
+			if(kinds[i] == LITERAL) {
+				String level = levels[i];
+				if(end - position != level.length() || !topic.regionMatches(position, level, 0, level.length())) {
+					return false;
+				}
+			}
+			position = end + 1;
+		}
+		return position == length + 1;
+	}
+
+	private boolean startsWithWildcard() {
+		return kinds[0] != LITERAL;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(this == other) {
+			return true;
+		}
+		if(!(other instanceof TopicFilter)) {
+			return false;
+		}
+		TopicFilter topicFilter = (TopicFilter) other;
+		return hash == topicFilter.hash && filter.equals(topicFilter.filter);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return filter;
+	}
+
+}
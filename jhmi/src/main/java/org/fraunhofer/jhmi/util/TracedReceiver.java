@@ -0,0 +1,39 @@
+package org.fraunhofer.jhmi.util;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+
+/**
+ * A receiver that reports the processing of its messages to the MessageTracer itself, for example once for each callback it calls.
+ * The TopicDispatcher does not record such a receiver again, otherwise a slow callback would be reported twice.
+ * Instead it passes the arrival and decode times of the message, so the receiver can report the whole latency of the message.
+ */
+public interface TracedReceiver extends IMqttReceiver {
+
+	/**
+	 * Called instead of messageReceived while the receiver traces itself.
+	 * By default it ignores the times and calls messageReceived(topic, messageString, messageId, retained).
+	 * @param topic
+	 * The topic under which the message was published.
+	 * @param messageString
+	 * The content of the message.
+	 * @param messageId
+	 * The id of the message.
+	 * @param retained
+	 * If the message was delivered from the retained messages of the broker.
+	 * @param arrivalNanos
+	 * The time at which the client handed the message over.
+	 * @param decodedNanos
+	 * The time at which the content of the message was decoded.
+	 */
+	default void messageReceived(String topic, String messageString, int messageId, boolean retained, long arrivalNanos, long decodedNanos) {
+		messageReceived(topic, messageString, messageId, retained);
+	}
+
+	/**
+	 * Tells if the receiver currently records its processing to a MessageTracer.
+	 * @return
+	 * true if the receiver traces itself, false if the dispatcher should trace it.
+	 */
+	public boolean isTraced();
+
+}
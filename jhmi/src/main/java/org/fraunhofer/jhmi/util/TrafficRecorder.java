@@ -0,0 +1,248 @@
+package org.fraunhofer.jhmi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+
+/**
+ * Records received messages into a compact binary file that can be replayed with a TrafficReplayer.
+ * Every message is stored with its arrival time, the id of its topic and its raw payload. A topic is written once
+ * 	into the dictionary of the file when it first occurs, later messages only refer to its id.
+ * The callback thread of the client only puts the message into a queue, the file is written by a separate thread
+ * 	through a large buffer. If the queue is full the message is dropped from the recording, so the recorder never slows down
+ * 	the live traffic.
+ * The recorder is either set for all clients of a manager with ConnectionOptions.setTrafficRecorder,
+ * 	which records the raw payload before it is decoded, or subscribed like any other receiver.
+ */
+public class TrafficRecorder implements IMqttReceiver {
+
+	static final int MAGIC = 0x4A484D54;
+	static final short VERSION = 1;
+	static final byte TOPIC = 1;
+	static final byte MESSAGE = 2;
+	/**
+	 * The magic number, the version and the start time of the recording.
+	 */
+	static final int FILE_HEADER_SIZE = 4 + 2 + 8;
+	/**
+	 * The type, the time, the topic id, the message id, the retained flag and the payload length of a message.
+	 */
+	static final int MESSAGE_HEADER_SIZE = 1 + 8 + 4 + 4 + 1 + 4;
+
+	private final Logger logger;
+	private final File file;
+	private final FileChannel channel;
+	private final ArrayBlockingQueue<Record> queue;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+	/**
+	 * The ids of the topics that are already written to the dictionary, only used by the writer thread.
+	 */
+	private final Map<String, Integer> topicIds = new HashMap<>();
+	private final long startNanos;
+	private final Thread writer;
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a recorder that keeps up to 65536 messages in its queue.
+	 * @param file
+	 * The file of the recording. An existing file is overwritten.
+	 * @throws IOException
+	 * If the file can not be written.
+	 */
+	public TrafficRecorder(File file) throws IOException {
+		this(file, 65536);
+	}
+
+	/**
+	 * Creates a recorder.
+	 * @param file
+	 * The file of the recording. An existing file is overwritten.
+	 * @param queueCapacity
+	 * The number of messages that can wait to be written before messages are dropped from the recording.
+	 * @throws IOException
+	 * If the file can not be written.
+	 */
+	public TrafficRecorder(File file, int queueCapacity) throws IOException {
+		this.logger = Logger.getLogger(TrafficRecorder.class.getName());
+		this.file = file;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.startNanos = System.nanoTime();
+		buffer.putInt(MAGIC).putShort(VERSION).putLong(System.currentTimeMillis());
+		this.writer = new Thread(this::writeLoop, "jhmi-traffic-recorder");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Records a received message. The payload is not copied and must not be changed afterwards.
+	 * @param topic
+	 * The topic under which the message was received.
+	 * @param payload
+	 * The raw payload of the message.
+	 * @param messageId
+	 * The id of the message.
+	 * @param retained
+	 * True if the message was retained by the broker.
+	 */
+	public void record(String topic, byte[] payload, int messageId, boolean retained) {
+		if(!running || !queue.offer(new Record(System.nanoTime() - startNanos, topic, payload, messageId, retained))) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void messageReceived(String topic, String messageString, int messageId) {
+		messageReceived(topic, messageString, messageId, false);
+	}
+
+	@Override
+	public void messageReceived(String topic, String messageString, int messageId, boolean retained) {
+		record(topic, messageString.getBytes(StandardCharsets.UTF_8), messageId, retained);
+	}
+
+	/**
+	 * Stops the recording, writes the waiting messages and closes the file.
+	 */
+	public void close() {
+		running = false;
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			channel.force(false);
+			channel.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "The recording " + file + " could not be closed", e);
+		}
+	}
+
+	/**
+	 * Returns the number of messages that were written to the file.
+	 * @return
+	 * The number of recorded messages.
+	 */
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	/**
+	 * Returns the number of messages that were not recorded because the queue was full or the recorder was closed.
+	 * @return
+	 * The number of dropped messages.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes the messages of the queue in batches and empties the buffer whenever the queue runs dry,
+	 * 	so the recording is complete up to the last quiet moment.
+	 */
+	private void writeLoop() {
+		List<Record> batch = new ArrayList<>(1024);
+		try {
+			while(running || !queue.isEmpty()) {
+				Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					flush();
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, 1023);
+				for(Record record: batch) {
+					write(record);
+				}
+				recorded.addAndGet(batch.size());
+				batch.clear();
+				if(queue.isEmpty()) {
+					flush();
+				}
+			}
+			flush();
+		} catch (IOException e) {
+			running = false;
+			logger.log(Level.SEVERE, "The recording " + file + " failed, the following messages are dropped", e);
+		} catch (InterruptedException e) {
+			running = false;
+		}
+	}
+
+	private void write(Record record) throws IOException {
+		Integer topicId = topicIds.get(record.topic);
+		if(topicId == null) {
+			topicId = topicIds.size();
+			byte[] topic = record.topic.getBytes(StandardCharsets.UTF_8);
+			ensureRoom(1 + 4 + 4 + topic.length);
+			buffer.put(TOPIC).putInt(topicId).putInt(topic.length).put(topic);
+			topicIds.put(record.topic, topicId);
+		}
+		ensureRoom(MESSAGE_HEADER_SIZE);
+		buffer.put(MESSAGE).putLong(record.nanos).putInt(topicId).putInt(record.messageId).put((byte) (record.retained ? 1 : 0)).putInt(record.payload.length);
+		if(record.payload.length > buffer.capacity()) {
+			flush();
+			ByteBuffer payload = ByteBuffer.wrap(record.payload);
+			while(payload.hasRemaining()) {
+				channel.write(payload);
+			}
+		} else {
+			ensureRoom(record.payload.length);
+			buffer.put(record.payload);
+		}
+	}
+
+	private void ensureRoom(int size) throws IOException {
+		if(buffer.remaining() < size) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static final class Record {
+
+		private final long nanos;
+		private final String topic;
+		private final byte[] payload;
+		private final int messageId;
+		private final boolean retained;
+
+		private Record(long nanos, String topic, byte[] payload, int messageId, boolean retained) {
+			this.nanos = nanos;
+			this.topic = topic;
+			this.payload = payload;
+			this.messageId = messageId;
+			this.retained = retained;
+		}
+
+	}
+
+}
@@ -0,0 +1,212 @@
+package org.fraunhofer.jhmi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.fraunhofer.jhmi.user_interface.DeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+
+/**
+ * Replays a recording of a TrafficRecorder into receivers and DeviceRepresentations without a broker.
+ * The messages are dispatched by topic filter exactly like the messages of a client, so the replay reproduces the
+ * 	traffic that was received in the field and doubles as a realistic benchmark workload.
+ * The replay runs on the calling thread at the original pace, a multiple of it or as fast as possible.
+ */
+public class TrafficReplayer {
+
+	/**
+	 * The speed at which the messages are replayed without waiting between them.
+	 */
+	public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+	private final File file;
+	private final TopicDispatcher dispatcher = new TopicDispatcher();
+	private volatile long lastReplayNanos;
+
+	/**
+	 * Creates a replayer for a recording.
+	 * @param file
+	 * The file that was written by a TrafficRecorder.
+	 */
+	public TrafficReplayer(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Adds a receiver for the replayed messages whose topic matches the filter.
+	 * @param topicFilter
+	 * The topic filter, it can contain the wildcards "+" and "#".
+	 * @param receiver
+	 * The receiver of the messages.
+	 */
+	public void addReceiver(String topicFilter, IMqttReceiver receiver) {
+		dispatcher.add(topicFilter, receiver);
+	}
+
+	/**
+	 * Passes the replayed messages of the device topic to a DeviceRepresentation, as if they were received by its client.
+	 * @param deviceRepresentation
+	 * The DeviceRepresentation.
+	 */
+	public void addDeviceRepresentation(DeviceRepresentation deviceRepresentation) {
+		dispatcher.add(deviceRepresentation.getDeviceTopic(), new IMqttReceiver() {
+
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId) {
+				deviceRepresentation.deliverMessage(topic, messageString, messageId, false);
+			}
+
+			@Override
+			public void messageReceived(String topic, String messageString, int messageId, boolean retained) {
+				deviceRepresentation.deliverMessage(topic, messageString, messageId, retained);
+			}
+		});
+	}
+
+	/**
+	 * Sets the tracer that measures how long the receivers take to process the replayed messages.
+	 * @param tracer
+	 * The tracer, null to stop tracing.
+	 */
+	public void setMessageTracer(MessageTracer tracer) {
+		dispatcher.setMessageTracer(tracer);
+	}
+
+	/**
+	 * Replays the recording. The pace is measured from the first message, so the time between the start of the recorder
+	 * 	and its first message is not waited for.
+	 * @param speed
+	 * 1 for the original pace, 10 for ten times as fast, MAX_SPEED to dispatch the messages without waiting.
+	 * @return
+	 * The number of replayed messages.
+	 * @throws IOException
+	 * If the file can not be read or is not a recording.
+	 */
+	public long replay(double speed) throws IOException {
+		if(!(speed > 0)) {
+			throw new IllegalArgumentException("the speed must be greater than 0");
+		}
+		long count = 0;
+		long startNanos = System.nanoTime();
+		// the time of the first message relative to the start of the recorder, -1 until the first message is read
+		long firstNanos = -1;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+			buffer.flip();
+			buffer = fill(channel, buffer, TrafficRecorder.FILE_HEADER_SIZE);
+			if(buffer == null || buffer.getInt() != TrafficRecorder.MAGIC) {
+				throw new IOException(file + " is not a traffic recording");
+			}
+			if(buffer.getShort() != TrafficRecorder.VERSION) {
+				throw new IOException(file + " has an unsupported version");
+			}
+			buffer.getLong();
+			List<String> topics = new ArrayList<>();
+			while(true) {
+				buffer = fill(channel, buffer, 1 + 8);
+				if(buffer == null) {
+					break;
+				}
+				byte type = buffer.get(buffer.position());
+				if(type == TrafficRecorder.TOPIC) {
+					buffer.get();
+					int id = buffer.getInt();
+					int length = buffer.getInt();
+					buffer = fill(channel, buffer, length);
+					if(buffer == null) {
+						break;
+					}
+					byte[] topic = new byte[length];
+					buffer.get(topic);
+					while(topics.size() <= id) {
+						topics.add(null);
+					}
+					topics.set(id, new String(topic, StandardCharsets.UTF_8));
+				} else if(type == TrafficRecorder.MESSAGE) {
+					buffer = fill(channel, buffer, TrafficRecorder.MESSAGE_HEADER_SIZE);
+					if(buffer == null) {
+						break;
+					}
+					buffer.get();
+					long nanos = buffer.getLong();
+					int topicId = buffer.getInt();
+					int messageId = buffer.getInt();
+					boolean retained = buffer.get() != 0;
+					int length = buffer.getInt();
+					buffer = fill(channel, buffer, length);
+					if(buffer == null) {
+						break;
+					}
+					byte[] payload = new byte[length];
+					buffer.get(payload);
+					if(firstNanos < 0) {
+						firstNanos = nanos;
+					}
+					if(speed != MAX_SPEED) {
+						waitUntil(startNanos + (long) ((nanos - firstNanos) / speed));
+					}
+					dispatcher.dispatch(topics.get(topicId), payload, messageId, retained);
+					count++;
+				} else {
+					throw new IOException(file + " contains an unknown record type " + type);
+				}
+			}
+		} finally {
+			lastReplayNanos = System.nanoTime() - startNanos;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the duration of the last replay, which together with the number of messages gives the throughput of the receivers.
+	 * @return
+	 * The duration of the last replay in nanoseconds, 0 if there was none.
+	 */
+	public long getLastReplayNanos() {
+		return lastReplayNanos;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Makes sure that the buffer holds at least the given number of bytes, reading from the channel and growing the buffer if needed.
+	 * @return
+	 * The buffer, null if the recording ends before, which is the case for the last record of a recording that was not closed.
+	 */
+	private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+		if(buffer.remaining() >= size) {
+			return buffer;
+		}
+		if(size > buffer.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(size);
+			larger.put(buffer);
+			buffer = larger;
+		} else {
+			buffer.compact();
+		}
+		while(buffer.position() < size) {
+			if(channel.read(buffer) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void waitUntil(long deadlineNanos) {
+		long remaining;
+		while((remaining = deadlineNanos - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+
+}
@@ -0,0 +1,303 @@
+package org.fraunhofer.jhmi.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Aggregates the values of a group of devices over a time window, for example the mean temperature of a room over 5 minutes.
+ * The group is either a set of devices and a capability or a topic pattern.
+ * The window is divided into panes of the length of its slide. Every value is added to the pane of its arrival,
+ * 	which only updates the primitive sum, count, minimum and maximum of that pane.
+ * At the end of every slide the panes of the window are combined into the result, which is kept as value of the aggregation
+ * 	and passed to the result listener.
+ * Every received value is a sample of the window, also if it repeats the previous value of its device,
+ * 	so the functions combine the samples of the window and not the latest value of each device.
+ * Values that are neither numbers nor "true" or "false" are ignored, "true" counts as 1 and "false" as 0.
+ */
+public class WindowedAggregation {
+
+	/**
+	 * Timer shared by all aggregations to close their windows.
+	 */
+	private static final ScheduledExecutorService AGGREGATION_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "jhmi-aggregation-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String name;
+	/**
+	 * The devices of the group, null if the group is defined by a topic pattern.
+	 */
+	private final Set<String> devices;
+	/**
+	 * The aggregated capability, null if the group is defined by a topic pattern.
+	 */
+	private final String capability;
+	/**
+	 * The topic pattern of the group, null if the group is defined by devices and a capability.
+	 */
+	private final TopicFilter topicFilter;
+	private final AggregationWindow window;
+	private final AggregateFunction function;
+	/**
+	 * Returns the current time in nanoseconds, which decides the pane of a value.
+	 */
+	private final LongSupplier clock;
+	private final long originNanos;
+	private final long slideNanos;
+	/**
+	 * The number of the slide that each pane currently holds, the ring has one pane more than the window for the current slide.
+	 */
+	private final long[] paneNumbers;
+	private final long[] counts;
+	private final double[] sums;
+	private final double[] minimums;
+	private final double[] maximums;
+	private volatile double value;
+	private volatile DoubleConsumer resultListener;
+	private ScheduledFuture<?> emission;
+
+	/**
+	 * Creates a new aggregation over a capability of a set of devices.
+	 * @param name
+	 * The name of the aggregation.
+	 * @param devices
+	 * The names of the devices of the group, null for all devices.
+	 * @param capability
+	 * The capability whose values are aggregated, the key as used for the getDeviceValue function.
+	 * @param window
+	 * The window over which the values are aggregated.
+	 * @param function
+	 * The function that combines the values.
+	 */
+	public WindowedAggregation(String name, Collection<String> devices, String capability, AggregationWindow window, AggregateFunction function) {
+		this(name, devices == null ? null : Collections.unmodifiableSet(new HashSet<>(devices)), capability, null, window, function, System::nanoTime);
+	}
+
+	/**
+	 * Creates a new aggregation over all values that are received under a topic pattern.
+	 * @param name
+	 * The name of the aggregation.
+	 * @param topicPattern
+	 * The topics whose values are aggregated. It can contain the wildcards "+" and "#".
+	 * @param window
+	 * The window over which the values are aggregated.
+	 * @param function
+	 * The function that combines the values.
+	 */
+	public WindowedAggregation(String name, String topicPattern, AggregationWindow window, AggregateFunction function) {
+		this(name, null, null, TopicFilter.of(topicPattern), window, function, System::nanoTime);
+	}
+
+	/**
+	 * Creates a new aggregation over a topic pattern with the given clock, so tests can move the time forward.
+	 */
+	WindowedAggregation(String name, String topicPattern, AggregationWindow window, AggregateFunction function, LongSupplier clock) {
+		this(name, null, null, TopicFilter.of(topicPattern), window, function, clock);
+	}
+
+	private WindowedAggregation(String name, Set<String> devices, String capability, TopicFilter topicFilter,
+			AggregationWindow window, AggregateFunction function, LongSupplier clock) {
+		this.name = name;
+		this.devices = devices;
+		this.capability = capability;
+		this.topicFilter = topicFilter;
+		this.window = window;
+		this.function = function;
+		this.clock = clock;
+		this.originNanos = clock.getAsLong();
+		this.slideNanos = TimeUnit.MILLISECONDS.toNanos(window.getSlideMillis());
+		int ringSize = window.getPaneCount() + 1;
+		this.paneNumbers = new long[ringSize];
+		this.counts = new long[ringSize];
+		this.sums = new double[ringSize];
+		this.minimums = new double[ringSize];
+		this.maximums = new double[ringSize];
+		Arrays.fill(paneNumbers, -1);
+		this.value = combine(0, 0, Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * Starts closing the windows at the end of every slide.
+	 */
+	public synchronized void start() {
+		if(emission == null) {
+			emission = AGGREGATION_TIMER.scheduleAtFixedRate(this::emit, slideNanos, slideNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Stops closing the windows, the last result stays the value of the aggregation.
+	 */
+	public synchronized void stop() {
+		if(emission != null) {
+			emission.cancel(false);
+			emission = null;
+		}
+	}
+
+	/**
+	 * Checks if a changed value belongs to the group of this aggregation.
+	 * @param device
+	 * The name of the device whose value changed.
+	 * @param topic
+	 * The topic under which the value was received.
+	 * @param key
+	 * The key under which the value is saved.
+	 * @return
+	 * true if the value should be added.
+	 */
+	public boolean accepts(String device, String topic, String key) {
+		if(topicFilter != null) {
+			return topicFilter.matches(topic);
+		}
+		return capability.equals(key) && (devices == null || devices.contains(device));
+	}
+
+	/**
+	 * Adds the content of a message to the current pane.
+	 * @param content
+	 * The content, ignored if it is neither a number nor "true" or "false".
+	 */
+	public void add(String content) {
+		double number = Payloads.parseNumber(content);
+		if(Double.isNaN(number)) {
+			if("true".equals(content)) {
+				number = 1;
+			} else if("false".equals(content)) {
+				number = 0;
+			} else {
+				return;
+			}
+		}
+		add(number);
+	}
+
+	/**
+	 * Adds a value to the current pane.
+	 * @param number
+	 * The value.
+	 */
+	public synchronized void add(double number) {
+		long pane = (clock.getAsLong() - originNanos) / slideNanos;
+		int slot = (int) (pane % paneNumbers.length);
+		if(paneNumbers[slot] != pane) {
+			paneNumbers[slot] = pane;
+			counts[slot] = 0;
+			sums[slot] = 0;
+			minimums[slot] = Double.POSITIVE_INFINITY;
+			maximums[slot] = Double.NEGATIVE_INFINITY;
+		}
+		counts[slot]++;
+		sums[slot] += number;
+		if(number < minimums[slot]) {
+			minimums[slot] = number;
+		}
+		if(number > maximums[slot]) {
+			maximums[slot] = number;
+		}
+	}
+
+	/**
+	 * Combines the panes of the window that ended last into the result.
+	 * Called by the timer at the end of every slide, package-private so tests can close the windows themselves.
+	 */
+	void emit() {
+		double result;
+		synchronized (this) {
+			long current = (clock.getAsLong() - originNanos) / slideNanos;
+			long count = 0;
+			double sum = 0;
+			double minimum = Double.POSITIVE_INFINITY;
+			double maximum = Double.NEGATIVE_INFINITY;
+			for(int slot = 0; slot < paneNumbers.length; slot++) {
+				long pane = paneNumbers[slot];
+				if(pane < current && pane >= current - window.getPaneCount() && counts[slot] > 0) {
+					count += counts[slot];
+					sum += sums[slot];
+					minimum = Math.min(minimum, minimums[slot]);
+					maximum = Math.max(maximum, maximums[slot]);
+				}
+			}
+			result = combine(count, sum, minimum, maximum);
+			value = result;
+		}
+		DoubleConsumer listener = resultListener;
+		if(listener != null) {
+			listener.accept(result);
+		}
+	}
+
+	private double combine(long count, double sum, double minimum, double maximum) {
+		switch (function) {
+		case SUM:
+			return sum;
+		case AVG:
+			return count == 0 ? Double.NaN : sum / count;
+		case MIN:
+			return count == 0 ? Double.NaN : minimum;
+		case MAX:
+			return count == 0 ? Double.NaN : maximum;
+		case COUNT:
+			return count;
+		default:
+			throw new IllegalStateException("unknown function " + function);
+		}
+	}
+
+	/**
+	 * Returns the result of the window that ended last.
+	 * @return
+	 * The result, NaN for AVG, MIN and MAX if the window was empty.
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * Sets a listener that is called with the result at the end of every slide.
+	 * The listener is called on the timer thread that is shared by all aggregations and has to return quickly.
+	 * @param listener
+	 * The listener, null to remove the listener.
+	 */
+	public void setResultListener(DoubleConsumer listener) {
+		this.resultListener = listener;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the aggregated capability.
+	 * @return
+	 * The capability, null if the group is defined by a topic pattern.
+	 */
+	public String getCapability() {
+		return capability;
+	}
+
+	public AggregationWindow getWindow() {
+		return window;
+	}
+
+	public AggregateFunction getFunction() {
+		return function;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + function + " over " + window + " = " + value;
+	}
+
+}
@@ -0,0 +1,156 @@
+package org.fraunhofer.jhmi.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.fraunhofer.jhmi.testing.InProcessBroker;
+import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.user_interface.DeviceRepresentation;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.user_interface.IValueUpdateListener;
+import org.fraunhofer.jhmi.util.AggregateFunction;
+import org.fraunhofer.jhmi.util.AggregationWindow;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.MessageTrace;
+import org.fraunhofer.jhmi.util.MessageTracer;
+import org.fraunhofer.jhmi.util.WindowedAggregation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the DeviceRepresentationManager against the in-process broker.
+ */
+public class DeviceRepresentationManagerTest {
+
+	private InProcessBroker broker;
+	private DeviceRepresentationManager manager;
+
+	@Before
+	public void startBroker() throws Exception {
+		broker = new InProcessBroker();
+		manager = new DeviceRepresentationManager(broker.getURI());
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		manager.removeAllDeviceRepresentations();
+		broker.close();
+	}
+
+	@Test
+	public void aggregationSamplesRepeatedValues() throws Exception {
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		manager.addHomeyDeviceRepresentation("meter", options, "homey/meter");
+		DeviceRepresentation meter = manager.getDeviceRepresentation("meter");
+		WindowedAggregation samples = manager.addAggregation("samples", Collections.singleton("meter"), "measure_power",
+				AggregationWindow.tumbling(100), AggregateFunction.COUNT);
+		double[] counted = new double[1];
+		samples.setResultListener(result -> {
+			synchronized (counted) {
+				counted[0] += result;
+			}
+		});
+
+		for(int i = 0; i < 3; i++) {
+			meter.deliverMessage("homey/meter/measure_power", "250", 0, false);
+		}
+		Thread.sleep(400);
+
+		synchronized (counted) {
+			assertEquals(3, counted[0], 0);
+		}
+		manager.removeAggregation("samples");
+	}
+
+	@Test
+	public void listenersAndCallbacksAreTracedFromTheArrivalAtTheClient() throws Exception {
+		IMqttReceiver callback = (topic, messageString, messageId) -> { };
+		List<MessageTrace> traces = new ArrayList<>();
+		CountDownLatch traced = new CountDownLatch(2);
+		MessageTracer tracer = new MessageTracer(0);
+		// the manager adds listeners of its own, only the traces of the listener and the callback of the test are kept
+		tracer.setTraceListener(trace -> {
+			if(trace.getReceiverClass().equals(SlowListener.class.getName())
+					|| trace.getReceiverClass().equals(callback.getClass().getName())) {
+				synchronized (traces) {
+					traces.add(trace);
+				}
+				traced.countDown();
+			}
+		});
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		options.setMessageTracer(tracer);
+		manager.addHomeyDeviceRepresentation("lamp", options, "homey/lamp");
+		DeviceRepresentation lamp = manager.getDeviceRepresentation("lamp");
+		SlowListener listener = new SlowListener();
+		lamp.addValueUpdateListener(listener);
+		lamp.addCallback("homey/lamp/onoff", callback);
+
+		ConnectionOptions publisherOptions = new ConnectionOptions();
+		publisherOptions.setClientType(ClientType.PAHO);
+		ClientInterface publisher = ClientInterfaceFactory.createClientInterface(broker.getURI(), publisherOptions);
+		publisher.sendMessage("homey/lamp/onoff", "true");
+		assertTrue(traced.await(5, TimeUnit.SECONDS));
+		publisher.closeClient();
+
+		synchronized (traces) {
+			MessageTrace listenerTrace = traces.get(0);
+			MessageTrace callbackTrace = traces.get(1);
+			assertEquals(SlowListener.class.getName(), listenerTrace.getReceiverClass());
+			assertTrue(listenerTrace.getCallbackNanos() >= TimeUnit.MILLISECONDS.toNanos(SlowListener.MILLIS));
+			// the callback is called after the listener, so it waited at least as long as the listener took since the arrival
+			assertEquals(listenerTrace.getArrivalNanos(), callbackTrace.getArrivalNanos());
+			assertTrue(callbackTrace.getDispatchNanos() - callbackTrace.getArrivalNanos() >= TimeUnit.MILLISECONDS.toNanos(SlowListener.MILLIS));
+		}
+	}
+
+	@Test
+	public void devicesThatKeepPublishingAreNotEvicted() throws Exception {
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		assertEquals(ClientInterface.SUCCESS, manager.startDiscovery("homey", options, 200));
+		ConnectionOptions publisherOptions = new ConnectionOptions();
+		publisherOptions.setClientType(ClientType.PAHO);
+		ClientInterface publisher = ClientInterfaceFactory.createClientInterface(broker.getURI(), publisherOptions);
+
+		// the active device publishes more often than the idle time, the quiet one only once
+		publisher.sendMessage("homey/quiet/onoff", "true");
+		for(int i = 0; i < 20; i++) {
+			publisher.sendMessage("homey/active/measure_power", String.valueOf(i));
+			Thread.sleep(40);
+		}
+		DeviceRepresentation active = manager.getDeviceRepresentation("active");
+		assertEquals(1, manager.getDiscoveredDeviceCount());
+		assertEquals("19", active.getDeviceValue("measure_power"));
+		assertEquals(null, manager.getDeviceRepresentation("quiet"));
+
+		publisher.closeClient();
+		manager.stopDiscovery();
+	}
+
+	private static class SlowListener implements IValueUpdateListener {
+
+		private static final long MILLIS = 20;
+
+		@Override
+		public void valueUpdated(DeviceRepresentation deviceRepresentation, String topic, String key, String value) {
+			try {
+				Thread.sleep(MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
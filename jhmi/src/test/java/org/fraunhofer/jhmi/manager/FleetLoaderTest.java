@@ -0,0 +1,70 @@
+package org.fraunhofer.jhmi.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.fraunhofer.jhmi.testing.InProcessBroker;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of loading and reloading a fleet file against the in-process broker.
+ */
+public class FleetLoaderTest {
+
+	private InProcessBroker broker;
+	private Path file;
+	private FleetLoader loader;
+
+	@Before
+	public void startBroker() throws Exception {
+		broker = new InProcessBroker();
+		file = Files.createTempFile("fleet", ".properties");
+		loader = new FleetLoader(file);
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		loader.close();
+		Files.deleteIfExists(file);
+		broker.close();
+	}
+
+	private void write(String... lines) throws IOException {
+		StringBuilder content = new StringBuilder("broker=" + broker.getURI() + "\n");
+		for(String line: lines) {
+			content.append(line).append('\n');
+		}
+		Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void messageOfRemovedClientIsRemoved() throws Exception {
+		write("clients=sender1", "message.lamp.client=sender1", "message.lamp.topic=homey/lamp/onoff", "message.lamp.content=true");
+		assertEquals(ClientInterface.SUCCESS, loader.load());
+		assertEquals(ClientInterface.SUCCESS, loader.getSenderManager().sendMessage("lamp"));
+
+		write("clients=", "message.lamp.client=sender1", "message.lamp.topic=homey/lamp/onoff", "message.lamp.content=true");
+		assertEquals(ClientInterface.SUCCESS + " but 1 operations failed", loader.reload());
+
+		assertEquals("failure no message with this name exists", loader.getSenderManager().sendMessage("lamp"));
+	}
+
+	@Test
+	public void commandWithoutCapabilityIsRejected() throws Exception {
+		write("device.lamp.topic=homey/lamp", "device.lamp.command.on.command=set", "device.lamp.command.on.value=true");
+
+		String result = loader.load();
+
+		assertTrue(result, result.startsWith("failure"));
+		assertTrue(result, result.contains("command on of device lamp"));
+	}
+
+}
@@ -0,0 +1,271 @@
+package org.fraunhofer.jhmi.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.LatencyProbe;
+import org.fraunhofer.jhmi.util.MessageEntry;
+import org.fraunhofer.jhmi.util.MessagePriority;
+import org.junit.Test;
+
+/**
+ * Stress test of the MqttSenderManager with many sending threads.
+ * The clients are stubs whose send takes a fixed time like the round trip to a broker, so the tests check
+ * 	that the manager lets the senders proceed in parallel without depending on the number of cores or the speed of the machine.
+ */
+public class MqttSenderManagerConcurrencyTest {
+
+	private static final Logger LOGGER = Logger.getLogger(MqttSenderManagerConcurrencyTest.class.getName());
+	private static final int CLIENTS = 16;
+	private static final int THREADS = 8;
+	private static final int SENDS_PER_THREAD = 50;
+	private static final long SEND_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void sendersDoNotWaitForEachOther() throws Exception {
+		CountDownLatch entered = new CountDownLatch(THREADS);
+		CountDownLatch release = new CountDownLatch(1);
+		MqttSenderManager manager = createManager(new ArrayList<>(), () -> {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		List<String> results = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> senders = new ArrayList<>();
+		for(int t = 0; t < THREADS; t++) {
+			int client = t;
+			Thread sender = new Thread(() -> results.add(manager.sendMessage("message" + client)));
+			sender.start();
+			senders.add(sender);
+		}
+
+		// all senders are parked in the send of their client at the same time, so no lock of the manager is held while sending
+		boolean allEntered = entered.await(5, TimeUnit.SECONDS);
+		release.countDown();
+		for(Thread sender: senders) {
+			sender.join();
+		}
+		assertTrue(THREADS - entered.getCount() + " of " + THREADS + " senders were in the send at the same time", allEntered);
+		assertEquals(Collections.nCopies(THREADS, ClientInterface.SUCCESS), results);
+	}
+
+	@Test
+	public void noSendIsLostOrDuplicated() throws Exception {
+		List<StubClient> clients = new ArrayList<>();
+		MqttSenderManager manager = createManager(clients, MqttSenderManagerConcurrencyTest::waitForBroker);
+
+		long single = sendFromThreads(manager, 1);
+		long parallel = sendFromThreads(manager, THREADS);
+		LOGGER.info(String.format("1 thread sent %d messages in %d ms, %d threads sent %d messages in %d ms",
+				SENDS_PER_THREAD, TimeUnit.NANOSECONDS.toMillis(single), THREADS, THREADS * SENDS_PER_THREAD,
+				TimeUnit.NANOSECONDS.toMillis(parallel)));
+
+		long sent = 0;
+		for(StubClient client: clients) {
+			sent += client.sent.get();
+		}
+		assertEquals((1 + THREADS) * SENDS_PER_THREAD, sent);
+	}
+
+	/**
+	 * Creates a manager with CLIENTS stub clients and a saved message for each of them.
+	 */
+	private static MqttSenderManager createManager(List<StubClient> clients, Runnable send) {
+		MqttSenderManager manager = new MqttSenderManager("tcp://127.0.0.1:1883");
+		for(int i = 0; i < CLIENTS; i++) {
+			StubClient client = new StubClient("client" + i, send);
+			clients.add(client);
+			manager.clientMap.put(client.getClientId(), client);
+			assertEquals("success", manager.saveMessage("message" + i, "homey/device" + i + "/onoff", client.getClientId(), "true"));
+		}
+		return manager;
+	}
+
+	/**
+	 * Sends SENDS_PER_THREAD messages through the manager from each of the given number of threads
+	 * 	while another thread saves and removes messages, and returns the time in nanoseconds that the senders took.
+	 * Fails if a send did not succeed or a thread threw.
+	 */
+	private static long sendFromThreads(MqttSenderManager manager, int threads) throws InterruptedException {
+		AtomicBoolean editing = new AtomicBoolean(true);
+		AtomicLong failures = new AtomicLong();
+		AtomicReference<Throwable> thrown = new AtomicReference<>();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> senders = new ArrayList<>();
+		for(int t = 0; t < threads; t++) {
+			int offset = t;
+			Thread sender = new Thread(() -> {
+				try {
+					start.await();
+					for(int i = offset; i < offset + SENDS_PER_THREAD; i++) {
+						int client = i % CLIENTS;
+						String result = (i & 1) == 0
+								? manager.sendMessage("homey/device" + client + "/dim", "client" + client, "0.5")
+								: manager.sendMessage("message" + client);
+						if(!result.equals(ClientInterface.SUCCESS)) {
+							failures.incrementAndGet();
+						}
+					}
+				} catch (Throwable e) {
+					thrown.compareAndSet(null, e);
+				}
+			});
+			sender.start();
+			senders.add(sender);
+		}
+		Thread editor = new Thread(() -> {
+			try {
+				int i = 0;
+				while(editing.get()) {
+					manager.saveMessage("temporary" + (i % 64), "homey/temporary", "client" + (i % CLIENTS), "1");
+					manager.removeMessage("temporary" + (i % 64));
+					i++;
+				}
+			} catch (Throwable e) {
+				thrown.compareAndSet(null, e);
+			}
+		});
+		editor.start();
+		long begin = System.nanoTime();
+		start.countDown();
+		for(Thread sender: senders) {
+			sender.join();
+		}
+		long duration = System.nanoTime() - begin;
+		editing.set(false);
+		editor.join();
+		assertEquals(null, thrown.get());
+		assertEquals(0, failures.get());
+		return duration;
+	}
+
+	/**
+	 * Takes SEND_NANOS without using the processor, like the round trip to a broker.
+	 */
+	private static void waitForBroker() {
+		long deadline = System.nanoTime() + SEND_NANOS;
+		long remaining;
+		while((remaining = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+
+	/**
+	 * A client whose send runs the given action and counts the sent messages.
+	 */
+	private static final class StubClient implements ClientInterface {
+
+		private final String clientId;
+		private final Runnable send;
+		private final AtomicLong sent = new AtomicLong();
+
+		private StubClient(String clientId, Runnable send) {
+			this.clientId = clientId;
+			this.send = send;
+		}
+
+		private String send() {
+			send.run();
+			sent.incrementAndGet();
+			return SUCCESS;
+		}
+
+		@Override
+		public void init(String broker) {
+		}
+
+		@Override
+		public String sendMessage(String topic, String content) {
+			return send();
+		}
+
+		@Override
+		public String sendMessage(String topic, String content, int qos, boolean retained) {
+			return send();
+		}
+
+		@Override
+		public String sendMessage(String topic, String content, int qos, boolean retained, MessagePriority priority) {
+			return send();
+		}
+
+		@Override
+		public String sendMessage(String topic, byte[] payload, int qos, boolean retained) {
+			return send();
+		}
+
+		@Override
+		public String sendMessage(String topic, ByteBuffer payload, int qos, boolean retained) {
+			return send();
+		}
+
+		@Override
+		public String sendMessages(List<MessageEntry> messages) {
+			return send();
+		}
+
+		@Override
+		public String subscribe(String topic, IMqttReceiver receiver) {
+			return SUCCESS;
+		}
+
+		@Override
+		public String unsubscribe(String topic, IMqttReceiver receiver) {
+			return SUCCESS;
+		}
+
+		@Override
+		public String closeClient() {
+			return SUCCESS;
+		}
+
+		@Override
+		public String disconnectClient() {
+			return SUCCESS;
+		}
+
+		@Override
+		public String connectClient() {
+			return SUCCESS;
+		}
+
+		@Override
+		public String getClientId() {
+			return clientId;
+		}
+
+		@Override
+		public boolean getConnectionStatus() {
+			return true;
+		}
+
+		@Override
+		public LatencyProbe getLatencyProbe() {
+			return null;
+		}
+
+		@Override
+		public int getInflightWindow() {
+			return 10;
+		}
+
+	}
+
+}
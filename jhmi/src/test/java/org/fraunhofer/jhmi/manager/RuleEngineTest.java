@@ -0,0 +1,108 @@
+package org.fraunhofer.jhmi.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fraunhofer.jhmi.testing.InProcessBroker;
+import org.fraunhofer.jhmi.user_interface.DeviceRepresentation;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.RuleCondition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the evaluation and firing of rules.
+ */
+public class RuleEngineTest {
+
+	private static final String TEMPERATURE = "homey/kitchen/measure_temperature";
+
+	private InProcessBroker broker;
+	private DeviceRepresentationManager manager;
+	private RuleEngine engine;
+	private DeviceRepresentation kitchen;
+	private DeviceRepresentation hall;
+
+	@Before
+	public void startBroker() throws Exception {
+		broker = new InProcessBroker();
+		manager = new DeviceRepresentationManager(broker.getURI());
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		manager.addHomeyDeviceRepresentation("kitchen", options, "homey/kitchen");
+		manager.addHomeyDeviceRepresentation("hall", options, "homey/hall");
+		kitchen = manager.getDeviceRepresentation("kitchen");
+		hall = manager.getDeviceRepresentation("hall");
+		engine = new RuleEngine(manager, null);
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		engine.close();
+		manager.removeAllDeviceRepresentations();
+		broker.close();
+	}
+
+	@Test
+	public void onlyTheRulesOfTheChangedCapabilityAreEvaluated() {
+		for(int i = 0; i < 100; i++) {
+			engine.addRule("dim" + i, RuleCondition.greaterThan("hall", "dim", i / 100.0), () -> ClientInterface.SUCCESS);
+		}
+		engine.addRule("hot", RuleCondition.greaterThan("kitchen", "measure_temperature", 25), () -> ClientInterface.SUCCESS);
+		engine.addRule("warm_and_lit", RuleCondition.and(
+				RuleCondition.greaterThan("kitchen", "measure_temperature", 20),
+				RuleCondition.equalTo("hall", "onoff", "true")), () -> ClientInterface.SUCCESS);
+
+		kitchen.deliverMessage(TEMPERATURE, "22", 0, false);
+		assertEquals(2, engine.getEvaluationCount());
+		hall.deliverMessage("homey/hall/onoff", "true", 0, false);
+		assertEquals(3, engine.getEvaluationCount());
+		// an unchanged value and a capability without rules evaluate nothing
+		kitchen.deliverMessage(TEMPERATURE, "22", 0, false);
+		kitchen.deliverMessage("homey/kitchen/measure_humidity", "40", 0, false);
+		assertEquals(3, engine.getEvaluationCount());
+		hall.deliverMessage("homey/hall/dim", "0.5", 0, false);
+		assertEquals(103, engine.getEvaluationCount());
+	}
+
+	@Test
+	public void actionsRunOncePerTransition() throws InterruptedException {
+		AtomicInteger executed = new AtomicInteger();
+		CountDownLatch twice = new CountDownLatch(2);
+		engine.addRule("hot", RuleCondition.greaterThan("kitchen", "measure_temperature", 25), () -> {
+			executed.incrementAndGet();
+			twice.countDown();
+			return ClientInterface.SUCCESS;
+		});
+
+		// the condition stays met from 26 to 28, falls back with 20 and is met again with 30
+		for(String temperature: new String[] {"24", "26", "27", "28", "20", "30", "31"}) {
+			kitchen.deliverMessage(TEMPERATURE, temperature, 0, false);
+		}
+
+		assertEquals(7, engine.getEvaluationCount());
+		assertEquals(2, engine.getFiringCount());
+		assertTrue(twice.await(5, TimeUnit.SECONDS));
+		assertEquals(2, executed.get());
+	}
+
+	@Test
+	public void ruleThatIsMetWhenAddedOnlyFiresAfterTheNextTransition() {
+		kitchen.deliverMessage(TEMPERATURE, "30", 0, false);
+		engine.addRule("hot", RuleCondition.greaterThan("kitchen", "measure_temperature", 25), () -> ClientInterface.SUCCESS);
+
+		kitchen.deliverMessage(TEMPERATURE, "31", 0, false);
+		assertEquals(0, engine.getFiringCount());
+		kitchen.deliverMessage(TEMPERATURE, "20", 0, false);
+		kitchen.deliverMessage(TEMPERATURE, "26", 0, false);
+		assertEquals(1, engine.getFiringCount());
+	}
+
+}
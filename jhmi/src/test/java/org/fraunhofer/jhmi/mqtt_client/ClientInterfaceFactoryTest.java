@@ -0,0 +1,33 @@
+package org.fraunhofer.jhmi.mqtt_client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.junit.Test;
+
+/**
+ * Tests of the creation of clients.
+ */
+public class ClientInterfaceFactoryTest {
+
+	@Test
+	public void sharedStableClientIdIsSuffixed() {
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		options.setClientId("factory-test");
+		ClientInterface first = ClientInterfaceFactory.createClientInterface("tcp://127.0.0.1:1", options);
+		ClientInterface second = ClientInterfaceFactory.createClientInterface("tcp://127.0.0.1:1", options);
+
+		assertEquals("factory-test", first.getClientId());
+		assertEquals("factory-test-2", second.getClientId());
+
+		first.closeClient();
+		ClientInterface third = ClientInterfaceFactory.createClientInterface("tcp://127.0.0.1:1", options);
+		assertEquals("factory-test", third.getClientId());
+		second.closeClient();
+		third.closeClient();
+	}
+
+}
@@ -0,0 +1,120 @@
+package org.fraunhofer.jhmi.mqtt_client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.fraunhofer.jhmi.testing.InProcessBroker;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the routing and the rebalancing of a consumer group against the in-process broker.
+ */
+public class ConsumerGroupClientInterfaceTest {
+
+	private static final String SHARED_TOPIC = "$share/workers/sensors/#";
+
+	private InProcessBroker broker;
+	private ConsumerGroupClientInterface group;
+	private ClientInterface publisher;
+
+	@Before
+	public void startBroker() throws Exception {
+		broker = new InProcessBroker();
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		options.setClientId("group-test");
+		group = ClientInterfaceFactory.createConsumerGroupClientInterface(broker.getURI(), options, "workers", 2);
+		ConnectionOptions publisherOptions = new ConnectionOptions();
+		publisherOptions.setClientType(ClientType.PAHO);
+		publisher = ClientInterfaceFactory.createClientInterface(broker.getURI(), publisherOptions);
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		group.closeClient();
+		publisher.closeClient();
+		broker.close();
+	}
+
+	@Test
+	public void messagesAreBalancedBetweenTheWorkers() throws Exception {
+		List<String> received = new CopyOnWriteArrayList<>();
+		assertEquals(ClientInterface.SUCCESS, group.subscribe("sensors/#", (topic, messageString, messageId) -> received.add(topic)));
+		assertEquals(Collections.singletonList(SHARED_TOPIC), broker.getSubscriptions("group-test-0"));
+		assertEquals(Collections.singletonList(SHARED_TOPIC), broker.getSubscriptions("group-test-1"));
+
+		for(int i = 0; i < 4; i++) {
+			assertEquals(ClientInterface.SUCCESS, publisher.sendMessage("sensors/" + i, "21"));
+		}
+		await(received, 4);
+		assertEquals(4, received.size());
+		assertTrue(received.containsAll(Arrays.asList("sensors/0", "sensors/1", "sensors/2", "sensors/3")));
+	}
+
+	@Test
+	public void receiversOfATopicAreRemovedSeparately() throws Exception {
+		List<String> first = new CopyOnWriteArrayList<>();
+		List<String> second = new CopyOnWriteArrayList<>();
+		IMqttReceiver firstReceiver = (topic, messageString, messageId) -> first.add(messageString);
+		IMqttReceiver secondReceiver = (topic, messageString, messageId) -> second.add(messageString);
+		group.subscribe("sensors/#", firstReceiver);
+		group.subscribe("sensors/#", secondReceiver);
+
+		assertEquals(ClientInterface.SUCCESS, group.unsubscribe("sensors/#", firstReceiver));
+		assertEquals(Collections.singletonList(SHARED_TOPIC), broker.getSubscriptions("group-test-0"));
+		publisher.sendMessage("sensors/kitchen", "21");
+		await(second, 1);
+		assertEquals(Collections.singletonList("21"), second);
+		assertTrue(first.isEmpty());
+
+		assertEquals(ClientInterface.SUCCESS, group.unsubscribe("sensors/#", secondReceiver));
+		assertTrue(broker.getSubscriptions("group-test-0").isEmpty());
+		assertTrue(broker.getSubscriptions("group-test-1").isEmpty());
+	}
+
+	@Test
+	public void rebalanceSubscribesNewWorkersAndClosesRemovedOnes() throws Exception {
+		group.subscribe("sensors/#", (topic, messageString, messageId) -> { });
+
+		assertEquals(ClientInterface.SUCCESS, group.setWorkerCount(3));
+		assertEquals(3, group.getWorkerCount());
+		assertEquals(Collections.singletonList(SHARED_TOPIC), broker.getSubscriptions("group-test-2"));
+
+		assertEquals(ClientInterface.SUCCESS, group.setWorkerCount(1));
+		assertEquals(1, group.getWorkerCount());
+		awaitClosed("group-test-1");
+		awaitClosed("group-test-2");
+		assertEquals(Collections.singletonList(SHARED_TOPIC), broker.getSubscriptions("group-test-0"));
+		for(int i = 0; i < 4; i++) {
+			assertEquals(ClientInterface.SUCCESS, group.sendMessage("actuators/" + i, "on"));
+		}
+	}
+
+	private static void await(List<String> received, int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(received.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	private void awaitClosed(String clientId) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(!broker.getSubscriptions(clientId).isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(clientId + " is still connected", broker.getSubscriptions(clientId).isEmpty());
+	}
+
+}
@@ -0,0 +1,96 @@
+package org.fraunhofer.jhmi.mqtt_clients.paho;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.testing.InProcessBroker;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration tests of the MQTT version 3 client against the in-process broker.
+ */
+public class PahoClientContainerTest {
+
+	private InProcessBroker broker;
+	private ClientInterface client;
+
+	@Before
+	public void startBroker() throws Exception {
+		broker = new InProcessBroker();
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		options.setQos(1);
+		client = ClientInterfaceFactory.createClientInterface(broker.getURI(), options);
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		client.closeClient();
+		broker.close();
+	}
+
+	@Test
+	public void concurrentFirstSendsConnectOnce() throws Exception {
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<String>> results = new ArrayList<>();
+		for(int i = 0; i < threads; i++) {
+			String topic = "homey/device" + i + "/onoff";
+			results.add(executor.submit(() -> {
+				start.await();
+				return client.sendMessage(topic, "true");
+			}));
+		}
+		start.countDown();
+		for(Future<String> result: results) {
+			assertEquals(ClientInterface.SUCCESS, result.get());
+		}
+		executor.shutdown();
+
+		assertTrue(client.getConnectionStatus());
+		assertEquals(1, broker.getConnectionCount());
+		assertEquals(threads, broker.getPublished().size());
+	}
+
+	@Test
+	public void probeMessagesDoNotReachWildcardReceivers() throws Exception {
+		ConcurrentLinkedQueue<String> topics = new ConcurrentLinkedQueue<>();
+		CountDownLatch received = new CountDownLatch(1);
+		IMqttReceiver receiver = (topic, messageString, messageId) -> {
+			topics.add(topic);
+			received.countDown();
+		};
+		assertEquals(ClientInterface.SUCCESS, client.subscribe("#", receiver));
+		PahoClientContainer container = (PahoClientContainer) client;
+		container.startLatencyProbe(20, 1000, 2000);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(container.getLatencyProbe().getLastLatency() < 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		client.sendMessage("homey/lamp/onoff", "true");
+
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		assertTrue(container.getLatencyProbe().getLastLatency() >= 0);
+		assertEquals(1, topics.size());
+		assertEquals("homey/lamp/onoff", topics.peek());
+	}
+
+}
@@ -0,0 +1,149 @@
+package org.fraunhofer.jhmi.mqtt_clients.paho_v5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.testing.InProcessBroker;
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration tests of the MQTT version 5 client against the in-process broker.
+ */
+public class PahoV5ClientContainerTest {
+
+	private InProcessBroker broker;
+	private final List<ClientInterface> clients = new ArrayList<>();
+
+	@Before
+	public void startBroker() throws Exception {
+		broker = new InProcessBroker(10);
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		for(ClientInterface client: clients) {
+			client.closeClient();
+		}
+		broker.close();
+	}
+
+	private ClientInterface createClient(ConnectionOptions options) {
+		ClientInterface client = ClientInterfaceFactory.createClientInterface(broker.getURI(), options);
+		clients.add(client);
+		return client;
+	}
+
+	private static ConnectionOptions v5Options() {
+		ConnectionOptions options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO_V5);
+		options.setQos(1);
+		return options;
+	}
+
+	@Test
+	public void publishedMessageReachesSubscriber() throws Exception {
+		ClientInterface client = createClient(v5Options());
+		CountDownLatch received = new CountDownLatch(1);
+		ConcurrentLinkedQueue<String> payloads = new ConcurrentLinkedQueue<>();
+		assertEquals(ClientInterface.SUCCESS, client.subscribe("homey/+/onoff", receiver(topic -> {
+			payloads.add(topic);
+			received.countDown();
+		})));
+
+		assertEquals(ClientInterface.SUCCESS, client.sendMessage("homey/lamp/onoff", "true"));
+
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		assertEquals("homey/lamp/onoff", payloads.peek());
+		assertEquals(5, broker.getConnect(client.getClientId()).protocolLevel);
+	}
+
+	@Test
+	public void repeatedTopicIsSentAsAlias() throws Exception {
+		ClientInterface client = createClient(v5Options());
+		String topic = "homey/living_room/ceiling_light/measure_temperature";
+		for(int i = 0; i < 5; i++) {
+			assertEquals(ClientInterface.SUCCESS, client.sendMessage(topic, Integer.toString(i)));
+		}
+
+		List<InProcessBroker.Published> published = broker.getPublished();
+		assertEquals(5, published.size());
+		assertFalse(published.get(0).aliasOnly);
+		for(int i = 1; i < published.size(); i++) {
+			assertTrue("message " + i + " should only carry the alias", published.get(i).aliasOnly);
+			assertEquals(topic, published.get(i).topic);
+		}
+	}
+
+	@Test
+	public void connectCarriesFlowControlAndSessionExpiry() {
+		ConnectionOptions options = v5Options();
+		options.setReceiveMaximum(25);
+		options.setSessionExpiryInterval(300);
+		ClientInterface client = createClient(options);
+
+		assertEquals(ClientInterface.SUCCESS, client.connectClient());
+
+		InProcessBroker.ConnectInfo connect = broker.getConnect(client.getClientId());
+		assertEquals(25, connect.receiveMaximum);
+		assertEquals(300, connect.sessionExpiryInterval);
+	}
+
+	@Test
+	public void sharedSubscriptionSplitsMessagesBetweenClients() throws Exception {
+		ClientInterface first = createClient(v5Options());
+		ClientInterface second = createClient(v5Options());
+		AtomicInteger firstCount = new AtomicInteger();
+		AtomicInteger secondCount = new AtomicInteger();
+		CountDownLatch received = new CountDownLatch(10);
+		first.subscribe("$share/workers/homey/#", receiver(topic -> {
+			firstCount.incrementAndGet();
+			received.countDown();
+		}));
+		second.subscribe("$share/workers/homey/#", receiver(topic -> {
+			secondCount.incrementAndGet();
+			received.countDown();
+		}));
+
+		ClientInterface sender = createClient(v5Options());
+		for(int i = 0; i < 10; i++) {
+			sender.sendMessage("homey/sensor" + i + "/measure_power", "1");
+		}
+
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(10, firstCount.get() + secondCount.get());
+		assertTrue(firstCount.get() > 0);
+		assertTrue(secondCount.get() > 0);
+	}
+
+	@Test
+	public void generatedClientIdsAreUnique() {
+		ClientInterface first = createClient(v5Options());
+		ClientInterface second = createClient(v5Options());
+
+		assertNotEquals(first.getClientId(), second.getClientId());
+		assertTrue(first.getClientId().length() <= 23);
+	}
+
+	private static IMqttReceiver receiver(Consumer<String> consumer) {
+		return (topic, messageString, messageId) -> consumer.accept(topic);
+	}
+
+}
@@ -0,0 +1,530 @@
+package org.fraunhofer.jhmi.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal MQTT 3.1.1 and 5 broker that runs inside the test process, so the clients can be tested without an external broker.
+ * It supports CONNECT with the v5 session expiry, receive maximum and topic alias properties, QoS 0, 1 and 2 publishes from the clients,
+ * 	incoming topic aliases, retained messages, wildcard and shared subscriptions, unsubscribe and ping.
+ * Messages are delivered to the subscribers with QoS 0, which is all the tests need.
+ */
+public class InProcessBroker implements AutoCloseable {
+
+	private final ServerSocket serverSocket;
+	private final int topicAliasMaximum;
+	private final List<Connection> connections = new CopyOnWriteArrayList<>();
+	private final Map<String, byte[]> retained = new ConcurrentHashMap<>();
+	private final List<Published> published = new CopyOnWriteArrayList<>();
+	private final Map<String, ConnectInfo> connects = new ConcurrentHashMap<>();
+	private final AtomicInteger sharedCounter = new AtomicInteger();
+	private volatile boolean running = true;
+
+	/**
+	 * Starts a broker on a free local port that does not allow topic aliases.
+	 */
+	public InProcessBroker() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * Starts a broker on a free local port.
+	 * @param topicAliasMaximum
+	 * The topic alias maximum that is announced to v5 clients in the CONNACK.
+	 */
+	public InProcessBroker(int topicAliasMaximum) throws IOException {
+		this.topicAliasMaximum = topicAliasMaximum;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::acceptLoop, "test-broker-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public String getURI() {
+		return "tcp://127.0.0.1:" + serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns the messages the broker received from the clients in the order of their arrival.
+	 */
+	public List<Published> getPublished() {
+		return Collections.unmodifiableList(new ArrayList<>(published));
+	}
+
+	/**
+	 * Returns the CONNECT of the last connection of a client.
+	 */
+	public ConnectInfo getConnect(String clientId) {
+		return connects.get(clientId);
+	}
+
+	/**
+	 * Returns the topic filters that the open connections of a client are subscribed to.
+	 */
+	public List<String> getSubscriptions(String clientId) {
+		List<String> filters = new ArrayList<>();
+		for(Connection connection: connections) {
+			if(clientId.equals(connection.clientId)) {
+				filters.addAll(connection.subscriptions);
+			}
+		}
+		return filters;
+	}
+
+	/**
+	 * Returns the number of open client connections.
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		for(Connection connection: connections) {
+			connection.close();
+		}
+	}
+
+	private void acceptLoop() {
+		while(running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Connection connection = new Connection(socket);
+				connections.add(connection);
+				Thread thread = new Thread(connection::readLoop, "test-broker-connection");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void route(String topic, byte[] payload, boolean retain) {
+		if(retain) {
+			if(payload.length == 0) {
+				retained.remove(topic);
+			} else {
+				retained.put(topic, payload);
+			}
+		}
+		Map<String, List<Connection>> shared = new HashMap<>();
+		for(Connection connection: connections) {
+			boolean delivered = false;
+			for(String filter: connection.subscriptions) {
+				if(filter.startsWith("$share/")) {
+					int slash = filter.indexOf('/', 7);
+					if(slash > 0 && matches(filter.substring(slash + 1), topic)) {
+						shared.computeIfAbsent(filter, key -> new ArrayList<>()).add(connection);
+					}
+				} else if(!delivered && matches(filter, topic)) {
+					connection.deliver(topic, payload, false);
+					delivered = true;
+				}
+			}
+		}
+		for(List<Connection> group: shared.values()) {
+			group.get(Math.floorMod(sharedCounter.getAndIncrement(), group.size())).deliver(topic, payload, false);
+		}
+	}
+
+	/**
+	 * Matches a topic against a filter with the wildcards "+" and "#".
+	 */
+	static boolean matches(String filter, String topic) {
+		String[] filterLevels = filter.split("/", -1);
+		String[] topicLevels = topic.split("/", -1);
+		for(int i = 0; i < filterLevels.length; i++) {
+			if(filterLevels[i].equals("#")) {
+				return true;
+			}
+			if(i >= topicLevels.length) {
+				return false;
+			}
+			if(!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+				return false;
+			}
+		}
+		return filterLevels.length == topicLevels.length;
+	}
+
+	/**
+	 * A message the broker received from a client.
+	 */
+	public static final class Published {
+
+		public final String clientId;
+		public final String topic;
+		public final byte[] payload;
+		public final int qos;
+		/**
+		 * True if the PUBLISH only carried a topic alias instead of the topic.
+		 */
+		public final boolean aliasOnly;
+
+		private Published(String clientId, String topic, byte[] payload, int qos, boolean aliasOnly) {
+			this.clientId = clientId;
+			this.topic = topic;
+			this.payload = payload;
+			this.qos = qos;
+			this.aliasOnly = aliasOnly;
+		}
+
+		public String getPayloadString() {
+			return new String(payload, StandardCharsets.UTF_8);
+		}
+
+	}
+
+	/**
+	 * The values of a CONNECT packet.
+	 */
+	public static final class ConnectInfo {
+
+		public final int protocolLevel;
+		public final boolean cleanStart;
+		public final long sessionExpiryInterval;
+		public final int receiveMaximum;
+		public final int topicAliasMaximum;
+
+		private ConnectInfo(int protocolLevel, boolean cleanStart, long sessionExpiryInterval, int receiveMaximum, int topicAliasMaximum) {
+			this.protocolLevel = protocolLevel;
+			this.cleanStart = cleanStart;
+			this.sessionExpiryInterval = sessionExpiryInterval;
+			this.receiveMaximum = receiveMaximum;
+			this.topicAliasMaximum = topicAliasMaximum;
+		}
+
+	}
+
+	private final class Connection {
+
+		private final Socket socket;
+		private final DataInputStream in;
+		private final OutputStream out;
+		private final List<String> subscriptions = new CopyOnWriteArrayList<>();
+		private final Map<Integer, String> topicAliases = new HashMap<>();
+		private String clientId;
+		private int protocolLevel = 4;
+
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(socket.getInputStream());
+			this.out = socket.getOutputStream();
+		}
+
+		private void readLoop() {
+			try {
+				while(running) {
+					int header = in.read();
+					if(header < 0) {
+						break;
+					}
+					byte[] body = new byte[readVariableInt(in)];
+					in.readFully(body);
+					if(!handle(header, new Reader(body))) {
+						break;
+					}
+				}
+			} catch (IOException e) {
+				// the connection is closed below
+			} finally {
+				close();
+			}
+		}
+
+		private boolean handle(int header, Reader reader) throws IOException {
+			switch(header >> 4) {
+			case 1:
+				handleConnect(reader);
+				return true;
+			case 3:
+				handlePublish(header, reader);
+				return true;
+			case 6:
+				int releasedId = reader.readShort();
+				write(0x70, shortBytes(releasedId));
+				return true;
+			case 8:
+				handleSubscribe(reader);
+				return true;
+			case 10:
+				handleUnsubscribe(reader);
+				return true;
+			case 12:
+				write(0xD0, new byte[0]);
+				return true;
+			case 14:
+				return false;
+			default:
+				return true;
+			}
+		}
+
+		private void handleConnect(Reader reader) throws IOException {
+			reader.readString();
+			protocolLevel = reader.readByte();
+			int flags = reader.readByte();
+			reader.readShort();
+			Map<Integer, Object> properties = protocolLevel == 5 ? reader.readProperties() : Collections.emptyMap();
+			long sessionExpiry = ((Number) properties.getOrDefault(0x11, 0)).longValue() & 0xFFFFFFFFL;
+			int receiveMaximum = ((Number) properties.getOrDefault(0x21, 65535)).intValue();
+			int aliasMaximum = ((Number) properties.getOrDefault(0x22, 0)).intValue();
+			clientId = reader.readString();
+			connects.put(clientId, new ConnectInfo(protocolLevel, (flags & 0x02) != 0, sessionExpiry, receiveMaximum, aliasMaximum));
+			if(protocolLevel == 5) {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				body.write(0);
+				body.write(0);
+				if(topicAliasMaximum > 0) {
+					body.write(3);
+					body.write(0x22);
+					body.write(shortBytes(topicAliasMaximum));
+				} else {
+					body.write(0);
+				}
+				write(0x20, body.toByteArray());
+			} else {
+				write(0x20, new byte[] {0, 0});
+			}
+		}
+
+		private void handlePublish(int header, Reader reader) throws IOException {
+			int qos = (header >> 1) & 3;
+			boolean retain = (header & 1) != 0;
+			String topic = reader.readString();
+			int packetId = qos > 0 ? reader.readShort() : 0;
+			boolean aliasOnly = false;
+			Object alias = protocolLevel == 5 ? reader.readProperties().get(0x23) : null;
+			if(alias != null) {
+				if(topic.isEmpty()) {
+					topic = topicAliases.get(alias);
+					aliasOnly = true;
+				} else {
+					topicAliases.put((Integer) alias, topic);
+				}
+			}
+			byte[] payload = reader.readRemaining();
+			published.add(new Published(clientId, topic, payload, qos, aliasOnly));
+			if(qos == 1) {
+				write(0x40, shortBytes(packetId));
+			} else if(qos == 2) {
+				write(0x50, shortBytes(packetId));
+			}
+			route(topic, payload, retain);
+		}
+
+		private void handleSubscribe(Reader reader) throws IOException {
+			int packetId = reader.readShort();
+			if(protocolLevel == 5) {
+				reader.readProperties();
+			}
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			body.write(shortBytes(packetId));
+			if(protocolLevel == 5) {
+				body.write(0);
+			}
+			List<String> filters = new ArrayList<>();
+			while(reader.position < reader.data.length) {
+				String filter = reader.readString();
+				int options = reader.readByte();
+				if(!subscriptions.contains(filter)) {
+					subscriptions.add(filter);
+				}
+				filters.add(filter);
+				body.write(Math.min(options & 3, 2));
+			}
+			write(0x90, body.toByteArray());
+			for(String filter: filters) {
+				if(!filter.startsWith("$share/")) {
+					for(Map.Entry<String, byte[]> entry: retained.entrySet()) {
+						if(matches(filter, entry.getKey())) {
+							deliver(entry.getKey(), entry.getValue(), true);
+						}
+					}
+				}
+			}
+		}
+
+		private void handleUnsubscribe(Reader reader) throws IOException {
+			int packetId = reader.readShort();
+			if(protocolLevel == 5) {
+				reader.readProperties();
+			}
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			body.write(shortBytes(packetId));
+			if(protocolLevel == 5) {
+				body.write(0);
+			}
+			while(reader.position < reader.data.length) {
+				subscriptions.remove(reader.readString());
+				if(protocolLevel == 5) {
+					body.write(0);
+				}
+			}
+			write(0xB0, body.toByteArray());
+		}
+
+		private void deliver(String topic, byte[] payload, boolean retain) {
+			try {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+				body.write(shortBytes(topicBytes.length));
+				body.write(topicBytes);
+				if(protocolLevel == 5) {
+					body.write(0);
+				}
+				body.write(payload);
+				write(0x30 | (retain ? 1 : 0), body.toByteArray());
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void write(int header, byte[] body) throws IOException {
+			ByteArrayOutputStream packet = new ByteArrayOutputStream(body.length + 5);
+			packet.write(header);
+			int length = body.length;
+			do {
+				int digit = length % 128;
+				length /= 128;
+				packet.write(length > 0 ? digit | 0x80 : digit);
+			} while(length > 0);
+			packet.write(body);
+			synchronized (this) {
+				out.write(packet.toByteArray());
+				out.flush();
+			}
+		}
+
+		private void close() {
+			connections.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+
+	}
+
+	private static byte[] shortBytes(int value) {
+		return new byte[] {(byte) (value >> 8), (byte) value};
+	}
+
+	private static int readVariableInt(InputStream in) throws IOException {
+		int value = 0;
+		int multiplier = 1;
+		int digit;
+		do {
+			digit = in.read();
+			if(digit < 0) {
+				throw new EOFException();
+			}
+			value += (digit & 0x7F) * multiplier;
+			multiplier *= 128;
+		} while((digit & 0x80) != 0);
+		return value;
+	}
+
+	private static final class Reader {
+
+		private final byte[] data;
+		private int position;
+
+		private Reader(byte[] data) {
+			this.data = data;
+		}
+
+		private int readByte() {
+			return data[position++] & 0xFF;
+		}
+
+		private int readShort() {
+			return (readByte() << 8) | readByte();
+		}
+
+		private int readInt() {
+			return (readShort() << 16) | readShort();
+		}
+
+		private int readVariableInt() {
+			int value = 0;
+			int multiplier = 1;
+			int digit;
+			do {
+				digit = readByte();
+				value += (digit & 0x7F) * multiplier;
+				multiplier *= 128;
+			} while((digit & 0x80) != 0);
+			return value;
+		}
+
+		/**
+		 * Reads the properties of a v5 packet, the values of integer properties are Integers, all others are skipped.
+		 */
+		private Map<Integer, Object> readProperties() {
+			Map<Integer, Object> properties = new HashMap<>();
+			int end = readVariableInt() + position;
+			while(position < end) {
+				int property = readVariableInt();
+				switch(property) {
+				case 0x01: case 0x17: case 0x19: case 0x24: case 0x25: case 0x28: case 0x29: case 0x2A:
+					properties.put(property, readByte());
+					break;
+				case 0x13: case 0x21: case 0x22: case 0x23:
+					properties.put(property, readShort());
+					break;
+				case 0x02: case 0x11: case 0x18: case 0x27:
+					properties.put(property, readInt());
+					break;
+				case 0x0B:
+					properties.put(property, readVariableInt());
+					break;
+				case 0x26:
+					readString();
+					readString();
+					break;
+				default:
+					position += readShort();
+				}
+			}
+			return properties;
+		}
+
+		private String readString() {
+			int length = readShort();
+			String value = new String(data, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+		private byte[] readRemaining() {
+			byte[] remaining = new byte[data.length - position];
+			System.arraycopy(data, position, remaining, 0, remaining.length);
+			position = data.length;
+			return remaining;
+		}
+
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.fraunhofer.jhmi.user_interface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fraunhofer.jhmi.mqtt_client.ClientInterfaceFactory;
+import org.fraunhofer.jhmi.testing.InProcessBroker;
+import org.fraunhofer.jhmi.util.ClientInterface;
+import org.fraunhofer.jhmi.util.ClientType;
+import org.fraunhofer.jhmi.util.ConnectionOptions;
+import org.fraunhofer.jhmi.util.MessageTrace;
+import org.fraunhofer.jhmi.util.MessageTracer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the HomeyDeviceRepresentation against the in-process broker.
+ */
+public class HomeyDeviceRepresentationTest {
+
+	private InProcessBroker broker;
+	private ConnectionOptions options;
+
+	@Before
+	public void startBroker() throws Exception {
+		broker = new InProcessBroker();
+		options = new ConnectionOptions();
+		options.setClientType(ClientType.PAHO);
+		options.setQos(1);
+	}
+
+	@After
+	public void stopBroker() throws Exception {
+		broker.close();
+	}
+
+	@Test
+	public void retainedValuesAreSavedUnderTheirCapability() throws Exception {
+		ClientInterface publisher = ClientInterfaceFactory.createClientInterface(broker.getURI(), options);
+		publisher.sendMessage("homey/lamp/onoff", "true", 1, true);
+		publisher.sendMessage("homey/lamp/dim", "0.4", 1, true);
+		publisher.closeClient();
+
+		HomeyDeviceRepresentation lamp = new HomeyDeviceRepresentation("lamp", options, broker.getURI(), "homey/lamp");
+		lamp.setExpectedValues(Arrays.asList("onoff", "dim"));
+		lamp.ready().get(5, TimeUnit.SECONDS);
+
+		assertEquals("true", lamp.getDeviceValue("onoff"));
+		assertEquals("0.4", lamp.getDeviceValue("dim"));
+		assertNull(lamp.getDeviceValue("homey"));
+		lamp.closeClient();
+	}
+
+	@Test
+	public void failingCallbackDoesNotSkipTheOthers() throws Exception {
+		HomeyDeviceRepresentation lamp = new HomeyDeviceRepresentation("lamp", options, broker.getURI(), "homey/lamp");
+		CountDownLatch received = new CountDownLatch(1);
+		lamp.addCallback("homey/lamp/onoff", (topic, messageString, messageId) -> {
+			throw new IllegalStateException("callback failure");
+		});
+		lamp.addCallback("homey/lamp/#", (topic, messageString, messageId) -> received.countDown());
+
+		ClientInterface publisher = ClientInterfaceFactory.createClientInterface(broker.getURI(), options);
+		publisher.sendMessage("homey/lamp/onoff", "true");
+
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		assertEquals("true", lamp.getDeviceValue("onoff"));
+		publisher.closeClient();
+		lamp.closeClient();
+	}
+
+	@Test
+	public void removedCallbackIsUnsubscribed() throws Exception {
+		ClientInterface publisher = ClientInterfaceFactory.createClientInterface(broker.getURI(), options);
+		options.setClientId("lamp");
+		HomeyDeviceRepresentation lamp = new HomeyDeviceRepresentation("lamp", options, broker.getURI(), "homey/lamp");
+		AtomicInteger alerts = new AtomicInteger();
+		CountDownLatch received = new CountDownLatch(1);
+		assertEquals(ClientInterface.SUCCESS, lamp.addCallback("alerts/#", (topic, messageString, messageId) -> {
+			alerts.incrementAndGet();
+			received.countDown();
+		}));
+		assertTrue(broker.getSubscriptions("lamp").contains("alerts/#"));
+		publisher.sendMessage("alerts/fire", "1");
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+
+		assertEquals(ClientInterface.SUCCESS, lamp.removeCallback("alerts/#"));
+		assertFalse(broker.getSubscriptions("lamp").contains("alerts/#"));
+		publisher.sendMessage("alerts/fire", "2");
+		Thread.sleep(200);
+
+		assertEquals(1, alerts.get());
+		publisher.closeClient();
+		lamp.closeClient();
+	}
+
+	@Test
+	public void callbackIsTracedOnce() throws Exception {
+		MessageTracer tracer = new MessageTracer(0);
+		ConcurrentLinkedQueue<MessageTrace> traces = new ConcurrentLinkedQueue<>();
+		tracer.setTraceListener(traces::add);
+		options.setMessageTracer(tracer);
+		HomeyDeviceRepresentation lamp = new HomeyDeviceRepresentation("lamp", options, broker.getURI(), "homey/lamp");
+		CountDownLatch received = new CountDownLatch(1);
+		lamp.addCallback("homey/lamp/onoff", (topic, messageString, messageId) -> received.countDown());
+
+		ClientInterface publisher = ClientInterfaceFactory.createClientInterface(broker.getURI(), options);
+		publisher.sendMessage("homey/lamp/onoff", "true");
+
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(1, traces.size());
+		publisher.closeClient();
+		lamp.closeClient();
+	}
+
+}
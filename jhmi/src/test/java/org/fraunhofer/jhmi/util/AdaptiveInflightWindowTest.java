@@ -0,0 +1,94 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of the adaption of the inflight window to the acknowledgement latency.
+ */
+public class AdaptiveInflightWindowTest {
+
+	private static final long BASELINE = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long CONGESTED = 3 * BASELINE;
+
+	/**
+	 * The windows handed to the listener.
+	 */
+	private final List<Integer> windows = new ArrayList<>();
+
+	@Test
+	public void windowGrowsByOneSlotPerWindowOfAcknowledgements() {
+		AdaptiveInflightWindow window = new AdaptiveInflightWindow(10, 1, 100, windows::add);
+		acknowledge(window, 10, BASELINE);
+		assertEquals(10, window.getWindow());
+		acknowledge(window, 1, BASELINE);
+		assertEquals(11, window.getWindow());
+
+		// the square of the window grows by about 2 per acknowledgement, so 100 acknowledgements lead from 10 to 17
+		acknowledge(window, 89, BASELINE);
+		assertEquals(17, window.getWindow());
+		assertEquals(Arrays.asList(10, 11, 12, 13, 14, 15, 16, 17), windows);
+		assertEquals(BASELINE, window.getBaselineLatency());
+	}
+
+	@Test
+	public void windowShrinksOncePerWindowOfAcknowledgements() {
+		AdaptiveInflightWindow window = new AdaptiveInflightWindow(20, 1, 100, windows::add);
+		acknowledge(window, 1, BASELINE);
+		acknowledge(window, 1, CONGESTED);
+		assertEquals(15, window.getWindow());
+
+		// further congestion within the same window of acknowledgements does not shrink the window again
+		acknowledge(window, 14, CONGESTED);
+		assertEquals(15, window.getWindow());
+		acknowledge(window, 1, CONGESTED);
+		assertEquals(11, window.getWindow());
+
+		acknowledge(window, 13, BASELINE);
+		assertEquals(12, window.getWindow());
+		window.onError();
+		assertEquals(6, window.getWindow());
+		window.onError();
+		assertEquals(6, window.getWindow());
+		assertEquals(2, window.getErrorCount());
+		assertEquals(30, window.getAcknowledgementCount());
+	}
+
+	@Test
+	public void windowStaysWithinItsBounds() {
+		AdaptiveInflightWindow window = new AdaptiveInflightWindow(50, 4, 8, windows::add);
+		assertEquals(8, window.getWindow());
+		acknowledge(window, 1000, BASELINE);
+		assertEquals(8, window.getWindow());
+
+		for(int i = 0; i < 10; i++) {
+			acknowledge(window, 8, BASELINE);
+			window.onError();
+		}
+		assertEquals(4, window.getWindow());
+		for(int size: windows) {
+			assertTrue("window of " + size, size >= 4 && size <= 8);
+		}
+
+		assertEquals(1, new AdaptiveInflightWindow(0, 1, 8, size -> { }).getWindow());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maximumMustNotBeBelowMinimum() {
+		new AdaptiveInflightWindow(4, 8, 4, size -> { });
+	}
+
+	private static void acknowledge(AdaptiveInflightWindow window, int count, long latencyNanos) {
+		for(int i = 0; i < count; i++) {
+			window.onAcknowledged(latencyNanos);
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of the health tracking and ordering of broker endpoints.
+ */
+public class BrokerEndpointsTest {
+
+	private static final String PRIMARY = "tcp://primary:1883";
+	private static final String STANDBY = "tcp://standby:1883";
+
+	@Test
+	public void failuresOfOneOutageCountOnce() {
+		BrokerEndpoints endpoints = new BrokerEndpoints(Arrays.asList(PRIMARY, STANDBY), 60000, 60000);
+		for(int i = 0; i < 10; i++) {
+			endpoints.recordFailure(PRIMARY);
+		}
+
+		assertEquals(1, endpoints.getConsecutiveFailures(PRIMARY));
+		assertEquals(HealthState.DOWN, endpoints.getHealth(PRIMARY));
+		assertArrayEquals(new String[] {STANDBY, PRIMARY}, endpoints.getOrderedURIs());
+	}
+
+	@Test
+	public void failureAfterTheBackoffStartsANewOutage() throws Exception {
+		BrokerEndpoints endpoints = new BrokerEndpoints(Arrays.asList(PRIMARY, STANDBY), 0, 0);
+		endpoints.recordFailure(PRIMARY);
+		Thread.sleep(1);
+		endpoints.recordFailure(PRIMARY);
+
+		assertEquals(2, endpoints.getConsecutiveFailures(PRIMARY));
+		endpoints.recordSuccess(PRIMARY);
+		assertEquals(HealthState.HEALTHY, endpoints.getHealth(PRIMARY));
+	}
+
+	@Test
+	public void largeBackoffIsLimitedToTheMaximum() throws Exception {
+		long hundredYears = 100L * 365 * 24 * 3600 * 1000;
+		BrokerEndpoints endpoints = new BrokerEndpoints(Arrays.asList(PRIMARY, STANDBY), hundredYears, hundredYears);
+		endpoints.recordFailure(PRIMARY);
+
+		assertEquals(HealthState.DOWN, endpoints.getHealth(PRIMARY));
+		assertArrayEquals(new String[] {STANDBY, PRIMARY}, endpoints.getOrderedURIs());
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * Tests of the incremental updates and the queries of the CapabilityIndex.
+ */
+public class CapabilityIndexTest {
+
+	@Test
+	public void changedValueMovesTheDeviceBetweenTheValueSets() {
+		CapabilityIndex index = new CapabilityIndex("onoff");
+		index.update("kitchen", "true");
+		index.update("hall", "true");
+		index.update("garage", "false");
+		assertEquals(new HashSet<>(Arrays.asList("kitchen", "hall")), index.getDevices("true"));
+
+		index.update("hall", "false");
+		assertEquals(Collections.singleton("kitchen"), index.getDevices("true"));
+		assertEquals(new HashSet<>(Arrays.asList("hall", "garage")), index.getDevices("false"));
+		assertEquals("false", index.getValue("hall"));
+
+		index.remove("kitchen");
+		assertEquals(Collections.emptySet(), index.getDevices("true"));
+		assertNull(index.getValue("kitchen"));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void existingValuesDoNotOverwriteNewerUpdates() {
+		CapabilityIndex index = new CapabilityIndex("onoff");
+		index.update("kitchen", "false");
+		index.updateIfAbsent("kitchen", "true");
+		index.updateIfAbsent("hall", "true");
+		index.updateIfAbsent("garage", null);
+
+		assertEquals(Collections.singleton("hall"), index.getDevices("true"));
+		assertEquals(Collections.singleton("kitchen"), index.getDevices("false"));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void rangeQueriesReturnTheDevicesOrderedByValue() {
+		CapabilityIndex index = new CapabilityIndex("measure_temperature");
+		index.update("cellar", "12.5");
+		index.update("kitchen", "24");
+		index.update("attic", "31.0");
+		index.update("bath", "21");
+		index.update("sensor", "unavailable");
+
+		assertEquals(Arrays.asList("cellar", "bath", "kitchen", "attic"), index.getDevicesAtLeast(Double.NEGATIVE_INFINITY));
+		assertEquals(Arrays.asList("bath", "kitchen"), index.getDevicesInRange(21, true, 31, false));
+		assertEquals(Arrays.asList("kitchen"), index.getDevicesInRange(21, false, 31, false));
+		assertEquals(Arrays.asList("kitchen", "attic"), index.getDevicesAtLeast(24));
+		assertEquals(Arrays.asList("cellar", "bath"), index.getDevicesAtMost(21));
+		assertEquals(Collections.emptyList(), index.getDevicesInRange(30, true, 20, true));
+
+		// a changed number moves the device in the order, a value that is no number removes it from the ranges
+		index.update("cellar", "40");
+		index.update("kitchen", "off");
+		assertEquals(Arrays.asList("bath", "attic", "cellar"), index.getDevicesAtLeast(0));
+		assertEquals(Collections.singleton("sensor"), index.getDevices("unavailable"));
+	}
+
+}
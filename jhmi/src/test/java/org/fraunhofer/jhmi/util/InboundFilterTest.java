@@ -0,0 +1,80 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fraunhofer.jhmi.user_interface.IMqttReceiver;
+import org.junit.Test;
+
+/**
+ * Tests of the suppression of received messages without new information.
+ */
+public class InboundFilterTest {
+
+	@Test
+	public void unchangedMessagesAreDroppedPerTopic() {
+		InboundFilter filter = new InboundFilter();
+		assertTrue(filter.accept("homey/lamp/onoff", "true"));
+		assertTrue(filter.accept("homey/lamp/onoff", "true"));
+
+		filter.setDropUnchanged(true);
+		assertTrue(filter.accept("homey/lamp/onoff", "true"));
+		assertFalse(filter.accept("homey/lamp/onoff", "true"));
+		assertTrue(filter.accept("homey/other/onoff", "true"));
+		assertTrue(filter.accept("homey/lamp/onoff", "false"));
+		assertTrue(filter.accept("homey/lamp/onoff", "true"));
+
+		filter.reset();
+		assertTrue(filter.accept("homey/lamp/onoff", "true"));
+	}
+
+	@Test
+	public void messagesWithinTheMinimumIntervalAreDropped() throws InterruptedException {
+		InboundFilter filter = new InboundFilter();
+		filter.setMinInterval(200);
+		assertTrue(filter.accept("homey/meter/measure_power", "100"));
+		assertFalse(filter.accept("homey/meter/measure_power", "200"));
+		assertTrue(filter.accept("homey/other/measure_power", "200"));
+
+		// a dropped message does not restart the interval
+		Thread.sleep(250);
+		assertTrue(filter.accept("homey/meter/measure_power", "300"));
+		assertFalse(filter.accept("homey/meter/measure_power", "400"));
+	}
+
+	@Test
+	public void deadbandOnlyAppliesToNumbers() {
+		InboundFilter filter = new InboundFilter();
+		filter.setDeadband(1.0);
+		assertTrue(filter.accept("homey/thermostat/measure_temperature", "20.0"));
+		assertFalse(filter.accept("homey/thermostat/measure_temperature", "20.5"));
+		assertFalse(filter.accept("homey/thermostat/measure_temperature", "19.1"));
+		// the difference is measured to the last accepted value, not to the dropped ones
+		assertTrue(filter.accept("homey/thermostat/measure_temperature", "21.0"));
+		assertFalse(filter.accept("homey/thermostat/measure_temperature", "20.5"));
+
+		// contents that are not numbers always pass, also the repeated ones
+		assertTrue(filter.accept("homey/thermostat/mode", "heat"));
+		assertTrue(filter.accept("homey/thermostat/mode", "heat"));
+		assertTrue(filter.accept("homey/thermostat/measure_temperature", "unknown"));
+		assertTrue(filter.accept("homey/thermostat/measure_temperature", "21.2"));
+	}
+
+	@Test
+	public void wrappedReceiverOnlyGetsAcceptedMessages() {
+		InboundFilter filter = new InboundFilter();
+		filter.setDropUnchanged(true);
+		List<String> received = new ArrayList<>();
+		IMqttReceiver receiver = filter.wrap((topic, messageString, messageId) -> received.add(messageString));
+		receiver.messageReceived("homey/lamp/dim", "0.5", 1);
+		receiver.messageReceived("homey/lamp/dim", "0.5", 2);
+		receiver.messageReceived("homey/lamp/dim", "0.7", 3);
+		assertEquals(Arrays.asList("0.5", "0.7"), received);
+	}
+
+}
@@ -0,0 +1,187 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the journal of outgoing messages.
+ */
+public class OutboundJournalTest {
+
+	private File directory;
+	/**
+	 * The copy of the journal directory that a test takes while the journal is open, which is what a crashed process leaves behind.
+	 */
+	private File crashed;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("journal").toFile();
+		crashed = Files.createTempDirectory("journal-crashed").toFile();
+	}
+
+	@After
+	public void deleteDirectory() {
+		delete(directory);
+		delete(crashed);
+	}
+
+	@Test
+	public void directoryIsLockedWhileTheJournalIsOpen() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 4096);
+		try {
+			new OutboundJournal(directory, 4096);
+			fail("a second journal opened the locked directory");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("used by another client"));
+		}
+		journal.close();
+
+		OutboundJournal reopened = new OutboundJournal(directory, 4096);
+		assertEquals(0, reopened.getPendingCount());
+		reopened.close();
+	}
+
+	@Test
+	public void crashInTheMiddleOfASegmentRecoversTheUnacknowledgedMessages() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 4096);
+		long first = journal.append("lamp/set", bytes("on"), 1, false);
+		journal.append("lamp/set", bytes("off"), 1, false);
+		long last = journal.append("heater/set", bytes("21"), 2, true);
+		journal.acknowledge(first);
+		assertTrue(journal.awaitDurable(last));
+		crash();
+		journal.close();
+
+		OutboundJournal recovered = new OutboundJournal(crashed, 4096);
+		List<OutboundJournal.Entry> messages = recovered.getRecoveredMessages();
+		assertEquals(2, messages.size());
+		assertEquals("lamp/set", messages.get(0).getTopic());
+		assertArrayEquals(bytes("off"), messages.get(0).getPayload());
+		assertEquals("heater/set", messages.get(1).getTopic());
+		assertEquals(2, messages.get(1).getQos());
+		assertTrue(messages.get(1).isRetained());
+		assertTrue(recovered.append("lamp/set", bytes("on"), 1, false) > last);
+		recovered.close();
+	}
+
+	@Test
+	public void tornRecordEndsTheRecovery() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 4096);
+		journal.append("a", bytes("1"), 1, false);
+		long torn = journal.append("b", bytes("2"), 1, false);
+		assertTrue(journal.awaitDurable(torn));
+		crash();
+		journal.close();
+
+		// a record with a one byte topic and payload has 8 bytes of header and 21 bytes of body, flip the last byte of the second one
+		try (RandomAccessFile segment = new RandomAccessFile(segmentFiles(crashed).get(0), "rw")) {
+			segment.seek(2 * 29 - 1);
+			int value = segment.read();
+			segment.seek(2 * 29 - 1);
+			segment.write(value ^ 0xFF);
+		}
+
+		OutboundJournal recovered = new OutboundJournal(crashed, 4096);
+		List<OutboundJournal.Entry> messages = recovered.getRecoveredMessages();
+		assertEquals(1, messages.size());
+		assertEquals("a", messages.get(0).getTopic());
+		recovered.close();
+	}
+
+	@Test
+	public void segmentsAreOnlyDeletedAfterTheOlderSegments() throws IOException {
+		// a message with a 200 byte payload takes 228 bytes, so 4 of them fill a segment of 1024 bytes
+		OutboundJournal journal = new OutboundJournal(directory, 1024);
+		long[] sequences = new long[12];
+		for(int i = 0; i < sequences.length; i++) {
+			sequences[i] = journal.append("t", new byte[200], 1, false);
+		}
+		List<File> segments = segmentFiles(directory);
+		assertEquals(3, segments.size());
+		for(int i = 4; i < 8; i++) {
+			journal.acknowledge(sequences[i]);
+		}
+		assertEquals("the second segment was deleted before the first one", segments, segmentFiles(directory));
+		journal.close();
+
+		OutboundJournal reopened = new OutboundJournal(directory, 1024);
+		List<Long> recovered = new ArrayList<>();
+		for(OutboundJournal.Entry entry: reopened.getRecoveredMessages()) {
+			recovered.add(entry.getSequence());
+		}
+		assertEquals(Arrays.asList(sequences[0], sequences[1], sequences[2], sequences[3], sequences[8], sequences[9], sequences[10], sequences[11]), recovered);
+		for(int i = 0; i < 4; i++) {
+			reopened.acknowledge(sequences[i]);
+		}
+		assertFalse(segments.get(0).exists());
+		assertFalse(segments.get(1).exists());
+		assertTrue(segments.get(2).exists());
+		reopened.close();
+	}
+
+	@Test
+	public void deferredMessagesStayPendingUntilTheyAreAcknowledged() throws IOException {
+		OutboundJournal journal = new OutboundJournal(directory, 4096);
+		long sent = journal.append("lamp/set", bytes("on"), 1, false);
+		long failed = journal.append("lamp/set", bytes("off"), 1, false);
+		journal.acknowledge(sent);
+		journal.defer(failed, "lamp/set", bytes("off"), 1, false);
+		journal.defer(sent, "lamp/set", bytes("on"), 1, false);
+
+		List<OutboundJournal.Entry> pending = journal.getPendingMessages();
+		assertEquals(1, pending.size());
+		assertEquals(failed, pending.get(0).getSequence());
+		assertArrayEquals(bytes("off"), pending.get(0).getPayload());
+
+		journal.acknowledge(failed);
+		assertTrue(journal.getPendingMessages().isEmpty());
+		journal.close();
+	}
+
+	/**
+	 * Copies the segments of the open journal, like a process that ended without closing the journal.
+	 */
+	private void crash() throws IOException {
+		for(File segment: segmentFiles(directory)) {
+			Files.copy(segment.toPath(), new File(crashed, segment.getName()).toPath());
+		}
+	}
+
+	private static List<File> segmentFiles(File directory) {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file: files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+/**
+ * Tests of the rate limit of outgoing messages.
+ */
+public class OutboundShaperTest {
+
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+
+	@Test
+	public void burstIsSentAtOnceAndTheRestIsHeldBack() {
+		OutboundShaper shaper = new OutboundShaper(0.001, 2);
+		assertEquals(ClientInterface.SUCCESS, shaper.submit("a", send("a1")));
+		assertEquals(ClientInterface.SUCCESS, shaper.submit("b", send("b1")));
+		assertEquals(OutboundShaper.QUEUED, shaper.submit("c", send("c1")));
+		assertEquals(1, shaper.getPendingCount());
+		assertEquals(Arrays.asList("a1", "b1"), sent);
+	}
+
+	@Test
+	public void onlyTheNewestHeldBackMessageOfAKeyIsSent() throws InterruptedException {
+		OutboundShaper shaper = new OutboundShaper(10, 1);
+		shaper.submit("dimmer", send("10"));
+		assertEquals(OutboundShaper.QUEUED, shaper.submit("dimmer", send("20")));
+		assertEquals(OutboundShaper.QUEUED, shaper.submit("lamp", send("on")));
+		assertEquals(OutboundShaper.QUEUED, shaper.submit("dimmer", send("30")));
+		awaitSent(3);
+		assertEquals(Arrays.asList("10", "30", "on"), sent);
+	}
+
+	@Test
+	public void newMessageDoesNotOvertakeADrainedMessageOfTheSameKey() throws InterruptedException {
+		OutboundShaper shaper = new OutboundShaper(20, 1);
+		CountDownLatch draining = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		shaper.submit("dimmer", send("10"));
+		shaper.submit("dimmer", () -> {
+			draining.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return send("20").get();
+		});
+		assertTrue(draining.await(5, TimeUnit.SECONDS));
+		// wait until the bucket has a token again, so only the running drain can hold the next message back
+		Thread.sleep(100);
+		assertEquals(OutboundShaper.QUEUED, shaper.submit("dimmer", send("30")));
+		release.countDown();
+		awaitSent(3);
+		assertEquals(Arrays.asList("10", "20", "30"), sent);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rateMustBePositive() {
+		new OutboundShaper(0, 1);
+	}
+
+	private Supplier<String> send(String value) {
+		return () -> {
+			sent.add(value);
+			return ClientInterface.SUCCESS;
+		};
+	}
+
+	private void awaitSent(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(sent.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, sent.size());
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of the assignment of inflight slots by priority.
+ */
+public class PriorityGateTest {
+
+	@Test
+	public void slotsAreReservedForTheHigherClasses() {
+		// 10 slots reserve 2 slots per class, so LOW may fill 6 and NORMAL 8
+		PriorityGate gate = new PriorityGate(10);
+		assertEquals(6, acquireAll(gate, MessagePriority.LOW));
+		assertEquals(2, acquireAll(gate, MessagePriority.NORMAL));
+		assertEquals(2, acquireAll(gate, MessagePriority.HIGH));
+		assertEquals(10, gate.getInUse());
+
+		gate.release();
+		assertFalse(gate.tryAcquire(MessagePriority.LOW));
+		assertFalse(gate.tryAcquire(MessagePriority.NORMAL));
+		assertTrue(gate.tryAcquire(MessagePriority.HIGH));
+	}
+
+	@Test
+	public void waitingMessageIsGrantedAfterBeingPassedOverTooOften() throws Exception {
+		// 5 slots reserve 1 slot per class, so LOW may fill 3
+		PriorityGate gate = new PriorityGate(5);
+		assertEquals(3, acquireAll(gate, MessagePriority.LOW));
+		Thread waiting = startAcquire(gate, MessagePriority.LOW);
+
+		// every HIGH message that takes a slot while the LOW message waits passes it over
+		for(int i = 1; i < 8; i++) {
+			assertTrue(gate.tryAcquire(MessagePriority.HIGH));
+			gate.release();
+			assertTrue("granted after " + i + " bypasses", waiting.isAlive());
+			assertEquals(3, gate.getInUse());
+		}
+		assertTrue(gate.tryAcquire(MessagePriority.HIGH));
+		gate.release();
+
+		waiting.join(TimeUnit.SECONDS.toMillis(5));
+		assertFalse(waiting.isAlive());
+		assertEquals(4, gate.getInUse());
+	}
+
+	@Test
+	public void capacityChangesApplyToWaitingAndNewMessages() throws Exception {
+		PriorityGate gate = new PriorityGate(2);
+		assertEquals(2, acquireAll(gate, MessagePriority.HIGH));
+		Thread waiting = startAcquire(gate, MessagePriority.HIGH);
+
+		gate.setCapacity(3);
+		waiting.join(TimeUnit.SECONDS.toMillis(5));
+		assertFalse(waiting.isAlive());
+		assertEquals(3, gate.getInUse());
+
+		// slots in use beyond a reduced capacity are kept until they are released
+		gate.setCapacity(1);
+		assertEquals(3, gate.getInUse());
+		gate.release();
+		gate.release();
+		assertFalse(gate.tryAcquire(MessagePriority.HIGH));
+		gate.release();
+		assertTrue(gate.tryAcquire(MessagePriority.HIGH));
+		gate.release();
+
+		gate.setCapacity(10);
+		assertEquals(6, acquireAll(gate, MessagePriority.LOW));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityMustBePositive() {
+		new PriorityGate(1).setCapacity(0);
+	}
+
+	private static int acquireAll(PriorityGate gate, MessagePriority priority) {
+		int acquired = 0;
+		while(gate.tryAcquire(priority)) {
+			acquired++;
+		}
+		return acquired;
+	}
+
+	/**
+	 * Starts a thread that waits in acquire and returns once it is waiting for a slot.
+	 */
+	private static Thread startAcquire(PriorityGate gate, MessagePriority priority) throws InterruptedException {
+		Thread thread = new Thread(() -> {
+			try {
+				gate.acquire(priority);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.start();
+		while(thread.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+		return thread;
+	}
+
+}
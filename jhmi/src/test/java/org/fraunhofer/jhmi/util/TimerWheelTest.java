@@ -0,0 +1,131 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the periodic schedules of the TimerWheel.
+ * The ticks are an hour long, so the thread of the wheel never ticks during a test and the test drives the wheel itself.
+ */
+public class TimerWheelTest {
+
+	private static final long TICK_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * The keys handed to the handler in each call, with the tick of the call.
+	 */
+	private final List<Due> dues = new ArrayList<>();
+	private int ticks;
+	private final TimerWheel wheel = new TimerWheel(TICK_MILLIS, 512, keys -> dues.add(new Due(ticks, keys)));
+
+	@After
+	public void stopWheel() {
+		wheel.stop();
+	}
+
+	@Test
+	public void delaysLongerThanTheWheelWrapAround() {
+		wheel.schedule("full", 512 * TICK_MILLIS, 0);
+		wheel.schedule("late", 600 * TICK_MILLIS, 0);
+		wheel.schedule("twice", 1024 * TICK_MILLIS, 0);
+		tick(1200);
+
+		assertEquals(Arrays.asList(512, 1024), ticksOf("full"));
+		assertEquals(Arrays.asList(600, 1200), ticksOf("late"));
+		assertEquals(Arrays.asList(1024), ticksOf("twice"));
+	}
+
+	@Test
+	public void occurrencesStayWithinTheJitter() {
+		wheel.schedule("jittery", 100 * TICK_MILLIS, 10 * TICK_MILLIS);
+		tick(100 * 110);
+
+		List<Integer> occurrences = ticksOf("jittery");
+		assertTrue(occurrences.size() >= 100);
+		Set<Integer> intervals = new HashSet<>();
+		int previous = 0;
+		for(int tick: occurrences) {
+			int interval = tick - previous;
+			assertTrue("interval of " + interval + " ticks", interval >= 90 && interval <= 110);
+			intervals.add(interval);
+			previous = tick;
+		}
+		assertTrue(intervals.size() > 1);
+	}
+
+	@Test
+	public void cancelledSchedulesAreNoLongerDue() {
+		long cancelled = wheel.schedule("cancelled", 10 * TICK_MILLIS, 0);
+		wheel.schedule("kept", 10 * TICK_MILLIS, 0);
+		tick(10);
+		assertTrue(wheel.cancel(cancelled));
+		assertFalse(wheel.cancel(cancelled));
+		tick(20);
+
+		assertEquals(Arrays.asList(10), ticksOf("cancelled"));
+		assertEquals(Arrays.asList(10, 20, 30), ticksOf("kept"));
+
+		// the cancelled schedule is reused, its old id must not cancel the new schedule
+		wheel.schedule("reused", 10 * TICK_MILLIS, 0);
+		assertFalse(wheel.cancel(cancelled));
+		tick(10);
+		assertEquals(Arrays.asList(40), ticksOf("reused"));
+	}
+
+	@Test
+	public void keysDueInTheSameTickAreHandedOverTogether() {
+		wheel.schedule("a", 5 * TICK_MILLIS, 0);
+		wheel.schedule("b", 5 * TICK_MILLIS, 0);
+		wheel.schedule("c", 5 * TICK_MILLIS, 0);
+		wheel.schedule("d", 7 * TICK_MILLIS, 0);
+		tick(7);
+
+		assertEquals(2, dues.size());
+		assertEquals(5, dues.get(0).tick);
+		assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), new HashSet<>(dues.get(0).keys));
+		assertEquals(3, dues.get(0).keys.size());
+		assertEquals(7, dues.get(1).tick);
+		assertEquals(Arrays.asList("d"), dues.get(1).keys);
+	}
+
+	private void tick(int count) {
+		for(int i = 0; i < count; i++) {
+			ticks++;
+			wheel.tick();
+		}
+	}
+
+	private List<Integer> ticksOf(String key) {
+		List<Integer> result = new ArrayList<>();
+		for(Due due: dues) {
+			if(due.keys.contains(key)) {
+				result.add(due.tick);
+			}
+		}
+		return result;
+	}
+
+	private static final class Due {
+
+		private final int tick;
+		private final List<String> keys;
+
+		private Due(int tick, List<String> keys) {
+			this.tick = tick;
+			this.keys = keys;
+		}
+
+	}
+
+}
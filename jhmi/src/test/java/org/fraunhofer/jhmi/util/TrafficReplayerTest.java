@@ -0,0 +1,43 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of replaying a recording.
+ */
+public class TrafficReplayerTest {
+
+	@Test
+	public void replayStartsAtTheFirstMessage() throws IOException, InterruptedException {
+		File file = File.createTempFile("traffic", ".rec");
+		try {
+			TrafficRecorder recorder = new TrafficRecorder(file);
+			// the recorder waits for the first message, which must not delay the replay
+			Thread.sleep(1000);
+			recorder.record("lamp/state", "on".getBytes(StandardCharsets.UTF_8), 1, false);
+			recorder.record("lamp/state", "off".getBytes(StandardCharsets.UTF_8), 2, false);
+			recorder.close();
+
+			List<String> received = new ArrayList<>();
+			TrafficReplayer replayer = new TrafficReplayer(file);
+			replayer.addReceiver("lamp/#", (topic, messageString, messageId) -> received.add(messageString));
+			assertEquals(2, replayer.replay(1));
+			assertEquals(List.of("on", "off"), received);
+			assertTrue("the replay waited for the time before the first message",
+					replayer.getLastReplayNanos() < TimeUnit.MILLISECONDS.toNanos(500));
+		} finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.fraunhofer.jhmi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of the windows and functions of the WindowedAggregation.
+ * The aggregations use a clock of the test, so the windows only roll over when the test moves the time forward.
+ */
+public class WindowedAggregationTest {
+
+	private long nowMillis;
+
+	@Test
+	public void tumblingWindowOnlyCombinesTheValuesOfItsPeriod() {
+		WindowedAggregation sum = aggregation(AggregationWindow.tumbling(100), AggregateFunction.SUM);
+		List<Double> results = new ArrayList<>();
+		sum.setResultListener(results::add);
+		addAt(sum, 10, 1);
+		addAt(sum, 50, 2);
+		addAt(sum, 99, 3);
+		emitAt(sum, 100);
+		assertEquals(6, sum.getValue(), 0);
+
+		addAt(sum, 150, 4);
+		emitAt(sum, 200);
+		assertEquals(4, sum.getValue(), 0);
+
+		// the pane of the third period reuses the slot of the first one
+		addAt(sum, 250, 5);
+		emitAt(sum, 300);
+		emitAt(sum, 400);
+		assertEquals(Arrays.asList(6.0, 4.0, 5.0, 0.0), results);
+	}
+
+	@Test
+	public void slidingWindowCombinesTheLastPanes() {
+		WindowedAggregation average = aggregation(AggregationWindow.sliding(300, 100), AggregateFunction.AVG);
+		addAt(average, 0, 10);
+		addAt(average, 90, 20);
+		addAt(average, 120, 30);
+		addAt(average, 350, 60);
+
+		emitAt(average, 300);
+		assertEquals(20, average.getValue(), 0);
+		emitAt(average, 400);
+		assertEquals(45, average.getValue(), 0);
+		emitAt(average, 500);
+		assertEquals(60, average.getValue(), 0);
+		emitAt(average, 700);
+		assertTrue(Double.isNaN(average.getValue()));
+	}
+
+	@Test
+	public void functionsCombineAllSamplesOfTheWindow() {
+		List<WindowedAggregation> aggregations = new ArrayList<>();
+		for(AggregateFunction function: AggregateFunction.values()) {
+			aggregations.add(aggregation(AggregationWindow.tumbling(100), function));
+		}
+		for(WindowedAggregation aggregation: aggregations) {
+			// "true" counts as 1 and "false" as 0, other contents are ignored, repeated values are samples of their own
+			for(String content: new String[] {"true", "false", "5", "5", "on", "-2.5"}) {
+				nowMillis = 10;
+				aggregation.add(content);
+			}
+			emitAt(aggregation, 100);
+		}
+
+		assertEquals(8.5, valueOf(aggregations, AggregateFunction.SUM), 0);
+		assertEquals(1.7, valueOf(aggregations, AggregateFunction.AVG), 1e-9);
+		assertEquals(-2.5, valueOf(aggregations, AggregateFunction.MIN), 0);
+		assertEquals(5, valueOf(aggregations, AggregateFunction.MAX), 0);
+		assertEquals(5, valueOf(aggregations, AggregateFunction.COUNT), 0);
+	}
+
+	@Test
+	public void devicesAndCapabilityDecideTheGroup() {
+		WindowedAggregation aggregation = new WindowedAggregation("power", Arrays.asList("meter", "plug"), "measure_power",
+				AggregationWindow.tumbling(100), AggregateFunction.SUM);
+		assertTrue(aggregation.accepts("meter", "homey/meter/measure_power", "measure_power"));
+		assertFalse(aggregation.accepts("lamp", "homey/lamp/measure_power", "measure_power"));
+		assertFalse(aggregation.accepts("meter", "homey/meter/onoff", "onoff"));
+
+		WindowedAggregation byTopic = aggregation(AggregationWindow.tumbling(100), AggregateFunction.SUM);
+		assertTrue(byTopic.accepts("lamp", "homey/lamp/measure_power", "measure_power"));
+		assertFalse(byTopic.accepts("lamp", "homey/lamp/onoff", "onoff"));
+	}
+
+	private WindowedAggregation aggregation(AggregationWindow window, AggregateFunction function) {
+		return new WindowedAggregation(function.name(), "homey/+/measure_power", window, function,
+				() -> TimeUnit.MILLISECONDS.toNanos(nowMillis));
+	}
+
+	private void addAt(WindowedAggregation aggregation, long millis, double number) {
+		nowMillis = millis;
+		aggregation.add(number);
+	}
+
+	private void emitAt(WindowedAggregation aggregation, long millis) {
+		nowMillis = millis;
+		aggregation.emit();
+	}
+
+	private static double valueOf(List<WindowedAggregation> aggregations, AggregateFunction function) {
+		for(WindowedAggregation aggregation: aggregations) {
+			if(aggregation.getFunction() == function) {
+				return aggregation.getValue();
+			}
+		}
+		throw new IllegalArgumentException("no aggregation with " + function);
+	}
+
+}